@@ -0,0 +1,40 @@
+package com.refugio.JPA;
+
+import jakarta.persistence.*;
+
+import java.time.Instant;
+
+// Cambios auditados de una transacción pendientes de escribir en las tablas de Envers (modo de auditoría diferida).
+// Se inserta una fila por transacción de negocio y el escritor la convierte en una revisión y la borra.
+@Entity
+@Table(name = "auditoria_pendiente")
+public class AuditoriaPendiente {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Momento del commit original: será la fecha de la revisión
+    @Column(nullable = false)
+    private Instant fecha;
+
+    @Column(nullable = false)
+    private Integer numeroCambios;
+
+    // Lista JSON de cambios (entidad, id, tipo y estado de las propiedades)
+    @Lob
+    @Column(nullable = false)
+    private String cambios;
+
+    // Getters y Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Instant getFecha() { return fecha; }
+    public void setFecha(Instant fecha) { this.fecha = fecha; }
+
+    public Integer getNumeroCambios() { return numeroCambios; }
+    public void setNumeroCambios(Integer numeroCambios) { this.numeroCambios = numeroCambios; }
+
+    public String getCambios() { return cambios; }
+    public void setCambios(String cambios) { this.cambios = cambios; }
+}
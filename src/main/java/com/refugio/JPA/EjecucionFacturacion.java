@@ -0,0 +1,93 @@
+package com.refugio.JPA;
+
+import jakarta.persistence.*;
+import org.hibernate.annotations.Formula;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+// Diario de ejecuciones del proceso de renovación/facturación (no auditado)
+@Entity
+@Table(name = "ejecuciones_facturacion",
+        indexes = {
+                @Index(name = "idx_ejec_estado_corte", columnList = "estado, fechaCorte")
+        }
+)
+public class EjecucionFacturacion {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private EstadoEjecucion estado; // EN_CURSO, COMPLETADA, FALLIDA, INTERRUMPIDA
+
+    @Column(nullable = false)
+    private LocalDate fechaCorte;
+
+    @Column(nullable = false)
+    private Integer particiones;
+
+    @Column(nullable = false)
+    private LocalDateTime inicio;
+
+    private LocalDateTime fin;
+
+    // Contadores: suma de los de sus particiones al leer la ejecución (los workers no comparten esta fila)
+    @Formula("(SELECT COALESCE(SUM(p.renovadas), 0) FROM ejecuciones_facturacion_particiones p " +
+            "WHERE p.ejecucion_id = id)")
+    private Long renovadas = 0L;
+
+    @Formula("(SELECT COALESCE(SUM(p.fallidas), 0) FROM ejecuciones_facturacion_particiones p " +
+            "WHERE p.ejecucion_id = id)")
+    private Long fallidas = 0L;
+
+    @Formula("(SELECT COALESCE(SUM(p.lotes), 0) FROM ejecuciones_facturacion_particiones p " +
+            "WHERE p.ejecucion_id = id)")
+    private Integer lotes = 0;
+
+    private Integer reanudaciones = 0;
+
+    public enum EstadoEjecucion { EN_CURSO, COMPLETADA, FALLIDA, INTERRUMPIDA }
+
+    // Duración total (hasta ahora si sigue en curso)
+    public long getDuracionMs() {
+        LocalDateTime hasta = fin != null ? fin : LocalDateTime.now();
+        return Duration.between(inicio, hasta).toMillis();
+    }
+
+    // Suscripciones procesadas por segundo
+    public long getRendimiento() {
+        long duracion = getDuracionMs();
+        return duracion > 0 ? (renovadas + fallidas) * 1000 / duracion : 0;
+    }
+
+    // Getters y Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public EstadoEjecucion getEstado() { return estado; }
+    public void setEstado(EstadoEjecucion estado) { this.estado = estado; }
+
+    public LocalDate getFechaCorte() { return fechaCorte; }
+    public void setFechaCorte(LocalDate fechaCorte) { this.fechaCorte = fechaCorte; }
+
+    public Integer getParticiones() { return particiones; }
+    public void setParticiones(Integer particiones) { this.particiones = particiones; }
+
+    public LocalDateTime getInicio() { return inicio; }
+    public void setInicio(LocalDateTime inicio) { this.inicio = inicio; }
+
+    public LocalDateTime getFin() { return fin; }
+    public void setFin(LocalDateTime fin) { this.fin = fin; }
+
+    public Long getRenovadas() { return renovadas; }
+
+    public Long getFallidas() { return fallidas; }
+
+    public Integer getLotes() { return lotes; }
+
+    public Integer getReanudaciones() { return reanudaciones; }
+    public void setReanudaciones(Integer reanudaciones) { this.reanudaciones = reanudaciones; }
+}
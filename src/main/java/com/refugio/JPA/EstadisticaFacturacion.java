@@ -0,0 +1,70 @@
+package com.refugio.JPA;
+
+import jakarta.persistence.*;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+// Agregado de facturación por estado (número de facturas, total e impuestos), mantenido por deltas (no auditado).
+// Cada estado se reparte en varias ranuras: cada hilo suma sus deltas en la suya, así que las transacciones de
+// workers distintos no esperan por el bloqueo de una única fila; el valor del estado es la suma de sus ranuras.
+@Entity
+@Table(name = "estadisticas_facturacion",
+        uniqueConstraints = {
+                @UniqueConstraint(name = "uk_estadistica_ranura", columnNames = {"estado", "ranura"})
+        }
+)
+public class EstadisticaFacturacion {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Factura.EstadoFactura estado;
+
+    @Column(nullable = false)
+    private Integer ranura;
+
+    @Column(nullable = false)
+    private Long numeroFacturas = 0L;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal importeTotal = BigDecimal.ZERO;
+
+    @Column(nullable = false, precision = 19, scale = 2)
+    private BigDecimal importeImpuesto = BigDecimal.ZERO;
+
+    // Última reconciliación completa contra la tabla de facturas
+    private LocalDateTime reconciliadaEn;
+
+    public EstadisticaFacturacion() {
+    }
+
+    public EstadisticaFacturacion(Factura.EstadoFactura estado, int ranura) {
+        this.estado = estado;
+        this.ranura = ranura;
+    }
+
+    // Getters y Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public Factura.EstadoFactura getEstado() { return estado; }
+    public void setEstado(Factura.EstadoFactura estado) { this.estado = estado; }
+
+    public Integer getRanura() { return ranura; }
+    public void setRanura(Integer ranura) { this.ranura = ranura; }
+
+    public Long getNumeroFacturas() { return numeroFacturas; }
+    public void setNumeroFacturas(Long numeroFacturas) { this.numeroFacturas = numeroFacturas; }
+
+    public BigDecimal getImporteTotal() { return importeTotal; }
+    public void setImporteTotal(BigDecimal importeTotal) { this.importeTotal = importeTotal; }
+
+    public BigDecimal getImporteImpuesto() { return importeImpuesto; }
+    public void setImporteImpuesto(BigDecimal importeImpuesto) { this.importeImpuesto = importeImpuesto; }
+
+    public LocalDateTime getReconciliadaEn() { return reconciliadaEn; }
+    public void setReconciliadaEn(LocalDateTime reconciliadaEn) { this.reconciliadaEn = reconciliadaEn; }
+}
@@ -1,26 +1,49 @@
 package com.refugio.JPA;
 
+import com.refugio.config.SecuenciaAgrupadaGenerator;
 import jakarta.persistence.*;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.hibernate.envers.Audited;
+import org.hibernate.envers.NotAudited;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 
 @Entity
-@Audited
+@Audited(withModifiedFlag = true)
+// H2 solo usa un índice para ORDER BY en el sentido en que está definido. (estado, fechaEmision, id) va en los dos
+// porque pendientes avanza en ascendente y el listado filtrado por estado en descendente; (fechaEmision, id) solo
+// en descendente: la página anterior del listado (ascendente) lee pocas filas desde el cursor y no lo necesita.
 @Table(name = "facturas",
         indexes = {
-                @Index(name = "idx_fact_sus_fecha", columnList = "suscripcion_id, fechaEmision")
+                @Index(name = "idx_fact_sus_fecha", columnList = "suscripcion_id, fechaEmision"),
+                @Index(name = "idx_fact_pais_estado", columnList = "paisImpuesto, estado, fechaEmision"),
+                @Index(name = "idx_fact_estado_fecha", columnList = "estado, fechaEmision, id"),
+                @Index(name = "idx_fact_estado_fecha_desc", columnList = "estado DESC, fechaEmision DESC, id DESC"),
+                @Index(name = "idx_fact_fecha_id_desc", columnList = "fechaEmision DESC, id DESC"),
+                @Index(name = "idx_fact_total", columnList = "importeTotal"),
+                @Index(name = "idx_fact_usuario_fecha", columnList = "usuario_id, fechaEmision DESC, id DESC")
         }
 )
 public class Factura {
-    @Id @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Id
+    @GeneratedValue(generator = "facturas_seq")
+    @GenericGenerator(name = "facturas_seq", type = SecuenciaAgrupadaGenerator.class,
+            parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "facturas_seq"))
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "suscripcion_id", nullable = false)
     private Suscripcion suscripcion;
 
+    // Titular de la suscripción copiado en la factura: el historial de un usuario se lee por índice sin
+    // pasar por suscripciones. Se rellena al insertar y se reasigna si la suscripción cambia de titular.
+    @NotAudited
+    @Column(name = "usuario_id", nullable = false)
+    private Long usuarioId;
+
     @Column(nullable = false)
     private LocalDate fechaEmision;
 
@@ -43,11 +66,21 @@ public class Factura {
     @Column(nullable = false)
     private EstadoFactura estado; // EMITIDA, PAGADA, ANULADA
 
+    // Sin auditar en el lado inverso (como Usuario.perfil): los pagos quedan en pagos_AUD
+    @NotAudited
     @OneToOne(mappedBy = "factura", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
     private Pago pago;
 
     public enum EstadoFactura { EMITIDA, PAGADA, ANULADA }
 
+    // Copia el titular de la suscripción antes de insertar
+    @PrePersist
+    void copiarUsuario() {
+        if (usuarioId == null && suscripcion != null && suscripcion.getUsuario() != null) {
+            usuarioId = suscripcion.getUsuario().getId();
+        }
+    }
+
     // Getters y Setters
     public Long getId() { return id; }
     public void setId(Long id) { this.id = id; }
@@ -55,6 +88,9 @@ public class Factura {
     public Suscripcion getSuscripcion() { return suscripcion; }
     public void setSuscripcion(Suscripcion suscripcion) { this.suscripcion = suscripcion; }
 
+    public Long getUsuarioId() { return usuarioId; }
+    public void setUsuarioId(Long usuarioId) { this.usuarioId = usuarioId; }
+
     public LocalDate getFechaEmision() { return fechaEmision; }
     public void setFechaEmision(LocalDate fechaEmision) { this.fechaEmision = fechaEmision; }
 
@@ -1,18 +1,24 @@
 package com.refugio.JPA;
 
+import com.refugio.config.SecuenciaAgrupadaGenerator;
 import jakarta.persistence.*;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.hibernate.envers.Audited;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 
 @Entity
-@Audited
+@Audited(withModifiedFlag = true)
 @Inheritance(strategy = InheritanceType.JOINED)
 @Table(name = "pagos")
 public abstract class Pago {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "pagos_seq")
+    @GenericGenerator(name = "pagos_seq", type = SecuenciaAgrupadaGenerator.class,
+            parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "pagos_seq"))
     private Long id;
 
     @OneToOne(fetch = FetchType.LAZY)
@@ -5,9 +5,16 @@ import jakarta.persistence.Table;
 import org.hibernate.envers.Audited;
 
 @Entity
-@Audited
+@Audited(withModifiedFlag = true)
 @Table(name = "pagos_paypal")
 public class PagoPaypal extends Pago {
     private String paypalEmail;
     private String transaccionId;
+
+    // Getters y Setters
+    public String getPaypalEmail() { return paypalEmail; }
+    public void setPaypalEmail(String paypalEmail) { this.paypalEmail = paypalEmail; }
+
+    public String getTransaccionId() { return transaccionId; }
+    public void setTransaccionId(String transaccionId) { this.transaccionId = transaccionId; }
 }
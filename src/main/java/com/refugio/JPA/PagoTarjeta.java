@@ -5,9 +5,16 @@ import jakarta.persistence.Table;
 import org.hibernate.envers.Audited;
 
 @Entity
-@Audited
+@Audited(withModifiedFlag = true)
 @Table(name = "pagos_tarjeta")
 public class PagoTarjeta extends Pago {
     private String ultimos4;
     private String marca;
+
+    // Getters y Setters
+    public String getUltimos4() { return ultimos4; }
+    public void setUltimos4(String ultimos4) { this.ultimos4 = ultimos4; }
+
+    public String getMarca() { return marca; }
+    public void setMarca(String marca) { this.marca = marca; }
 }
@@ -5,9 +5,16 @@ import jakarta.persistence.Table;
 import org.hibernate.envers.Audited;
 
 @Entity
-@Audited
+@Audited(withModifiedFlag = true)
 @Table(name = "pagos_transferencia")
 public class PagoTransferencia extends Pago {
     private String iban;
     private String referencia;
+
+    // Getters y Setters
+    public String getIban() { return iban; }
+    public void setIban(String iban) { this.iban = iban; }
+
+    public String getReferencia() { return referencia; }
+    public void setReferencia(String referencia) { this.referencia = referencia; }
 }
@@ -0,0 +1,64 @@
+package com.refugio.JPA;
+
+import jakarta.persistence.*;
+
+// Marca de agua (último id procesado) y contadores de una partición de una ejecución de facturación. Cada
+// partición la escribe un solo worker, así que sus lotes no esperan por el bloqueo de los demás.
+@Entity
+@Table(name = "ejecuciones_facturacion_particiones",
+        uniqueConstraints = {
+                @UniqueConstraint(name = "uk_ejec_particion", columnNames = {"ejecucion_id", "particion"})
+        }
+)
+public class ParticionEjecucion {
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "ejecucion_id", nullable = false)
+    private EjecucionFacturacion ejecucion;
+
+    @Column(nullable = false)
+    private Integer particion;
+
+    @Column(nullable = false)
+    private Long ultimoIdProcesado = 0L;
+
+    @Column(nullable = false)
+    private Boolean completada = false;
+
+    @Column(nullable = false)
+    private Long renovadas = 0L;
+
+    @Column(nullable = false)
+    private Long fallidas = 0L;
+
+    @Column(nullable = false)
+    private Integer lotes = 0;
+
+    // Getters y Setters
+    public Long getId() { return id; }
+    public void setId(Long id) { this.id = id; }
+
+    public EjecucionFacturacion getEjecucion() { return ejecucion; }
+    public void setEjecucion(EjecucionFacturacion ejecucion) { this.ejecucion = ejecucion; }
+
+    public Integer getParticion() { return particion; }
+    public void setParticion(Integer particion) { this.particion = particion; }
+
+    public Long getUltimoIdProcesado() { return ultimoIdProcesado; }
+    public void setUltimoIdProcesado(Long ultimoIdProcesado) { this.ultimoIdProcesado = ultimoIdProcesado; }
+
+    public Boolean getCompletada() { return completada; }
+    public void setCompletada(Boolean completada) { this.completada = completada; }
+
+    public Long getRenovadas() { return renovadas; }
+    public void setRenovadas(Long renovadas) { this.renovadas = renovadas; }
+
+    public Long getFallidas() { return fallidas; }
+    public void setFallidas(Long fallidas) { this.fallidas = fallidas; }
+
+    public Integer getLotes() { return lotes; }
+    public void setLotes(Integer lotes) { this.lotes = lotes; }
+}
@@ -1,14 +1,20 @@
 package com.refugio.JPA;
 
+import com.refugio.config.SecuenciaAgrupadaGenerator;
 import jakarta.persistence.*;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.hibernate.envers.Audited;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 
 @Entity
-@Audited
+@Audited(withModifiedFlag = true)
 @Table(name = "perfiles")
 public class Perfil {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "perfiles_seq")
+    @GenericGenerator(name = "perfiles_seq", type = SecuenciaAgrupadaGenerator.class,
+            parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "perfiles_seq"))
     private Long id;
 
     private String nombre;
@@ -1,14 +1,24 @@
 package com.refugio.JPA;
 
 import jakarta.persistence.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.envers.Audited;
 
 import java.math.BigDecimal;
 
+// Datos de referencia: pocas filas que casi nunca cambian, en la caché de segundo nivel.
+// READ_WRITE: las modificaciones hechas con Hibernate actualizan la entrada al confirmar.
 @Entity
-@Audited
+@Audited(withModifiedFlag = true)
 @Table(name = "planes")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = Plan.REGION_CACHE)
 public class Plan {
+    public static final String REGION_CACHE = "planes";
+    // Región propia de las consultas cacheadas de planes, para invalidarlas sin tocar las demás
+    public static final String REGION_CONSULTAS = "planes-consultas";
+
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
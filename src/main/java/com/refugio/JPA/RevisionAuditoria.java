@@ -0,0 +1,27 @@
+package com.refugio.JPA;
+
+import jakarta.persistence.*;
+import org.hibernate.envers.DefaultRevisionEntity;
+import org.hibernate.envers.ModifiedEntityNames;
+import org.hibernate.envers.RevisionEntity;
+
+import java.util.HashSet;
+import java.util.Set;
+
+// Revisión de Envers (REVINFO) con las entidades modificadas en cada una (REVCHANGES).
+// Los nombres se cargan bajo demanda: las consultas de historial traen la revisión en cada fila.
+@Entity
+@RevisionEntity
+@Table(name = "REVINFO")
+public class RevisionAuditoria extends DefaultRevisionEntity {
+
+    @ElementCollection(fetch = FetchType.LAZY)
+    @CollectionTable(name = "REVCHANGES", joinColumns = @JoinColumn(name = "REV"))
+    @Column(name = "ENTITYNAME")
+    @ModifiedEntityNames
+    private Set<String> modifiedEntityNames = new HashSet<>();
+
+    // Getters y Setters
+    public Set<String> getModifiedEntityNames() { return modifiedEntityNames; }
+    public void setModifiedEntityNames(Set<String> modifiedEntityNames) { this.modifiedEntityNames = modifiedEntityNames; }
+}
@@ -1,23 +1,31 @@
 package com.refugio.JPA;
 
+import com.refugio.config.SecuenciaAgrupadaGenerator;
 import jakarta.persistence.*;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.hibernate.envers.Audited;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 
 import java.time.LocalDate;
 import java.util.List;
 import java.util.ArrayList;
 
 @Entity
-@Audited
+@Audited(withModifiedFlag = true)
 @Table(name = "suscripciones",
         indexes = {
                 @Index(name = "idx_sus_usuario_estado", columnList = "usuario_id, estado"),
-                @Index(name = "idx_sus_fechas", columnList = "fechaInicio, fechaFin")
+                @Index(name = "idx_sus_fechas", columnList = "fechaInicio, fechaFin"),
+                @Index(name = "idx_sus_estado_renovacion", columnList = "estado, proximaRenovacion"),
+                @Index(name = "idx_sus_id_desc", columnList = "id DESC")
         }
 )
 public class Suscripcion {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "suscripciones_seq")
+    @GenericGenerator(name = "suscripciones_seq", type = SecuenciaAgrupadaGenerator.class,
+            parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "suscripciones_seq"))
     private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
@@ -42,6 +50,8 @@ public class Suscripcion {
 
     private LocalDate proximaRenovacion;
 
+    // Sin indicador _MOD: Envers lo calcula al borrar con la colección ya fuera de la sesión (y el diff no la usa)
+    @Audited(withModifiedFlag = false)
     @OneToMany(mappedBy = "suscripcion", fetch = FetchType.LAZY, cascade = CascadeType.ALL)
     private List<Factura> facturas = new ArrayList<>();
 
@@ -1,17 +1,24 @@
 package com.refugio.JPA;
 
+import com.refugio.config.SecuenciaAgrupadaGenerator;
 import jakarta.persistence.*;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 import org.hibernate.envers.Audited;
+import org.hibernate.envers.NotAudited;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
 
 import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Audited
+@Audited(withModifiedFlag = true)
 @Table(name = "usuarios")
 public class Usuario {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(generator = "usuarios_seq")
+    @GenericGenerator(name = "usuarios_seq", type = SecuenciaAgrupadaGenerator.class,
+            parameters = @Parameter(name = SequenceStyleGenerator.SEQUENCE_PARAM, value = "usuarios_seq"))
     private Long id;
 
     @Column(nullable = false, unique = true)
@@ -20,9 +27,14 @@ public class Usuario {
     @Column(nullable = false)
     private String passwordHash;
 
+    // Sin auditar en el lado inverso: Envers no puede cargar un one-to-one no propietario de forma perezosa y
+    // haría una consulta por revisión al leer el historial. Los cambios del perfil quedan en perfiles_AUD.
+    @NotAudited
     @OneToOne(mappedBy = "usuario", cascade = CascadeType.ALL, orphanRemoval = true, fetch = FetchType.LAZY)
     private Perfil perfil;
 
+    // Sin indicador _MOD: Envers lo calcula al borrar con la colección ya fuera de la sesión (y el diff no la usa)
+    @Audited(withModifiedFlag = false)
     @OneToMany(mappedBy = "usuario", fetch = FetchType.LAZY)
     private List<Suscripcion> suscripciones = new ArrayList<>();
 
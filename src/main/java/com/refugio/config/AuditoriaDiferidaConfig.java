@@ -0,0 +1,64 @@
+package com.refugio.config;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.jpa.boot.spi.JpaSettings;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Modo de auditoría diferida (refugio.auditoria.modo=diferida): Envers sigue leyendo el historial, pero sus
+// listeners no se registran y los cambios van a la cola auditoria_pendiente (ver AuditoriaDiferidaListener)
+@Configuration
+@ConditionalOnProperty(name = "refugio.auditoria.modo", havingValue = "diferida")
+public class AuditoriaDiferidaConfig {
+
+    @Bean
+    public HibernatePropertiesCustomizer auditoriaDiferidaCustomizer() {
+        return propiedades -> {
+            propiedades.put(EnversInterno.REGISTRO_AUTOMATICO, false);
+            propiedades.put(JpaSettings.INTEGRATOR_PROVIDER,
+                    (IntegratorProvider) () -> List.of(new AuditoriaDiferidaIntegrator()));
+        };
+    }
+
+    // Registra el listener de la cola en lugar de los de Envers y lo guarda por SessionFactory para los cambios en
+    // bloque (AuditoriaEnBloque), que no pasan por los eventos de Hibernate
+    static class AuditoriaDiferidaIntegrator implements Integrator {
+
+        private static final Map<SessionFactoryImplementor, AuditoriaDiferidaListener> colas =
+                new ConcurrentHashMap<>();
+
+        // Listener de la cola de la SessionFactory, o null si no usa la auditoría diferida
+        static AuditoriaDiferidaListener cola(SessionFactoryImplementor sessionFactory) {
+            return colas.get(sessionFactory);
+        }
+
+        @Override
+        public void integrate(Metadata metadata, BootstrapContext bootstrapContext,
+                              SessionFactoryImplementor sessionFactory) {
+            AuditoriaDiferidaListener listener = new AuditoriaDiferidaListener();
+            colas.put(sessionFactory, listener);
+            EventListenerRegistry registro = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+            registro.appendListeners(EventType.POST_INSERT, listener);
+            registro.appendListeners(EventType.POST_UPDATE, listener);
+            registro.appendListeners(EventType.POST_DELETE, listener);
+        }
+
+        @Override
+        public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+            colas.remove(sessionFactory);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.refugio.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.refugio.JPA.AuditoriaPendiente;
+import org.hibernate.Transaction;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.envers.RevisionType;
+import com.refugio.config.EnversInterno.UnidadAuditoria;
+import org.hibernate.event.spi.*;
+import org.hibernate.persister.entity.EntityPersister;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Auditoría diferida: sustituye a los listeners de Envers. En vez de escribir REVINFO, REVCHANGES y una fila _AUD
+// por entidad dentro de la transacción, guarda todos los cambios auditados de la transacción en una sola fila de
+// auditoria_pendiente justo antes del commit. AuditoriaDiferidaService los convierte después en revisiones.
+// El modelo auditado no tiene colecciones propietarias: basta con altas, modificaciones y borrados.
+public class AuditoriaDiferidaListener implements PostInsertEventListener, PostUpdateEventListener,
+        PostDeleteEventListener {
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final TypeReference<List<CambioAuditado>> LISTA_CAMBIOS = new TypeReference<>() {};
+
+    // Cambios de cada transacción en curso (se descartan al terminar, con commit o sin él)
+    private final Map<Transaction, List<CambioAuditado>> pendientes = new ConcurrentHashMap<>();
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        registrar(event.getSession(), event.getPersister(), event.getId(), RevisionType.ADD, event.getState(), null);
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        registrar(event.getSession(), event.getPersister(), event.getId(), RevisionType.MOD,
+                estadoActualizado(event), event.getOldState());
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        registrar(event.getSession(), event.getPersister(), event.getId(), RevisionType.DEL,
+                event.getDeletedState(), null);
+    }
+
+    @Override
+    public boolean requiresPostCommitHandling(EntityPersister persister) {
+        return false;
+    }
+
+    private void registrar(EventSource session, EntityPersister persister, Object id, RevisionType tipo,
+                           Object[] estado, Object[] anterior) {
+        String entidad = persister.getEntityName();
+        if (!EnversInterno.auditada(session, entidad)) {
+            return;
+        }
+        cambiosTransaccion(session).add(new CambioAuditado(
+                entidad,
+                EstadoAuditado.texto(persister.getIdentifierType(), id),
+                tipo,
+                EstadoAuditado.serializar(session, persister, estado),
+                anterior != null ? EstadoAuditado.serializar(session, persister, anterior) : null));
+    }
+
+    // Cambio hecho con un UPDATE en bloque (sin eventos de Hibernate, ver AuditoriaEnBloque): va a la cola de la
+    // transacción en el orden en que se hizo, como los que llegan por los listeners
+    public void registrarEnBloque(EventSource session, CambioAuditado cambio) {
+        cambiosTransaccion(session).add(cambio);
+    }
+
+    private List<CambioAuditado> cambiosTransaccion(EventSource session) {
+        Transaction transaccion = session.accessTransaction();
+        List<CambioAuditado> cambios = pendientes.get(transaccion);
+        if (cambios == null) {
+            List<CambioAuditado> nuevos = new ArrayList<>();
+            pendientes.put(transaccion, nuevos);
+            session.getActionQueue().registerProcess(
+                    (BeforeTransactionCompletionProcess) s -> encolar(s, nuevos));
+            session.getActionQueue().registerProcess(
+                    (AfterTransactionCompletionProcess) (exito, s) -> pendientes.remove(transaccion));
+            cambios = nuevos;
+        }
+        return cambios;
+    }
+
+    // Una sola fila con todos los cambios de la transacción (se ejecuta tras el último flush, antes del commit)
+    private static void encolar(SessionImplementor session, List<CambioAuditado> cambios) {
+        AuditoriaPendiente pendiente = new AuditoriaPendiente();
+        pendiente.setFecha(Instant.now());
+        pendiente.setNumeroCambios(cambios.size());
+        try {
+            pendiente.setCambios(JSON.writeValueAsString(cambios));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("No se pudieron serializar los cambios auditados: " + e.getMessage(), e);
+        }
+        session.persist(pendiente);
+        session.flush();
+    }
+
+    // Unidades de trabajo de Envers de una fila pendiente. Los cambios de una misma entidad se combinan como
+    // lo hace Envers dentro de una transacción (alta + modificación = alta con el estado final, alta + borrado = nada).
+    public static Collection<UnidadAuditoria> unidadesDeTrabajo(SessionImplementor session, String cambiosJson) {
+        Map<String, UnidadAuditoria> unidades = new LinkedHashMap<>();
+        for (CambioAuditado cambio : leer(cambiosJson)) {
+            EntityPersister persister = EstadoAuditado.persister(session, cambio.entidad());
+            Object id = EstadoAuditado.valor(persister.getIdentifierType(), cambio.id());
+            Object[] estado = EstadoAuditado.deserializar(session, persister, cambio.estado());
+            Object[] anterior = cambio.anterior() != null
+                    ? EstadoAuditado.deserializar(session, persister, cambio.anterior()) : null;
+            UnidadAuditoria unidad = EnversInterno.unidad(session, cambio.tipo(), persister, id, estado, anterior);
+            if (unidad == null) {
+                continue;
+            }
+
+            String clave = cambio.entidad() + "#" + cambio.id();
+            UnidadAuditoria previa = unidades.get(clave);
+            UnidadAuditoria resultado = previa == null ? unidad : unidad.despuesDe(previa);
+            if (resultado == null) {
+                unidades.remove(clave);
+            } else {
+                unidades.put(clave, resultado);
+            }
+        }
+        return unidades.values();
+    }
+
+    // Como Envers: las propiedades no actualizables conservan el valor que tenían en la base de datos
+    private static Object[] estadoActualizado(PostUpdateEvent event) {
+        Object[] estado = event.getState().clone();
+        if (event.getOldState() != null) {
+            boolean[] actualizables = event.getPersister().getPropertyUpdateability();
+            for (int i = 0; i < estado.length; i++) {
+                if (!actualizables[i]) {
+                    estado[i] = event.getOldState()[i];
+                }
+            }
+        }
+        return estado;
+    }
+
+    private static List<CambioAuditado> leer(String cambiosJson) {
+        try {
+            return JSON.readValue(cambiosJson, LISTA_CAMBIOS);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cambios auditados ilegibles: " + e.getMessage(), e);
+        }
+    }
+
+    // Cambio de una entidad tal como se guarda en la cola (anterior solo en modificaciones)
+    public record CambioAuditado(String entidad, String id, RevisionType tipo,
+                                 Map<String, String> estado, Map<String, String> anterior) {
+    }
+}
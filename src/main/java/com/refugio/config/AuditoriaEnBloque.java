@@ -0,0 +1,220 @@
+package com.refugio.config;
+
+import com.refugio.JPA.RevisionAuditoria;
+import com.refugio.config.AuditoriaDiferidaListener.CambioAuditado;
+import jakarta.persistence.EntityManager;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.configuration.Configuration;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.OneToOneType;
+import org.hibernate.type.Type;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntSupplier;
+
+// Auditoría de los cambios masivos hechos con UPDATE por conjunto, que no pasan por los listeners de Envers.
+// En modo síncrono las filas _AUD se escriben con un INSERT ... SELECT en la revisión de la transacción;
+// en modo diferido el cambio va a la cola de auditoría de la transacción, como los que pasan por los listeners.
+public final class AuditoriaEnBloque {
+
+    private AuditoriaEnBloque() {
+    }
+
+    // Modo síncrono: escribe en la revisión de la transacción una fila _AUD (MOD) por id con el estado ya
+    // actualizado, en un único INSERT ... SELECT. Los indicadores _MOD de las propiedades de modificadas van a TRUE
+    // y el resto a FALSE. Devuelve las filas insertadas.
+    public static int auditar(EntityManager entityManager, Class<?> entidad, Collection<Long> ids,
+                              Set<String> modificadas) {
+        RevisionAuditoria revision = abrirRevision(entityManager, entidad);
+        String sql = sentenciaAuditoria(entityManager.unwrap(SessionImplementor.class), entidad.getName(),
+                modificadas);
+        return entityManager.createNativeQuery(sql)
+                .setParameter("rev", revision.getId())
+                .setParameter("ids", ids)
+                .executeUpdate();
+    }
+
+    // INSERT ... SELECT de la tabla _AUD de la entidad con las columnas sacadas de los metadatos de Envers y de
+    // Hibernate, para que un campo auditado nuevo entre sin tocar la sentencia. Si la tabla _AUD tiene una columna
+    // que no sabe rellenar falla, en vez de dejarla a NULL.
+    static String sentenciaAuditoria(SessionImplementor session, String entidad, Set<String> modificadas) {
+        Configuration envers = EnversInterno.configuracion(session);
+        AbstractEntityPersister origen = (AbstractEntityPersister) EstadoAuditado.persister(session, entidad);
+        AbstractEntityPersister auditoria = (AbstractEntityPersister) EstadoAuditado.persister(session,
+                envers.getAuditEntityName(entidad));
+        List<String> idOrigen = List.of(origen.getIdentifierColumnNames());
+        List<String> propiedadesOrigen = List.of(origen.getPropertyNames());
+        // Columnas de la entidad por el nombre de su propiedad en la entidad _AUD, donde una relación es la
+        // propiedad de su clave ajena ("plan_id")
+        Map<String, String[]> columnasOrigen = new HashMap<>();
+        Type[] tipos = origen.getPropertyTypes();
+        for (int i = 0; i < tipos.length; i++) {
+            String nombre = propiedadesOrigen.get(i);
+            if (tipos[i] instanceof EntityType relacion && !(tipos[i] instanceof OneToOneType)) {
+                nombre += "_" + EstadoAuditado.persister(session, relacion.getAssociatedEntityName())
+                        .getIdentifierPropertyName();
+            }
+            columnasOrigen.put(nombre, origen.getPropertyColumnNames(i));
+        }
+        String sufijo = envers.getModifiedFlagsSuffix();
+
+        List<String> columnas = new ArrayList<>();
+        List<String> valores = new ArrayList<>();
+        // La clave de la tabla _AUD es el id de la entidad más la revisión
+        for (String columna : auditoria.getIdentifierColumnNames()) {
+            columnas.add(columna);
+            if (idOrigen.contains(columna)) {
+                valores.add(columna);
+            } else if (columna.equalsIgnoreCase(envers.getRevisionFieldName())) {
+                valores.add(":rev");
+            } else {
+                throw columnaSinValor(auditoria, columna);
+            }
+        }
+
+        Set<String> marcadas = new HashSet<>();
+        String[] propiedades = auditoria.getPropertyNames();
+        for (int i = 0; i < propiedades.length; i++) {
+            String propiedad = propiedades[i];
+            String[] destino = auditoria.getPropertyColumnNames(i);
+            String valor = null;
+            String[] copiadas = null;
+            if (propiedad.equals(envers.getRevisionTypePropertyName())) {
+                valor = String.valueOf(RevisionType.MOD.getRepresentation());
+            } else if (propiedad.endsWith(sufijo)
+                    && propiedadesOrigen.contains(propiedad.substring(0, propiedad.length() - sufijo.length()))) {
+                String marcada = propiedad.substring(0, propiedad.length() - sufijo.length());
+                marcadas.add(marcada);
+                valor = modificadas.contains(marcada) ? "TRUE" : "FALSE";
+            } else {
+                copiadas = columnasOrigen.get(propiedad);
+            }
+            if (valor == null && (copiadas == null || copiadas.length != destino.length)) {
+                throw columnaSinValor(auditoria, destino.length > 0 ? destino[0] : propiedad);
+            }
+            for (int j = 0; j < destino.length; j++) {
+                columnas.add(destino[j]);
+                valores.add(valor != null ? valor : copiadas[j]);
+            }
+        }
+        if (!marcadas.containsAll(modificadas)) {
+            throw new IllegalArgumentException("Propiedades sin indicador de modificación en "
+                    + auditoria.getIdentifierTableName() + ": " + modificadas);
+        }
+
+        return "INSERT INTO " + auditoria.getIdentifierTableName() + " (" + String.join(", ", columnas) + ") "
+                + "SELECT " + String.join(", ", valores) + " FROM " + origen.getIdentifierTableName()
+                + " WHERE " + idOrigen.get(0) + " IN (:ids)";
+    }
+
+    private static IllegalStateException columnaSinValor(AbstractEntityPersister auditoria, String columna) {
+        return new IllegalStateException("La auditoría en bloque no sabe rellenar la columna " + columna
+                + " de " + auditoria.getIdentifierTableName());
+    }
+
+    // Revisión de Envers de la transacción en curso (la crea si aún no existe), con la entidad apuntada en
+    // REVCHANGES. Se pide al AuditProcess de la sesión, el mismo que usa Envers para las entidades que sí pasan
+    // por sus listeners, así que un cambio por entidad y uno en bloque de la misma transacción comparten revisión.
+    // Hace flush para que el INSERT ... SELECT posterior lea el estado ya actualizado.
+    private static RevisionAuditoria abrirRevision(EntityManager entityManager, Class<?> entidad) {
+        RevisionAuditoria revision = (RevisionAuditoria) EnversInterno.revisionActual(
+                entityManager.unwrap(EventSource.class));
+        revision.getModifiedEntityNames().add(entidad.getName());
+        entityManager.flush();
+        return revision;
+    }
+
+    // true con la auditoría diferida (refugio.auditoria.modo=diferida): abrir una revisión en la transacción le
+    // daría un número anterior al de los cambios que siguen en la cola
+    public static boolean diferida(EntityManager entityManager) {
+        return colaDiferida(entityManager.unwrap(EventSource.class)) != null;
+    }
+
+    // Modo diferido: ejecuta el cambio en bloque sobre las filas de los ids y pone en la cola de la transacción una
+    // modificación por cada fila que haya cambiado, con el estado anterior y el nuevo leídos de la base de datos.
+    // El escritor la convierte en la revisión de la transacción junto con el resto de sus cambios, en el orden de
+    // la cola. Devuelve el resultado del cambio (filas actualizadas).
+    public static int encolar(EntityManager entityManager, Class<?> entidad, Collection<Long> ids,
+                              IntSupplier cambio) {
+        EventSource session = entityManager.unwrap(EventSource.class);
+        AuditoriaDiferidaListener cola = colaDiferida(session);
+        if (cola == null) {
+            throw new IllegalStateException("La auditoría diferida no está activa");
+        }
+        EntityPersister persister = EstadoAuditado.persister(session, entidad.getName());
+        entityManager.flush();
+
+        Map<Object, Map<String, String>> antes = leerEstado(entityManager, session, persister, ids);
+        int actualizadas = cambio.getAsInt();
+        Map<Object, Map<String, String>> despues = leerEstado(entityManager, session, persister, ids);
+
+        despues.forEach((id, estado) -> {
+            Map<String, String> anterior = antes.get(id);
+            if (!estado.equals(anterior)) {
+                cola.registrarEnBloque(session, new CambioAuditado(persister.getEntityName(),
+                        EstadoAuditado.texto(persister.getIdentifierType(), id), RevisionType.MOD, estado, anterior));
+            }
+        });
+        return actualizadas;
+    }
+
+    private static AuditoriaDiferidaListener colaDiferida(EventSource session) {
+        return AuditoriaDiferidaConfig.AuditoriaDiferidaIntegrator.cola(session.getFactory());
+    }
+
+    // Estado de las filas por id como lo guarda la cola (EstadoAuditado), con una proyección de las propiedades
+    // que no deja entidades en la sesión. Las relaciones se leen por su clave ajena.
+    private static Map<Object, Map<String, String>> leerEstado(EntityManager entityManager,
+                                                              SessionImplementor session,
+                                                              EntityPersister persister, Collection<Long> ids) {
+        String[] nombres = persister.getPropertyNames();
+        Type[] tipos = persister.getPropertyTypes();
+        List<Integer> propiedades = new ArrayList<>();
+        StringBuilder jpql = new StringBuilder("SELECT e.").append(persister.getIdentifierPropertyName());
+        for (int i = 0; i < nombres.length; i++) {
+            if (tipos[i] instanceof CollectionType || tipos[i] instanceof OneToOneType) {
+                continue;
+            }
+            propiedades.add(i);
+            jpql.append(", e.").append(nombres[i]);
+            if (tipos[i] instanceof EntityType relacion) {
+                // El id del destino es la clave ajena: Hibernate lo lee de la columna sin unir la tabla
+                jpql.append('.').append(EstadoAuditado.persister(session, relacion.getAssociatedEntityName())
+                        .getIdentifierPropertyName());
+            }
+        }
+        jpql.append(" FROM ").append(persister.getEntityName()).append(" e WHERE e.")
+                .append(persister.getIdentifierPropertyName()).append(" IN :ids");
+
+        Map<Object, Map<String, String>> estados = new HashMap<>();
+        for (Object[] fila : entityManager.createQuery(jpql.toString(), Object[].class)
+                .setParameter("ids", ids)
+                .getResultList()) {
+            Map<String, String> valores = new HashMap<>();
+            for (int j = 0; j < propiedades.size(); j++) {
+                int i = propiedades.get(j);
+                Object valor = fila[j + 1];
+                if (valor == null) {
+                    continue;
+                }
+                Type tipo = tipos[i] instanceof EntityType relacion
+                        ? EstadoAuditado.persister(session, relacion.getAssociatedEntityName()).getIdentifierType()
+                        : tipos[i];
+                valores.put(nombres[i], EstadoAuditado.texto(tipo, valor));
+            }
+            estados.put(fila[0], valores);
+        }
+        return estados;
+    }
+}
@@ -0,0 +1,100 @@
+package com.refugio.config;
+
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.boot.internal.EnversIntegrator;
+import org.hibernate.envers.boot.internal.EnversService;
+import org.hibernate.envers.configuration.Configuration;
+import org.hibernate.envers.internal.synchronization.work.AddWorkUnit;
+import org.hibernate.envers.internal.synchronization.work.AuditWorkUnit;
+import org.hibernate.envers.internal.synchronization.work.DelWorkUnit;
+import org.hibernate.envers.internal.synchronization.work.ModWorkUnit;
+import org.hibernate.envers.internal.tools.EntityTools;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.persister.entity.EntityPersister;
+
+// Único punto de la aplicación que usa clases internas de Envers (paquetes internal): la auditoría diferida
+// construye y combina sus unidades de trabajo y la auditoría en bloque abre la revisión de la transacción.
+// No son API pública y pueden cambiar en cualquier versión de Hibernate; EnversInternoTest fija la versión con la
+// que se han comprobado y falla al subirla hasta revisar este adaptador.
+public final class EnversInterno {
+
+    // Versión de Hibernate (mayor.menor) con la que se ha comprobado el adaptador
+    public static final String VERSION_COMPROBADA = "6.4";
+
+    // Propiedad que desactiva el registro automático de los listeners de Envers
+    public static final String REGISTRO_AUTOMATICO = EnversIntegrator.AUTO_REGISTER;
+
+    private EnversInterno() {
+    }
+
+    // true si la entidad está auditada (@Audited, directamente o por herencia)
+    public static boolean auditada(SessionImplementor session, String entidad) {
+        return envers(session).getEntitiesConfigurations().isVersioned(entidad);
+    }
+
+    public static Configuration configuracion(SessionImplementor session) {
+        return envers(session).getConfig();
+    }
+
+    // Entidad de revisión de la transacción en curso, creada si aún no existe, en el mismo AuditProcess que usan
+    // los listeners de Envers
+    public static Object revisionActual(EventSource session) {
+        return envers(session).getAuditProcessManager().get(session).getCurrentRevisionData(session, true);
+    }
+
+    // Id de una entidad relacionada (una referencia sin inicializar no se carga)
+    public static Object identificador(SessionImplementor session, String entidad, Object objeto) {
+        return EntityTools.getIdentifier(session, entidad, objeto);
+    }
+
+    // Unidad de trabajo de Envers para un cambio de una entidad; null si no hay nada que auditar (una
+    // modificación que solo toca propiedades no auditadas)
+    public static UnidadAuditoria unidad(SessionImplementor session, RevisionType tipo, EntityPersister persister,
+                                         Object id, Object[] estado, Object[] anterior) {
+        String entidad = persister.getEntityName();
+        EnversService envers = envers(session);
+        AuditWorkUnit unidad = switch (tipo) {
+            case ADD -> new AddWorkUnit(session, entidad, envers, id, persister, estado);
+            case MOD -> new ModWorkUnit(session, entidad, envers, id, persister, estado, anterior);
+            case DEL -> new DelWorkUnit(session, entidad, envers, id, persister, estado);
+        };
+        return unidad.containsWork() ? new UnidadAuditoria(unidad) : null;
+    }
+
+    private static EnversService envers(SessionImplementor session) {
+        return session.getFactory().getServiceRegistry().getService(EnversService.class);
+    }
+
+    // Cambio de una entidad listo para escribirse en una revisión
+    public static final class UnidadAuditoria {
+        private final AuditWorkUnit unidad;
+
+        private UnidadAuditoria(AuditWorkUnit unidad) {
+            this.unidad = unidad;
+        }
+
+        public String getEntidad() {
+            return unidad.getEntityName();
+        }
+
+        public RevisionType getTipo() {
+            if (unidad instanceof AddWorkUnit) {
+                return RevisionType.ADD;
+            }
+            return unidad instanceof DelWorkUnit ? RevisionType.DEL : RevisionType.MOD;
+        }
+
+        // Combina este cambio con el anterior de la misma entidad en la transacción, como Envers (alta +
+        // modificación = alta con el estado final); null si se anulan (alta + borrado)
+        public UnidadAuditoria despuesDe(UnidadAuditoria previa) {
+            AuditWorkUnit resultado = unidad.dispatch(previa.unidad);
+            return resultado != null ? new UnidadAuditoria(resultado) : null;
+        }
+
+        // Escribe la fila _AUD en la revisión
+        public void escribir(SessionImplementor session, Object revision) {
+            unidad.perform(session, revision);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.refugio.config;
+
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.BasicType;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.OneToOneType;
+import org.hibernate.type.Type;
+import org.hibernate.type.descriptor.java.JavaType;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Estado de una entidad auditada como texto por nombre de propiedad (cola de auditoría diferida y archivo de
+// revisiones). Las relaciones se guardan por id; las colecciones y los uno-a-uno del lado inverso no tienen
+// columna en las tablas _AUD y se omiten.
+public final class EstadoAuditado {
+
+    private EstadoAuditado() {
+    }
+
+    public static Map<String, String> serializar(SessionImplementor session, EntityPersister persister,
+                                                 Object[] estado) {
+        String[] nombres = persister.getPropertyNames();
+        Type[] tipos = persister.getPropertyTypes();
+        Map<String, String> valores = new HashMap<>();
+        for (int i = 0; i < nombres.length; i++) {
+            if (estado[i] == null || tipos[i] instanceof CollectionType || tipos[i] instanceof OneToOneType) {
+                continue;
+            }
+            if (tipos[i] instanceof EntityType relacion) {
+                String destino = relacion.getAssociatedEntityName();
+                Object id = EnversInterno.identificador(session, destino, estado[i]);
+                valores.put(nombres[i], texto(persister(session, destino).getIdentifierType(), id));
+            } else {
+                valores.put(nombres[i], texto(tipos[i], estado[i]));
+            }
+        }
+        return valores;
+    }
+
+    // Estado en el orden de propiedades del persister; las relaciones son referencias sin inicializar
+    public static Object[] deserializar(SessionImplementor session, EntityPersister persister,
+                                        Map<String, String> valores) {
+        String[] nombres = persister.getPropertyNames();
+        Type[] tipos = persister.getPropertyTypes();
+        Object[] estado = new Object[nombres.length];
+        for (int i = 0; i < nombres.length; i++) {
+            String texto = valores.get(nombres[i]);
+            if (texto == null) {
+                continue;
+            }
+            if (tipos[i] instanceof EntityType relacion) {
+                String destino = relacion.getAssociatedEntityName();
+                estado[i] = session.getReference(destino, valor(persister(session, destino).getIdentifierType(), texto));
+            } else {
+                estado[i] = valor(tipos[i], texto);
+            }
+        }
+        return estado;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static String texto(Type tipo, Object valor) {
+        return ((JavaType<Object>) tipoBasico(tipo).getJavaTypeDescriptor()).toString(valor);
+    }
+
+    public static Object valor(Type tipo, String texto) {
+        return tipoBasico(tipo).getJavaTypeDescriptor().fromString(texto);
+    }
+
+    public static EntityPersister persister(SessionImplementor session, String entidad) {
+        return session.getFactory().getMappingMetamodel().getEntityDescriptor(entidad);
+    }
+
+    private static BasicType<?> tipoBasico(Type tipo) {
+        if (tipo instanceof BasicType<?> basico) {
+            return basico;
+        }
+        throw new IllegalStateException("Tipo no admitido en el estado auditado: " + tipo.getName());
+    }
+}
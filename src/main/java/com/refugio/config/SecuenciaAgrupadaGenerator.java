@@ -0,0 +1,29 @@
+package com.refugio.config;
+
+import org.hibernate.MappingException;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.config.spi.StandardConverters;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import java.util.Properties;
+
+// Generador de ids por secuencia con optimizador pooled-lo: reserva bloques de ids en memoria
+// para que Hibernate pueda agrupar los INSERT en lotes JDBC (con IDENTITY no puede).
+// El tamaño del bloque se lee de spring.jpa.properties.refugio.ids.tamano-asignacion
+public class SecuenciaAgrupadaGenerator extends SequenceStyleGenerator {
+
+    public static final String TAMANO_ASIGNACION = "refugio.ids.tamano-asignacion";
+    public static final int TAMANO_ASIGNACION_POR_DEFECTO = 50;
+
+    @Override
+    public void configure(Type type, Properties parameters, ServiceRegistry serviceRegistry) throws MappingException {
+        int tamanoAsignacion = serviceRegistry.getService(ConfigurationService.class)
+                .getSetting(TAMANO_ASIGNACION, StandardConverters.INTEGER, TAMANO_ASIGNACION_POR_DEFECTO);
+
+        parameters.putIfAbsent(INCREMENT_PARAM, String.valueOf(tamanoAsignacion));
+        parameters.putIfAbsent(OPT_PARAM, "pooled-lo");
+        super.configure(type, parameters, serviceRegistry);
+    }
+}
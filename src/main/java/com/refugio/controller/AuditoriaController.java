@@ -2,42 +2,86 @@ package com.refugio.controller;
 
 import com.refugio.JPA.Suscripcion;
 import com.refugio.JPA.Usuario;
+import com.refugio.service.ArchivoAuditoriaService;
+import com.refugio.service.ArchivoAuditoriaService.EstadoArchivo;
+import com.refugio.service.AuditoriaDiferidaService;
+import com.refugio.service.AuditoriaDiferidaService.EstadoEscritura;
 import com.refugio.service.AuditoriaService;
+import com.refugio.service.AuditoriaService.DiferenciaRevision;
+import com.refugio.service.AuditoriaService.EstadisticasRevisiones;
 import com.refugio.service.AuditoriaService.RegistroAuditoria;
-import com.refugio.service.AuditoriaService.ResumenCambio;
+import com.refugio.service.AuditoriaService.RevisionCambios;
+import com.refugio.service.PaginaCursor;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
-
 // Controlador para panel de auditoría
 @Controller
 @RequestMapping("/admin/auditoria")
 public class AuditoriaController {
 
     private final AuditoriaService auditoriaService;
+    private final AuditoriaDiferidaService auditoriaDiferidaService;
+    private final ArchivoAuditoriaService archivoAuditoriaService;
 
-    public AuditoriaController(AuditoriaService auditoriaService) {
+    public AuditoriaController(AuditoriaService auditoriaService, AuditoriaDiferidaService auditoriaDiferidaService,
+                               ArchivoAuditoriaService archivoAuditoriaService) {
         this.auditoriaService = auditoriaService;
+        this.auditoriaDiferidaService = auditoriaDiferidaService;
+        this.archivoAuditoriaService = archivoAuditoriaService;
     }
 
-    // Panel principal
+    // Panel principal: cambios recientes de todas las entidades, por páginas de revisiones
     @GetMapping
-    public String mostrarPanelAuditoria(Model model) {
-        List<ResumenCambio> cambiosRecientes = auditoriaService.obtenerCambiosRecientes(50);
-        model.addAttribute("cambios", cambiosRecientes);
+    public String mostrarPanelAuditoria(@RequestParam(required = false) String despues,
+                                        @RequestParam(required = false) String antes,
+                                        @RequestParam(defaultValue = "20") int tamano,
+                                        Model model) {
+        PaginaCursor<RevisionCambios> pagina = auditoriaService.obtenerCambiosRecientes(despues, antes, tamano);
+        model.addAttribute("revisiones", pagina.getElementos());
+        model.addAttribute("pagina", pagina);
+        model.addAttribute("urlPagina", "/admin/auditoria");
+        model.addAttribute("escritura", auditoriaDiferidaService.obtenerEstado());
         model.addAttribute("titulo", "Panel de Auditoría");
         return "admin/auditoria/panel";
     }
 
+    // Retraso del escritor de auditoría diferida (JSON para monitorización)
+    @GetMapping("/escritura")
+    @ResponseBody
+    public EstadoEscritura obtenerEstadoEscritura() {
+        return auditoriaDiferidaService.obtenerEstado();
+    }
+
+    // Segmentos del archivo de revisiones antiguas (JSON para monitorización)
+    @GetMapping("/archivo")
+    @ResponseBody
+    public EstadoArchivo obtenerEstadoArchivo() {
+        return archivoAuditoriaService.obtenerEstado();
+    }
+
+    // Aciertos de la caché de versiones por revisión (JSON para monitorización)
+    @GetMapping("/revisiones/cache")
+    @ResponseBody
+    public EstadisticasRevisiones obtenerEstadisticasRevisiones() {
+        return auditoriaService.obtenerEstadisticasRevisiones();
+    }
+
     // Historial de usuario
     @GetMapping("/usuario/{id}")
-    public String verHistorialUsuario(@PathVariable Long id, Model model) {
-        List<RegistroAuditoria<Usuario>> historial =
-                auditoriaService.obtenerHistorial(Usuario.class, id);
-
-        model.addAttribute("historial", historial);
+    public String verHistorialUsuario(@PathVariable Long id,
+                                      @RequestParam(required = false) String despues,
+                                      @RequestParam(required = false) String antes,
+                                      @RequestParam(defaultValue = "50") int tamano,
+                                      Model model) {
+        PaginaCursor<RegistroAuditoria<Usuario>> pagina =
+                auditoriaService.obtenerHistorial(Usuario.class, id, despues, antes, tamano);
+
+        model.addAttribute("historial", pagina.getElementos());
+        model.addAttribute("pagina", pagina);
+        model.addAttribute("cambios", false);
+        model.addAttribute("urlPagina", "/admin/auditoria/usuario/" + id);
         model.addAttribute("tipoEntidad", "Usuario");
         model.addAttribute("entityId", id);
         model.addAttribute("titulo", "Historial de Usuario #" + id);
@@ -47,11 +91,18 @@ public class AuditoriaController {
 
     // Historial de suscripción
     @GetMapping("/suscripcion/{id}")
-    public String verHistorialSuscripcion(@PathVariable Long id, Model model) {
-        List<RegistroAuditoria<Suscripcion>> historial =
-                auditoriaService.obtenerHistorial(Suscripcion.class, id);
-
-        model.addAttribute("historial", historial);
+    public String verHistorialSuscripcion(@PathVariable Long id,
+                                          @RequestParam(required = false) String despues,
+                                          @RequestParam(required = false) String antes,
+                                          @RequestParam(defaultValue = "50") int tamano,
+                                          Model model) {
+        PaginaCursor<RegistroAuditoria<Suscripcion>> pagina =
+                auditoriaService.obtenerHistorial(Suscripcion.class, id, despues, antes, tamano);
+
+        model.addAttribute("historial", pagina.getElementos());
+        model.addAttribute("pagina", pagina);
+        model.addAttribute("cambios", false);
+        model.addAttribute("urlPagina", "/admin/auditoria/suscripcion/" + id);
         model.addAttribute("tipoEntidad", "Suscripción");
         model.addAttribute("entityId", id);
         model.addAttribute("titulo", "Historial de Suscripción #" + id);
@@ -59,6 +110,50 @@ public class AuditoriaController {
         return "admin/auditoria/historial";
     }
 
+    // Campos modificados en cada revisión de un usuario
+    @GetMapping("/usuario/{id}/cambios")
+    public String verCambiosUsuario(@PathVariable Long id,
+                                    @RequestParam(required = false) String despues,
+                                    @RequestParam(required = false) String antes,
+                                    @RequestParam(defaultValue = "50") int tamano,
+                                    Model model) {
+        PaginaCursor<DiferenciaRevision> pagina =
+                auditoriaService.obtenerDiferencias(Usuario.class, id, despues, antes, tamano);
+
+        model.addAttribute("historial", pagina.getElementos());
+        model.addAttribute("pagina", pagina);
+        model.addAttribute("cambios", true);
+        model.addAttribute("urlPagina", "/admin/auditoria/usuario/" + id + "/cambios");
+        model.addAttribute("urlVersiones", "/admin/auditoria/usuario/" + id);
+        model.addAttribute("tipoEntidad", "Usuario");
+        model.addAttribute("entityId", id);
+        model.addAttribute("titulo", "Cambios de Usuario #" + id);
+
+        return "admin/auditoria/historial";
+    }
+
+    // Campos modificados en cada revisión de una suscripción
+    @GetMapping("/suscripcion/{id}/cambios")
+    public String verCambiosSuscripcion(@PathVariable Long id,
+                                        @RequestParam(required = false) String despues,
+                                        @RequestParam(required = false) String antes,
+                                        @RequestParam(defaultValue = "50") int tamano,
+                                        Model model) {
+        PaginaCursor<DiferenciaRevision> pagina =
+                auditoriaService.obtenerDiferencias(Suscripcion.class, id, despues, antes, tamano);
+
+        model.addAttribute("historial", pagina.getElementos());
+        model.addAttribute("pagina", pagina);
+        model.addAttribute("cambios", true);
+        model.addAttribute("urlPagina", "/admin/auditoria/suscripcion/" + id + "/cambios");
+        model.addAttribute("urlVersiones", "/admin/auditoria/suscripcion/" + id);
+        model.addAttribute("tipoEntidad", "Suscripción");
+        model.addAttribute("entityId", id);
+        model.addAttribute("titulo", "Cambios de Suscripción #" + id);
+
+        return "admin/auditoria/historial";
+    }
+
     // Revisión de usuario
     @GetMapping("/usuario/{id}/revision/{revisionId}")
     public String verRevisionUsuario(@PathVariable Long id,
@@ -103,7 +198,7 @@ public class AuditoriaController {
                 return "redirect:/admin/auditoria/suscripcion/" + entityId;
             default:
                 model.addAttribute("error", "Tipo de entidad no válido");
-                return mostrarPanelAuditoria(model);
+                return mostrarPanelAuditoria(null, null, 20, model);
         }
     }
 }
@@ -0,0 +1,51 @@
+package com.refugio.controller;
+
+import com.refugio.JPA.EjecucionFacturacion;
+import com.refugio.service.EjecucionFacturacionService;
+import com.refugio.service.RenovacionService;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.LocalDate;
+
+// Controlador para el diario de ejecuciones de facturación
+@Controller
+@RequestMapping("/admin/facturacion")
+public class EjecucionFacturacionController {
+
+    private final EjecucionFacturacionService ejecucionFacturacionService;
+    private final RenovacionService renovacionService;
+
+    public EjecucionFacturacionController(EjecucionFacturacionService ejecucionFacturacionService,
+                                          RenovacionService renovacionService) {
+        this.ejecucionFacturacionService = ejecucionFacturacionService;
+        this.renovacionService = renovacionService;
+    }
+
+    // Historial de ejecuciones
+    @GetMapping("/ejecuciones")
+    public String listar(Model model) {
+        model.addAttribute("ejecuciones", ejecucionFacturacionService.obtenerHistorial());
+        model.addAttribute("titulo", "Ejecuciones de Facturación");
+        return "admin/ejecuciones/lista";
+    }
+
+    // Detalle de una ejecución con sus marcas de agua
+    @GetMapping("/ejecuciones/{id}")
+    public String detalle(@PathVariable Long id, Model model) {
+        EjecucionFacturacion ejecucion = ejecucionFacturacionService.obtenerEjecucion(id);
+        model.addAttribute("ejecuciones", ejecucionFacturacionService.obtenerHistorial());
+        model.addAttribute("seleccionada", ejecucion);
+        model.addAttribute("particiones", ejecucionFacturacionService.obtenerParticiones(id));
+        model.addAttribute("titulo", "Ejecución de Facturación #" + id);
+        return "admin/ejecuciones/lista";
+    }
+
+    // Lanza (o reanuda) la renovación de hoy manualmente
+    @PostMapping("/ejecuciones/renovar")
+    public String renovar() {
+        RenovacionService.ResultadoRenovacion resultado = renovacionService.procesarRenovaciones(LocalDate.now());
+        return "redirect:/admin/facturacion/ejecuciones/" + resultado.getEjecucionId();
+    }
+}
@@ -1,15 +1,36 @@
 package com.refugio.controller;
 
 import com.refugio.JPA.Factura;
+import com.refugio.repository.FacturaListado;
+import com.refugio.repository.FiltroFacturas;
+import com.refugio.service.EstadisticaFacturacionService;
+import com.refugio.service.EstadisticaFacturacionService.ResumenFacturacion;
+import com.refugio.service.ExportacionFacturasService;
+import com.refugio.service.ExportacionFacturasService.FormatoExportacion;
 import com.refugio.service.FacturaService;
+import com.refugio.service.ImpuestoService;
+import com.refugio.service.PaginaCursor;
+import com.refugio.service.PagoService;
+import com.refugio.service.RecalculoImpuestoService;
+import com.refugio.service.RecalculoImpuestoService.ProgresoRecalculo;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
 
 // Controlador de facturación
 @Controller
@@ -17,21 +38,44 @@ import java.util.List;
 public class FacturacionController {
 
     private final FacturaService facturaService;
+    private final PagoService pagoService;
+    private final RecalculoImpuestoService recalculoImpuestoService;
+    private final ImpuestoService impuestoService;
+    private final EstadisticaFacturacionService estadisticaFacturacionService;
+    private final ExportacionFacturasService exportacionFacturasService;
+    private final long limiteExportacionMs;
 
-    public FacturacionController(FacturaService facturaService) {
+    public FacturacionController(FacturaService facturaService,
+                                 PagoService pagoService,
+                                 RecalculoImpuestoService recalculoImpuestoService,
+                                 ImpuestoService impuestoService,
+                                 EstadisticaFacturacionService estadisticaFacturacionService,
+                                 ExportacionFacturasService exportacionFacturasService,
+                                 @Value("${refugio.exportacion.limite-ms:-1}") long limiteExportacionMs) {
         this.facturaService = facturaService;
+        this.pagoService = pagoService;
+        this.recalculoImpuestoService = recalculoImpuestoService;
+        this.impuestoService = impuestoService;
+        this.estadisticaFacturacionService = estadisticaFacturacionService;
+        this.exportacionFacturasService = exportacionFacturasService;
+        this.limiteExportacionMs = limiteExportacionMs;
     }
 
-    // Lista todas las facturas
+    // Lista las facturas por páginas (cursor keyset sobre fecha de emisión e id)
     @GetMapping
-    public String mostrarFacturas(Model model) {
-        List<Factura> facturas = facturaService.obtenerTodasLasFacturas();
-        model.addAttribute("facturas", facturas);
+    public String mostrarFacturas(@RequestParam(required = false) String despues,
+                                  @RequestParam(required = false) String antes,
+                                  @RequestParam(defaultValue = "50") int tamano,
+                                  Model model) {
+        PaginaCursor<FacturaListado> pagina = facturaService.obtenerPaginaFacturas(despues, antes, tamano);
+        model.addAttribute("facturas", pagina.getElementos());
+        model.addAttribute("pagina", pagina);
+        model.addAttribute("urlPagina", "/facturacion");
         model.addAttribute("titulo", "Panel de Facturación");
         return "facturacion/lista";
     }
 
-    // Filtra facturas
+    // Filtra facturas por páginas (cursor keyset; los enlaces de página conservan los criterios)
     @GetMapping("/filtrar")
     public String filtrarFacturas(
             @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaInicio,
@@ -39,21 +83,26 @@ public class FacturacionController {
             @RequestParam(required = false) BigDecimal montoMinimo,
             @RequestParam(required = false) BigDecimal montoMaximo,
             @RequestParam(required = false) String estado,
+            @RequestParam(required = false) String despues,
+            @RequestParam(required = false) String antes,
+            @RequestParam(defaultValue = "50") int tamano,
             Model model) {
 
-        Factura.EstadoFactura estadoFactura = null;
-        if (estado != null && !estado.isBlank()) {
-            try {
-                estadoFactura = Factura.EstadoFactura.valueOf(estado);
-            } catch (IllegalArgumentException e) {
-                // Estado inválido
-            }
-        }
+        Factura.EstadoFactura estadoFactura = parsearEstado(estado);
+        FiltroFacturas filtro = new FiltroFacturas(fechaInicio, fechaFin, montoMinimo, montoMaximo, estadoFactura);
+        PaginaCursor<FacturaListado> pagina = facturaService.filtrarFacturas(filtro, despues, antes, tamano);
 
-        List<Factura> facturas = facturaService.filtrarFacturas(
-                fechaInicio, fechaFin, montoMinimo, montoMaximo, estadoFactura);
+        String urlPagina = UriComponentsBuilder.fromPath("/facturacion/filtrar")
+                .queryParamIfPresent("fechaInicio", Optional.ofNullable(fechaInicio))
+                .queryParamIfPresent("fechaFin", Optional.ofNullable(fechaFin))
+                .queryParamIfPresent("montoMinimo", Optional.ofNullable(montoMinimo))
+                .queryParamIfPresent("montoMaximo", Optional.ofNullable(montoMaximo))
+                .queryParamIfPresent("estado", Optional.ofNullable(estadoFactura))
+                .toUriString();
 
-        model.addAttribute("facturas", facturas);
+        model.addAttribute("facturas", pagina.getElementos());
+        model.addAttribute("pagina", pagina);
+        model.addAttribute("urlPagina", urlPagina);
         model.addAttribute("titulo", "Facturas Filtradas");
         model.addAttribute("fechaInicio", fechaInicio);
         model.addAttribute("fechaFin", fechaFin);
@@ -64,6 +113,60 @@ public class FacturacionController {
         return "facturacion/lista";
     }
 
+    // Exporta todas las facturas del filtro (mismos criterios que /filtrar) en CSV o NDJSON, opcionalmente
+    // comprimidas con gzip. Se escriben en la respuesta según se leen, sin cargarlas en memoria, en una tarea
+    // asíncrona con su propio límite de tiempo (refugio.exportacion.limite-ms, sin límite por defecto); el resto
+    // de respuestas asíncronas conserva el del servidor. @ResponseBody: al volver de la tarea no hay vista que
+    // resolver, la respuesta ya está escrita.
+    @GetMapping("/exportar")
+    @ResponseBody
+    public WebAsyncTask<Void> exportarFacturas(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaInicio,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate fechaFin,
+            @RequestParam(required = false) BigDecimal montoMinimo,
+            @RequestParam(required = false) BigDecimal montoMaximo,
+            @RequestParam(required = false) String estado,
+            @RequestParam(defaultValue = "CSV") String formato,
+            @RequestParam(defaultValue = "false") boolean gzip,
+            HttpServletResponse response) {
+
+        FormatoExportacion formatoExportacion;
+        try {
+            formatoExportacion = FormatoExportacion.valueOf(formato.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Formato no soportado: " + formato);
+        }
+        FiltroFacturas filtro = new FiltroFacturas(fechaInicio, fechaFin, montoMinimo, montoMaximo,
+                parsearEstado(estado));
+
+        String fichero = "facturas." + formatoExportacion.getExtension() + (gzip ? ".gz" : "");
+        response.setContentType(gzip ? "application/gzip" : formatoExportacion.getTipoContenido() + ";charset=UTF-8");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(fichero).build().toString());
+
+        Callable<Void> escritura = () -> {
+            exportacionFacturasService.exportar(filtro, formatoExportacion, gzip, response.getOutputStream());
+            response.flushBuffer();
+            return null;
+        };
+        return new WebAsyncTask<>(limiteExportacionMs, escritura);
+    }
+
+    // Historial de facturación de un usuario por páginas (más recientes primero)
+    @GetMapping("/usuario/{usuarioId}")
+    public String mostrarHistorialUsuario(@PathVariable Long usuarioId,
+                                          @RequestParam(required = false) String despues,
+                                          @RequestParam(required = false) String antes,
+                                          @RequestParam(defaultValue = "50") int tamano,
+                                          Model model) {
+        PaginaCursor<FacturaListado> pagina = facturaService.obtenerHistorialUsuario(usuarioId, despues, antes, tamano);
+        model.addAttribute("facturas", pagina.getElementos());
+        model.addAttribute("pagina", pagina);
+        model.addAttribute("urlPagina", "/facturacion/usuario/" + usuarioId);
+        model.addAttribute("titulo", "Historial de Facturación del Usuario #" + usuarioId);
+        return "facturacion/lista";
+    }
+
     // Detalle de factura
     @GetMapping("/{id}")
     public String verDetalle(@PathVariable Long id, Model model) {
@@ -72,10 +175,16 @@ public class FacturacionController {
         return "facturacion/detalle";
     }
 
-    // Marca como pagada
+    // Registra el pago de la factura por su importe total (con su Pago, como los pagos por lotes)
     @PostMapping("/{id}/pagar")
     public String pagarFactura(@PathVariable Long id) {
-        facturaService.marcarComoPagada(id);
+        PagoService.EstadoPago estado = pagoService.pagarFactura(id).getEstado();
+        if (estado == PagoService.EstadoPago.FACTURA_NO_ENCONTRADA) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Factura no encontrada: " + id);
+        }
+        if (estado != PagoService.EstadoPago.REGISTRADO) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "No se puede pagar la factura " + id + ": " + estado);
+        }
         return "redirect:/facturacion";
     }
 
@@ -86,42 +195,86 @@ public class FacturacionController {
         return "redirect:/facturacion";
     }
 
-    // Muestra pendientes
+    // Muestra pendientes por páginas
     @GetMapping("/pendientes")
-    public String mostrarPendientes(Model model) {
-        List<Factura> facturas = facturaService.obtenerFacturasPendientes();
-        model.addAttribute("facturas", facturas);
+    public String mostrarPendientes(@RequestParam(required = false) String despues,
+                                    @RequestParam(required = false) String antes,
+                                    @RequestParam(defaultValue = "50") int tamano,
+                                    Model model) {
+        PaginaCursor<FacturaListado> pagina = facturaService.obtenerPaginaPendientes(despues, antes, tamano);
+        model.addAttribute("facturas", pagina.getElementos());
+        model.addAttribute("pagina", pagina);
+        model.addAttribute("urlPagina", "/facturacion/pendientes");
         model.addAttribute("titulo", "Facturas Pendientes de Pago");
         return "facturacion/lista";
     }
 
-    // Estadísticas
+    // Estadísticas (agregado mantenido por deltas: coste constante sea cual sea el número de facturas)
     @GetMapping("/estadisticas")
     public String mostrarEstadisticas(Model model) {
-        List<Factura> todasLasFacturas = facturaService.obtenerTodasLasFacturas();
+        ResumenFacturacion resumen = estadisticaFacturacionService.obtenerResumen();
 
-        BigDecimal totalFacturado = todasLasFacturas.stream()
-                .map(Factura::getImporteTotal)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        model.addAttribute("totalFacturado", resumen.getTotalFacturado());
+        model.addAttribute("totalImpuestos", resumen.getTotalImpuestos());
+        model.addAttribute("facturasPagadas", resumen.getFacturasPagadas());
+        model.addAttribute("facturasPendientes", resumen.getFacturasPendientes());
+        model.addAttribute("totalFacturas", resumen.getTotalFacturas());
+        model.addAttribute("reconciliadaEn", resumen.getReconciliadaEn());
+
+        return "facturacion/estadisticas";
+    }
+
+    // Fuerza la reconciliación completa de las estadísticas
+    @PostMapping("/estadisticas/reconciliar")
+    public String reconciliarEstadisticas() {
+        estadisticaFacturacionService.reconciliar();
+        return "redirect:/facturacion/estadisticas";
+    }
 
-        BigDecimal totalImpuestos = todasLasFacturas.stream()
-                .map(Factura::getImporteImpuesto)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    // Recálculos masivos de impuestos
+    @GetMapping("/recalculos")
+    public String mostrarRecalculos(Model model) {
+        List<ProgresoRecalculo> recalculos = recalculoImpuestoService.obtenerRecalculos();
+        model.addAttribute("recalculos", recalculos);
+        model.addAttribute("enCurso", recalculos.stream().anyMatch(r -> !r.isTerminado()));
+        model.addAttribute("tablaImpuestos", impuestoService.obtenerTablaImpuestos());
+        model.addAttribute("titulo", "Recálculo de Impuestos");
+        return "facturacion/recalculos";
+    }
 
-        long facturasPagadas = todasLasFacturas.stream()
-                .filter(f -> f.getEstado() == Factura.EstadoFactura.PAGADA)
-                .count();
+    // Lanza un recálculo por país y rango de fechas opcional
+    @PostMapping("/recalculos")
+    public String iniciarRecalculo(
+            @RequestParam String pais,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta) {
+        recalculoImpuestoService.iniciarRecalculo(pais, desde, hasta);
+        return "redirect:/facturacion/recalculos";
+    }
 
-        long facturasPendientes = todasLasFacturas.stream()
-                .filter(f -> f.getEstado() == Factura.EstadoFactura.EMITIDA)
-                .count();
+    // Progreso de un recálculo en JSON
+    @GetMapping("/recalculos/{id}")
+    @ResponseBody
+    public ProgresoRecalculo verRecalculo(@PathVariable Long id) {
+        return recalculoImpuestoService.obtenerRecalculo(id);
+    }
 
-        model.addAttribute("totalFacturado", totalFacturado);
-        model.addAttribute("totalImpuestos", totalImpuestos);
-        model.addAttribute("facturasPagadas", facturasPagadas);
-        model.addAttribute("facturasPendientes", facturasPendientes);
-        model.addAttribute("totalFacturas", todasLasFacturas.size());
+    // Cancela un recálculo
+    @PostMapping("/recalculos/{id}/cancelar")
+    public String cancelarRecalculo(@PathVariable Long id) {
+        recalculoImpuestoService.cancelar(id);
+        return "redirect:/facturacion/recalculos";
+    }
 
-        return "facturacion/estadisticas";
+    // Estado del filtro; vacío o inválido equivale a no filtrar por estado
+    private static Factura.EstadoFactura parsearEstado(String estado) {
+        if (estado == null || estado.isBlank()) {
+            return null;
+        }
+        try {
+            return Factura.EstadoFactura.valueOf(estado);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 }
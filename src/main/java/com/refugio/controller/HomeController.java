@@ -8,7 +8,7 @@ import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 
-import java.util.List;
+import java.util.Map;
 
 // Controlador principal - Dashboard
 @Controller
@@ -24,29 +24,24 @@ public class HomeController {
 
     @GetMapping("/")
     public String home(Model model) {
-        // Suscripciones
-        List<Suscripcion> todas = suscripcionService.obtenerTodasLasSuscripciones();
-        long activas = todas.stream()
-            .filter(s -> s.getEstado() == Suscripcion.EstadoSuscripcion.ACTIVA).count();
-        long impagos = todas.stream()
-            .filter(s -> s.getEstado() == Suscripcion.EstadoSuscripcion.IMPAGO).count();
+        // Suscripciones (un COUNT agrupado por estado, sin cargar filas)
+        Map<Suscripcion.EstadoSuscripcion, Long> suscripciones = suscripcionService.contarPorEstado();
+        long totalSuscripciones = suscripciones.values().stream().mapToLong(Long::longValue).sum();
 
         // Proximas a vencer
-        List<Suscripcion> proximasVencer = suscripcionService.obtenerSuscripcionesProximasAVencer(7);
+        long proximasVencer = suscripcionService.contarSuscripcionesProximasAVencer(7);
 
         // Facturas
-        List<Factura> facturas = facturaService.obtenerTodasLasFacturas();
-        long pendientes = facturas.stream()
-            .filter(f -> f.getEstado() == Factura.EstadoFactura.EMITIDA).count();
+        Map<Factura.EstadoFactura, Long> facturas = facturaService.contarPorEstado();
+        long totalFacturas = facturas.values().stream().mapToLong(Long::longValue).sum();
 
-        model.addAttribute("totalSuscripciones", todas.size());
-        model.addAttribute("suscripcionesActivas", activas);
-        model.addAttribute("suscripcionesImpago", impagos);
-        model.addAttribute("proximasVencer", proximasVencer.size());
-        model.addAttribute("totalFacturas", facturas.size());
-        model.addAttribute("facturasPendientes", pendientes);
+        model.addAttribute("totalSuscripciones", totalSuscripciones);
+        model.addAttribute("suscripcionesActivas", suscripciones.get(Suscripcion.EstadoSuscripcion.ACTIVA));
+        model.addAttribute("suscripcionesImpago", suscripciones.get(Suscripcion.EstadoSuscripcion.IMPAGO));
+        model.addAttribute("proximasVencer", proximasVencer);
+        model.addAttribute("totalFacturas", totalFacturas);
+        model.addAttribute("facturasPendientes", facturas.get(Factura.EstadoFactura.EMITIDA));
 
         return "index";
     }
 }
-
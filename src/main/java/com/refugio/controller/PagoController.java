@@ -0,0 +1,29 @@
+package com.refugio.controller;
+
+import com.refugio.service.PagoService;
+import com.refugio.service.PagoService.ResultadoLotePagos;
+import com.refugio.service.PagoService.SolicitudPago;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+// API de registro de pagos
+@Controller
+@RequestMapping("/pagos")
+public class PagoController {
+
+    private final PagoService pagoService;
+
+    public PagoController(PagoService pagoService) {
+        this.pagoService = pagoService;
+    }
+
+    // Registra un lote de pagos (JSON) y devuelve el resultado de cada uno en el orden recibido
+    @PostMapping(value = "/lote", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ResultadoLotePagos registrarLote(@RequestBody List<SolicitudPago> solicitudes) {
+        return pagoService.registrarPagos(solicitudes);
+    }
+}
@@ -0,0 +1,52 @@
+package com.refugio.controller;
+
+import com.refugio.service.PlanService;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.*;
+
+import java.math.BigDecimal;
+
+// Controlador de planes y de su caché de segundo nivel
+@Controller
+@RequestMapping("/admin/planes")
+public class PlanController {
+
+    private final PlanService planService;
+
+    public PlanController(PlanService planService) {
+        this.planService = planService;
+    }
+
+    // Planes y estadísticas de la caché
+    @GetMapping
+    public String listar(Model model) {
+        model.addAttribute("planes", planService.obtenerPlanes());
+        model.addAttribute("cache", planService.obtenerEstadisticasCache());
+        model.addAttribute("titulo", "Planes");
+        return "admin/planes/lista";
+    }
+
+    // Estadísticas de la caché en JSON
+    @GetMapping("/cache")
+    @ResponseBody
+    public PlanService.EstadisticasCache estadisticasCache() {
+        return planService.obtenerEstadisticasCache();
+    }
+
+    // Actualiza nombre y precio de un plan
+    @PostMapping("/{id}")
+    public String actualizar(@PathVariable Long id,
+                             @RequestParam(required = false) String nombre,
+                             @RequestParam BigDecimal precioMensual) {
+        planService.actualizarPlan(id, nombre, precioMensual);
+        return "redirect:/admin/planes";
+    }
+
+    // Invalida la caché de planes
+    @PostMapping("/cache/invalidar")
+    public String invalidarCache() {
+        planService.invalidarCache();
+        return "redirect:/admin/planes";
+    }
+}
@@ -1,6 +1,8 @@
 package com.refugio.controller;
 
 import com.refugio.JPA.Suscripcion;
+import com.refugio.repository.SuscripcionListado;
+import com.refugio.service.PaginaCursor;
 import com.refugio.service.SuscripcionService;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -19,11 +21,16 @@ public class SuscripcionController {
         this.suscripcionService = suscripcionService;
     }
 
-    // Lista suscripciones
+    // Lista suscripciones por páginas (cursor keyset)
     @GetMapping
-    public String listarSuscripciones(Model model) {
-        List<Suscripcion> suscripciones = suscripcionService.obtenerTodasLasSuscripciones();
-        model.addAttribute("suscripciones", suscripciones);
+    public String listarSuscripciones(@RequestParam(required = false) String despues,
+                                      @RequestParam(required = false) String antes,
+                                      @RequestParam(defaultValue = "50") int tamano,
+                                      Model model) {
+        PaginaCursor<SuscripcionListado> pagina = suscripcionService.obtenerPaginaSuscripciones(despues, antes, tamano);
+        model.addAttribute("suscripciones", pagina.getElementos());
+        model.addAttribute("pagina", pagina);
+        model.addAttribute("urlPagina", "/suscripciones");
         model.addAttribute("titulo", "Gestión de Suscripciones");
         return "suscripciones/lista";
     }
@@ -68,7 +75,7 @@ public class SuscripcionController {
     // Próximas a vencer
     @GetMapping("/proximas-vencer")
     public String proximasAVencer(@RequestParam(defaultValue = "7") int dias, Model model) {
-        List<Suscripcion> suscripciones = suscripcionService.obtenerSuscripcionesProximasAVencer(dias);
+        List<SuscripcionListado> suscripciones = suscripcionService.listarProximasAVencer(dias);
         model.addAttribute("suscripciones", suscripciones);
         model.addAttribute("titulo", "Suscripciones próximas a vencer (próximos " + dias + " días)");
         return "suscripciones/lista";
@@ -84,9 +91,7 @@ public class SuscripcionController {
             return "redirect:/suscripciones";
         }
 
-        List<Suscripcion> suscripciones = suscripcionService.obtenerTodasLasSuscripciones().stream()
-                .filter(s -> s.getEstado() == estadoEnum)
-                .toList();
+        List<SuscripcionListado> suscripciones = suscripcionService.listarPorEstado(estadoEnum);
 
         model.addAttribute("suscripciones", suscripciones);
         model.addAttribute("titulo", "Suscripciones - Estado: " + estado);
@@ -0,0 +1,26 @@
+package com.refugio.repository;
+
+import com.refugio.JPA.AuditoriaPendiente;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+// Repositorio de la cola de auditoría diferida
+@Repository
+public interface AuditoriaPendienteRepository extends JpaRepository<AuditoriaPendiente, Long> {
+
+    // Siguiente lote en orden de llegada
+    List<AuditoriaPendiente> findByOrderByIdAsc(Pageable pageable);
+
+    // Cambios de entidades en cola (una transacción puede tener varios)
+    @Query("SELECT COALESCE(SUM(a.numeroCambios), 0) FROM AuditoriaPendiente a")
+    long sumNumeroCambios();
+
+    // Fecha del cambio más antiguo sin escribir (null si la cola está vacía)
+    @Query("SELECT MIN(a.fecha) FROM AuditoriaPendiente a")
+    Instant findFechaMasAntigua();
+}
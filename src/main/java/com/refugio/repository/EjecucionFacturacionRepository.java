@@ -0,0 +1,22 @@
+package com.refugio.repository;
+
+import com.refugio.JPA.EjecucionFacturacion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+// Repositorio del diario de ejecuciones de facturación
+@Repository
+public interface EjecucionFacturacionRepository extends JpaRepository<EjecucionFacturacion, Long> {
+
+    Optional<EjecucionFacturacion> findFirstByFechaCorteAndEstadoInOrderByIdDesc(
+            LocalDate fechaCorte, Collection<EjecucionFacturacion.EstadoEjecucion> estados);
+
+    List<EjecucionFacturacion> findByEstado(EjecucionFacturacion.EstadoEjecucion estado);
+
+    List<EjecucionFacturacion> findTop50ByOrderByIdDesc();
+}
@@ -0,0 +1,39 @@
+package com.refugio.repository;
+
+import com.refugio.JPA.EstadisticaFacturacion;
+import com.refugio.JPA.Factura;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+// Repositorio del agregado de estadísticas de facturación
+@Repository
+public interface EstadisticaFacturacionRepository extends JpaRepository<EstadisticaFacturacion, Long> {
+
+    // Suma un delta en una ranura del estado en la propia base de datos (sin leer la fila), dentro de la
+    // transacción que cambia las facturas
+    @Modifying
+    @Query("UPDATE EstadisticaFacturacion e SET " +
+            "e.numeroFacturas = e.numeroFacturas + :numero, " +
+            "e.importeTotal = e.importeTotal + :total, " +
+            "e.importeImpuesto = e.importeImpuesto + :impuesto " +
+            "WHERE e.estado = :estado AND e.ranura = :ranura")
+    int aplicarDelta(
+            @Param("estado") Factura.EstadoFactura estado,
+            @Param("ranura") int ranura,
+            @Param("numero") long numero,
+            @Param("total") BigDecimal total,
+            @Param("impuesto") BigDecimal impuesto);
+
+    // Bloquea todas las filas mientras se reconcilian para no perder deltas concurrentes
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT e FROM EstadisticaFacturacion e ORDER BY e.estado, e.ranura")
+    List<EstadisticaFacturacion> findAllParaReconciliar();
+}
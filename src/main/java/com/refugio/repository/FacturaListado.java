@@ -0,0 +1,20 @@
+package com.refugio.repository;
+
+import com.refugio.JPA.Factura;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+// Fila del listado de facturas: solo lo que muestra la vista, leído en una única consulta (sin asociaciones LAZY)
+public record FacturaListado(
+        Long id,
+        LocalDate fechaEmision,
+        Long suscripcionId,
+        String planNombre,
+        BigDecimal importe,
+        BigDecimal importeImpuesto,
+        BigDecimal importeTotal,
+        String paisImpuesto,
+        BigDecimal tasaImpuesto,
+        Factura.EstadoFactura estado) {
+}
@@ -0,0 +1,14 @@
+package com.refugio.repository;
+
+import com.refugio.JPA.Factura;
+
+import java.math.BigDecimal;
+
+// Lo que hace falta de una factura para casar un pago: sin cargar la entidad (su lado inverso del pago,
+// uno-a-uno, se leería con una consulta por factura)
+public record FacturaParaPago(
+        Long id,
+        Factura.EstadoFactura estado,
+        BigDecimal importeTotal,
+        BigDecimal importeImpuesto) {
+}
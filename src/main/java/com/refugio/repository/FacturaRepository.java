@@ -1,18 +1,31 @@
 package com.refugio.repository;
 
 import com.refugio.JPA.Factura;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
 
 // Repositorio de facturas
 @Repository
-public interface FacturaRepository extends JpaRepository<Factura, Long> {
+public interface FacturaRepository extends JpaRepository<Factura, Long>, FacturaRepositoryCustom {
+
+    // Proyección del listado: factura, suscripción y plan en un solo SELECT.
+    // LEFT JOIN aunque ambas asociaciones son obligatorias: H2 no reordena las uniones externas y así
+    // recorre facturas por el índice del ORDER BY en lugar de entrar por planes y la clave foránea.
+    String LISTADO = "new com.refugio.repository.FacturaListado(f.id, f.fechaEmision, s.id, p.nombre, " +
+            "f.importe, f.importeImpuesto, f.importeTotal, f.paisImpuesto, f.tasaImpuesto, f.estado) " +
+            "FROM Factura f LEFT JOIN f.suscripcion s LEFT JOIN s.plan p ";
 
     List<Factura> findByFechaEmisionBetween(LocalDate fechaInicio, LocalDate fechaFin);
 
@@ -24,9 +37,58 @@ public interface FacturaRepository extends JpaRepository<Factura, Long> {
 
     List<Factura> findByEstado(Factura.EstadoFactura estado);
 
-    @Query("SELECT f FROM Factura f WHERE f.suscripcion.usuario.id = :usuarioId")
+    @Query("SELECT f FROM Factura f WHERE f.usuarioId = :usuarioId ORDER BY f.fechaEmision DESC, f.id DESC")
     List<Factura> findByUsuarioId(@Param("usuarioId") Long usuarioId);
 
+    // Historial de un usuario por keyset (fechaEmision, id), de la más reciente a la más antigua.
+    // Filtra por la columna desnormalizada usuario_id: el índice (usuario_id, fechaEmision DESC, id DESC)
+    // da las filas ya ordenadas y la página se corta sin leer el resto del historial.
+    @Query("SELECT " + LISTADO + "WHERE f.usuarioId = :usuarioId ORDER BY f.fechaEmision DESC, f.id DESC")
+    List<FacturaListado> findHistorialPrimeraPagina(@Param("usuarioId") Long usuarioId, Pageable pageable);
+
+    @Query("SELECT " + LISTADO + "WHERE f.usuarioId = :usuarioId " +
+            "AND f.fechaEmision <= :fecha AND (f.fechaEmision < :fecha OR f.id < :id) " +
+            "ORDER BY f.fechaEmision DESC, f.id DESC")
+    List<FacturaListado> findHistorialDespuesDe(
+            @Param("usuarioId") Long usuarioId,
+            @Param("fecha") LocalDate fecha,
+            @Param("id") Long id,
+            Pageable pageable);
+
+    @Query("SELECT " + LISTADO + "WHERE f.usuarioId = :usuarioId " +
+            "AND f.fechaEmision >= :fecha AND (f.fechaEmision > :fecha OR f.id > :id) " +
+            "ORDER BY f.fechaEmision ASC, f.id ASC")
+    List<FacturaListado> findHistorialAntesDe(
+            @Param("usuarioId") Long usuarioId,
+            @Param("fecha") LocalDate fecha,
+            @Param("id") Long id,
+            Pageable pageable);
+
+    // Mantiene usuario_id al cambiar el titular de una suscripción (no pasa por Envers: la columna no se audita).
+    // Las facturas ya cargadas las refresca FacturaService.reasignarUsuario.
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE Factura f SET f.usuarioId = :usuarioId WHERE f.suscripcion.id = :suscripcionId")
+    int reasignarUsuario(
+            @Param("suscripcionId") Long suscripcionId,
+            @Param("usuarioId") Long usuarioId);
+
+    // Facturas de un lote de pagos en una sola consulta por clave primaria. Quedan bloqueadas hasta el commit:
+    // dos lotes que traen la misma factura se ordenan y el segundo la ve ya pagada.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT new com.refugio.repository.FacturaParaPago(f.id, f.estado, f.importeTotal, f.importeImpuesto) " +
+            "FROM Factura f WHERE f.id IN :ids")
+    List<FacturaParaPago> findParaPagar(@Param("ids") Collection<Long> ids);
+
+    // Factura bloqueada para cambiar su estado sin pisar un recálculo de impuestos en curso
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT f FROM Factura f WHERE f.id = :id")
+    Optional<Factura> findParaActualizar(@Param("id") Long id);
+
+    // Marca pagadas las facturas emitidas del lote (no pasa por Envers: la auditoría se escribe aparte)
+    @Modifying
+    @Query("UPDATE Factura f SET f.estado = 'PAGADA' WHERE f.id IN :ids AND f.estado = 'EMITIDA'")
+    int marcarPagadasEnLote(@Param("ids") Collection<Long> ids);
+
     @Query("SELECT f FROM Factura f WHERE f.fechaEmision BETWEEN :fechaInicio AND :fechaFin " +
             "AND f.importeTotal BETWEEN :montoMinimo AND :montoMaximo")
     List<Factura> findByFechaAndMonto(
@@ -35,21 +97,99 @@ public interface FacturaRepository extends JpaRepository<Factura, Long> {
             @Param("montoMinimo") BigDecimal montoMinimo,
             @Param("montoMaximo") BigDecimal montoMaximo);
 
-    // Query con filtros opcionales
-    @Query("SELECT f FROM Factura f WHERE " +
-            "(:fechaInicio IS NULL OR f.fechaEmision >= :fechaInicio) AND " +
-            "(:fechaFin IS NULL OR f.fechaEmision <= :fechaFin) AND " +
-            "(:montoMinimo IS NULL OR f.importeTotal >= :montoMinimo) AND " +
-            "(:montoMaximo IS NULL OR f.importeTotal <= :montoMaximo) AND " +
-            "(:estado IS NULL OR f.estado = :estado)")
-    List<Factura> findByFiltros(
-            @Param("fechaInicio") LocalDate fechaInicio,
-            @Param("fechaFin") LocalDate fechaFin,
-            @Param("montoMinimo") BigDecimal montoMinimo,
-            @Param("montoMaximo") BigDecimal montoMaximo,
-            @Param("estado") Factura.EstadoFactura estado);
-
     List<Factura> findAllByOrderByFechaEmisionDesc();
 
     List<Factura> findByEstadoOrderByFechaEmisionAsc(Factura.EstadoFactura estado);
+
+    // Listado paginado por keyset (fechaEmision, id), de la más reciente a la más antigua.
+    // La condición va escrita como rango sobre fechaEmision (fecha <= :fecha AND ...) para que el índice
+    // la use como límite de búsqueda; con "a < x OR (a = x AND b < y)" H2 recorre toda la tabla.
+    @Query("SELECT " + LISTADO + "ORDER BY f.fechaEmision DESC, f.id DESC")
+    List<FacturaListado> findPrimeraPagina(Pageable pageable);
+
+    @Query("SELECT " + LISTADO +
+            "WHERE f.fechaEmision <= :fecha AND (f.fechaEmision < :fecha OR f.id < :id) " +
+            "ORDER BY f.fechaEmision DESC, f.id DESC")
+    List<FacturaListado> findPaginaDespuesDe(
+            @Param("fecha") LocalDate fecha,
+            @Param("id") Long id,
+            Pageable pageable);
+
+    // Página anterior: se recorre en sentido contrario desde el primer elemento
+    @Query("SELECT " + LISTADO +
+            "WHERE f.fechaEmision >= :fecha AND (f.fechaEmision > :fecha OR f.id > :id) " +
+            "ORDER BY f.fechaEmision ASC, f.id ASC")
+    List<FacturaListado> findPaginaAntesDe(
+            @Param("fecha") LocalDate fecha,
+            @Param("id") Long id,
+            Pageable pageable);
+
+    // Pendientes paginadas por keyset (fechaEmision, id), de la más antigua a la más reciente.
+    // Se ordena también por estado (constante) para que el orden coincida con el índice (estado, fechaEmision, id).
+    @Query("SELECT " + LISTADO + "WHERE f.estado = 'EMITIDA' " +
+            "ORDER BY f.estado ASC, f.fechaEmision ASC, f.id ASC")
+    List<FacturaListado> findPendientesPrimeraPagina(Pageable pageable);
+
+    @Query("SELECT " + LISTADO + "WHERE f.estado = 'EMITIDA' " +
+            "AND f.fechaEmision >= :fecha AND (f.fechaEmision > :fecha OR f.id > :id) " +
+            "ORDER BY f.estado ASC, f.fechaEmision ASC, f.id ASC")
+    List<FacturaListado> findPendientesDespuesDe(
+            @Param("fecha") LocalDate fecha,
+            @Param("id") Long id,
+            Pageable pageable);
+
+    @Query("SELECT " + LISTADO + "WHERE f.estado = 'EMITIDA' " +
+            "AND f.fechaEmision <= :fecha AND (f.fechaEmision < :fecha OR f.id < :id) " +
+            "ORDER BY f.estado DESC, f.fechaEmision DESC, f.id DESC")
+    List<FacturaListado> findPendientesAntesDe(
+            @Param("fecha") LocalDate fecha,
+            @Param("id") Long id,
+            Pageable pageable);
+
+    // Número de facturas por estado (filas [estado, total])
+    @Query("SELECT f.estado, COUNT(f) FROM Factura f GROUP BY f.estado")
+    List<Object[]> contarPorEstado();
+
+    // Recuento completo por estado (filas [estado, número, total, impuestos]) para reconciliar las estadísticas
+    @Query("SELECT f.estado, COUNT(f), COALESCE(SUM(f.importeTotal), 0), COALESCE(SUM(f.importeImpuesto), 0) " +
+            "FROM Factura f GROUP BY f.estado")
+    List<Object[]> sumarPorEstado();
+
+    // Ids de suscripciones activas con alguna factura emitida antes del límite (keyset por id)
+    @Query("SELECT DISTINCT s.id FROM Factura f JOIN f.suscripcion s " +
+            "WHERE f.estado = 'EMITIDA' " +
+            "AND f.fechaEmision < :limite " +
+            "AND s.estado = 'ACTIVA' " +
+            "AND s.id > :ultimoId " +
+            "ORDER BY s.id")
+    List<Long> findIdsSuscripcionesConFacturasVencidas(
+            @Param("limite") LocalDate limite,
+            @Param("ultimoId") Long ultimoId,
+            Pageable pageable);
+
+    // Facturas emitidas de un país en un rango de fechas, por lotes (keyset por id).
+    // Bloqueadas hasta el commit del lote: el flush reescribe la fila entera y un pago concurrente
+    // volvería a quedar EMITIDA; así el pago espera y ve el impuesto ya recalculado.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT f FROM Factura f " +
+            "WHERE f.estado = 'EMITIDA' " +
+            "AND f.paisImpuesto = :pais " +
+            "AND f.fechaEmision BETWEEN :desde AND :hasta " +
+            "AND f.id > :ultimoId " +
+            "ORDER BY f.id")
+    List<Factura> findLoteParaRecalcular(
+            @Param("pais") String pais,
+            @Param("desde") LocalDate desde,
+            @Param("hasta") LocalDate hasta,
+            @Param("ultimoId") Long ultimoId,
+            Pageable pageable);
+
+    @Query("SELECT COUNT(f) FROM Factura f " +
+            "WHERE f.estado = 'EMITIDA' " +
+            "AND f.paisImpuesto = :pais " +
+            "AND f.fechaEmision BETWEEN :desde AND :hasta")
+    long countParaRecalcular(
+            @Param("pais") String pais,
+            @Param("desde") LocalDate desde,
+            @Param("hasta") LocalDate hasta);
 }
@@ -0,0 +1,18 @@
+package com.refugio.repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Consultas de facturas que se construyen en tiempo de ejecución (Criteria API)
+public interface FacturaRepositoryCustom {
+
+    // Página del filtro ordenada por (fechaEmision, id) descendente a partir del cursor (null = primera página).
+    // haciaAtras recorre en sentido contrario desde el cursor para obtener la página anterior.
+    List<FacturaListado> filtrarPagina(FiltroFacturas filtro, LocalDate fechaCursor, Long idCursor,
+                                       boolean haciaAtras, int filas);
+
+    // Todas las facturas del filtro, en el mismo orden, leídas del cursor de tamanoFetch en tamanoFetch filas.
+    // El Stream debe consumirse dentro de una transacción y cerrarse al terminar.
+    Stream<FacturaListado> streamFiltradas(FiltroFacturas filtro, int tamanoFetch);
+}
@@ -0,0 +1,116 @@
+package com.refugio.repository;
+
+import com.refugio.JPA.Factura;
+import com.refugio.JPA.Plan;
+import com.refugio.JPA.Suscripcion;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.criteria.*;
+import org.hibernate.jpa.HibernateHints;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Filtro dinámico de facturas: la consulta solo lleva los predicados de los criterios informados,
+// así H2 puede usar el índice que corresponda a cada combinación en lugar de un plan genérico
+// con "(:p IS NULL OR ...)" que acaba recorriendo toda la tabla
+public class FacturaRepositoryImpl implements FacturaRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    public List<FacturaListado> filtrarPagina(FiltroFacturas filtro, LocalDate fechaCursor, Long idCursor,
+                                              boolean haciaAtras, int filas) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<FacturaListado> query = cb.createQuery(FacturaListado.class);
+        Root<Factura> f = seleccionarListado(cb, query);
+
+        Path<LocalDate> fecha = f.get("fechaEmision");
+        Path<Long> id = f.get("id");
+
+        List<Predicate> predicados = predicados(cb, f, filtro);
+        // Keyset en forma de rango sobre fechaEmision (igual que FacturaRepository.findPaginaDespuesDe)
+        if (fechaCursor != null && idCursor != null) {
+            if (haciaAtras) {
+                predicados.add(cb.greaterThanOrEqualTo(fecha, fechaCursor));
+                predicados.add(cb.or(cb.greaterThan(fecha, fechaCursor), cb.greaterThan(id, idCursor)));
+            } else {
+                predicados.add(cb.lessThanOrEqualTo(fecha, fechaCursor));
+                predicados.add(cb.or(cb.lessThan(fecha, fechaCursor), cb.lessThan(id, idCursor)));
+            }
+        }
+        query.where(predicados.toArray(new Predicate[0]));
+        query.orderBy(orden(cb, f, filtro, haciaAtras));
+
+        return entityManager.createQuery(query)
+                .setMaxResults(filas)
+                .getResultList();
+    }
+
+    @Override
+    public Stream<FacturaListado> streamFiltradas(FiltroFacturas filtro, int tamanoFetch) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<FacturaListado> query = cb.createQuery(FacturaListado.class);
+        Root<Factura> f = seleccionarListado(cb, query);
+        query.where(predicados(cb, f, filtro).toArray(new Predicate[0]));
+        query.orderBy(orden(cb, f, filtro, false));
+
+        // Las filas son DTO (no quedan en el contexto de persistencia): la memoria no crece con el volumen
+        return entityManager.createQuery(query)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, tamanoFetch)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream();
+    }
+
+    // FROM facturas con suscripción y plan, y SELECT de la proyección del listado.
+    // LEFT JOIN (la suscripción y el plan son obligatorios): H2 no reordena las uniones externas,
+    // así que facturas se lee primero por el índice del filtro y no a través de suscripción/plan
+    private Root<Factura> seleccionarListado(CriteriaBuilder cb, CriteriaQuery<FacturaListado> query) {
+        Root<Factura> f = query.from(Factura.class);
+        Join<Factura, Suscripcion> s = f.join("suscripcion", JoinType.LEFT);
+        Join<Suscripcion, Plan> p = s.join("plan", JoinType.LEFT);
+
+        query.select(cb.construct(FacturaListado.class,
+                f.get("id"), f.get("fechaEmision"), s.get("id"), p.get("nombre"),
+                f.get("importe"), f.get("importeImpuesto"), f.get("importeTotal"),
+                f.get("paisImpuesto"), f.get("tasaImpuesto"), f.get("estado")));
+        return f;
+    }
+
+    private List<Predicate> predicados(CriteriaBuilder cb, Root<Factura> f, FiltroFacturas filtro) {
+        Path<LocalDate> fecha = f.get("fechaEmision");
+
+        List<Predicate> predicados = new ArrayList<>();
+        if (filtro.estado() != null) {
+            predicados.add(cb.equal(f.get("estado"), filtro.estado()));
+        }
+        if (filtro.fechaInicio() != null) {
+            predicados.add(cb.greaterThanOrEqualTo(fecha, filtro.fechaInicio()));
+        }
+        if (filtro.fechaFin() != null) {
+            predicados.add(cb.lessThanOrEqualTo(fecha, filtro.fechaFin()));
+        }
+        if (filtro.montoMinimo() != null) {
+            predicados.add(cb.greaterThanOrEqualTo(f.get("importeTotal"), filtro.montoMinimo()));
+        }
+        if (filtro.montoMaximo() != null) {
+            predicados.add(cb.lessThanOrEqualTo(f.get("importeTotal"), filtro.montoMaximo()));
+        }
+        return predicados;
+    }
+
+    // (fechaEmision, id) descendente; con estado fijo se ordena también por él para que el orden
+    // coincida con idx_fact_estado_fecha_desc
+    private List<Order> orden(CriteriaBuilder cb, Root<Factura> f, FiltroFacturas filtro, boolean haciaAtras) {
+        List<Order> orden = new ArrayList<>();
+        if (filtro.estado() != null) {
+            orden.add(haciaAtras ? cb.asc(f.get("estado")) : cb.desc(f.get("estado")));
+        }
+        orden.add(haciaAtras ? cb.asc(f.get("fechaEmision")) : cb.desc(f.get("fechaEmision")));
+        orden.add(haciaAtras ? cb.asc(f.get("id")) : cb.desc(f.get("id")));
+        return orden;
+    }
+}
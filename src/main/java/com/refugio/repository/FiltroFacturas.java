@@ -0,0 +1,15 @@
+package com.refugio.repository;
+
+import com.refugio.JPA.Factura;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+// Criterios opcionales del filtro de facturas: solo los que no son null entran en la consulta
+public record FiltroFacturas(
+        LocalDate fechaInicio,
+        LocalDate fechaFin,
+        BigDecimal montoMinimo,
+        BigDecimal montoMaximo,
+        Factura.EstadoFactura estado) {
+}
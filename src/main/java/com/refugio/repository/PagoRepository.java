@@ -0,0 +1,12 @@
+package com.refugio.repository;
+
+import com.refugio.JPA.Pago;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface PagoRepository extends JpaRepository<Pago, Long> {
+    Optional<Pago> findByFacturaId(Long facturaId);
+}
@@ -0,0 +1,32 @@
+package com.refugio.repository;
+
+import com.refugio.JPA.ParticionEjecucion;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+// Repositorio de las marcas de agua por partición
+@Repository
+public interface ParticionEjecucionRepository extends JpaRepository<ParticionEjecucion, Long> {
+
+    List<ParticionEjecucion> findByEjecucionIdOrderByParticion(Long ejecucionId);
+
+    // Avanza la marca de agua y suma los contadores de un lote en la fila de su partición
+    @Modifying
+    @Query("UPDATE ParticionEjecucion p SET p.ultimoIdProcesado = :ultimoId, " +
+            "p.renovadas = p.renovadas + :renovadas, p.fallidas = p.fallidas + :fallidas, p.lotes = p.lotes + 1 " +
+            "WHERE p.id = :id")
+    int registrarLote(
+            @Param("id") Long id,
+            @Param("ultimoId") Long ultimoId,
+            @Param("renovadas") long renovadas,
+            @Param("fallidas") long fallidas);
+
+    @Modifying
+    @Query("UPDATE ParticionEjecucion p SET p.completada = true WHERE p.id = :id")
+    int marcarCompletada(@Param("id") Long id);
+}
@@ -1,13 +1,29 @@
 package com.refugio.repository;
 
 import com.refugio.JPA.Plan;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface PlanRepository extends JpaRepository<Plan, Long> {
+
+    // Consultas en la caché de consultas (región de planes): guarda los ids y los planes salen de la caché de
+    // entidades
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = Plan.REGION_CONSULTAS)
+    })
     Optional<Plan> findByTipo(Plan.TipoPlan tipo);
-}
 
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHE_REGION, value = Plan.REGION_CONSULTAS)
+    })
+    List<Plan> findAllByOrderByPrecioMensualAsc();
+}
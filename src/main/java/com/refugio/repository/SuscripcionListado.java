@@ -0,0 +1,18 @@
+package com.refugio.repository;
+
+import com.refugio.JPA.Suscripcion;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+// Fila del listado de suscripciones: datos de usuario y plan ya resueltos en la misma consulta
+public record SuscripcionListado(
+        Long id,
+        String usuarioEmail,
+        String planNombre,
+        BigDecimal planPrecioMensual,
+        Suscripcion.EstadoSuscripcion estado,
+        LocalDate fechaInicio,
+        LocalDate proximaRenovacion,
+        Boolean renovacionAutomatica) {
+}
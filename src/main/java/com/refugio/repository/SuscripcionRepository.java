@@ -1,7 +1,11 @@
 package com.refugio.repository;
 
 import com.refugio.JPA.Suscripcion;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -13,12 +17,49 @@ import java.util.List;
 @Repository
 public interface SuscripcionRepository extends JpaRepository<Suscripcion, Long> {
 
+    // Proyección del listado: suscripción, usuario y plan en un solo SELECT
+    // (LEFT JOIN para que H2 recorra suscripciones primero, como en FacturaRepository.LISTADO)
+    String LISTADO = "new com.refugio.repository.SuscripcionListado(s.id, u.email, p.nombre, p.precioMensual, " +
+            "s.estado, s.fechaInicio, s.proximaRenovacion, s.renovacionAutomatica) " +
+            "FROM Suscripcion s LEFT JOIN s.usuario u LEFT JOIN s.plan p ";
+
     List<Suscripcion> findByUsuarioIdAndEstado(Long usuarioId, Suscripcion.EstadoSuscripcion estado);
 
-    @Query("SELECT s FROM Suscripcion s WHERE s.renovacionAutomatica = true " +
+    // Ids del lote de renovación por keyset (id > ultimoId) de una partición (id % particiones)
+    @Query("SELECT s.id FROM Suscripcion s WHERE s.renovacionAutomatica = true " +
+            "AND s.estado = 'ACTIVA' " +
+            "AND s.proximaRenovacion <= :fecha " +
+            "AND s.id > :ultimoId " +
+            "AND MOD(s.id, :particiones) = :particion " +
+            "ORDER BY s.id")
+    List<Long> findIdsParaRenovar(
+            @Param("fecha") LocalDate fecha,
+            @Param("ultimoId") Long ultimoId,
+            @Param("particion") int particion,
+            @Param("particiones") int particiones,
+            Pageable pageable);
+
+    // Las del lote que siguen por renovar a esa fecha. Quedan bloqueadas hasta el commit, así que la factura y la
+    // nueva fecha de renovación se escriben solo sobre estas filas: una suscripción cancelada, transferida o en
+    // IMPAGO desde la lectura de los ids no se factura ni vuelve a ACTIVA con el UPDATE del lote.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s.id FROM Suscripcion s WHERE s.id IN :ids " +
+            "AND s.renovacionAutomatica = true " +
             "AND s.estado = 'ACTIVA' " +
-            "AND s.proximaRenovacion <= :fecha")
-    List<Suscripcion> findSuscripcionesParaRenovar(@Param("fecha") LocalDate fecha);
+            "AND s.proximaRenovacion <= :fecha " +
+            "ORDER BY s.id")
+    List<Long> findRenovablesParaActualizar(
+            @Param("ids") List<Long> ids,
+            @Param("fecha") LocalDate fecha);
+
+    // Suscripciones del lote ya bloqueadas, con plan y perfil cargados
+    @Query("SELECT s FROM Suscripcion s " +
+            "JOIN FETCH s.plan " +
+            "JOIN FETCH s.usuario u " +
+            "LEFT JOIN FETCH u.perfil " +
+            "WHERE s.id IN :ids " +
+            "ORDER BY s.id")
+    List<Suscripcion> findLoteParaRenovar(@Param("ids") List<Long> ids);
 
     @Query("SELECT s FROM Suscripcion s WHERE s.estado = 'ACTIVA' " +
             "AND s.proximaRenovacion BETWEEN :fechaInicio AND :fechaFin")
@@ -26,12 +67,88 @@ public interface SuscripcionRepository extends JpaRepository<Suscripcion, Long>
             @Param("fechaInicio") LocalDate fechaInicio,
             @Param("fechaFin") LocalDate fechaFin);
 
+    @Query("SELECT " + LISTADO + "WHERE s.estado = 'ACTIVA' " +
+            "AND s.proximaRenovacion BETWEEN :fechaInicio AND :fechaFin " +
+            "ORDER BY s.proximaRenovacion, s.id")
+    List<SuscripcionListado> findListadoProximasAVencer(
+            @Param("fechaInicio") LocalDate fechaInicio,
+            @Param("fechaFin") LocalDate fechaFin);
+
+    @Query("SELECT COUNT(s) FROM Suscripcion s WHERE s.estado = 'ACTIVA' " +
+            "AND s.proximaRenovacion BETWEEN :fechaInicio AND :fechaFin")
+    long countProximasAVencer(
+            @Param("fechaInicio") LocalDate fechaInicio,
+            @Param("fechaFin") LocalDate fechaFin);
+
+    // Número de suscripciones por estado (filas [estado, total])
+    @Query("SELECT s.estado, COUNT(s) FROM Suscripcion s GROUP BY s.estado")
+    List<Object[]> contarPorEstado();
+
+    @Modifying
+    @Query("UPDATE Suscripcion s SET s.estado = :nuevoEstado " +
+            "WHERE s.id IN :ids AND s.estado = 'ACTIVA'")
+    int cambiarEstadoEnLote(
+            @Param("ids") List<Long> ids,
+            @Param("nuevoEstado") Suscripcion.EstadoSuscripcion nuevoEstado);
+
     List<Suscripcion> findByEstado(Suscripcion.EstadoSuscripcion estado);
 
-    @Query("SELECT s FROM Suscripcion s WHERE s.renovacionAutomatica = false " +
+    @Query("SELECT " + LISTADO + "WHERE s.estado = :estado ORDER BY s.id DESC")
+    List<SuscripcionListado> findListadoPorEstado(@Param("estado") Suscripcion.EstadoSuscripcion estado);
+
+    @Query("SELECT s.id FROM Suscripcion s WHERE s.renovacionAutomatica = false " +
+            "AND s.estado = 'ACTIVA' " +
+            "AND s.fechaFin <= :fecha " +
+            "AND s.id > :ultimoId " +
+            "ORDER BY s.id")
+    List<Long> findIdsExpiradas(
+            @Param("fecha") LocalDate fecha,
+            @Param("ultimoId") Long ultimoId,
+            Pageable pageable);
+
+    // Las del lote que siguen por expirar a esa fecha, con su fecha de fin (filas [id, fechaFin]). Quedan bloqueadas
+    // hasta el commit, así que el UPDATE y la auditoría del lote se hacen sobre exactamente estas filas y con la
+    // fecha que se leyó aquí.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s.id, s.fechaFin FROM Suscripcion s WHERE s.id IN :ids " +
+            "AND s.renovacionAutomatica = false " +
+            "AND s.estado = 'ACTIVA' " +
+            "AND s.fechaFin <= :fecha " +
+            "ORDER BY s.id")
+    List<Object[]> findExpiradasParaActualizar(
+            @Param("ids") List<Long> ids,
+            @Param("fecha") LocalDate fecha);
+
+    // Las del lote que siguen ACTIVA con alguna factura emitida antes del límite. Quedan bloqueadas hasta el
+    // commit: el UPDATE y la auditoría del lote de impagos se hacen sobre exactamente estas filas.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT s.id FROM Suscripcion s WHERE s.id IN :ids " +
             "AND s.estado = 'ACTIVA' " +
-            "AND s.fechaFin <= :fecha")
-    List<Suscripcion> findSuscripcionesExpiradas(@Param("fecha") LocalDate fecha);
+            "AND EXISTS (SELECT f.id FROM Factura f WHERE f.suscripcion = s " +
+            "AND f.estado = 'EMITIDA' AND f.fechaEmision < :limite) " +
+            "ORDER BY s.id")
+    List<Long> findImpagadasParaActualizar(
+            @Param("ids") List<Long> ids,
+            @Param("limite") LocalDate limite);
+
+    // Cambio de estado masivo (no pasa por Envers: la auditoría se escribe aparte)
+    @Modifying
+    @Query("UPDATE Suscripcion s SET s.estado = :nuevoEstado, s.fechaFin = :fechaFin " +
+            "WHERE s.id IN :ids AND s.estado = 'ACTIVA'")
+    int finalizarEnLote(
+            @Param("ids") List<Long> ids,
+            @Param("nuevoEstado") Suscripcion.EstadoSuscripcion nuevoEstado,
+            @Param("fechaFin") LocalDate fechaFin);
 
     List<Suscripcion> findByUsuarioId(Long usuarioId);
+
+    // Listado paginado por keyset sobre la clave primaria, de la más reciente a la más antigua
+    @Query("SELECT " + LISTADO + "ORDER BY s.id DESC")
+    List<SuscripcionListado> findPrimeraPagina(Pageable pageable);
+
+    @Query("SELECT " + LISTADO + "WHERE s.id < :id ORDER BY s.id DESC")
+    List<SuscripcionListado> findPaginaDespuesDe(@Param("id") Long id, Pageable pageable);
+
+    @Query("SELECT " + LISTADO + "WHERE s.id > :id ORDER BY s.id ASC")
+    List<SuscripcionListado> findPaginaAntesDe(@Param("id") Long id, Pageable pageable);
 }
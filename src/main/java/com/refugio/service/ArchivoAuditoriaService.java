@@ -0,0 +1,423 @@
+package com.refugio.service;
+
+import com.refugio.JPA.RevisionAuditoria;
+import com.refugio.config.EnversInterno;
+import com.refugio.config.EstadoAuditado;
+import com.refugio.service.SegmentoAuditoria.ClaveHistorial;
+import com.refugio.service.SegmentoAuditoria.RegistroArchivado;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.envers.AuditReaderFactory;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.query.AuditEntity;
+import org.hibernate.envers.query.criteria.AuditCriterion;
+import org.hibernate.envers.query.criteria.AuditId;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+// Archivo de auditoría: saca de las tablas _AUD las revisiones anteriores al horizonte y las guarda en segmentos
+// comprimidos de solo lectura (ver SegmentoAuditoria). De cada entidad se queda en _AUD su última revisión anterior
+// al corte, así que Envers sigue resolviendo el estado y las relaciones en cualquier revisión posterior; lo que
+// se archiva son las versiones ya superadas. Las revisiones (REVINFO/REVCHANGES) sin filas _AUD se borran.
+// Sin refugio.auditoria.archivo.directorio el archivo está desactivado.
+@Service
+public class ArchivoAuditoriaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ArchivoAuditoriaService.class);
+
+    private final TransactionTemplate transactionTemplate;
+    private final Path directorio;
+    private final int horizonteDias;
+    private final int tamanoVentana;
+
+    // Segmentos en orden de escritura (una pasada de archivo, un segmento)
+    private final List<SegmentoAuditoria> segmentos = new CopyOnWriteArrayList<>();
+    private final ReentrantLock archivo = new ReentrantLock();
+    private volatile Instant ultimoArchivo;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public ArchivoAuditoriaService(TransactionTemplate transactionTemplate,
+                                   @Value("${refugio.auditoria.archivo.directorio:}") String directorio,
+                                   @Value("${refugio.auditoria.archivo.horizonte-dias:365}") int horizonteDias,
+                                   @Value("${refugio.auditoria.archivo.tamano-ventana:1000}") int tamanoVentana) {
+        this.transactionTemplate = transactionTemplate;
+        this.directorio = directorio.isBlank() ? null : Path.of(directorio);
+        this.horizonteDias = horizonteDias;
+        this.tamanoVentana = tamanoVentana;
+    }
+
+    // Mapea los segmentos que ya hay en el directorio (los temporales de una pasada interrumpida se descartan)
+    @PostConstruct
+    public void abrirSegmentos() throws IOException {
+        if (directorio == null || !Files.isDirectory(directorio)) {
+            return;
+        }
+        try (Stream<Path> ficheros = Files.list(directorio)) {
+            for (Path fichero : ficheros.sorted().toList()) {
+                String nombre = fichero.getFileName().toString();
+                if (nombre.endsWith(SegmentoAuditoria.EXTENSION)) {
+                    segmentos.add(SegmentoAuditoria.abrir(fichero));
+                } else if (nombre.endsWith(SegmentoAuditoria.EXTENSION + ".tmp")) {
+                    Files.delete(fichero);
+                }
+            }
+        }
+        logger.info("Archivo de auditoría: {} segmentos en {}", segmentos.size(), directorio);
+    }
+
+    public boolean isActivo() {
+        return directorio != null;
+    }
+
+    // Pasada diaria: archiva lo anterior a horizonte-dias
+    @Scheduled(cron = "${refugio.auditoria.archivo.cron:-}")
+    public void archivarProgramado() {
+        if (isActivo()) {
+            archivarAnterioresA(Instant.now().minus(Duration.ofDays(horizonteDias)));
+        }
+    }
+
+    // Archiva las versiones superadas de las revisiones anteriores a limite: primero se escribe y publica el
+    // segmento y después se borran las filas de la base de datos. Si la pasada se interrumpe entre los dos pasos,
+    // la siguiente vuelve a archivar esas filas y la lectura descarta las revisiones repetidas.
+    // El corte es la mayor revisión que, con todas las anteriores, es previa a limite. Los números no siguen
+    // necesariamente a las fechas (el escritor diferido fecha la revisión con el cambio y la numera al escribirla
+    // en orden de cola), así que una revisión previa al horizonte que va detrás de otra posterior espera a la
+    // siguiente pasada en lugar de arrastrar la posterior al segmento.
+    public ResultadoArchivo archivarAnterioresA(Instant limite) {
+        if (!isActivo()) {
+            throw new IllegalStateException("Archivo de auditoría no configurado (refugio.auditoria.archivo.directorio)");
+        }
+        archivo.lock();
+        try {
+            long inicio = System.nanoTime();
+            Integer corte = transactionTemplate.execute(status -> entityManager.createQuery(
+                            "SELECT MAX(r.id) FROM RevisionAuditoria r WHERE r.timestamp < :limite " +
+                            "AND NOT EXISTS (SELECT 1 FROM RevisionAuditoria n " +
+                            "WHERE n.id <= r.id AND n.timestamp >= :limite)", Integer.class)
+                    .setParameter("limite", limite.toEpochMilli())
+                    .getSingleResult());
+            if (corte == null) {
+                return new ResultadoArchivo(0, 0, 0, 0, null);
+            }
+
+            Files.createDirectories(directorio);
+            Path destino = directorio.resolve(String.format("revisiones-hasta-%010d-%d%s",
+                    corte, System.currentTimeMillis(), SegmentoAuditoria.EXTENSION));
+            SegmentoAuditoria segmento;
+            int registros;
+            try (SegmentoAuditoria.Escritor escritor = new SegmentoAuditoria.Escritor(destino)) {
+                registros = Objects.requireNonNull(
+                        transactionTemplate.execute(status -> escribirArchivadas(escritor, corte)));
+                if (registros == 0) {
+                    return new ResultadoArchivo(corte, 0, 0, 0, null);
+                }
+                segmento = escritor.terminar();
+            }
+            segmentos.add(segmento);
+
+            int[] borradas = Objects.requireNonNull(transactionTemplate.execute(status -> borrarArchivadas(corte)));
+            ultimoArchivo = Instant.now();
+            logger.info("Archivo de auditoría: {} versiones hasta la revisión {} en {} ({} bytes), " +
+                            "{} filas _AUD y {} revisiones borradas ({} ms)", registros, corte,
+                    segmento.getFichero().getFileName(), segmento.getTamano(), borradas[0], borradas[1],
+                    (System.nanoTime() - inicio) / 1_000_000);
+            return new ResultadoArchivo(corte, registros, borradas[0], borradas[1],
+                    segmento.getFichero().getFileName().toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException("No se pudo escribir el segmento de auditoría", e);
+        } finally {
+            archivo.unlock();
+        }
+    }
+
+    // Recorre cada jerarquía auditada por ventanas de ids y pasa al segmento todas las versiones hasta el corte
+    // menos la última de cada entidad. Devuelve cuántas versiones escribió.
+    private int escribirArchivadas(SegmentoAuditoria.Escritor escritor, int corte) {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        int registros = 0;
+        for (EntityPersister raiz : entidadesAuditadas(session)) {
+            String auditada = EnversInterno.configuracion(session).getAuditEntityName(raiz.getEntityName());
+            String id = "a.originalId." + raiz.getIdentifierPropertyName();
+            Object[] rango = entityManager.createQuery("SELECT MIN(" + id + "), MAX(" + id + ") FROM " + auditada +
+                            " a WHERE a.originalId.REV.id <= :corte", Object[].class)
+                    .setParameter("corte", corte)
+                    .getSingleResult();
+            if (rango[0] == null) {
+                continue;
+            }
+
+            for (long desde = (Long) rango[0]; desde <= (Long) rango[1]; desde += tamanoVentana) {
+                List<?> filas = AuditReaderFactory.get(entityManager).createQuery()
+                        .forRevisionsOfEntity(raiz.getMappedClass(), false, true)
+                        .add(idEntre(desde, desde + tamanoVentana - 1))
+                        .add(AuditEntity.revisionNumber().le(corte))
+                        .addOrder(AuditEntity.id().asc())
+                        .addOrder(AuditEntity.revisionNumber().asc())
+                        .getResultList();
+
+                List<RegistroArchivado> historial = new ArrayList<>();
+                Long idActual = null;
+                for (Object fila : filas) {
+                    Object[] resultado = (Object[]) fila;
+                    EntityPersister persister = session.getFactory().getMappingMetamodel()
+                            .getEntityDescriptor(resultado[0].getClass());
+                    Long idEntidad = (Long) persister.getIdentifier(resultado[0], session);
+                    if (!idEntidad.equals(idActual)) {
+                        registros += agregarHistorial(escritor, raiz, idActual, historial);
+                        idActual = idEntidad;
+                    }
+                    RevisionAuditoria revision = (RevisionAuditoria) resultado[1];
+                    historial.add(new RegistroArchivado(revision.getId(), revision.getTimestamp(),
+                            (RevisionType) resultado[2], persister.getEntityName(),
+                            EstadoAuditado.serializar(session, persister, persister.getValues(resultado[0]))));
+                }
+                registros += agregarHistorial(escritor, raiz, idActual, historial);
+                entityManager.clear();
+            }
+        }
+        return registros;
+    }
+
+    // Versiones con id en [desde, hasta]. AuditEntity.id() devuelve AuditId sin parametrizar; los ids de las
+    // entidades auditadas son Long, así que la conversión a AuditId<Long> es segura.
+    @SuppressWarnings("unchecked")
+    private static AuditCriterion idEntre(long desde, long hasta) {
+        AuditId<Long> id = AuditEntity.id();
+        return id.between(desde, hasta);
+    }
+
+    // La última versión se queda en _AUD; el resto va al segmento
+    private static int agregarHistorial(SegmentoAuditoria.Escritor escritor, EntityPersister raiz, Long id,
+                                        List<RegistroArchivado> historial) {
+        int archivadas = historial.size() - 1;
+        try {
+            if (archivadas > 0) {
+                escritor.agregar(new ClaveHistorial(raiz.getEntityName(), id), historial.subList(0, archivadas));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            historial.clear();
+        }
+        return Math.max(archivadas, 0);
+    }
+
+    // Borra las versiones archivadas (las que tienen otra posterior hasta el corte) y las revisiones que se
+    // quedan sin filas _AUD. Devuelve {filas _AUD, revisiones}.
+    private int[] borrarArchivadas(int corte) {
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        int filas = 0;
+        StringBuilder sinFilas = new StringBuilder();
+        for (EntityPersister raiz : entidadesAuditadas(session)) {
+            String auditada = EnversInterno.configuracion(session).getAuditEntityName(raiz.getEntityName());
+            String id = raiz.getIdentifierPropertyName();
+            filas += entityManager.createQuery("DELETE FROM " + auditada + " a " +
+                            "WHERE a.originalId.REV.id <= :corte AND EXISTS (SELECT 1 FROM " + auditada + " b " +
+                            "WHERE b.originalId." + id + " = a.originalId." + id + " " +
+                            "AND b.originalId.REV.id > a.originalId.REV.id AND b.originalId.REV.id <= :corte)")
+                    .setParameter("corte", corte)
+                    .executeUpdate();
+            sinFilas.append(" AND NOT EXISTS (SELECT 1 FROM ").append(auditada)
+                    .append(" a WHERE a.originalId.REV.id = r.id)");
+        }
+        int revisiones = entityManager.createQuery("DELETE FROM RevisionAuditoria r WHERE r.id <= :corte" + sinFilas)
+                .setParameter("corte", corte)
+                .executeUpdate();
+        return new int[] {filas, revisiones};
+    }
+
+    // Versiones archivadas de una entidad con revisión en [revisionDesde, revisionHasta) (límites opcionales), como
+    // mucho maximo: las más antiguas del rango o, con descendente, las más recientes, en ese orden. Solo se leen los
+    // segmentos cuyas revisiones caen en el rango, se deja de leer cuando los que quedan ya no pueden entrar en la
+    // página y solo se reconstruyen las versiones de la página.
+    // Las relaciones apuntan a la entidad actual (referencia sin inicializar), no a su versión en esa revisión.
+    @Transactional(readOnly = true)
+    public <T> List<RevisionArchivada<T>> obtenerHistorial(Class<T> claseEntidad, Long entityId, Long revisionDesde,
+                                                           Long revisionHasta, int maximo, boolean descendente) {
+        if (segmentos.isEmpty() || maximo <= 0) {
+            return List.of();
+        }
+        int desde = revisionDesde == null ? 0 : Math.clamp(revisionDesde, 0, Integer.MAX_VALUE);
+        int hasta = revisionHasta == null ? Integer.MAX_VALUE : Math.clamp(revisionHasta, 0, Integer.MAX_VALUE);
+        List<SegmentoAuditoria> candidatos = segmentos.stream()
+                .filter(s -> s.getEntradas() > 0 && s.getUltimaRevision() >= desde && s.getPrimeraRevision() < hasta)
+                .sorted(descendente
+                        ? Comparator.comparingInt(SegmentoAuditoria::getUltimaRevision).reversed()
+                        : Comparator.comparingInt(SegmentoAuditoria::getPrimeraRevision))
+                .toList();
+        if (candidatos.isEmpty()) {
+            return List.of();
+        }
+
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        String raiz = EstadoAuditado.persister(session, claseEntidad.getName()).getRootEntityName();
+        TreeMap<Integer, RegistroArchivado> porRevision = new TreeMap<>();
+        for (SegmentoAuditoria segmento : candidatos) {
+            if (porRevision.size() >= maximo && (descendente
+                    ? segmento.getUltimaRevision() < porRevision.firstKey()
+                    : segmento.getPrimeraRevision() > porRevision.lastKey())) {
+                break;
+            }
+            for (RegistroArchivado registro : segmento.leer(raiz, entityId, desde, hasta)) {
+                porRevision.putIfAbsent(registro.revision(), registro);
+            }
+            while (porRevision.size() > maximo) {
+                if (descendente) {
+                    porRevision.pollFirstEntry();
+                } else {
+                    porRevision.pollLastEntry();
+                }
+            }
+        }
+
+        List<RevisionArchivada<T>> historial = new ArrayList<>(porRevision.size());
+        for (RegistroArchivado registro : descendente ? porRevision.descendingMap().values() : porRevision.values()) {
+            historial.add(new RevisionArchivada<>(
+                    (long) registro.revision(),
+                    new Date(registro.timestamp()),
+                    claseEntidad.cast(reconstruir(session, registro, entityId)),
+                    registro.tipo()
+            ));
+        }
+        return historial;
+    }
+
+    // Entidad desacoplada con el estado archivado (las colecciones no se archivan y quedan vacías)
+    private static Object reconstruir(SessionImplementor session, RegistroArchivado registro, Long entityId) {
+        EntityPersister persister = EstadoAuditado.persister(session, registro.entidad());
+        Object entidad = persister.instantiate(entityId, session);
+        Object[] estado = EstadoAuditado.deserializar(session, persister, registro.estado());
+        Type[] tipos = persister.getPropertyTypes();
+        for (int i = 0; i < estado.length; i++) {
+            if (estado[i] != null && !(tipos[i] instanceof CollectionType)) {
+                persister.setValue(entidad, i, estado[i]);
+            }
+        }
+        return entidad;
+    }
+
+    // Raíces de las jerarquías auditadas, en orden de nombre (el orden de los segmentos)
+    private static List<EntityPersister> entidadesAuditadas(SessionImplementor session) {
+        List<EntityPersister> raices = new ArrayList<>();
+        session.getFactory().getMappingMetamodel().forEachEntityDescriptor(persister -> {
+            if (persister.getEntityName().equals(persister.getRootEntityName())
+                    && EnversInterno.auditada(session, persister.getEntityName())) {
+                raices.add(persister);
+            }
+        });
+        raices.sort(Comparator.comparing(EntityPersister::getEntityName));
+        return raices;
+    }
+
+    // Tamaño del archivo (JSON para monitorización)
+    public EstadoArchivo obtenerEstado() {
+        long historiales = 0;
+        long bytes = 0;
+        int ultimaRevision = 0;
+        for (SegmentoAuditoria segmento : segmentos) {
+            historiales += segmento.getEntradas();
+            bytes += segmento.getTamano();
+            ultimaRevision = Math.max(ultimaRevision, segmento.getUltimaRevision());
+        }
+        return new EstadoArchivo(isActivo(), horizonteDias, segmentos.size(), historiales, bytes,
+                ultimaRevision, ultimoArchivo);
+    }
+
+    // Versión archivada de una entidad
+    public static class RevisionArchivada<T> {
+        private final Long numeroRevision;
+        private final Date fecha;
+        private final T entidad;
+        private final RevisionType tipo;
+
+        public RevisionArchivada(Long numeroRevision, Date fecha, T entidad, RevisionType tipo) {
+            this.numeroRevision = numeroRevision;
+            this.fecha = fecha;
+            this.entidad = entidad;
+            this.tipo = tipo;
+        }
+
+        public Long getNumeroRevision() { return numeroRevision; }
+        public Date getFecha() { return fecha; }
+        public T getEntidad() { return entidad; }
+        public RevisionType getTipo() { return tipo; }
+    }
+
+    // DTO con el resultado de una pasada de archivo
+    public static class ResultadoArchivo {
+        private final int revisionCorte;
+        private final int versionesArchivadas;
+        private final int filasBorradas;
+        private final int revisionesBorradas;
+        private final String segmento;
+
+        public ResultadoArchivo(int revisionCorte, int versionesArchivadas, int filasBorradas,
+                                int revisionesBorradas, String segmento) {
+            this.revisionCorte = revisionCorte;
+            this.versionesArchivadas = versionesArchivadas;
+            this.filasBorradas = filasBorradas;
+            this.revisionesBorradas = revisionesBorradas;
+            this.segmento = segmento;
+        }
+
+        public int getRevisionCorte() { return revisionCorte; }
+        public int getVersionesArchivadas() { return versionesArchivadas; }
+        public int getFilasBorradas() { return filasBorradas; }
+        public int getRevisionesBorradas() { return revisionesBorradas; }
+        public String getSegmento() { return segmento; }
+    }
+
+    // DTO con el estado del archivo
+    public static class EstadoArchivo {
+        private final boolean activo;
+        private final int horizonteDias;
+        private final int segmentos;
+        private final long historiales;
+        private final long bytes;
+        private final int ultimaRevisionArchivada;
+        private final Instant ultimoArchivo;
+
+        public EstadoArchivo(boolean activo, int horizonteDias, int segmentos, long historiales, long bytes,
+                             int ultimaRevisionArchivada, Instant ultimoArchivo) {
+            this.activo = activo;
+            this.horizonteDias = horizonteDias;
+            this.segmentos = segmentos;
+            this.historiales = historiales;
+            this.bytes = bytes;
+            this.ultimaRevisionArchivada = ultimaRevisionArchivada;
+            this.ultimoArchivo = ultimoArchivo;
+        }
+
+        public boolean isActivo() { return activo; }
+        public int getHorizonteDias() { return horizonteDias; }
+        public int getSegmentos() { return segmentos; }
+        public long getHistoriales() { return historiales; }
+        public long getBytes() { return bytes; }
+        public int getUltimaRevisionArchivada() { return ultimaRevisionArchivada; }
+        public Instant getUltimoArchivo() { return ultimoArchivo; }
+    }
+}
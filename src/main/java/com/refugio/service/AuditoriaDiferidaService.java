@@ -0,0 +1,159 @@
+package com.refugio.service;
+
+import com.refugio.JPA.AuditoriaPendiente;
+import com.refugio.JPA.RevisionAuditoria;
+import com.refugio.config.AuditoriaDiferidaListener;
+import com.refugio.config.EnversInterno.UnidadAuditoria;
+import com.refugio.repository.AuditoriaPendienteRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Escritor de la auditoría diferida: convierte cada fila de auditoria_pendiente en una revisión de Envers
+// (REVINFO con la fecha del commit original, REVCHANGES y filas _AUD) por lotes, cada lote en una transacción
+// que también borra las filas escritas. Con un solo escritor por aplicación las revisiones siguen el orden de la cola.
+@Service
+public class AuditoriaDiferidaService {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditoriaDiferidaService.class);
+
+    private final AuditoriaPendienteRepository auditoriaPendienteRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean diferida;
+    private final int tamanoLote;
+
+    private final ReentrantLock escritura = new ReentrantLock();
+    private final AtomicLong revisionesEscritas = new AtomicLong();
+    private volatile Instant ultimaEscritura;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public AuditoriaDiferidaService(AuditoriaPendienteRepository auditoriaPendienteRepository,
+                                    TransactionTemplate transactionTemplate,
+                                    @Value("${refugio.auditoria.modo:sincrona}") String modo,
+                                    @Value("${refugio.auditoria.tamano-lote:200}") int tamanoLote) {
+        this.auditoriaPendienteRepository = auditoriaPendienteRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.diferida = "diferida".equals(modo);
+        this.tamanoLote = tamanoLote;
+    }
+
+    // Vacía la cola periódicamente (solo en modo diferido)
+    @Scheduled(fixedDelayString = "${refugio.auditoria.escritura-ms:1000}",
+            initialDelayString = "${refugio.auditoria.escritura-ms:1000}")
+    public void escribirPendientesProgramado() {
+        if (diferida) {
+            escribirPendientes();
+        }
+    }
+
+    // Escribe toda la cola por lotes y devuelve cuántas revisiones creó
+    public int escribirPendientes() {
+        escritura.lock();
+        try {
+            long inicio = System.nanoTime();
+            int revisiones = 0;
+            int lotes = 0;
+            while (true) {
+                Integer escritas = transactionTemplate.execute(status -> escribirLote());
+                if (escritas == null || escritas < 0) {
+                    break;
+                }
+                revisiones += escritas;
+                lotes++;
+            }
+            if (lotes > 0) {
+                ultimaEscritura = Instant.now();
+                revisionesEscritas.addAndGet(revisiones);
+                logger.debug("Auditoría diferida: {} revisiones escritas en {} lotes ({} ms)",
+                        revisiones, lotes, (System.nanoTime() - inicio) / 1_000_000);
+            }
+            return revisiones;
+        } finally {
+            escritura.unlock();
+        }
+    }
+
+    // Un lote de la cola: una revisión por transacción original. Devuelve -1 si la cola está vacía.
+    private int escribirLote() {
+        List<AuditoriaPendiente> pendientes =
+                auditoriaPendienteRepository.findByOrderByIdAsc(PageRequest.ofSize(tamanoLote));
+        if (pendientes.isEmpty()) {
+            return -1;
+        }
+
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        int revisiones = 0;
+        for (AuditoriaPendiente pendiente : pendientes) {
+            Collection<UnidadAuditoria> unidades =
+                    AuditoriaDiferidaListener.unidadesDeTrabajo(session, pendiente.getCambios());
+            if (unidades.isEmpty()) {
+                continue;
+            }
+            RevisionAuditoria revision = new RevisionAuditoria();
+            revision.setTimestamp(pendiente.getFecha().toEpochMilli());
+            entityManager.persist(revision);
+            for (UnidadAuditoria unidad : unidades) {
+                unidad.escribir(session, revision);
+                revision.getModifiedEntityNames().add(unidad.getEntidad());
+            }
+            revisiones++;
+        }
+        auditoriaPendienteRepository.deleteAllInBatch(pendientes);
+        entityManager.flush();
+        entityManager.clear();
+        return revisiones;
+    }
+
+    // Retraso del escritor: transacciones y cambios en cola y antigüedad del más antiguo
+    public EstadoEscritura obtenerEstado() {
+        long transacciones = auditoriaPendienteRepository.count();
+        long cambios = auditoriaPendienteRepository.sumNumeroCambios();
+        Instant masAntigua = auditoriaPendienteRepository.findFechaMasAntigua();
+        long retrasoMs = masAntigua != null ? Duration.between(masAntigua, Instant.now()).toMillis() : 0;
+        return new EstadoEscritura(diferida, transacciones, cambios, retrasoMs,
+                revisionesEscritas.get(), ultimaEscritura);
+    }
+
+    // DTO con el estado del escritor
+    public static class EstadoEscritura {
+        private final boolean diferida;
+        private final long transaccionesPendientes;
+        private final long cambiosPendientes;
+        private final long retrasoMs;
+        private final long revisionesEscritas;
+        private final Instant ultimaEscritura;
+
+        public EstadoEscritura(boolean diferida, long transaccionesPendientes, long cambiosPendientes,
+                               long retrasoMs, long revisionesEscritas, Instant ultimaEscritura) {
+            this.diferida = diferida;
+            this.transaccionesPendientes = transaccionesPendientes;
+            this.cambiosPendientes = cambiosPendientes;
+            this.retrasoMs = retrasoMs;
+            this.revisionesEscritas = revisionesEscritas;
+            this.ultimaEscritura = ultimaEscritura;
+        }
+
+        public boolean isDiferida() { return diferida; }
+        public long getTransaccionesPendientes() { return transaccionesPendientes; }
+        public long getCambiosPendientes() { return cambiosPendientes; }
+        public long getRetrasoMs() { return retrasoMs; }
+        public long getRevisionesEscritas() { return revisionesEscritas; }
+        public Instant getUltimaEscritura() { return ultimaEscritura; }
+    }
+}
@@ -1,12 +1,36 @@
 package com.refugio.service;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.refugio.JPA.Factura;
+import com.refugio.JPA.Pago;
+import com.refugio.JPA.Perfil;
+import com.refugio.JPA.Plan;
+import com.refugio.JPA.RevisionAuditoria;
+import com.refugio.JPA.Suscripcion;
+import com.refugio.JPA.Usuario;
+import com.refugio.config.EstadoAuditado;
+import com.refugio.service.ArchivoAuditoriaService.RevisionArchivada;
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.PersistenceUnitUtil;
+import jakarta.persistence.TypedQuery;
+import org.hibernate.Hibernate;
+import org.hibernate.engine.spi.SessionImplementor;
 import org.hibernate.envers.AuditReader;
 import org.hibernate.envers.AuditReaderFactory;
+import org.hibernate.envers.DefaultRevisionEntity;
 import org.hibernate.envers.RevisionType;
 import org.hibernate.envers.query.AuditEntity;
 import org.hibernate.envers.query.AuditQuery;
+import org.hibernate.envers.query.AuditQueryCreator;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.CollectionType;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.OneToOneType;
+import org.hibernate.type.Type;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -15,143 +39,438 @@ import java.util.*;
 @Service
 public class AuditoriaService {
 
+    private final ArchivoAuditoriaService archivoAuditoriaService;
+    // Versiones ya resueltas por (clase, id, revisión pedida); vacío si la entidad no existía en esa revisión
+    private final Cache<ClaveRevision, Optional<RevisionGuardada>> revisiones;
+    private final long maximoRevisiones;
+
     @PersistenceContext
     private EntityManager entityManager;
 
-    // Obtiene historial de una entidad
+    public AuditoriaService(ArchivoAuditoriaService archivoAuditoriaService,
+                            @Value("${refugio.auditoria.cache-revisiones.maximo:5000}") long maximoRevisiones) {
+        this.archivoAuditoriaService = archivoAuditoriaService;
+        this.maximoRevisiones = maximoRevisiones;
+        this.revisiones = Caffeine.newBuilder()
+                .maximumSize(maximoRevisiones)
+                .recordStats()
+                .build();
+    }
+
+    // Historial de una entidad por páginas, de la revisión más antigua a la más reciente (despues/antes son
+    // números de revisión). Una sola consulta por página: entidad, revisión y tipo de cambio llegan en cada fila.
     @Transactional(readOnly = true)
-    public <T> List<RegistroAuditoria<T>> obtenerHistorial(Class<T> claseEntidad, Long entityId) {
-        AuditReader auditReader = AuditReaderFactory.get(entityManager);
+    public <T> PaginaCursor<RegistroAuditoria<T>> obtenerHistorial(Class<T> claseEntidad, Long entityId,
+                                                                   String despues, String antes, int tamano) {
+        int limite = PaginaCursor.normalizarTamano(tamano);
+        Long revisionDespues = parsearRevision(despues);
+        Long revisionAntes = parsearRevision(antes);
+
+        List<RegistroAuditoria<T>> registros = new ArrayList<>();
+        for (Version<T> version : leerVersiones(claseEntidad, entityId,
+                revisionDespues != null ? revisionDespues + 1 : null, revisionAntes, limite + 1, false)) {
+            registros.add(new RegistroAuditoria<>(version.revision(), version.fecha(), version.entidad(),
+                    describirTipo(version.tipo())));
+        }
 
-        List<Number> revisiones = auditReader.getRevisions(claseEntidad, entityId);
-        List<RegistroAuditoria<T>> historial = new ArrayList<>();
+        return PaginaCursor.desdeFilas(registros, limite, revisionAntes != null,
+                revisionAntes != null || revisionDespues != null, r -> String.valueOf(r.getNumeroRevision()));
+    }
 
-        for (Number revision : revisiones) {
-            T entidad = auditReader.find(claseEntidad, entityId, revision);
-            Date fechaRevision = auditReader.getRevisionDate(revision);
+    // Cambios campo a campo de una entidad por páginas de revisiones, con los mismos cursores que el historial.
+    // Los campos modificados vienen de los indicadores _MOD de Envers en la misma consulta de la página; los
+    // valores anteriores salen de la revisión previa, que se lee en esa consulta (la del cursor hacia delante,
+    // la fila sobrante hacia atrás). Una consulta por página, sin cargar una instantánea por revisión.
+    @Transactional(readOnly = true)
+    public <T> PaginaCursor<DiferenciaRevision> obtenerDiferencias(Class<T> claseEntidad, Long entityId,
+                                                                  String despues, String antes, int tamano) {
+        int limite = PaginaCursor.normalizarTamano(tamano);
+        Long revisionDespues = parsearRevision(despues);
+        Long revisionAntes = parsearRevision(antes);
+
+        List<Version<T>> versiones = leerVersiones(claseEntidad, entityId, revisionDespues, revisionAntes,
+                revisionDespues != null ? limite + 2 : limite + 1, true);
+        Version<T> base = null;
+        if (revisionDespues != null && !versiones.isEmpty() && versiones.get(0).revision() == revisionDespues) {
+            base = versiones.remove(0);
+        }
 
-            historial.add(new RegistroAuditoria<>(
-                    revision.longValue(),
-                    fechaRevision,
-                    entidad,
-                    obtenerTipoRevision(claseEntidad, entityId, revision, auditReader)
-            ));
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        List<DiferenciaRevision> diferencias = new ArrayList<>();
+        for (int i = 0; i < versiones.size(); i++) {
+            Version<T> version = versiones.get(i);
+            Version<T> anterior = revisionAntes != null
+                    ? (i + 1 < versiones.size() ? versiones.get(i + 1) : null)
+                    : (i > 0 ? versiones.get(i - 1) : base);
+            diferencias.add(new DiferenciaRevision(version.revision(), version.fecha(),
+                    describirTipo(version.tipo()), compararVersiones(session, anterior, version)));
         }
 
-        return historial;
+        return PaginaCursor.desdeFilas(diferencias, limite, revisionAntes != null,
+                revisionAntes != null || revisionDespues != null, d -> String.valueOf(d.getNumeroRevision()));
     }
 
-    // Obtiene tipo de revisión
-    private <T> String obtenerTipoRevision(Class<T> claseEntidad, Long entityId,
-                                            Number revision, AuditReader auditReader) {
-        try {
-            @SuppressWarnings("unchecked")
-            List<Object[]> resultados = auditReader.createQuery()
-                    .forRevisionsOfEntity(claseEntidad, false, true)
-                    .add(AuditEntity.id().eq(entityId))
-                    .add(AuditEntity.revisionNumber().eq(revision))
-                    .getResultList();
-
-            if (!resultados.isEmpty()) {
-                Object[] resultado = resultados.get(0);
-                RevisionType tipo = (RevisionType) resultado[2];
-                return switch (tipo) {
-                    case ADD -> "CREACIÓN";
-                    case MOD -> "MODIFICACIÓN";
-                    case DEL -> "ELIMINACIÓN";
-                };
+    // Propiedades que cambian de una versión a la siguiente, en el orden de la entidad. En las modificaciones se
+    // usan los indicadores _MOD; en las altas (Envers no devuelve sus indicadores) y en las versiones archivadas,
+    // que no los tienen, se comparan los valores. Un borrado no lista campos.
+    private static List<CambioPropiedad> compararVersiones(SessionImplementor session, Version<?> anterior,
+                                                           Version<?> version) {
+        if (version.tipo() == RevisionType.DEL) {
+            return List.of();
+        }
+        Map<String, String> nuevos = estado(session, version);
+        Map<String, String> previos = anterior == null || anterior.tipo() == RevisionType.DEL
+                ? Map.of() : estado(session, anterior);
+
+        EntityPersister persister = persisterDe(session, version.entidad());
+        String[] nombres = persister.getPropertyNames();
+        Type[] tipos = persister.getPropertyTypes();
+        List<CambioPropiedad> cambios = new ArrayList<>();
+        for (int i = 0; i < nombres.length; i++) {
+            if (tipos[i] instanceof CollectionType || tipos[i] instanceof OneToOneType) {
+                continue;
+            }
+            boolean modificada = version.modificadas() != null && version.tipo() == RevisionType.MOD
+                    ? version.modificadas().contains(nombres[i])
+                    : !Objects.equals(previos.get(nombres[i]), nuevos.get(nombres[i]));
+            if (modificada) {
+                cambios.add(new CambioPropiedad(nombres[i], mostrarValor(tipos[i], previos.get(nombres[i])),
+                        mostrarValor(tipos[i], nuevos.get(nombres[i]))));
             }
-        } catch (Exception e) {
-            // Error ignorado
         }
-        return "DESCONOCIDO";
+        return cambios;
     }
 
-    // Obtiene cambios recientes de todas las entidades
-    @Transactional(readOnly = true)
-    public List<ResumenCambio> obtenerCambiosRecientes(int maxResultados) {
-        List<ResumenCambio> cambios = new ArrayList<>();
-        AuditReader auditReader = AuditReaderFactory.get(entityManager);
+    private static Map<String, String> estado(SessionImplementor session, Version<?> version) {
+        EntityPersister persister = persisterDe(session, version.entidad());
+        return EstadoAuditado.serializar(session, persister, persister.getValues(version.entidad()));
+    }
 
-        agregarCambiosDeEntidad(auditReader, com.refugio.JPA.Usuario.class, "Usuario", cambios, maxResultados);
-        agregarCambiosDeEntidad(auditReader, com.refugio.JPA.Suscripcion.class, "Suscripción", cambios, maxResultados);
+    private static EntityPersister persisterDe(SessionImplementor session, Object entidad) {
+        return session.getFactory().getMappingMetamodel().getEntityDescriptor(entidad.getClass());
+    }
+
+    // Las relaciones se muestran como entidad e id (sin cargarlas)
+    private static String mostrarValor(Type tipo, String valor) {
+        if (valor != null && tipo instanceof EntityType relacion) {
+            String entidad = relacion.getAssociatedEntityName();
+            return entidad.substring(entidad.lastIndexOf('.') + 1) + " #" + valor;
+        }
+        return valor;
+    }
 
-        cambios.sort((a, b) -> b.getFecha().compareTo(a.getFecha()));
+    // Versiones de una entidad para una página: desde revisionDesde (incluida) hacia delante o antes de
+    // revisionHasta hacia atrás, hasta maximo. Las archivadas son anteriores a todas las que siguen en _AUD para esa
+    // entidad: hacia delante se leen primero del archivo y, si llenan la página, no se consulta la base de datos;
+    // hacia atrás se empieza por _AUD y el archivo completa la página por debajo de la última leída.
+    private <T> List<Version<T>> leerVersiones(Class<T> claseEntidad, Long entityId, Long revisionDesde,
+                                               Long revisionHasta, int maximo, boolean conCambios) {
+        Long posteriorA = revisionDesde != null ? revisionDesde - 1 : null;
+        List<Version<T>> versiones = new ArrayList<>();
+        if (revisionHasta != null) {
+            versiones.addAll(consultarVersiones(claseEntidad, entityId, posteriorA, revisionHasta, maximo,
+                    conCambios));
+            if (versiones.size() < maximo) {
+                long anteriorA = versiones.isEmpty() ? revisionHasta : versiones.get(versiones.size() - 1).revision();
+                versiones.addAll(leerArchivadas(claseEntidad, entityId, revisionDesde, anteriorA,
+                        maximo - versiones.size(), true));
+            }
+        } else {
+            versiones.addAll(leerArchivadas(claseEntidad, entityId, revisionDesde, null, maximo, false));
+            if (versiones.size() < maximo) {
+                if (!versiones.isEmpty()) {
+                    posteriorA = versiones.get(versiones.size() - 1).revision();
+                }
+                versiones.addAll(consultarVersiones(claseEntidad, entityId, posteriorA, null,
+                        maximo - versiones.size(), conCambios));
+            }
+        }
+        return versiones;
+    }
 
-        if (cambios.size() > maxResultados) {
-            return cambios.subList(0, maxResultados);
+    // Versiones archivadas en [revisionDesde, revisionHasta), sin indicadores _MOD
+    private <T> List<Version<T>> leerArchivadas(Class<T> claseEntidad, Long entityId, Long revisionDesde,
+                                                Long revisionHasta, int maximo, boolean descendente) {
+        List<Version<T>> archivadas = new ArrayList<>();
+        for (RevisionArchivada<T> archivada : archivoAuditoriaService.obtenerHistorial(claseEntidad, entityId,
+                revisionDesde, revisionHasta, maximo, descendente)) {
+            archivadas.add(new Version<>(archivada.getNumeroRevision(), archivada.getFecha(), archivada.getTipo(),
+                    archivada.getEntidad(), null));
         }
+        return archivadas;
+    }
 
-        return cambios;
+    // Revisiones de la entidad en _AUD entre las dos dadas (sin incluirlas): ascendente si no hay límite superior,
+    // descendente desde el límite superior si lo hay. Con conCambios cada fila trae también los campos modificados.
+    private <T> List<Version<T>> consultarVersiones(Class<T> claseEntidad, Long entityId, Long revisionDesde,
+                                                    Long revisionHasta, int maximo, boolean conCambios) {
+        AuditQueryCreator consultas = AuditReaderFactory.get(entityManager).createQuery();
+        AuditQuery query = (conCambios
+                ? consultas.forRevisionsOfEntityWithChanges(claseEntidad, true)
+                : consultas.forRevisionsOfEntity(claseEntidad, false, true))
+                .add(AuditEntity.id().eq(entityId))
+                .setMaxResults(maximo);
+        if (revisionDesde != null) {
+            query.add(AuditEntity.revisionNumber().gt(revisionDesde));
+        }
+        if (revisionHasta != null) {
+            query.add(AuditEntity.revisionNumber().lt(revisionHasta))
+                    .addOrder(AuditEntity.revisionNumber().desc());
+        } else {
+            query.addOrder(AuditEntity.revisionNumber().asc());
+        }
+
+        List<Version<T>> versiones = new ArrayList<>();
+        for (Object fila : query.getResultList()) {
+            Object[] resultado = (Object[]) fila;
+            DefaultRevisionEntity revision = (DefaultRevisionEntity) resultado[1];
+            @SuppressWarnings("unchecked")
+            Set<String> modificadas = conCambios ? (Set<String>) resultado[3] : null;
+            versiones.add(new Version<>(
+                    (long) revision.getId(),
+                    revision.getRevisionDate(),
+                    (RevisionType) resultado[2],
+                    claseEntidad.cast(resultado[0]),
+                    modificadas
+            ));
+        }
+        return versiones;
     }
 
-    // Agrega cambios de una entidad a la lista
-    @SuppressWarnings("unchecked")
-    private <T> void agregarCambiosDeEntidad(AuditReader auditReader, Class<T> claseEntidad,
-                                              String nombreEntidad, List<ResumenCambio> cambios,
-                                              int maxResultados) {
+    // Un cursor vacío o mal formado se trata como ausente (primera página)
+    private static Long parsearRevision(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
         try {
-            AuditQuery query = auditReader.createQuery()
-                    .forRevisionsOfEntity(claseEntidad, false, true)
-                    .addOrder(AuditEntity.revisionNumber().desc())
-                    .setMaxResults(maxResultados);
+            return Long.valueOf(cursor);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
 
-            List<Object[]> resultados = query.getResultList();
+    // Nombre del tipo de revisión que se muestra en el panel
+    private static String describirTipo(RevisionType tipo) {
+        return switch (tipo) {
+            case ADD -> "CREACIÓN";
+            case MOD -> "MODIFICACIÓN";
+            case DEL -> "ELIMINACIÓN";
+        };
+    }
+
+    // Cambios recientes de todas las entidades auditadas por páginas de revisiones, de la más reciente a la más
+    // antigua (despues/antes son números de revisión). Una consulta recorre REVINFO en orden, otra trae las
+    // entidades modificadas de esas revisiones (REVCHANGES) y cada tipo presente en la página se resuelve con
+    // una sola consulta para todas sus revisiones.
+    @Transactional(readOnly = true)
+    public PaginaCursor<RevisionCambios> obtenerCambiosRecientes(String despues, String antes, int tamano) {
+        int limite = PaginaCursor.normalizarTamano(tamano);
+        Long revisionDespues = parsearRevision(despues);
+        Long revisionAntes = parsearRevision(antes);
+
+        String jpql = "SELECT r FROM RevisionAuditoria r " +
+                (revisionAntes != null ? "WHERE r.id > :cursor ORDER BY r.id ASC"
+                        : revisionDespues != null ? "WHERE r.id < :cursor ORDER BY r.id DESC"
+                        : "ORDER BY r.id DESC");
+        TypedQuery<RevisionAuditoria> query = entityManager
+                .createQuery(jpql, RevisionAuditoria.class)
+                .setMaxResults(limite + 1);
+        if (revisionAntes != null || revisionDespues != null) {
+            query.setParameter("cursor", (int) (revisionAntes != null ? revisionAntes : revisionDespues).longValue());
+        }
 
-            for (Object[] resultado : resultados) {
-                Object entidad = resultado[0];
-                Number revision = (Number) ((org.hibernate.envers.DefaultRevisionEntity) resultado[1]).getId();
-                Date fecha = ((org.hibernate.envers.DefaultRevisionEntity) resultado[1]).getRevisionDate();
-                RevisionType tipo = (RevisionType) resultado[2];
+        List<RevisionCambios> revisiones = new ArrayList<>();
+        for (RevisionAuditoria revision : query.getResultList()) {
+            revisiones.add(new RevisionCambios((long) revision.getId(), revision.getRevisionDate()));
+        }
+        PaginaCursor<RevisionCambios> pagina = PaginaCursor.desdeFilas(revisiones, limite, revisionAntes != null,
+                revisionAntes != null || revisionDespues != null, r -> String.valueOf(r.getNumeroRevision()));
+        if (!pagina.getElementos().isEmpty()) {
+            agregarCambios(pagina.getElementos());
+        }
+        return pagina;
+    }
 
-                String tipoAccion = switch (tipo) {
-                    case ADD -> "CREACIÓN";
-                    case MOD -> "MODIFICACIÓN";
-                    case DEL -> "ELIMINACIÓN";
-                };
+    // Resuelve las entidades modificadas en las revisiones de la página: una consulta por tipo de entidad
+    private void agregarCambios(List<RevisionCambios> revisiones) {
+        Map<Long, RevisionCambios> porNumero = new HashMap<>();
+        for (RevisionCambios revision : revisiones) {
+            porNumero.put(revision.getNumeroRevision(), revision);
+        }
+        List<Integer> numeros = porNumero.keySet().stream().map(Long::intValue).toList();
+
+        // Tipos de entidad modificados en cada revisión (las revisiones de un mismo tipo van en un solo lote)
+        Map<String, List<Integer>> revisionesPorEntidad = new TreeMap<>();
+        List<Object[]> modificadas = entityManager.createQuery(
+                        "SELECT r.id, n FROM RevisionAuditoria r " +
+                        "JOIN r.modifiedEntityNames n WHERE r.id IN :revisiones", Object[].class)
+                .setParameter("revisiones", numeros)
+                .getResultList();
+        for (Object[] fila : modificadas) {
+            revisionesPorEntidad.computeIfAbsent((String) fila[1], n -> new ArrayList<>()).add((Integer) fila[0]);
+        }
 
-                String descripcion = generarDescripcion(entidad, nombreEntidad);
-                Long entityId = obtenerIdEntidad(entidad);
+        AuditReader auditReader = AuditReaderFactory.get(entityManager);
+        PersistenceUnitUtil unidad = entityManager.getEntityManagerFactory().getPersistenceUnitUtil();
+        revisionesPorEntidad.forEach((nombreClase, revisionesEntidad) -> {
+            Class<?> claseEntidad = claseAuditada(nombreClase);
+            String nombreEntidad = nombreEntidad(claseEntidad);
 
-                cambios.add(new ResumenCambio(
-                        revision.longValue(),
-                        fecha,
+            List<?> resultados = auditReader.createQuery()
+                    .forRevisionsOfEntity(claseEntidad, false, true)
+                    .add(AuditEntity.revisionNumber().in(revisionesEntidad))
+                    .addOrder(AuditEntity.id().asc())
+                    .getResultList();
+            for (Object fila : resultados) {
+                Object[] resultado = (Object[]) fila;
+                DefaultRevisionEntity revision = (DefaultRevisionEntity) resultado[1];
+                RevisionCambios revisionCambios = porNumero.get((long) revision.getId());
+                revisionCambios.getCambios().add(new ResumenCambio(
+                        revisionCambios.getNumeroRevision(),
+                        revisionCambios.getFecha(),
                         nombreEntidad,
-                        entityId,
-                        tipoAccion,
-                        descripcion
+                        (Long) unidad.getIdentifier(resultado[0]),
+                        describirTipo((RevisionType) resultado[2]),
+                        generarDescripcion(resultado[0], nombreEntidad)
                 ));
             }
-        } catch (Exception e) {
-            // Error ignorado
+        });
+    }
+
+    private static Class<?> claseAuditada(String nombreClase) {
+        try {
+            return Class.forName(nombreClase);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Entidad auditada desconocida en REVCHANGES: " + nombreClase, e);
+        }
+    }
+
+    // Nombre de la entidad en el panel (los tipos de pago se muestran juntos)
+    private static String nombreEntidad(Class<?> claseEntidad) {
+        if (claseEntidad == Suscripcion.class) {
+            return "Suscripción";
         }
+        if (Pago.class.isAssignableFrom(claseEntidad)) {
+            return "Pago";
+        }
+        return claseEntidad.getSimpleName();
     }
 
     // Genera descripción del cambio
     private String generarDescripcion(Object entidad, String nombreEntidad) {
-        if (entidad instanceof com.refugio.JPA.Usuario usuario) {
+        if (entidad instanceof Usuario usuario) {
             return "Usuario: " + usuario.getEmail();
-        } else if (entidad instanceof com.refugio.JPA.Suscripcion suscripcion) {
+        } else if (entidad instanceof Suscripcion suscripcion) {
             return "Suscripción ID: " + suscripcion.getId() + " - Estado: " + suscripcion.getEstado();
+        } else if (entidad instanceof Factura factura) {
+            return "Factura ID: " + factura.getId() + " - Total: " + factura.getImporteTotal()
+                    + " - Estado: " + factura.getEstado();
+        } else if (entidad instanceof Plan plan) {
+            return "Plan: " + plan.getNombre() + " - " + plan.getPrecioMensual() + " €/mes";
+        } else if (entidad instanceof Perfil perfil) {
+            return "Perfil: " + perfil.getNombre() + " (" + perfil.getPais() + ")";
+        } else if (entidad instanceof Pago pago) {
+            return "Pago ID: " + pago.getId() + " (" + pago.getClass().getSimpleName() + ") - Importe: "
+                    + pago.getImporte();
         }
         return nombreEntidad + " modificado";
     }
 
-    // Obtiene ID de la entidad
-    private Long obtenerIdEntidad(Object entidad) {
-        if (entidad instanceof com.refugio.JPA.Usuario usuario) {
-            return usuario.getId();
-        } else if (entidad instanceof com.refugio.JPA.Suscripcion suscripcion) {
-            return suscripcion.getId();
-        }
-        return null;
+    // Obtiene versión anterior de una entidad (de _AUD o, si esa revisión ya está archivada, del archivo)
+    @Transactional(readOnly = true)
+    public <T> T obtenerVersionAnterior(Class<T> claseEntidad, Long entityId, Long numeroRevision) {
+        RegistroAuditoria<T> registro = obtenerRevision(claseEntidad, entityId, numeroRevision);
+        return registro == null || describirTipo(RevisionType.DEL).equals(registro.getTipoAccion())
+                ? null : registro.getEntidad();
     }
 
-    // Obtiene versión anterior de una entidad
+    // Versión de una entidad vigente en una revisión, con el número, la fecha y el tipo de la revisión que la
+    // escribió (null si la entidad aún no existía). Lo que ya se escribió no cambia, así que la resolución se
+    // guarda en una caché LRU acotada y las consultas repetidas no vuelven a las tablas _AUD. Solo se guarda
+    // cuando es definitiva: la versión es de esa misma revisión o ya hay una posterior (una revisión intermedia
+    // de la misma entidad tendría que haberse confirmado antes). La revisión más reciente pedida con un número
+    // mayor sigue consultándose, porque la entidad aún puede cambiar. La caché guarda una instantánea con los
+    // campos y las relaciones a uno, sin colecciones, y cada llamada recibe su propia copia.
     @Transactional(readOnly = true)
-    public <T> T obtenerVersionAnterior(Class<T> claseEntidad, Long entityId, Long numeroRevision) {
-        AuditReader auditReader = AuditReaderFactory.get(entityManager);
-        return auditReader.find(claseEntidad, entityId, numeroRevision);
+    public <T> RegistroAuditoria<T> obtenerRevision(Class<T> claseEntidad, Long entityId, Long numeroRevision) {
+        ClaveRevision clave = new ClaveRevision(claseEntidad, entityId, numeroRevision);
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        Optional<RevisionGuardada> guardada = revisiones.getIfPresent(clave);
+        if (guardada != null) {
+            return guardada.map(revision -> revision.copiar(session, claseEntidad)).orElse(null);
+        }
+
+        List<Version<T>> vigentes = leerVersiones(claseEntidad, entityId, null, numeroRevision + 1, 1, false);
+        Version<T> vigente = vigentes.isEmpty() ? null : vigentes.get(0);
+        boolean definitiva = vigente != null && vigente.revision() == numeroRevision
+                || existeRevisionPosterior(claseEntidad, entityId, numeroRevision);
+        if (!definitiva) {
+            return vigente == null ? null : new RegistroAuditoria<>(vigente.revision(), vigente.fecha(),
+                    vigente.entidad(), describirTipo(vigente.tipo()));
+        }
+
+        RevisionGuardada revision = vigente == null ? null : new RevisionGuardada(vigente.revision(),
+                vigente.fecha().getTime(), describirTipo(vigente.tipo()),
+                capturar(session, vigente.entidad(), vigente.tipo() != RevisionType.DEL));
+        revisiones.put(clave, Optional.ofNullable(revision));
+        return revision == null ? null : revision.copiar(session, claseEntidad);
+    }
+
+    // Si la entidad tiene alguna revisión posterior a la dada. Basta con _AUD: de cada entidad se queda allí su
+    // última versión, posterior a todas las archivadas. Solo se proyecta el número de revisión.
+    private boolean existeRevisionPosterior(Class<?> claseEntidad, Long entityId, Long numeroRevision) {
+        return AuditReaderFactory.get(entityManager).createQuery()
+                .forRevisionsOfEntity(claseEntidad, false, true)
+                .addProjection(AuditEntity.revisionNumber().max())
+                .add(AuditEntity.id().eq(entityId))
+                .add(AuditEntity.revisionNumber().gt(numeroRevision))
+                .getSingleResult() != null;
+    }
+
+    // Instantánea desacoplada de una versión: valores de sus propiedades y, con conRelaciones, de las entidades a
+    // las que apunta (solo sus valores simples). Las colecciones no se guardan: una sola entrada podría retener
+    // todas las facturas de una suscripción o todas las suscripciones de un usuario.
+    private static Instantanea capturar(SessionImplementor session, Object entidad, boolean conRelaciones) {
+        EntityPersister persister = persisterDe(session, entidad);
+        Type[] tipos = persister.getPropertyTypes();
+        Object[] valores = new Object[tipos.length];
+        for (int i = 0; i < tipos.length; i++) {
+            if (tipos[i] instanceof CollectionType) {
+                continue;
+            }
+            Object valor = persister.getValue(entidad, i);
+            if (tipos[i] instanceof EntityType) {
+                valor = conRelaciones && valor != null ? capturar(session, Hibernate.unproxy(valor), false) : null;
+            }
+            valores[i] = valor;
+        }
+        return new Instantanea(persister.getEntityName(), persister.getIdentifier(entidad, session), valores);
+    }
+
+    // Entidad nueva con el estado de la instantánea; las colecciones se quedan como las deja el constructor
+    private static Object reconstruir(SessionImplementor session, Instantanea instantanea) {
+        EntityPersister persister = EstadoAuditado.persister(session, instantanea.entidad());
+        Object entidad = persister.instantiate(instantanea.id(), session);
+        Object[] valores = instantanea.valores();
+        for (int i = 0; i < valores.length; i++) {
+            Object valor = valores[i] instanceof Instantanea relacion ? reconstruir(session, relacion) : valores[i];
+            if (valor != null) {
+                persister.setValue(entidad, i, valor);
+            }
+        }
+        return entidad;
+    }
+
+    // Aciertos, fallos y ocupación de la caché de versiones por revisión
+    public EstadisticasRevisiones obtenerEstadisticasRevisiones() {
+        CacheStats estadisticas = revisiones.stats();
+        return new EstadisticasRevisiones(estadisticas.hitCount(), estadisticas.missCount(),
+                estadisticas.evictionCount(), revisiones.estimatedSize(), maximoRevisiones);
+    }
+
+    // Vacía la caché de versiones por revisión (p. ej. tras restaurar una copia de la base de datos)
+    public void invalidarRevisiones() {
+        revisiones.invalidateAll();
     }
 
     // Clase para registro de auditoría
@@ -174,6 +493,108 @@ public class AuditoriaService {
         public String getTipoAccion() { return tipoAccion; }
     }
 
+    // Revisión del feed con los cambios de todas las entidades que modificó
+    public static class RevisionCambios {
+        private final Long numeroRevision;
+        private final Date fecha;
+        private final List<ResumenCambio> cambios = new ArrayList<>();
+
+        public RevisionCambios(Long numeroRevision, Date fecha) {
+            this.numeroRevision = numeroRevision;
+            this.fecha = fecha;
+        }
+
+        public Long getNumeroRevision() { return numeroRevision; }
+        public Date getFecha() { return fecha; }
+        public List<ResumenCambio> getCambios() { return cambios; }
+    }
+
+    // Revisión con los campos que cambió respecto a la anterior
+    public static class DiferenciaRevision {
+        private final Long numeroRevision;
+        private final Date fecha;
+        private final String tipoAccion;
+        private final List<CambioPropiedad> cambios;
+
+        public DiferenciaRevision(Long numeroRevision, Date fecha, String tipoAccion, List<CambioPropiedad> cambios) {
+            this.numeroRevision = numeroRevision;
+            this.fecha = fecha;
+            this.tipoAccion = tipoAccion;
+            this.cambios = cambios;
+        }
+
+        public Long getNumeroRevision() { return numeroRevision; }
+        public Date getFecha() { return fecha; }
+        public String getTipoAccion() { return tipoAccion; }
+        public List<CambioPropiedad> getCambios() { return cambios; }
+    }
+
+    // Campo modificado con su valor antes y después de la revisión
+    public static class CambioPropiedad {
+        private final String propiedad;
+        private final String valorAnterior;
+        private final String valorNuevo;
+
+        public CambioPropiedad(String propiedad, String valorAnterior, String valorNuevo) {
+            this.propiedad = propiedad;
+            this.valorAnterior = valorAnterior;
+            this.valorNuevo = valorNuevo;
+        }
+
+        public String getPropiedad() { return propiedad; }
+        public String getValorAnterior() { return valorAnterior; }
+        public String getValorNuevo() { return valorNuevo; }
+    }
+
+    // Clave de la caché de versiones: la clase forma parte de la clave porque las subclases comparten ids
+    private record ClaveRevision(Class<?> claseEntidad, Long entityId, Long numeroRevision) {
+    }
+
+    // DTO de estadísticas de la caché de versiones por revisión
+    public static class EstadisticasRevisiones {
+        private final long aciertos;
+        private final long fallos;
+        private final long desalojos;
+        private final long entradas;
+        private final long maximo;
+
+        public EstadisticasRevisiones(long aciertos, long fallos, long desalojos, long entradas, long maximo) {
+            this.aciertos = aciertos;
+            this.fallos = fallos;
+            this.desalojos = desalojos;
+            this.entradas = entradas;
+            this.maximo = maximo;
+        }
+
+        public long getAciertos() { return aciertos; }
+        public long getFallos() { return fallos; }
+        public long getDesalojos() { return desalojos; }
+        public long getEntradas() { return entradas; }
+        public long getMaximo() { return maximo; }
+
+        // Porcentaje de aciertos sobre las consultas de versiones por revisión
+        public double getTasaAciertos() {
+            long accesos = aciertos + fallos;
+            return accesos == 0 ? 0 : aciertos * 100.0 / accesos;
+        }
+    }
+
+    // Entrada de la caché de versiones: revisión, fecha, tipo y estado de la entidad (no se comparte nada mutable)
+    private record RevisionGuardada(long revision, long fecha, String tipoAccion, Instantanea instantanea) {
+        <T> RegistroAuditoria<T> copiar(SessionImplementor session, Class<T> claseEntidad) {
+            return new RegistroAuditoria<>(revision, new Date(fecha),
+                    claseEntidad.cast(reconstruir(session, instantanea)), tipoAccion);
+        }
+    }
+
+    // Estado de una entidad por índice de propiedad del persister; una relación a uno es otra instantánea
+    private record Instantanea(String entidad, Object id, Object[] valores) {
+    }
+
+    // Versión de una entidad leída de _AUD o del archivo (modificadas: campos con indicador _MOD, null si archivada)
+    private record Version<T>(long revision, Date fecha, RevisionType tipo, T entidad, Set<String> modificadas) {
+    }
+
     // Clase para resumen de cambio
     public static class ResumenCambio {
         private final Long numeroRevision;
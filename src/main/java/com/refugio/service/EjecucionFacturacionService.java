@@ -0,0 +1,127 @@
+package com.refugio.service;
+
+import com.refugio.JPA.EjecucionFacturacion;
+import com.refugio.JPA.ParticionEjecucion;
+import com.refugio.repository.EjecucionFacturacionRepository;
+import com.refugio.repository.ParticionEjecucionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Diario persistente de ejecuciones de renovación: estado, contadores y marca de agua por partición
+@Service
+public class EjecucionFacturacionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(EjecucionFacturacionService.class);
+
+    private static final List<EjecucionFacturacion.EstadoEjecucion> ESTADOS_REANUDABLES = List.of(
+            EjecucionFacturacion.EstadoEjecucion.EN_CURSO,
+            EjecucionFacturacion.EstadoEjecucion.FALLIDA);
+
+    private final EjecucionFacturacionRepository ejecucionRepository;
+    private final ParticionEjecucionRepository particionRepository;
+
+    public EjecucionFacturacionService(EjecucionFacturacionRepository ejecucionRepository,
+                                       ParticionEjecucionRepository particionRepository) {
+        this.ejecucionRepository = ejecucionRepository;
+        this.particionRepository = particionRepository;
+    }
+
+    // Reanuda la ejecución inacabada de esa fecha de corte o abre una nueva con sus particiones
+    @Transactional
+    public EjecucionFacturacion iniciarOReanudar(LocalDate fechaCorte, int particiones) {
+        EjecucionFacturacion pendiente = ejecucionRepository
+                .findFirstByFechaCorteAndEstadoInOrderByIdDesc(fechaCorte, ESTADOS_REANUDABLES)
+                .orElse(null);
+
+        if (pendiente != null) {
+            pendiente.setEstado(EjecucionFacturacion.EstadoEjecucion.EN_CURSO);
+            pendiente.setFin(null);
+            pendiente.setReanudaciones(pendiente.getReanudaciones() + 1);
+            logger.warn("Reanudando ejecución de facturación {} (corte {}, {} particiones)",
+                    pendiente.getId(), fechaCorte, pendiente.getParticiones());
+            return pendiente;
+        }
+
+        // Las de otras fechas que quedaron a medias ya no se reanudan: el corte nuevo las cubre
+        for (EjecucionFacturacion antigua : ejecucionRepository.findByEstado(EjecucionFacturacion.EstadoEjecucion.EN_CURSO)) {
+            antigua.setEstado(EjecucionFacturacion.EstadoEjecucion.INTERRUMPIDA);
+            antigua.setFin(LocalDateTime.now());
+        }
+
+        EjecucionFacturacion ejecucion = new EjecucionFacturacion();
+        ejecucion.setEstado(EjecucionFacturacion.EstadoEjecucion.EN_CURSO);
+        ejecucion.setFechaCorte(fechaCorte);
+        ejecucion.setParticiones(particiones);
+        ejecucion.setInicio(LocalDateTime.now());
+        ejecucion = ejecucionRepository.save(ejecucion);
+
+        for (int i = 0; i < particiones; i++) {
+            ParticionEjecucion particion = new ParticionEjecucion();
+            particion.setEjecucion(ejecucion);
+            particion.setParticion(i);
+            particionRepository.save(particion);
+        }
+
+        logger.info("Nueva ejecución de facturación {} (corte {}, {} particiones)",
+                ejecucion.getId(), fechaCorte, particiones);
+        return ejecucion;
+    }
+
+    // Particiones que aún no han terminado, con su marca de agua
+    @Transactional(readOnly = true)
+    public List<ParticionEjecucion> obtenerParticionesPendientes(Long ejecucionId) {
+        return particionRepository.findByEjecucionIdOrderByParticion(ejecucionId).stream()
+                .filter(p -> !p.getCompletada())
+                .toList();
+    }
+
+    // Registra un lote; se llama dentro de la transacción del lote para que marca y facturas se confirmen juntas.
+    // Solo escribe la fila de la partición: los workers en paralelo no se esperan entre sí hasta el commit.
+    @Transactional
+    public void registrarLote(Long particionId, long ultimoId, int renovadas, int fallidas) {
+        particionRepository.registrarLote(particionId, ultimoId, renovadas, fallidas);
+    }
+
+    // Marca una partición como terminada
+    @Transactional
+    public void completarParticion(Long particionId) {
+        particionRepository.marcarCompletada(particionId);
+    }
+
+    // Cierra la ejecución con el estado indicado
+    @Transactional
+    public EjecucionFacturacion finalizar(Long ejecucionId, EjecucionFacturacion.EstadoEjecucion estado) {
+        EjecucionFacturacion ejecucion = obtenerEjecucion(ejecucionId);
+        ejecucion.setEstado(estado);
+        ejecucion.setFin(LocalDateTime.now());
+
+        logger.info("Ejecución de facturación {} finalizada: {} ({} renovadas, {} fallidas, {} ms)",
+                ejecucionId, estado, ejecucion.getRenovadas(), ejecucion.getFallidas(), ejecucion.getDuracionMs());
+        return ejecucion;
+    }
+
+    // Obtiene ejecución por ID
+    @Transactional(readOnly = true)
+    public EjecucionFacturacion obtenerEjecucion(Long id) {
+        return ejecucionRepository.findById(id)
+                .orElseThrow(() -> new RuntimeException("Ejecución no encontrada: " + id));
+    }
+
+    // Últimas ejecuciones, de la más reciente a la más antigua
+    @Transactional(readOnly = true)
+    public List<EjecucionFacturacion> obtenerHistorial() {
+        return ejecucionRepository.findTop50ByOrderByIdDesc();
+    }
+
+    // Marcas de agua de una ejecución
+    @Transactional(readOnly = true)
+    public List<ParticionEjecucion> obtenerParticiones(Long ejecucionId) {
+        return particionRepository.findByEjecucionIdOrderByParticion(ejecucionId);
+    }
+}
@@ -0,0 +1,285 @@
+package com.refugio.service;
+
+import com.refugio.JPA.EstadisticaFacturacion;
+import com.refugio.JPA.Factura;
+import com.refugio.repository.EstadisticaFacturacionRepository;
+import com.refugio.repository.FacturaRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Estadísticas de facturación por estado mantenidas con deltas en la misma transacción que cambia las facturas.
+// Una reconciliación periódica las recalcula desde cero y corrige cualquier deriva. Cada estado tiene varias
+// ranuras y cada hilo escribe siempre en la misma, así que los lotes de workers paralelos no se serializan en la
+// fila del estado.
+@Service
+public class EstadisticaFacturacionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(EstadisticaFacturacionService.class);
+
+    private final EstadisticaFacturacionRepository estadisticaRepository;
+    private final FacturaRepository facturaRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int ranuras;
+
+    // Ranura de cada hilo, repartidas por turno: hasta `ranuras` hilos escriben cada uno en una fila distinta
+    private final AtomicInteger siguienteRanura = new AtomicInteger();
+    private final ThreadLocal<Integer> ranuraHilo;
+
+    public EstadisticaFacturacionService(EstadisticaFacturacionRepository estadisticaRepository,
+                                         FacturaRepository facturaRepository,
+                                         TransactionTemplate transactionTemplate,
+                                         @Value("${refugio.estadisticas.ranuras:8}") int ranuras) {
+        this.estadisticaRepository = estadisticaRepository;
+        this.facturaRepository = facturaRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.ranuras = Math.max(1, ranuras);
+        this.ranuraHilo = ThreadLocal.withInitial(() ->
+                Math.floorMod(siguienteRanura.getAndIncrement(), this.ranuras));
+    }
+
+    // Crea al arrancar las filas que falten de cada estado y ranura: los deltas solo actualizan, nunca insertan,
+    // así que dos transacciones concurrentes no pueden chocar al crear la misma fila
+    @PostConstruct
+    public void crearFilas() {
+        transactionTemplate.executeWithoutResult(status -> {
+            Set<String> existentes = new HashSet<>();
+            for (EstadisticaFacturacion estadistica : estadisticaRepository.findAll()) {
+                existentes.add(estadistica.getEstado() + "/" + estadistica.getRanura());
+            }
+            for (Factura.EstadoFactura estado : Factura.EstadoFactura.values()) {
+                for (int ranura = 0; ranura < ranuras; ranura++) {
+                    if (!existentes.contains(estado + "/" + ranura)) {
+                        estadisticaRepository.save(new EstadisticaFacturacion(estado, ranura));
+                    }
+                }
+            }
+        });
+    }
+
+    // Factura nueva
+    @Transactional
+    public void registrarAlta(Factura factura) {
+        aplicarDelta(factura.getEstado(), 1, valor(factura.getImporteTotal()), valor(factura.getImporteImpuesto()));
+    }
+
+    // Facturas nuevas de un lote: un UPDATE por estado en lugar de uno por factura
+    @Transactional
+    public void registrarAltas(Collection<Factura> facturas) {
+        Map<Factura.EstadoFactura, Acumulado> porEstado = new EnumMap<>(Factura.EstadoFactura.class);
+        for (Factura factura : facturas) {
+            porEstado.computeIfAbsent(factura.getEstado(), e -> new Acumulado()).sumar(factura);
+        }
+        porEstado.forEach((estado, acumulado) ->
+                aplicarDelta(estado, acumulado.numero, acumulado.total, acumulado.impuesto));
+    }
+
+    // La factura pasa de un estado a otro con los mismos importes
+    @Transactional
+    public void registrarCambioEstado(Factura factura, Factura.EstadoFactura estadoAnterior) {
+        registrarCambiosEstado(estadoAnterior, factura.getEstado(), 1, factura.getImporteTotal(),
+                factura.getImporteImpuesto());
+    }
+
+    // Un lote de facturas pasa entero de un estado a otro (número e importes sumados): dos UPDATE en lugar de
+    // dos por factura, siempre en el orden de los estados para que dos cambios opuestos no se bloqueen en cruz
+    @Transactional
+    public void registrarCambiosEstado(Factura.EstadoFactura estadoAnterior, Factura.EstadoFactura estadoNuevo,
+                                       long numero, BigDecimal total, BigDecimal impuesto) {
+        if (estadoAnterior == estadoNuevo) {
+            return;
+        }
+        if (estadoAnterior.compareTo(estadoNuevo) < 0) {
+            aplicarDelta(estadoAnterior, -numero, valor(total).negate(), valor(impuesto).negate());
+            aplicarDelta(estadoNuevo, numero, valor(total), valor(impuesto));
+        } else {
+            aplicarDelta(estadoNuevo, numero, valor(total), valor(impuesto));
+            aplicarDelta(estadoAnterior, -numero, valor(total).negate(), valor(impuesto).negate());
+        }
+    }
+
+    // Cambian los importes (recálculo de impuesto) de facturas que siguen en el mismo estado
+    @Transactional
+    public void registrarDiferencia(Factura.EstadoFactura estado, BigDecimal diferenciaTotal,
+                                    BigDecimal diferenciaImpuesto) {
+        aplicarDelta(estado, 0, valor(diferenciaTotal), valor(diferenciaImpuesto));
+    }
+
+    private void aplicarDelta(Factura.EstadoFactura estado, long numero, BigDecimal total, BigDecimal impuesto) {
+        if (numero == 0 && total.signum() == 0 && impuesto.signum() == 0) {
+            return;
+        }
+        int ranura = ranuraHilo.get();
+        if (estadisticaRepository.aplicarDelta(estado, ranura, numero, total, impuesto) == 0) {
+            // Fila borrada a mano: no se inserta aquí (chocaría con otra transacción que hiciera lo mismo), la
+            // siguiente reconciliación la vuelve a crear con el valor real
+            logger.warn("Falta la fila de estadísticas de {} (ranura {}): delta pendiente de reconciliar",
+                    estado, ranura);
+        }
+    }
+
+    // Lectura O(1): unas pocas filas por estado, independiente del número de facturas
+    @Transactional(readOnly = true)
+    public ResumenFacturacion obtenerResumen() {
+        return new ResumenFacturacion(estadisticaRepository.findAll());
+    }
+
+    // Recalcula el agregado desde la tabla de facturas con las filas bloqueadas; devuelve los estados corregidos
+    public int reconciliar() {
+        Integer corregidos = transactionTemplate.execute(status -> reconciliarEnTransaccion());
+        return corregidos != null ? corregidos : 0;
+    }
+
+    // El valor real de cada estado queda en su ranura 0 y el resto a cero
+    private int reconciliarEnTransaccion() {
+        Map<Factura.EstadoFactura, List<EstadisticaFacturacion>> actuales =
+                new EnumMap<>(Factura.EstadoFactura.class);
+        for (EstadisticaFacturacion estadistica : estadisticaRepository.findAllParaReconciliar()) {
+            actuales.computeIfAbsent(estadistica.getEstado(), e -> new ArrayList<>()).add(estadistica);
+        }
+
+        Map<Factura.EstadoFactura, Object[]> reales = new EnumMap<>(Factura.EstadoFactura.class);
+        for (Object[] fila : facturaRepository.sumarPorEstado()) {
+            reales.put((Factura.EstadoFactura) fila[0], fila);
+        }
+
+        LocalDateTime ahora = LocalDateTime.now();
+        int corregidos = 0;
+        for (Factura.EstadoFactura estado : Factura.EstadoFactura.values()) {
+            Object[] fila = reales.get(estado);
+            long numero = fila != null ? (Long) fila[1] : 0L;
+            BigDecimal total = fila != null ? (BigDecimal) fila[2] : BigDecimal.ZERO;
+            BigDecimal impuesto = fila != null ? (BigDecimal) fila[3] : BigDecimal.ZERO;
+
+            List<EstadisticaFacturacion> filas = actuales.getOrDefault(estado, List.of());
+            Acumulado acumulado = new Acumulado();
+            filas.forEach(acumulado::sumar);
+            if (acumulado.numero != numero || acumulado.total.compareTo(total) != 0
+                    || acumulado.impuesto.compareTo(impuesto) != 0) {
+                logger.warn("Estadísticas de facturas {} desviadas: {} facturas / {} / {} en lugar de {} / {} / {}",
+                        estado, acumulado.numero, acumulado.total, acumulado.impuesto, numero, total, impuesto);
+                corregidos++;
+            }
+
+            boolean[] presentes = new boolean[ranuras];
+            for (EstadisticaFacturacion estadistica : filas) {
+                if (estadistica.getRanura() < ranuras) {
+                    presentes[estadistica.getRanura()] = true;
+                }
+                fijar(estadistica, estadistica.getRanura() == 0 ? numero : 0L,
+                        estadistica.getRanura() == 0 ? total : BigDecimal.ZERO,
+                        estadistica.getRanura() == 0 ? impuesto : BigDecimal.ZERO, ahora);
+            }
+            for (int ranura = 0; ranura < ranuras; ranura++) {
+                if (!presentes[ranura]) {
+                    fijar(estadisticaRepository.save(new EstadisticaFacturacion(estado, ranura)),
+                            ranura == 0 ? numero : 0L, ranura == 0 ? total : BigDecimal.ZERO,
+                            ranura == 0 ? impuesto : BigDecimal.ZERO, ahora);
+                }
+            }
+        }
+
+        logger.info("Estadísticas de facturación reconciliadas ({} estados corregidos)", corregidos);
+        return corregidos;
+    }
+
+    // Reconciliación periódica para corregir la deriva (escrituras fuera de FacturaService, cargas manuales...)
+    @Scheduled(fixedDelayString = "${refugio.estadisticas.reconciliacion-ms:3600000}",
+            initialDelayString = "${refugio.estadisticas.reconciliacion-ms:3600000}")
+    public void reconciliarProgramado() {
+        try {
+            reconciliar();
+        } catch (RuntimeException e) {
+            logger.error("Error al reconciliar las estadísticas de facturación: {}", e.getMessage());
+        }
+    }
+
+    // Al arrancar (después de los datos iniciales) se parte de un agregado exacto
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconciliarAlArrancar() {
+        reconciliarProgramado();
+    }
+
+    private static void fijar(EstadisticaFacturacion estadistica, long numero, BigDecimal total,
+                              BigDecimal impuesto, LocalDateTime reconciliadaEn) {
+        estadistica.setNumeroFacturas(numero);
+        estadistica.setImporteTotal(total);
+        estadistica.setImporteImpuesto(impuesto);
+        estadistica.setReconciliadaEn(reconciliadaEn);
+    }
+
+    private static BigDecimal valor(BigDecimal importe) {
+        return importe != null ? importe : BigDecimal.ZERO;
+    }
+
+    // Suma de un lote o de las ranuras de un estado
+    private static class Acumulado {
+        private long numero;
+        private BigDecimal total = BigDecimal.ZERO;
+        private BigDecimal impuesto = BigDecimal.ZERO;
+
+        void sumar(Factura factura) {
+            numero++;
+            total = total.add(valor(factura.getImporteTotal()));
+            impuesto = impuesto.add(valor(factura.getImporteImpuesto()));
+        }
+
+        void sumar(EstadisticaFacturacion estadistica) {
+            numero += estadistica.getNumeroFacturas();
+            total = total.add(estadistica.getImporteTotal());
+            impuesto = impuesto.add(estadistica.getImporteImpuesto());
+        }
+    }
+
+    // Resumen para la página de estadísticas
+    public static class ResumenFacturacion {
+        private final Map<Factura.EstadoFactura, Long> facturasPorEstado = new EnumMap<>(Factura.EstadoFactura.class);
+        private long totalFacturas;
+        private BigDecimal totalFacturado = BigDecimal.ZERO;
+        private BigDecimal totalImpuestos = BigDecimal.ZERO;
+        private LocalDateTime reconciliadaEn;
+
+        public ResumenFacturacion(List<EstadisticaFacturacion> estadisticas) {
+            for (Factura.EstadoFactura estado : Factura.EstadoFactura.values()) {
+                facturasPorEstado.put(estado, 0L);
+            }
+            for (EstadisticaFacturacion estadistica : estadisticas) {
+                facturasPorEstado.merge(estadistica.getEstado(), estadistica.getNumeroFacturas(), Long::sum);
+                totalFacturas += estadistica.getNumeroFacturas();
+                totalFacturado = totalFacturado.add(estadistica.getImporteTotal());
+                totalImpuestos = totalImpuestos.add(estadistica.getImporteImpuesto());
+                if (estadistica.getReconciliadaEn() != null
+                        && (reconciliadaEn == null || estadistica.getReconciliadaEn().isBefore(reconciliadaEn))) {
+                    reconciliadaEn = estadistica.getReconciliadaEn();
+                }
+            }
+        }
+
+        public Map<Factura.EstadoFactura, Long> getFacturasPorEstado() { return facturasPorEstado; }
+        public long getTotalFacturas() { return totalFacturas; }
+        public BigDecimal getTotalFacturado() { return totalFacturado; }
+        public BigDecimal getTotalImpuestos() { return totalImpuestos; }
+        public long getFacturasPagadas() { return facturasPorEstado.get(Factura.EstadoFactura.PAGADA); }
+        public long getFacturasPendientes() { return facturasPorEstado.get(Factura.EstadoFactura.EMITIDA); }
+        public long getFacturasAnuladas() { return facturasPorEstado.get(Factura.EstadoFactura.ANULADA); }
+        public LocalDateTime getReconciliadaEn() { return reconciliadaEn; }
+    }
+}
@@ -0,0 +1,220 @@
+package com.refugio.service;
+
+import com.refugio.repository.FacturaListado;
+import com.refugio.repository.FacturaRepository;
+import com.refugio.repository.FiltroFacturas;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.Session;
+import org.hibernate.dialect.H2Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+// Exportación completa de facturas en CSV o NDJSON escrita fila a fila mientras se lee el cursor:
+// la memoria usada no depende del número de facturas
+@Service
+public class ExportacionFacturasService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportacionFacturasService.class);
+
+    private static final String CABECERA_CSV = "id,fechaEmision,suscripcionId,plan,importe,importeImpuesto," +
+            "importeTotal,paisImpuesto,tasaImpuesto,estado";
+    private static final int TAMANO_BUFFER = 64 * 1024;
+
+    public enum FormatoExportacion {
+        CSV("text/csv", "csv"),
+        NDJSON("application/x-ndjson", "ndjson");
+
+        private final String tipoContenido;
+        private final String extension;
+
+        FormatoExportacion(String tipoContenido, String extension) {
+            this.tipoContenido = tipoContenido;
+            this.extension = extension;
+        }
+
+        public String getTipoContenido() { return tipoContenido; }
+        public String getExtension() { return extension; }
+    }
+
+    private final FacturaRepository facturaRepository;
+    private final int tamanoFetch;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public ExportacionFacturasService(FacturaRepository facturaRepository,
+                                      @Value("${refugio.exportacion.tamano-fetch:1000}") int tamanoFetch) {
+        this.facturaRepository = facturaRepository;
+        this.tamanoFetch = tamanoFetch;
+    }
+
+    // Escribe las facturas del filtro en la salida (comprimidas con gzip si se pide) y devuelve cuántas escribió.
+    // No cierra la salida: es del llamador (el WebAsyncTask de /facturacion/exportar, que le pasa
+    // response.getOutputStream()).
+    // Con H2 solo la conexión de la exportación lee en modo perezoso (LAZY_QUERY_EXECUTION: las filas se entregan
+    // según se leen del cursor en lugar de materializar el resultado completo) y al terminar se restablece, porque
+    // la conexión vuelve al pool con los ajustes de sesión que tenga. Otras bases de datos no tienen ese ajuste:
+    // el cursor ya lee por bloques de tamanoFetch en la transacción de solo lectura.
+    @Transactional(readOnly = true)
+    public long exportar(FiltroFacturas filtro, FormatoExportacion formato, boolean gzip, OutputStream salida)
+            throws IOException {
+        if (!(entityManager.getEntityManagerFactory().unwrap(SessionFactoryImplementor.class)
+                .getJdbcServices().getDialect() instanceof H2Dialect)) {
+            return escribir(filtro, formato, gzip, salida);
+        }
+        Session session = entityManager.unwrap(Session.class);
+        session.doWork(conexion -> lecturaPerezosa(conexion.createStatement(), true));
+        try {
+            return escribir(filtro, formato, gzip, salida);
+        } finally {
+            session.doWork(conexion -> lecturaPerezosa(conexion.createStatement(), false));
+        }
+    }
+
+    private long escribir(FiltroFacturas filtro, FormatoExportacion formato, boolean gzip, OutputStream salida)
+            throws IOException {
+        GZIPOutputStream comprimida = gzip ? new GZIPOutputStream(salida, TAMANO_BUFFER) : null;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                comprimida != null ? comprimida : salida, StandardCharsets.UTF_8), TAMANO_BUFFER);
+
+        long filas = 0;
+        if (formato == FormatoExportacion.CSV) {
+            writer.write(CABECERA_CSV);
+            writer.write('\n');
+        }
+        try (Stream<FacturaListado> facturas = facturaRepository.streamFiltradas(filtro, tamanoFetch)) {
+            Iterator<FacturaListado> iterador = facturas.iterator();
+            while (iterador.hasNext()) {
+                FacturaListado factura = iterador.next();
+                if (formato == FormatoExportacion.CSV) {
+                    escribirCsv(writer, factura);
+                } else {
+                    escribirJson(writer, factura);
+                }
+                filas++;
+            }
+        }
+
+        writer.flush();
+        if (comprimida != null) {
+            comprimida.finish();
+        }
+        logger.info("Exportadas {} facturas en {}{}", filas, formato, gzip ? " (gzip)" : "");
+        return filas;
+    }
+
+    private static void lecturaPerezosa(Statement sentencia, boolean activa) throws SQLException {
+        try (sentencia) {
+            sentencia.execute("SET LAZY_QUERY_EXECUTION " + activa);
+        }
+    }
+
+    private void escribirCsv(Writer writer, FacturaListado f) throws IOException {
+        writer.write(String.valueOf(f.id()));
+        writer.write(',');
+        writer.write(String.valueOf(f.fechaEmision()));
+        writer.write(',');
+        writer.write(String.valueOf(f.suscripcionId()));
+        writer.write(',');
+        writer.write(campoCsv(f.planNombre()));
+        writer.write(',');
+        writer.write(numero(f.importe()));
+        writer.write(',');
+        writer.write(numero(f.importeImpuesto()));
+        writer.write(',');
+        writer.write(numero(f.importeTotal()));
+        writer.write(',');
+        writer.write(campoCsv(f.paisImpuesto()));
+        writer.write(',');
+        writer.write(numero(f.tasaImpuesto()));
+        writer.write(',');
+        writer.write(f.estado() != null ? f.estado().name() : "");
+        writer.write('\n');
+    }
+
+    private void escribirJson(Writer writer, FacturaListado f) throws IOException {
+        writer.write("{\"id\":");
+        writer.write(String.valueOf(f.id()));
+        writer.write(",\"fechaEmision\":");
+        writer.write(cadenaJson(f.fechaEmision() != null ? f.fechaEmision().toString() : null));
+        writer.write(",\"suscripcionId\":");
+        writer.write(String.valueOf(f.suscripcionId()));
+        writer.write(",\"plan\":");
+        writer.write(cadenaJson(f.planNombre()));
+        writer.write(",\"importe\":");
+        writer.write(numeroJson(f.importe()));
+        writer.write(",\"importeImpuesto\":");
+        writer.write(numeroJson(f.importeImpuesto()));
+        writer.write(",\"importeTotal\":");
+        writer.write(numeroJson(f.importeTotal()));
+        writer.write(",\"paisImpuesto\":");
+        writer.write(cadenaJson(f.paisImpuesto()));
+        writer.write(",\"tasaImpuesto\":");
+        writer.write(numeroJson(f.tasaImpuesto()));
+        writer.write(",\"estado\":");
+        writer.write(cadenaJson(f.estado() != null ? f.estado().name() : null));
+        writer.write("}\n");
+    }
+
+    private static String numero(BigDecimal valor) {
+        return valor != null ? valor.toPlainString() : "";
+    }
+
+    private static String numeroJson(BigDecimal valor) {
+        return valor != null ? valor.toPlainString() : "null";
+    }
+
+    // Entre comillas si contiene separador, comillas o saltos de línea (RFC 4180)
+    private static String campoCsv(String valor) {
+        if (valor == null) {
+            return "";
+        }
+        if (valor.indexOf(',') < 0 && valor.indexOf('"') < 0 && valor.indexOf('\n') < 0 && valor.indexOf('\r') < 0) {
+            return valor;
+        }
+        return "\"" + valor.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String cadenaJson(String valor) {
+        if (valor == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(valor.length() + 2).append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
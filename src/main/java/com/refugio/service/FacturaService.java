@@ -3,15 +3,26 @@ package com.refugio.service;
 import com.refugio.JPA.Factura;
 import com.refugio.JPA.Perfil;
 import com.refugio.JPA.Suscripcion;
+import com.refugio.repository.FacturaListado;
 import com.refugio.repository.FacturaRepository;
+import com.refugio.repository.FiltroFacturas;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.engine.spi.Status;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
 public class FacturaService {
@@ -20,35 +31,48 @@ public class FacturaService {
 
     private final FacturaRepository facturaRepository;
     private final ImpuestoService impuestoService;
+    private final EstadisticaFacturacionService estadisticaFacturacionService;
 
-    public FacturaService(FacturaRepository facturaRepository, ImpuestoService impuestoService) {
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public FacturaService(FacturaRepository facturaRepository, ImpuestoService impuestoService,
+                          EstadisticaFacturacionService estadisticaFacturacionService) {
         this.facturaRepository = facturaRepository;
         this.impuestoService = impuestoService;
+        this.estadisticaFacturacionService = estadisticaFacturacionService;
     }
 
     // Genera factura con impuestos según país
     @Transactional
     public Factura generarFactura(Suscripcion suscripcion) {
+        Factura factura = facturaRepository.save(construirFactura(suscripcion));
+        estadisticaFacturacionService.registrarAlta(factura);
+
+        logger.info("Factura generada: {} - Base: {}, Impuesto ({}%): {}, Total: {}",
+                factura.getId(), factura.getImporte(), factura.getTasaImpuesto(),
+                factura.getImporteImpuesto(), factura.getImporteTotal());
+
+        return factura;
+    }
+
+    // Construye la factura de una suscripción sin persistirla (usado por los lotes de renovación)
+    public Factura construirFactura(Suscripcion suscripcion) {
         BigDecimal precioBase = suscripcion.getPlan().getPrecioMensual();
         String pais = obtenerPaisUsuario(suscripcion);
-        ImpuestoService.DetalleImpuesto detalle = impuestoService.calcularDetalleImpuesto(precioBase, pais);
+        LocalDate fechaEmision = LocalDate.now();
+        ImpuestoService.DetalleImpuesto detalle =
+                impuestoService.calcularDetalleImpuesto(precioBase, pais, fechaEmision);
 
         Factura factura = new Factura();
         factura.setSuscripcion(suscripcion);
-        factura.setFechaEmision(LocalDate.now());
+        factura.setFechaEmision(fechaEmision);
         factura.setImporte(precioBase);
         factura.setImporteImpuesto(detalle.getMontoImpuesto());
         factura.setImporteTotal(detalle.getMontoTotal());
         factura.setPaisImpuesto(pais);
         factura.setTasaImpuesto(detalle.getTasaPorcentaje());
         factura.setEstado(Factura.EstadoFactura.EMITIDA);
-
-        factura = facturaRepository.save(factura);
-
-        logger.info("Factura generada: {} - Base: {}, Impuesto ({}%): {}, Total: {}",
-                factura.getId(), precioBase, detalle.getTasaPorcentaje(),
-                detalle.getMontoImpuesto(), detalle.getMontoTotal());
-
         return factura;
     }
 
@@ -56,40 +80,82 @@ public class FacturaService {
     private String obtenerPaisUsuario(Suscripcion suscripcion) {
         Perfil perfil = suscripcion.getUsuario().getPerfil();
         if (perfil != null && perfil.getPais() != null && !perfil.getPais().isBlank()) {
-            return perfil.getPais();
+            return ImpuestoService.normalizarPais(perfil.getPais());
         }
         return "ES";
     }
 
-    // Marca factura como pagada
-    @Transactional
-    public Factura marcarComoPagada(Long facturaId) {
-        Factura factura = facturaRepository.findById(facturaId)
-                .orElseThrow(() -> new RuntimeException("Factura no encontrada: " + facturaId));
-
-        factura.setEstado(Factura.EstadoFactura.PAGADA);
-        logger.info("Factura {} marcada como pagada", facturaId);
-
-        return facturaRepository.save(factura);
-    }
-
     // Anula factura
     @Transactional
     public Factura anularFactura(Long facturaId) {
-        Factura factura = facturaRepository.findById(facturaId)
+        Factura factura = facturaRepository.findParaActualizar(facturaId)
                 .orElseThrow(() -> new RuntimeException("Factura no encontrada: " + facturaId));
 
+        Factura.EstadoFactura estadoAnterior = factura.getEstado();
         factura.setEstado(Factura.EstadoFactura.ANULADA);
+        estadisticaFacturacionService.registrarCambioEstado(factura, estadoAnterior);
         logger.info("Factura {} anulada", facturaId);
 
         return facturaRepository.save(factura);
     }
 
+    // Número de facturas por estado (todos los estados, a 0 si no hay ninguna)
+    public Map<Factura.EstadoFactura, Long> contarPorEstado() {
+        Map<Factura.EstadoFactura, Long> conteo = new EnumMap<>(Factura.EstadoFactura.class);
+        for (Factura.EstadoFactura estado : Factura.EstadoFactura.values()) {
+            conteo.put(estado, 0L);
+        }
+        for (Object[] fila : facturaRepository.contarPorEstado()) {
+            conteo.put((Factura.EstadoFactura) fila[0], (Long) fila[1]);
+        }
+        return conteo;
+    }
+
     // Obtiene todas las facturas
     public List<Factura> obtenerTodasLasFacturas() {
         return facturaRepository.findAllByOrderByFechaEmisionDesc();
     }
 
+    // Página del listado general (más recientes primero); despues/antes son cursores "fecha_id"
+    @Transactional(readOnly = true)
+    public PaginaCursor<FacturaListado> obtenerPaginaFacturas(String despues, String antes, int tamano) {
+        int limite = PaginaCursor.normalizarTamano(tamano);
+        PageRequest pagina = PageRequest.ofSize(limite + 1);
+        CursorFactura cursorDespues = CursorFactura.parsear(despues);
+        CursorFactura cursorAntes = CursorFactura.parsear(antes);
+
+        List<FacturaListado> filas;
+        if (cursorAntes != null) {
+            filas = facturaRepository.findPaginaAntesDe(cursorAntes.fecha, cursorAntes.id, pagina);
+        } else if (cursorDespues != null) {
+            filas = facturaRepository.findPaginaDespuesDe(cursorDespues.fecha, cursorDespues.id, pagina);
+        } else {
+            filas = facturaRepository.findPrimeraPagina(pagina);
+        }
+        return PaginaCursor.desdeFilas(filas, limite, cursorAntes != null,
+                cursorAntes != null || cursorDespues != null, CursorFactura::de);
+    }
+
+    // Página de pendientes (más antiguas primero)
+    @Transactional(readOnly = true)
+    public PaginaCursor<FacturaListado> obtenerPaginaPendientes(String despues, String antes, int tamano) {
+        int limite = PaginaCursor.normalizarTamano(tamano);
+        PageRequest pagina = PageRequest.ofSize(limite + 1);
+        CursorFactura cursorDespues = CursorFactura.parsear(despues);
+        CursorFactura cursorAntes = CursorFactura.parsear(antes);
+
+        List<FacturaListado> filas;
+        if (cursorAntes != null) {
+            filas = facturaRepository.findPendientesAntesDe(cursorAntes.fecha, cursorAntes.id, pagina);
+        } else if (cursorDespues != null) {
+            filas = facturaRepository.findPendientesDespuesDe(cursorDespues.fecha, cursorDespues.id, pagina);
+        } else {
+            filas = facturaRepository.findPendientesPrimeraPagina(pagina);
+        }
+        return PaginaCursor.desdeFilas(filas, limite, cursorAntes != null,
+                cursorAntes != null || cursorDespues != null, CursorFactura::de);
+    }
+
     // Obtiene factura por ID
     public Factura obtenerFactura(Long id) {
         return facturaRepository.findById(id)
@@ -106,18 +172,65 @@ public class FacturaService {
         return facturaRepository.findByImporteTotalBetween(montoMinimo, montoMaximo);
     }
 
-    // Filtra por múltiples criterios
-    public List<Factura> filtrarFacturas(LocalDate fechaInicio, LocalDate fechaFin,
-                                         BigDecimal montoMinimo, BigDecimal montoMaximo,
-                                         Factura.EstadoFactura estado) {
-        return facturaRepository.findByFiltros(fechaInicio, fechaFin, montoMinimo, montoMaximo, estado);
+    // Filtra por múltiples criterios, por páginas (solo los criterios informados entran en la consulta)
+    @Transactional(readOnly = true)
+    public PaginaCursor<FacturaListado> filtrarFacturas(FiltroFacturas filtro, String despues, String antes,
+                                                        int tamano) {
+        int limite = PaginaCursor.normalizarTamano(tamano);
+        CursorFactura cursorDespues = CursorFactura.parsear(despues);
+        CursorFactura cursorAntes = CursorFactura.parsear(antes);
+        CursorFactura cursor = cursorAntes != null ? cursorAntes : cursorDespues;
+
+        List<FacturaListado> filas = facturaRepository.filtrarPagina(filtro,
+                cursor != null ? cursor.fecha : null, cursor != null ? cursor.id : null,
+                cursorAntes != null, limite + 1);
+        return PaginaCursor.desdeFilas(filas, limite, cursorAntes != null, cursor != null, CursorFactura::de);
     }
 
-    // Obtiene facturas de un usuario
+    // Obtiene facturas de un usuario (más recientes primero)
     public List<Factura> obtenerFacturasUsuario(Long usuarioId) {
         return facturaRepository.findByUsuarioId(usuarioId);
     }
 
+    // Página del historial de facturación de un usuario (más recientes primero)
+    @Transactional(readOnly = true)
+    public PaginaCursor<FacturaListado> obtenerHistorialUsuario(Long usuarioId, String despues, String antes,
+                                                                int tamano) {
+        int limite = PaginaCursor.normalizarTamano(tamano);
+        PageRequest pagina = PageRequest.ofSize(limite + 1);
+        CursorFactura cursorDespues = CursorFactura.parsear(despues);
+        CursorFactura cursorAntes = CursorFactura.parsear(antes);
+
+        List<FacturaListado> filas;
+        if (cursorAntes != null) {
+            filas = facturaRepository.findHistorialAntesDe(usuarioId, cursorAntes.fecha, cursorAntes.id, pagina);
+        } else if (cursorDespues != null) {
+            filas = facturaRepository.findHistorialDespuesDe(usuarioId, cursorDespues.fecha, cursorDespues.id, pagina);
+        } else {
+            filas = facturaRepository.findHistorialPrimeraPagina(usuarioId, pagina);
+        }
+        return PaginaCursor.desdeFilas(filas, limite, cursorAntes != null,
+                cursorAntes != null || cursorDespues != null, CursorFactura::de);
+    }
+
+    // Pasa las facturas de una suscripción al historial de su nuevo titular. Las de la suscripción que ya estén
+    // cargadas se refrescan: conservarían el titular anterior y lo volverían a escribir al actualizarlas (sin
+    // @DynamicUpdate el UPDATE lleva todas las columnas). El resto del contexto sigue gestionado.
+    @Transactional
+    public int reasignarUsuario(Long suscripcionId, Long usuarioId) {
+        int reasignadas = facturaRepository.reasignarUsuario(suscripcionId, usuarioId);
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        for (Map.Entry<Object, EntityEntry> entrada
+                : session.getPersistenceContextInternal().reentrantSafeEntityEntries()) {
+            if (entrada.getKey() instanceof Factura factura && entrada.getValue().getStatus() == Status.MANAGED
+                    && factura.getSuscripcion() != null && suscripcionId.equals(factura.getSuscripcion().getId())) {
+                entityManager.refresh(factura);
+            }
+        }
+        logger.info("{} facturas de la suscripción {} reasignadas al usuario {}", reasignadas, suscripcionId, usuarioId);
+        return reasignadas;
+    }
+
     // Obtiene facturas por estado
     public List<Factura> obtenerFacturasPorEstado(Factura.EstadoFactura estado) {
         return facturaRepository.findByEstado(estado);
@@ -128,22 +241,56 @@ public class FacturaService {
         return facturaRepository.findByEstadoOrderByFechaEmisionAsc(Factura.EstadoFactura.EMITIDA);
     }
 
-    // Recalcula impuesto de factura
+    // Recalcula impuesto de factura con la tasa vigente en su fecha de emisión. La fila queda bloqueada hasta el
+    // commit, como al pagar o anular: el delta de estadísticas sale del estado leído aquí y un pago concurrente no
+    // se pisa con el UPDATE de la factura
     @Transactional
     public Factura recalcularImpuesto(Long facturaId, String nuevoPais) {
-        Factura factura = obtenerFactura(facturaId);
+        Factura factura = facturaRepository.findParaActualizar(facturaId)
+                .orElseThrow(() -> new RuntimeException("Factura no encontrada: " + facturaId));
+        String pais = ImpuestoService.normalizarPais(nuevoPais);
+        LocalDate fechaTasa = factura.getFechaEmision() != null ? factura.getFechaEmision() : LocalDate.now();
 
         ImpuestoService.DetalleImpuesto detalle =
-                impuestoService.calcularDetalleImpuesto(factura.getImporte(), nuevoPais);
+                impuestoService.calcularDetalleImpuesto(factura.getImporte(), pais, fechaTasa);
+
+        estadisticaFacturacionService.registrarDiferencia(factura.getEstado(),
+                detalle.getMontoTotal().subtract(factura.getImporteTotal()),
+                detalle.getMontoImpuesto().subtract(factura.getImporteImpuesto()));
 
         factura.setImporteImpuesto(detalle.getMontoImpuesto());
         factura.setImporteTotal(detalle.getMontoTotal());
-        factura.setPaisImpuesto(nuevoPais);
+        factura.setPaisImpuesto(pais);
         factura.setTasaImpuesto(detalle.getTasaPorcentaje());
 
         logger.info("Impuesto recalculado para factura {}: nuevo país {}, nueva tasa {}%",
-                facturaId, nuevoPais, detalle.getTasaPorcentaje());
+                facturaId, pais, detalle.getTasaPorcentaje());
 
         return facturaRepository.save(factura);
     }
+
+    // Clave de orden (fechaEmision, id) de una factura serializada como "2026-01-31_123"
+    private record CursorFactura(LocalDate fecha, Long id) {
+
+        static String de(FacturaListado factura) {
+            return factura.fechaEmision() + "_" + factura.id();
+        }
+
+        // Un cursor vacío o mal formado se trata como ausente (primera página)
+        static CursorFactura parsear(String cursor) {
+            if (cursor == null || cursor.isBlank()) {
+                return null;
+            }
+            int separador = cursor.indexOf('_');
+            if (separador < 0) {
+                return null;
+            }
+            try {
+                return new CursorFactura(LocalDate.parse(cursor.substring(0, separador)),
+                        Long.valueOf(cursor.substring(separador + 1)));
+            } catch (DateTimeParseException | NumberFormatException e) {
+                return null;
+            }
+        }
+    }
 }
@@ -1,107 +1,225 @@
 package com.refugio.service;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 // Servicio para calcular impuestos según país
 @Service
 public class ImpuestoService {
 
-    // Tasas de impuesto por país (%)
-    private static final Map<String, BigDecimal> TASAS_IMPUESTO = new HashMap<>();
-
-    static {
-        // Europa
-        TASAS_IMPUESTO.put("ES", new BigDecimal("21.00"));
-        TASAS_IMPUESTO.put("DE", new BigDecimal("19.00"));
-        TASAS_IMPUESTO.put("FR", new BigDecimal("20.00"));
-        TASAS_IMPUESTO.put("IT", new BigDecimal("22.00"));
-        TASAS_IMPUESTO.put("PT", new BigDecimal("23.00"));
-        TASAS_IMPUESTO.put("UK", new BigDecimal("20.00"));
-        TASAS_IMPUESTO.put("NL", new BigDecimal("21.00"));
-        TASAS_IMPUESTO.put("BE", new BigDecimal("21.00"));
-        TASAS_IMPUESTO.put("AT", new BigDecimal("20.00"));
-        TASAS_IMPUESTO.put("CH", new BigDecimal("7.70"));
-        TASAS_IMPUESTO.put("SE", new BigDecimal("25.00"));
-        TASAS_IMPUESTO.put("NO", new BigDecimal("25.00"));
-        TASAS_IMPUESTO.put("DK", new BigDecimal("25.00"));
-        TASAS_IMPUESTO.put("FI", new BigDecimal("24.00"));
-        TASAS_IMPUESTO.put("PL", new BigDecimal("23.00"));
-        TASAS_IMPUESTO.put("IE", new BigDecimal("23.00"));
-        TASAS_IMPUESTO.put("GR", new BigDecimal("24.00"));
-
-        // América
-        TASAS_IMPUESTO.put("US", new BigDecimal("0.00"));
-        TASAS_IMPUESTO.put("MX", new BigDecimal("16.00"));
-        TASAS_IMPUESTO.put("AR", new BigDecimal("21.00"));
-        TASAS_IMPUESTO.put("BR", new BigDecimal("17.00"));
-        TASAS_IMPUESTO.put("CL", new BigDecimal("19.00"));
-        TASAS_IMPUESTO.put("CO", new BigDecimal("19.00"));
-        TASAS_IMPUESTO.put("PE", new BigDecimal("18.00"));
-        TASAS_IMPUESTO.put("UY", new BigDecimal("22.00"));
-        TASAS_IMPUESTO.put("VE", new BigDecimal("16.00"));
-        TASAS_IMPUESTO.put("EC", new BigDecimal("12.00"));
-        TASAS_IMPUESTO.put("CA", new BigDecimal("5.00"));
-
-        // Asia
-        TASAS_IMPUESTO.put("JP", new BigDecimal("10.00"));
-        TASAS_IMPUESTO.put("CN", new BigDecimal("13.00"));
-        TASAS_IMPUESTO.put("IN", new BigDecimal("18.00"));
-        TASAS_IMPUESTO.put("KR", new BigDecimal("10.00"));
-        TASAS_IMPUESTO.put("SG", new BigDecimal("8.00"));
-        TASAS_IMPUESTO.put("HK", new BigDecimal("0.00"));
-
-        // Oceanía
-        TASAS_IMPUESTO.put("AU", new BigDecimal("10.00"));
-        TASAS_IMPUESTO.put("NZ", new BigDecimal("15.00"));
-    }
-
-    private static final BigDecimal TASA_DEFAULT = new BigDecimal("21.00");
+    private static final Logger logger = LoggerFactory.getLogger(ImpuestoService.class);
+
+    private static final String FICHERO_POR_DEFECTO = "classpath:impuestos.csv";
+
+    // Detalles ya calculados por (importe base, país tal cual llega, tasa aplicada); hay pocos precios de plan distintos
+    private static final int MAX_DETALLES_MEMORIZADOS = 1024;
+    private final Map<ClaveDetalle, DetalleImpuesto> detallesMemorizados = new ConcurrentHashMap<>();
+
+    private final Resource fichero;
+    private String contenidoCargado;
+
+    // Versión de tasas en uso: se sustituye entera al recargar y se lee sin bloqueos
+    private volatile TablaImpuestos tabla;
+
+    public ImpuestoService() {
+        this(new DefaultResourceLoader().getResource(FICHERO_POR_DEFECTO));
+    }
+
+    @Autowired
+    public ImpuestoService(@Value("${refugio.impuestos.fichero:" + FICHERO_POR_DEFECTO + "}") Resource fichero) {
+        this.fichero = fichero;
+        try {
+            cargar();
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("No se pudieron cargar las tasas de impuesto de " + fichero + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Relee el fichero periódicamente y publica una versión nueva solo si ha cambiado
+    @Scheduled(fixedDelayString = "${refugio.impuestos.recarga-ms:60000}",
+            initialDelayString = "${refugio.impuestos.recarga-ms:60000}")
+    public void recargarTasasProgramado() {
+        recargarTasas();
+    }
+
+    // Recarga las tasas; si el fichero no es válido se mantiene la versión anterior
+    public boolean recargarTasas() {
+        try {
+            return cargar();
+        } catch (IOException | RuntimeException e) {
+            logger.error("Error al recargar tasas de impuesto desde {}: {}. Se mantiene la versión {}",
+                    fichero, e.getMessage(), tabla.getVersion());
+            return false;
+        }
+    }
+
+    // Lee y valida la versión completa antes de publicarla (copy-on-write)
+    private synchronized boolean cargar() throws IOException {
+        String contenido;
+        try (InputStream entrada = fichero.getInputStream()) {
+            contenido = new String(entrada.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        if (contenido.equals(contenidoCargado)) {
+            return false;
+        }
+
+        long version = tabla != null ? tabla.getVersion() + 1 : 1;
+        TablaImpuestos nueva = TablaImpuestos.leer(new StringReader(contenido), version, fichero.getDescription());
+
+        tabla = nueva;
+        contenidoCargado = contenido;
+        detallesMemorizados.clear();
+
+        logger.info("Tasas de impuesto cargadas: versión {} con {} tasas desde {}",
+                nueva.getVersion(), nueva.getNumeroTasas(), nueva.getOrigen());
+        return true;
+    }
+
+    // Versión de tasas en uso
+    public TablaImpuestos obtenerTablaImpuestos() {
+        return tabla;
+    }
 
     // Obtiene tasa de impuesto para un país
     public BigDecimal obtenerTasaImpuesto(String codigoPais) {
-        if (codigoPais == null || codigoPais.isBlank()) {
-            return TASA_DEFAULT;
-        }
-        return TASAS_IMPUESTO.getOrDefault(codigoPais.toUpperCase().trim(), TASA_DEFAULT);
+        return obtenerTasaImpuesto(codigoPais, LocalDate.now());
+    }
+
+    // Obtiene la tasa de impuesto vigente para un país en una fecha
+    public BigDecimal obtenerTasaImpuesto(String codigoPais, LocalDate fecha) {
+        return tabla.tramoVigente(indiceNormalizado(codigoPais), fecha.toEpochDay()).tasa;
     }
 
     // Calcula importe del impuesto
     public BigDecimal calcularImpuesto(BigDecimal montoBase, String codigoPais) {
-        BigDecimal tasa = obtenerTasaImpuesto(codigoPais);
-        return montoBase.multiply(tasa)
-                .divide(new BigDecimal("100"), 2, RoundingMode.HALF_UP);
+        TablaImpuestos.Tramo tramo = tabla.tramoVigente(indiceNormalizado(codigoPais), LocalDate.now().toEpochDay());
+        long centimos = centimosExactos(montoBase);
+        if (centimos != Long.MIN_VALUE) {
+            long impuesto = impuestoEnCentimos(centimos, tramo.puntosBasicos);
+            if (impuesto != Long.MIN_VALUE) {
+                return BigDecimal.valueOf(impuesto, 2);
+            }
+        }
+        return calcularImpuestoExacto(montoBase, tramo.tasa);
     }
 
     // Calcula total con impuesto
     public BigDecimal calcularTotalConImpuesto(BigDecimal montoBase, String codigoPais) {
-        BigDecimal impuesto = calcularImpuesto(montoBase, codigoPais);
-        return montoBase.add(impuesto);
+        return calcularDetalleImpuesto(montoBase, codigoPais).getMontoTotal();
     }
 
-    // Calcula detalle completo del impuesto
+    // Calcula detalle completo del impuesto con la tasa vigente hoy
     public DetalleImpuesto calcularDetalleImpuesto(BigDecimal montoBase, String codigoPais) {
-        BigDecimal tasa = obtenerTasaImpuesto(codigoPais);
-        BigDecimal impuesto = calcularImpuesto(montoBase, codigoPais);
-        BigDecimal total = montoBase.add(impuesto);
+        return calcularDetalleImpuesto(montoBase, codigoPais, LocalDate.now());
+    }
+
+    // Calcula detalle completo del impuesto con la tasa vigente en la fecha (memorizado por importe, país y tasa)
+    public DetalleImpuesto calcularDetalleImpuesto(BigDecimal montoBase, String codigoPais, LocalDate fecha) {
+        TablaImpuestos.Tramo tramo = tabla.tramoVigente(indiceNormalizado(codigoPais), fecha.toEpochDay());
+        if (montoBase == null) {
+            return calcularDetalleSinMemoria(null, codigoPais, tramo);
+        }
+        ClaveDetalle clave = new ClaveDetalle(montoBase, codigoPais, tramo.tasa);
+        DetalleImpuesto detalle = detallesMemorizados.get(clave);
+        if (detalle == null) {
+            detalle = calcularDetalleSinMemoria(montoBase, codigoPais, tramo);
+            if (detallesMemorizados.size() >= MAX_DETALLES_MEMORIZADOS) {
+                detallesMemorizados.clear();
+            }
+            detallesMemorizados.put(clave, detalle);
+        }
+        return detalle;
+    }
+
+    // Ruta rápida en céntimos (long); si el importe o la tasa no caben o tienen más de 2 decimales se usa BigDecimal
+    private DetalleImpuesto calcularDetalleSinMemoria(BigDecimal montoBase, String codigoPais, TablaImpuestos.Tramo tramo) {
+        long centimos = centimosExactos(montoBase);
+        if (centimos != Long.MIN_VALUE) {
+            long impuesto = impuestoEnCentimos(centimos, tramo.puntosBasicos);
+            if (impuesto != Long.MIN_VALUE && Math.abs(centimos) < Long.MAX_VALUE / 2) {
+                return new DetalleImpuesto(codigoPais, tramo.tasa, montoBase,
+                        BigDecimal.valueOf(impuesto, 2), BigDecimal.valueOf(centimos + impuesto, 2));
+            }
+        }
+        BigDecimal impuesto = calcularImpuestoExacto(montoBase, tramo.tasa);
+        return new DetalleImpuesto(codigoPais, tramo.tasa, montoBase, impuesto, montoBase.add(impuesto));
+    }
+
+    // Fórmula de referencia en BigDecimal: base * tasa / 100 con 2 decimales HALF_UP
+    private static BigDecimal calcularImpuestoExacto(BigDecimal montoBase, BigDecimal tasa) {
+        return montoBase.multiply(tasa).divide(BigDecimal.valueOf(100), 2, RoundingMode.HALF_UP);
+    }
 
-        return new DetalleImpuesto(codigoPais, tasa, montoBase, impuesto, total);
+    // impuesto = centimos * puntosBasicos / 10000 redondeado HALF_UP (simétrico, como BigDecimal);
+    // devuelve Long.MIN_VALUE si la tasa no está en puntos básicos o el producto desborda
+    private static long impuestoEnCentimos(long centimos, int puntosBasicos) {
+        if (puntosBasicos == TablaImpuestos.SIN_PUNTOS_BASICOS) {
+            return Long.MIN_VALUE;
+        }
+        long absoluto = Math.abs(centimos);
+        if (puntosBasicos != 0 && absoluto > (Long.MAX_VALUE - 5_000) / puntosBasicos) {
+            return Long.MIN_VALUE;
+        }
+        long redondeado = (absoluto * puntosBasicos + 5_000) / 10_000;
+        return centimos < 0 ? -redondeado : redondeado;
+    }
+
+    // Importe en céntimos si tiene como mucho 2 decimales y cabe en un long; si no, Long.MIN_VALUE
+    private static long centimosExactos(BigDecimal montoBase) {
+        if (montoBase == null || montoBase.scale() < 0 || montoBase.scale() > 2 || montoBase.precision() > 16) {
+            return Long.MIN_VALUE;
+        }
+        long unscaled = montoBase.unscaledValue().longValue();
+        return montoBase.scale() == 2 ? unscaled : unscaled * (montoBase.scale() == 1 ? 10 : 100);
+    }
+
+    // Código de país tal como se guarda en las facturas (en mayúsculas y sin espacios), para que el recálculo
+    // masivo las encuentre comparando por igualdad sobre el índice de paisImpuesto
+    public static String normalizarPais(String codigoPais) {
+        return codigoPais != null ? codigoPais.toUpperCase().trim() : null;
+    }
+
+    // Índice del país en la tabla, o -1 si no es un código de dos letras. Los códigos ya normalizados
+    // (lo habitual, vienen del perfil) no pasan por toUpperCase/trim ni crean objetos
+    private static int indiceNormalizado(String codigoPais) {
+        if (codigoPais == null) {
+            return -1;
+        }
+        int indice = TablaImpuestos.indicePais(codigoPais);
+        if (indice >= 0 || codigoPais.isBlank()) {
+            return indice;
+        }
+        return TablaImpuestos.indicePais(codigoPais.toUpperCase().trim());
     }
 
     // Verifica si país tiene tasa configurada
     public boolean tieneTasaConfigurada(String codigoPais) {
-        return codigoPais != null && TASAS_IMPUESTO.containsKey(codigoPais.toUpperCase().trim());
+        return tabla.tieneTasa(indiceNormalizado(codigoPais));
     }
 
-    // Obtiene todas las tasas
+    // Obtiene todas las tasas vigentes hoy
     public Map<String, BigDecimal> obtenerTodasLasTasas() {
-        return new HashMap<>(TASAS_IMPUESTO);
+        return tabla.tasasVigentes(LocalDate.now());
     }
 
+    private record ClaveDetalle(BigDecimal montoBase, String codigoPais, BigDecimal tasa) {}
+
     // Clase para detalle de impuesto
     public static class DetalleImpuesto {
         private final String codigoPais;
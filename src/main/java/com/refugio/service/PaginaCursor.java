@@ -0,0 +1,58 @@
+package com.refugio.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+// Página de un listado por keyset: los cursores son la clave de orden del primer y último elemento,
+// así que pedir la página siguiente o anterior cuesta lo mismo a cualquier profundidad (sin OFFSET)
+public class PaginaCursor<T> {
+
+    public static final int TAMANO_POR_DEFECTO = 50;
+    public static final int TAMANO_MAXIMO = 200;
+
+    private final List<T> elementos;
+    private final int tamano;
+    private final String anterior;
+    private final String siguiente;
+
+    private PaginaCursor(List<T> elementos, int tamano, String anterior, String siguiente) {
+        this.elementos = elementos;
+        this.tamano = tamano;
+        this.anterior = anterior;
+        this.siguiente = siguiente;
+    }
+
+    // Ajusta el tamaño pedido a [1, TAMANO_MAXIMO]
+    public static int normalizarTamano(int tamano) {
+        return tamano <= 0 ? TAMANO_POR_DEFECTO : Math.min(tamano, TAMANO_MAXIMO);
+    }
+
+    // Construye la página a partir de tamano + 1 filas (la sobrante solo indica que hay más).
+    // Hacia atrás las filas llegan en orden inverso y se devuelven en el orden del listado.
+    public static <T> PaginaCursor<T> desdeFilas(List<T> filas, int tamano, boolean haciaAtras,
+                                                 boolean conCursor, Function<T, String> clave) {
+        boolean hayMas = filas.size() > tamano;
+        List<T> elementos = new ArrayList<>(hayMas ? filas.subList(0, tamano) : filas);
+        if (haciaAtras) {
+            Collections.reverse(elementos);
+        }
+
+        boolean haySiguiente = haciaAtras ? conCursor : hayMas;
+        boolean hayAnterior = haciaAtras ? hayMas : conCursor;
+        if (elementos.isEmpty()) {
+            return new PaginaCursor<>(elementos, tamano, null, null);
+        }
+        return new PaginaCursor<>(elementos, tamano,
+                hayAnterior ? clave.apply(elementos.get(0)) : null,
+                haySiguiente ? clave.apply(elementos.get(elementos.size() - 1)) : null);
+    }
+
+    public List<T> getElementos() { return elementos; }
+    public int getTamano() { return tamano; }
+    public String getAnterior() { return anterior; }
+    public String getSiguiente() { return siguiente; }
+    public boolean isHayAnterior() { return anterior != null; }
+    public boolean isHaySiguiente() { return siguiente != null; }
+}
@@ -0,0 +1,317 @@
+package com.refugio.service;
+
+import com.refugio.JPA.Factura;
+import com.refugio.JPA.Pago;
+import com.refugio.JPA.PagoPaypal;
+import com.refugio.JPA.PagoTarjeta;
+import com.refugio.JPA.PagoTransferencia;
+import com.refugio.config.AuditoriaEnBloque;
+import com.refugio.repository.FacturaParaPago;
+import com.refugio.repository.FacturaRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.*;
+
+// Registro de pagos por lotes: cada pago se casa con su factura (por id o por referencia) con una consulta por
+// lote, los Pago se insertan con JDBC batch y las facturas pasan a PAGADA con un UPDATE por conjunto
+@Service
+public class PagoService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PagoService.class);
+
+    // Referencia de una factura en los pagos (concepto de la transferencia): "FAC-" y el id
+    public static final String PREFIJO_REFERENCIA = "FAC-";
+
+    private final FacturaRepository facturaRepository;
+    private final EstadisticaFacturacionService estadisticaFacturacionService;
+    private final TransactionTemplate transactionTemplate;
+    private final int tamanoLote;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public PagoService(FacturaRepository facturaRepository,
+                       EstadisticaFacturacionService estadisticaFacturacionService,
+                       TransactionTemplate transactionTemplate,
+                       @Value("${refugio.pagos.tamano-lote:1000}") int tamanoLote) {
+        this.facturaRepository = facturaRepository;
+        this.estadisticaFacturacionService = estadisticaFacturacionService;
+        this.transactionTemplate = transactionTemplate;
+        this.tamanoLote = tamanoLote;
+    }
+
+    // Registra los pagos recibidos y devuelve un resultado por pago, en el mismo orden. Las comprobaciones que no
+    // necesitan la base de datos (datos no válidos, factura repetida en la llamada) se hacen antes; el resto se
+    // procesa en lotes de tamanoLote, cada uno en su transacción.
+    public ResultadoLotePagos registrarPagos(List<SolicitudPago> solicitudes) {
+        long inicio = System.nanoTime();
+        ResultadoPago[] resultados = new ResultadoPago[solicitudes.size()];
+        Set<Long> vistas = new HashSet<>();
+        List<Integer> pendientes = new ArrayList<>();
+
+        for (int i = 0; i < solicitudes.size(); i++) {
+            SolicitudPago solicitud = solicitudes.get(i);
+            Long facturaId = resolverFactura(solicitud);
+            if (facturaId == null || solicitud.metodo() == null
+                    || solicitud.importe() == null || solicitud.importe().signum() <= 0) {
+                resultados[i] = new ResultadoPago(i, facturaId, null, EstadoPago.DATOS_NO_VALIDOS);
+            } else if (!vistas.add(facturaId)) {
+                resultados[i] = new ResultadoPago(i, facturaId, null, EstadoPago.DUPLICADO);
+            } else {
+                pendientes.add(i);
+            }
+        }
+
+        int lotes = 0;
+        for (int desde = 0; desde < pendientes.size(); desde += tamanoLote) {
+            List<Integer> lote = pendientes.subList(desde, Math.min(desde + tamanoLote, pendientes.size()));
+            procesarLote(solicitudes, lote, resultados);
+            lotes++;
+        }
+
+        ResultadoLotePagos resultado = new ResultadoLotePagos(Arrays.asList(resultados), lotes,
+                (System.nanoTime() - inicio) / 1_000_000);
+        logger.info("Pagos por lotes: {} registrados de {} en {} lotes ({} ms)", resultado.getRegistrados(),
+                solicitudes.size(), resultado.getLotes(), resultado.getDuracionMs());
+        return resultado;
+    }
+
+    // Pago de una factura confirmado desde facturación (una transferencia recibida): se registra por el importe
+    // total que tiene la factura con la fila ya bloqueada y por el mismo camino que los pagos por lotes, así que
+    // deja su Pago, la revisión de auditoría y el cambio en las estadísticas
+    public ResultadoPago pagarFactura(Long facturaId) {
+        ResultadoPago resultado = transactionTemplate.execute(status -> {
+            List<FacturaParaPago> facturas = facturaRepository.findParaPagar(List.of(facturaId));
+            if (facturas.isEmpty()) {
+                return new ResultadoPago(0, facturaId, null, EstadoPago.FACTURA_NO_ENCONTRADA);
+            }
+            SolicitudPago solicitud = new SolicitudPago(facturaId, null, MetodoPago.TRANSFERENCIA,
+                    facturas.get(0).importeTotal(), null, null, null, null, null, null);
+            return registrarLote(List.of(solicitud), List.of(0)).get(0);
+        });
+        logger.info("Pago de la factura {}: {}", facturaId, resultado.getEstado());
+        return resultado;
+    }
+
+    // Procesa un lote en su propia transacción; si falla, reintenta uno a uno
+    private void procesarLote(List<SolicitudPago> solicitudes, List<Integer> lote, ResultadoPago[] resultados) {
+        try {
+            List<ResultadoPago> procesados = transactionTemplate.execute(status -> registrarLote(solicitudes, lote));
+            procesados.forEach(r -> resultados[r.getPosicion()] = r);
+        } catch (RuntimeException e) {
+            if (lote.size() == 1) {
+                int posicion = lote.get(0);
+                logger.error("Error al registrar el pago {} de la factura {}: {}", posicion,
+                        resolverFactura(solicitudes.get(posicion)), e.getMessage());
+                resultados[posicion] = new ResultadoPago(posicion, resolverFactura(solicitudes.get(posicion)),
+                        null, EstadoPago.ERROR);
+                return;
+            }
+            logger.error("Error en lote de {} pagos: {}. Reintentando individualmente", lote.size(), e.getMessage());
+            for (Integer posicion : lote) {
+                procesarLote(solicitudes, List.of(posicion), resultados);
+            }
+        }
+    }
+
+    // Casa el lote con sus facturas en una consulta, inserta los pagos válidos y marca sus facturas PAGADA
+    private List<ResultadoPago> registrarLote(List<SolicitudPago> solicitudes, List<Integer> lote) {
+        Set<Long> ids = new HashSet<>(lote.size() * 2);
+        for (Integer posicion : lote) {
+            ids.add(resolverFactura(solicitudes.get(posicion)));
+        }
+        Map<Long, FacturaParaPago> facturas = new HashMap<>(ids.size() * 2);
+        for (FacturaParaPago factura : facturaRepository.findParaPagar(ids)) {
+            facturas.put(factura.id(), factura);
+        }
+
+        List<ResultadoPago> procesados = new ArrayList<>(lote.size());
+        List<Long> pagadas = new ArrayList<>();
+        Map<Integer, Pago> pagos = new HashMap<>();
+        BigDecimal total = BigDecimal.ZERO;
+        BigDecimal impuesto = BigDecimal.ZERO;
+        for (Integer posicion : lote) {
+            SolicitudPago solicitud = solicitudes.get(posicion);
+            Long facturaId = resolverFactura(solicitud);
+            FacturaParaPago factura = facturas.get(facturaId);
+            EstadoPago estado = comprobar(factura, solicitud);
+            if (estado == EstadoPago.REGISTRADO) {
+                // Referencia sin inicializar: el INSERT solo necesita el id
+                Pago pago = construirPago(entityManager.getReference(Factura.class, facturaId), solicitud);
+                entityManager.persist(pago);
+                pagos.put(posicion, pago);
+                pagadas.add(facturaId);
+                total = total.add(factura.importeTotal());
+                impuesto = impuesto.add(factura.importeImpuesto());
+            } else {
+                procesados.add(new ResultadoPago(posicion, facturaId, null, estado));
+            }
+        }
+
+        if (!pagadas.isEmpty()) {
+            if (AuditoriaEnBloque.diferida(entityManager)) {
+                // El cambio de las facturas va a la cola de la transacción, detrás de los pagos
+                AuditoriaEnBloque.encolar(entityManager, Factura.class, pagadas, () ->
+                        facturaRepository.marcarPagadasEnLote(pagadas));
+            } else {
+                facturaRepository.marcarPagadasEnLote(pagadas);
+                // En la revisión de la transacción, en la que ya van los pagos; solo cambia el estado
+                AuditoriaEnBloque.auditar(entityManager, Factura.class, pagadas, Set.of("estado"));
+            }
+            // Tras el flush, para bloquear la fila de estadísticas solo hasta el commit del lote
+            estadisticaFacturacionService.registrarCambiosEstado(Factura.EstadoFactura.EMITIDA,
+                    Factura.EstadoFactura.PAGADA, pagadas.size(), total, impuesto);
+        }
+        // Sin clear(): en modo síncrono la revisión abierta por AuditoriaEnBloque tiene que seguir en la sesión para
+        // que Envers escriba los pagos en ella al confirmar. En modo diferido los pagos ya están en la cola desde el
+        // flush de encolar, delante de las facturas, y van en la misma fila de cola al confirmar
+        pagos.forEach((posicion, pago) -> procesados.add(new ResultadoPago(posicion, pago.getFactura().getId(),
+                pago.getId(), EstadoPago.REGISTRADO)));
+        return procesados;
+    }
+
+    // Solo se paga una factura emitida por su importe total exacto
+    private static EstadoPago comprobar(FacturaParaPago factura, SolicitudPago solicitud) {
+        if (factura == null) {
+            return EstadoPago.FACTURA_NO_ENCONTRADA;
+        }
+        return switch (factura.estado()) {
+            case PAGADA -> EstadoPago.FACTURA_YA_PAGADA;
+            case ANULADA -> EstadoPago.FACTURA_ANULADA;
+            case EMITIDA -> solicitud.importe().compareTo(factura.importeTotal()) == 0
+                    ? EstadoPago.REGISTRADO : EstadoPago.IMPORTE_NO_COINCIDE;
+        };
+    }
+
+    private static Pago construirPago(Factura factura, SolicitudPago solicitud) {
+        Pago pago = switch (solicitud.metodo()) {
+            case TARJETA -> {
+                PagoTarjeta tarjeta = new PagoTarjeta();
+                tarjeta.setUltimos4(solicitud.ultimos4());
+                tarjeta.setMarca(solicitud.marca());
+                yield tarjeta;
+            }
+            case PAYPAL -> {
+                PagoPaypal paypal = new PagoPaypal();
+                paypal.setPaypalEmail(solicitud.paypalEmail());
+                paypal.setTransaccionId(solicitud.transaccionId());
+                yield paypal;
+            }
+            case TRANSFERENCIA -> {
+                PagoTransferencia transferencia = new PagoTransferencia();
+                transferencia.setIban(solicitud.iban());
+                transferencia.setReferencia(solicitud.referencia() != null
+                        ? solicitud.referencia() : referencia(factura.getId()));
+                yield transferencia;
+            }
+        };
+        pago.setFactura(factura);
+        pago.setImporte(solicitud.importe());
+        pago.setFechaPago(solicitud.fechaPago() != null ? solicitud.fechaPago() : LocalDateTime.now());
+        return pago;
+    }
+
+    // Id de la factura de un pago: el explícito o el de su referencia. Si vienen los dos tienen que coincidir.
+    private static Long resolverFactura(SolicitudPago solicitud) {
+        Long porReferencia = parsearReferencia(solicitud.referencia());
+        if (solicitud.facturaId() == null) {
+            return porReferencia;
+        }
+        return porReferencia == null || porReferencia.equals(solicitud.facturaId()) ? solicitud.facturaId() : null;
+    }
+
+    // Referencia con la que se identifica una factura en un pago
+    public static String referencia(Long facturaId) {
+        return PREFIJO_REFERENCIA + facturaId;
+    }
+
+    // "FAC-123" (sin distinguir mayúsculas); cualquier otra cosa, también un número suelto, no identifica una
+    // factura: en el concepto de una transferencia puede ser cualquier otro dato del cliente
+    static Long parsearReferencia(String referencia) {
+        if (referencia == null) {
+            return null;
+        }
+        String numero = referencia.strip();
+        if (!numero.regionMatches(true, 0, PREFIJO_REFERENCIA, 0, PREFIJO_REFERENCIA.length())) {
+            return null;
+        }
+        try {
+            long id = Long.parseLong(numero.substring(PREFIJO_REFERENCIA.length()));
+            return id > 0 ? id : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public enum MetodoPago { TARJETA, PAYPAL, TRANSFERENCIA }
+
+    public enum EstadoPago {
+        REGISTRADO, DATOS_NO_VALIDOS, DUPLICADO, FACTURA_NO_ENCONTRADA, FACTURA_YA_PAGADA, FACTURA_ANULADA,
+        IMPORTE_NO_COINCIDE, ERROR
+    }
+
+    // Pago recibido: factura por id o por referencia, método y los datos propios de ese método
+    public record SolicitudPago(
+            Long facturaId,
+            String referencia,
+            MetodoPago metodo,
+            BigDecimal importe,
+            LocalDateTime fechaPago,
+            String ultimos4,
+            String marca,
+            String paypalEmail,
+            String transaccionId,
+            String iban) {
+    }
+
+    // Resultado de un pago del lote (posicion es su índice en la petición)
+    public static class ResultadoPago {
+        private final int posicion;
+        private final Long facturaId;
+        private final Long pagoId;
+        private final EstadoPago estado;
+
+        public ResultadoPago(int posicion, Long facturaId, Long pagoId, EstadoPago estado) {
+            this.posicion = posicion;
+            this.facturaId = facturaId;
+            this.pagoId = pagoId;
+            this.estado = estado;
+        }
+
+        public int getPosicion() { return posicion; }
+        public Long getFacturaId() { return facturaId; }
+        public Long getPagoId() { return pagoId; }
+        public EstadoPago getEstado() { return estado; }
+    }
+
+    // Resultado de una llamada: un resultado por pago y el recuento por estado
+    public static class ResultadoLotePagos {
+        private final List<ResultadoPago> resultados;
+        private final Map<EstadoPago, Long> porEstado = new EnumMap<>(EstadoPago.class);
+        private final int lotes;
+        private final long duracionMs;
+
+        public ResultadoLotePagos(List<ResultadoPago> resultados, int lotes, long duracionMs) {
+            this.resultados = resultados;
+            this.lotes = lotes;
+            this.duracionMs = duracionMs;
+            for (ResultadoPago resultado : resultados) {
+                porEstado.merge(resultado.getEstado(), 1L, Long::sum);
+            }
+        }
+
+        public List<ResultadoPago> getResultados() { return resultados; }
+        public Map<EstadoPago, Long> getPorEstado() { return porEstado; }
+        public int getLotes() { return lotes; }
+        public long getDuracionMs() { return duracionMs; }
+        public long getRegistrados() { return porEstado.getOrDefault(EstadoPago.REGISTRADO, 0L); }
+    }
+}
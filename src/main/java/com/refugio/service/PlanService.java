@@ -0,0 +1,123 @@
+package com.refugio.service;
+
+import com.refugio.JPA.Plan;
+import com.refugio.repository.PlanRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+// Planes (datos de referencia) servidos desde la caché de segundo nivel, con invalidación explícita
+@Service
+public class PlanService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PlanService.class);
+
+    private final PlanRepository planRepository;
+    private final SessionFactory sessionFactory;
+
+    public PlanService(PlanRepository planRepository, EntityManagerFactory entityManagerFactory) {
+        this.planRepository = planRepository;
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+    }
+
+    // Todos los planes, del más barato al más caro
+    @Transactional(readOnly = true)
+    public List<Plan> obtenerPlanes() {
+        return planRepository.findAllByOrderByPrecioMensualAsc();
+    }
+
+    // Obtiene plan por ID
+    @Transactional(readOnly = true)
+    public Plan obtenerPlan(Long id) {
+        return planRepository.findById(id)
+                .orElseThrow(() -> new RuntimeException("Plan no encontrado: " + id));
+    }
+
+    // Obtiene plan por tipo
+    @Transactional(readOnly = true)
+    public Plan obtenerPlanPorTipo(Plan.TipoPlan tipo) {
+        return planRepository.findByTipo(tipo)
+                .orElseThrow(() -> new RuntimeException("Plan no encontrado: " + tipo));
+    }
+
+    // Cambia nombre y precio. Hibernate actualiza la entrada de la caché al confirmar (READ_WRITE)
+    // e invalida las consultas cacheadas sobre planes.
+    @Transactional
+    public Plan actualizarPlan(Long id, String nombre, BigDecimal precioMensual) {
+        if (precioMensual == null || precioMensual.signum() < 0) {
+            throw new IllegalArgumentException("Precio mensual no válido: " + precioMensual);
+        }
+        Plan plan = obtenerPlan(id);
+        if (nombre != null && !nombre.isBlank()) {
+            plan.setNombre(nombre);
+        }
+        plan.setPrecioMensual(precioMensual);
+        logger.info("Plan {} actualizado: {} a {} €/mes", id, plan.getNombre(), precioMensual);
+        return plan;
+    }
+
+    // Vacía los planes y sus consultas cacheadas (solo su región). Necesario si los planes se cambian sin pasar
+    // por Hibernate (SQL directo, otra instancia de la aplicación).
+    public void invalidarCache() {
+        sessionFactory.getCache().evictEntityData(Plan.class);
+        sessionFactory.getCache().evictQueryRegion(Plan.REGION_CONSULTAS);
+        logger.info("Caché de planes invalidada");
+    }
+
+    // Aciertos y fallos de la caché de planes y de sus consultas desde el arranque
+    public EstadisticasCache obtenerEstadisticasCache() {
+        Statistics estadisticas = sessionFactory.getStatistics();
+        CacheRegionStatistics region = estadisticas.getDomainDataRegionStatistics(Plan.REGION_CACHE);
+        // La región de consultas se crea con la primera consulta cacheada
+        CacheRegionStatistics consultas = estadisticas.getQueryRegionStatistics(Plan.REGION_CONSULTAS);
+        return new EstadisticasCache(
+                estadisticas.isStatisticsEnabled(),
+                region.getHitCount(), region.getMissCount(), region.getPutCount(),
+                consultas == null ? 0 : consultas.getHitCount(), consultas == null ? 0 : consultas.getMissCount(),
+                consultas == null ? 0 : consultas.getPutCount());
+    }
+
+    // DTO de estadísticas de la caché
+    public static class EstadisticasCache {
+        private final boolean habilitadas;
+        private final long aciertos;
+        private final long fallos;
+        private final long escrituras;
+        private final long aciertosConsultas;
+        private final long fallosConsultas;
+        private final long escriturasConsultas;
+
+        public EstadisticasCache(boolean habilitadas, long aciertos, long fallos, long escrituras,
+                                 long aciertosConsultas, long fallosConsultas, long escriturasConsultas) {
+            this.habilitadas = habilitadas;
+            this.aciertos = aciertos;
+            this.fallos = fallos;
+            this.escrituras = escrituras;
+            this.aciertosConsultas = aciertosConsultas;
+            this.fallosConsultas = fallosConsultas;
+            this.escriturasConsultas = escriturasConsultas;
+        }
+
+        public boolean isHabilitadas() { return habilitadas; }
+        public long getAciertos() { return aciertos; }
+        public long getFallos() { return fallos; }
+        public long getEscrituras() { return escrituras; }
+        public long getAciertosConsultas() { return aciertosConsultas; }
+        public long getFallosConsultas() { return fallosConsultas; }
+        public long getEscriturasConsultas() { return escriturasConsultas; }
+
+        // Porcentaje de aciertos sobre los accesos a la caché de planes
+        public double getTasaAciertos() {
+            long accesos = aciertos + fallos;
+            return accesos == 0 ? 0 : aciertos * 100.0 / accesos;
+        }
+    }
+}
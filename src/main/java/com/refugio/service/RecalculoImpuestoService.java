@@ -0,0 +1,331 @@
+package com.refugio.service;
+
+import com.refugio.JPA.Factura;
+import com.refugio.repository.FacturaRepository;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Recálculo masivo en segundo plano del impuesto de las facturas emitidas de un país (y rango de fechas)
+@Service
+public class RecalculoImpuestoService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RecalculoImpuestoService.class);
+
+    private static final LocalDate SIN_FECHA_DESDE = LocalDate.of(1900, 1, 1);
+    private static final LocalDate SIN_FECHA_HASTA = LocalDate.of(9999, 12, 31);
+    private static final int MAX_RECALCULOS_RECORDADOS = 20;
+
+    private final FacturaRepository facturaRepository;
+    private final ImpuestoService impuestoService;
+    private final TransactionTemplate transactionTemplate;
+    private final EstadisticaFacturacionService estadisticaFacturacionService;
+    private final int tamanoLote;
+
+    private final AtomicLong secuencia = new AtomicLong();
+    private final Map<Long, ProgresoRecalculo> recalculos = new ConcurrentHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(tarea -> {
+        Thread hilo = new Thread(tarea, "recalculo-impuestos");
+        hilo.setDaemon(true);
+        return hilo;
+    });
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public RecalculoImpuestoService(FacturaRepository facturaRepository,
+                                    ImpuestoService impuestoService,
+                                    TransactionTemplate transactionTemplate,
+                                    EstadisticaFacturacionService estadisticaFacturacionService,
+                                    @Value("${refugio.recalculo-impuestos.tamano-lote:500}") int tamanoLote) {
+        this.facturaRepository = facturaRepository;
+        this.impuestoService = impuestoService;
+        this.transactionTemplate = transactionTemplate;
+        this.estadisticaFacturacionService = estadisticaFacturacionService;
+        this.tamanoLote = tamanoLote;
+    }
+
+    // Registra un recálculo y lo encola; se ejecutan de uno en uno
+    public ProgresoRecalculo iniciarRecalculo(String pais, LocalDate desde, LocalDate hasta) {
+        if (pais == null || pais.isBlank()) {
+            throw new IllegalArgumentException("El país es obligatorio");
+        }
+        if (desde != null && hasta != null && desde.isAfter(hasta)) {
+            throw new IllegalArgumentException("La fecha inicial es posterior a la final");
+        }
+
+        String codigoPais = ImpuestoService.normalizarPais(pais);
+        long total = facturaRepository.countParaRecalcular(codigoPais,
+                desde != null ? desde : SIN_FECHA_DESDE, hasta != null ? hasta : SIN_FECHA_HASTA);
+
+        ProgresoRecalculo progreso = new ProgresoRecalculo(secuencia.incrementAndGet(), codigoPais, desde, hasta, total);
+        recalculos.put(progreso.getId(), progreso);
+        olvidarAntiguos();
+
+        logger.info("Recálculo de impuestos {} encolado: país {}, {} - {}, {} facturas",
+                progreso.getId(), codigoPais, desde, hasta, total);
+        executor.submit(() -> ejecutar(progreso));
+        return progreso;
+    }
+
+    // Pide la cancelación; el recálculo se detiene al terminar el lote en curso
+    public ProgresoRecalculo cancelar(Long id) {
+        ProgresoRecalculo progreso = obtenerRecalculo(id);
+        progreso.solicitarCancelacion();
+        logger.warn("Cancelación solicitada para el recálculo de impuestos {}", id);
+        return progreso;
+    }
+
+    // Obtiene recálculo por ID
+    public ProgresoRecalculo obtenerRecalculo(Long id) {
+        ProgresoRecalculo progreso = recalculos.get(id);
+        if (progreso == null) {
+            throw new RuntimeException("Recálculo no encontrado: " + id);
+        }
+        return progreso;
+    }
+
+    // Últimos recálculos, del más reciente al más antiguo
+    public List<ProgresoRecalculo> obtenerRecalculos() {
+        return recalculos.values().stream()
+                .sorted(Comparator.comparing(ProgresoRecalculo::getId).reversed())
+                .toList();
+    }
+
+    @PreDestroy
+    void detener() {
+        recalculos.values().forEach(ProgresoRecalculo::solicitarCancelacion);
+        executor.shutdownNow();
+    }
+
+    // Recorre las facturas por lotes; cada lote en su transacción, con los UPDATE agrupados al hacer flush.
+    // El progreso solo suma los lotes confirmados: uno que falla y se deshace no cuenta como procesado
+    void ejecutar(ProgresoRecalculo progreso) {
+        if (progreso.isCancelacionSolicitada()) {
+            progreso.finalizar(EstadoRecalculo.CANCELADO);
+            return;
+        }
+        progreso.iniciar();
+        LocalDate desde = progreso.getDesde() != null ? progreso.getDesde() : SIN_FECHA_DESDE;
+        LocalDate hasta = progreso.getHasta() != null ? progreso.getHasta() : SIN_FECHA_HASTA;
+
+        try {
+            long ultimoId = 0L;
+            while (!progreso.isCancelacionSolicitada()) {
+                long desdeId = ultimoId;
+                LoteRecalculo lote = transactionTemplate.execute(status -> {
+                    List<Factura> facturas = facturaRepository.findLoteParaRecalcular(
+                            progreso.getPais(), desde, hasta, desdeId, PageRequest.ofSize(tamanoLote));
+                    if (facturas.isEmpty()) {
+                        return null;
+                    }
+                    LoteRecalculo recalculado = new LoteRecalculo(facturas.get(facturas.size() - 1).getId());
+                    BigDecimal totalAntes = sumarTotal(facturas);
+                    BigDecimal impuestoAntes = sumarImpuesto(facturas);
+                    for (Factura factura : facturas) {
+                        recalcular(factura, recalculado);
+                    }
+                    entityManager.flush();
+                    estadisticaFacturacionService.registrarDiferencia(Factura.EstadoFactura.EMITIDA,
+                            sumarTotal(facturas).subtract(totalAntes),
+                            sumarImpuesto(facturas).subtract(impuestoAntes));
+                    entityManager.clear();
+                    return recalculado;
+                });
+
+                if (lote == null) {
+                    break;
+                }
+                ultimoId = lote.ultimoId;
+                progreso.loteTerminado(lote);
+                logger.debug("Recálculo {}: {}/{} facturas procesadas, {} modificadas",
+                        progreso.getId(), progreso.getProcesadas(), progreso.getTotal(), progreso.getModificadas());
+            }
+
+            progreso.finalizar(progreso.isCancelacionSolicitada() ? EstadoRecalculo.CANCELADO : EstadoRecalculo.COMPLETADO);
+            logger.info("Recálculo de impuestos {} {}: {} procesadas, {} modificadas, diferencia de impuesto {}",
+                    progreso.getId(), progreso.getEstado(), progreso.getProcesadas(),
+                    progreso.getModificadas(), progreso.getDiferenciaImpuesto());
+        } catch (RuntimeException e) {
+            progreso.fallar(e.getMessage());
+            logger.error("Error en el recálculo de impuestos {}: {}", progreso.getId(), e.getMessage());
+        }
+    }
+
+    // Aplica la tasa vigente en la fecha de emisión; solo las facturas que cambian generan UPDATE (y revisión)
+    private void recalcular(Factura factura, LoteRecalculo lote) {
+        ImpuestoService.DetalleImpuesto detalle = impuestoService.calcularDetalleImpuesto(
+                factura.getImporte(), factura.getPaisImpuesto(), factura.getFechaEmision());
+
+        BigDecimal impuestoAnterior = factura.getImporteImpuesto();
+        boolean cambia = impuestoAnterior.compareTo(detalle.getMontoImpuesto()) != 0
+                || factura.getImporteTotal().compareTo(detalle.getMontoTotal()) != 0
+                || factura.getTasaImpuesto() == null
+                || factura.getTasaImpuesto().compareTo(detalle.getTasaPorcentaje()) != 0;
+
+        if (cambia) {
+            factura.setImporteImpuesto(detalle.getMontoImpuesto());
+            factura.setImporteTotal(detalle.getMontoTotal());
+            factura.setTasaImpuesto(detalle.getTasaPorcentaje());
+        }
+        lote.facturaProcesada(cambia, impuestoAnterior, detalle.getMontoImpuesto());
+    }
+
+    private static BigDecimal sumarTotal(List<Factura> facturas) {
+        return facturas.stream().map(Factura::getImporteTotal).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    private static BigDecimal sumarImpuesto(List<Factura> facturas) {
+        return facturas.stream().map(Factura::getImporteImpuesto).reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    // Quita los recálculos terminados más antiguos para no acumularlos en memoria
+    private void olvidarAntiguos() {
+        if (recalculos.size() <= MAX_RECALCULOS_RECORDADOS) {
+            return;
+        }
+        recalculos.values().stream()
+                .filter(ProgresoRecalculo::isTerminado)
+                .sorted(Comparator.comparing(ProgresoRecalculo::getId))
+                .limit(recalculos.size() - MAX_RECALCULOS_RECORDADOS)
+                .forEach(p -> recalculos.remove(p.getId()));
+    }
+
+    // Recuento de un lote mientras su transacción está abierta; pasa al progreso al confirmarse
+    private static final class LoteRecalculo {
+        private final long ultimoId;
+        private long procesadas;
+        private long modificadas;
+        private BigDecimal impuestoAnterior = BigDecimal.ZERO;
+        private BigDecimal impuestoNuevo = BigDecimal.ZERO;
+
+        LoteRecalculo(long ultimoId) {
+            this.ultimoId = ultimoId;
+        }
+
+        void facturaProcesada(boolean modificada, BigDecimal anterior, BigDecimal nuevo) {
+            procesadas++;
+            if (modificada) {
+                modificadas++;
+                impuestoAnterior = impuestoAnterior.add(anterior);
+                impuestoNuevo = impuestoNuevo.add(nuevo);
+            }
+        }
+    }
+
+    public enum EstadoRecalculo { PENDIENTE, EN_CURSO, COMPLETADO, CANCELADO, FALLIDO }
+
+    // Progreso de un recálculo; lo escribe solo el hilo que lo ejecuta y se lee desde las peticiones web
+    public static class ProgresoRecalculo {
+        private final Long id;
+        private final String pais;
+        private final LocalDate desde;
+        private final LocalDate hasta;
+        private final long total;
+        private final LocalDateTime creado = LocalDateTime.now();
+
+        private volatile EstadoRecalculo estado = EstadoRecalculo.PENDIENTE;
+        private volatile boolean cancelacionSolicitada;
+        private volatile long procesadas;
+        private volatile long modificadas;
+        private volatile int lotes;
+        private volatile BigDecimal impuestoAnterior = BigDecimal.ZERO;
+        private volatile BigDecimal impuestoNuevo = BigDecimal.ZERO;
+        private volatile LocalDateTime inicio;
+        private volatile LocalDateTime fin;
+        private volatile String error;
+
+        public ProgresoRecalculo(Long id, String pais, LocalDate desde, LocalDate hasta, long total) {
+            this.id = id;
+            this.pais = pais;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.total = total;
+        }
+
+        void iniciar() {
+            inicio = LocalDateTime.now();
+            estado = EstadoRecalculo.EN_CURSO;
+        }
+
+        void loteTerminado(LoteRecalculo lote) {
+            procesadas += lote.procesadas;
+            modificadas += lote.modificadas;
+            impuestoAnterior = impuestoAnterior.add(lote.impuestoAnterior);
+            impuestoNuevo = impuestoNuevo.add(lote.impuestoNuevo);
+            lotes++;
+        }
+
+        void solicitarCancelacion() {
+            cancelacionSolicitada = true;
+        }
+
+        void finalizar(EstadoRecalculo estadoFinal) {
+            fin = LocalDateTime.now();
+            estado = estadoFinal;
+        }
+
+        void fallar(String mensaje) {
+            error = mensaje;
+            finalizar(EstadoRecalculo.FALLIDO);
+        }
+
+        public boolean isTerminado() {
+            return estado != EstadoRecalculo.PENDIENTE && estado != EstadoRecalculo.EN_CURSO;
+        }
+
+        // Porcentaje sobre el total contado al encolar (las facturas que cambien de estado entretanto no se cuentan)
+        public int getPorcentaje() {
+            if (total == 0) {
+                return isTerminado() ? 100 : 0;
+            }
+            return (int) Math.min(100, procesadas * 100 / total);
+        }
+
+        public long getDuracionMs() {
+            if (inicio == null) {
+                return 0;
+            }
+            return Duration.between(inicio, fin != null ? fin : LocalDateTime.now()).toMillis();
+        }
+
+        public BigDecimal getDiferenciaImpuesto() {
+            return impuestoNuevo.subtract(impuestoAnterior);
+        }
+
+        public Long getId() { return id; }
+        public String getPais() { return pais; }
+        public LocalDate getDesde() { return desde; }
+        public LocalDate getHasta() { return hasta; }
+        public long getTotal() { return total; }
+        public LocalDateTime getCreado() { return creado; }
+        public EstadoRecalculo getEstado() { return estado; }
+        public boolean isCancelacionSolicitada() { return cancelacionSolicitada; }
+        public long getProcesadas() { return procesadas; }
+        public long getModificadas() { return modificadas; }
+        public int getLotes() { return lotes; }
+        public BigDecimal getImpuestoAnterior() { return impuestoAnterior; }
+        public BigDecimal getImpuestoNuevo() { return impuestoNuevo; }
+        public LocalDateTime getInicio() { return inicio; }
+        public LocalDateTime getFin() { return fin; }
+        public String getError() { return error; }
+    }
+}
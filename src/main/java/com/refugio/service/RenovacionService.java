@@ -0,0 +1,318 @@
+package com.refugio.service;
+
+import com.refugio.JPA.EjecucionFacturacion;
+import com.refugio.JPA.Factura;
+import com.refugio.JPA.ParticionEjecucion;
+import com.refugio.JPA.Suscripcion;
+import com.refugio.repository.SuscripcionRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Pipeline de renovación automática por lotes (keyset por id, una transacción por lote, reanudable)
+@Service
+public class RenovacionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenovacionService.class);
+
+    private final SuscripcionRepository suscripcionRepository;
+    private final FacturaService facturaService;
+    private final TransactionTemplate transactionTemplate;
+    private final int tamanoLote;
+    private final int paralelismo;
+    private final EjecucionFacturacionService ejecucionFacturacionService;
+    private final EstadisticaFacturacionService estadisticaFacturacionService;
+    private final AtomicBoolean enEjecucion = new AtomicBoolean(false);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public RenovacionService(SuscripcionRepository suscripcionRepository,
+                             FacturaService facturaService,
+                             TransactionTemplate transactionTemplate,
+                             EjecucionFacturacionService ejecucionFacturacionService,
+                             EstadisticaFacturacionService estadisticaFacturacionService,
+                             @Value("${refugio.renovacion.tamano-lote:500}") int tamanoLote,
+                             @Value("${refugio.renovacion.paralelismo:1}") int paralelismo) {
+        this.suscripcionRepository = suscripcionRepository;
+        this.facturaService = facturaService;
+        this.transactionTemplate = transactionTemplate;
+        this.ejecucionFacturacionService = ejecucionFacturacionService;
+        this.estadisticaFacturacionService = estadisticaFacturacionService;
+        this.tamanoLote = tamanoLote;
+        this.paralelismo = Math.max(1, paralelismo);
+    }
+
+    // Calcula la siguiente renovación a partir de la fecha prevista (no de hoy) para no desplazar el ciclo
+    public static LocalDate calcularSiguienteRenovacion(Suscripcion suscripcion) {
+        LocalDate base = suscripcion.getProximaRenovacion() != null
+                ? suscripcion.getProximaRenovacion()
+                : LocalDate.now();
+        return base.plusMonths(1);
+    }
+
+    // Renueva todas las suscripciones vencidas a fecha de corte con el paralelismo configurado
+    public ResultadoRenovacion procesarRenovaciones(LocalDate fechaCorte) {
+        return procesarRenovaciones(fechaCorte, paralelismo);
+    }
+
+    // Reparte las suscripciones en particiones disjuntas (id % particiones), cada una con su propio worker.
+    // Si hay una ejecución inacabada para ese corte se reanuda desde sus marcas de agua.
+    public ResultadoRenovacion procesarRenovaciones(LocalDate fechaCorte, int particiones) {
+        if (!enEjecucion.compareAndSet(false, true)) {
+            throw new IllegalStateException("Ya hay una renovación en curso");
+        }
+
+        long inicio = System.nanoTime();
+        EjecucionFacturacion ejecucion = null;
+        try {
+            ejecucion = ejecucionFacturacionService.iniciarOReanudar(fechaCorte, Math.max(1, particiones));
+            Long ejecucionId = ejecucion.getId();
+            int totalParticiones = ejecucion.getParticiones();
+            List<ParticionEjecucion> pendientes = ejecucionFacturacionService.obtenerParticionesPendientes(ejecucionId);
+
+            ResultadoRenovacion resultado = new ResultadoRenovacion();
+            if (pendientes.size() <= 1) {
+                for (ParticionEjecucion particion : pendientes) {
+                    resultado.combinar(procesarParticion(fechaCorte, particion, totalParticiones));
+                }
+            } else {
+                resultado = procesarEnParalelo(fechaCorte, pendientes, totalParticiones);
+            }
+
+            ejecucionFacturacionService.finalizar(ejecucionId, EjecucionFacturacion.EstadoEjecucion.COMPLETADA);
+
+            resultado.setEjecucionId(ejecucionId);
+            resultado.setParticiones(totalParticiones);
+            resultado.setDuracionMs((System.nanoTime() - inicio) / 1_000_000);
+            return resultado;
+        } catch (RuntimeException e) {
+            if (ejecucion != null) {
+                ejecucionFacturacionService.finalizar(ejecucion.getId(), EjecucionFacturacion.EstadoEjecucion.FALLIDA);
+            }
+            throw e;
+        } finally {
+            enEjecucion.set(false);
+        }
+    }
+
+    // Lanza un hilo virtual por partición pendiente y agrega sus resultados; el pool de conexiones
+    // limita cuántos lotes se ejecutan a la vez
+    private ResultadoRenovacion procesarEnParalelo(LocalDate fechaCorte, List<ParticionEjecucion> pendientes,
+                                                   int totalParticiones) {
+        ResultadoRenovacion resultado = new ResultadoRenovacion();
+        ExecutorService executor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("renovacion-", 0).factory());
+        try {
+            List<Future<ResultadoRenovacion>> futuros = new ArrayList<>();
+            for (ParticionEjecucion particion : pendientes) {
+                futuros.add(executor.submit(() -> procesarParticion(fechaCorte, particion, totalParticiones)));
+            }
+            for (Future<ResultadoRenovacion> futuro : futuros) {
+                resultado.combinar(futuro.get());
+            }
+            return resultado;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Renovación interrumpida", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error en worker de renovación: " + e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Recorre una partición lote a lote desde su marca de agua
+    private ResultadoRenovacion procesarParticion(LocalDate fechaCorte, ParticionEjecucion particion,
+                                                  int particiones) {
+        ResultadoRenovacion resultado = new ResultadoRenovacion();
+        long ultimoId = particion.getUltimoIdProcesado();
+
+        while (true) {
+            ResultadoLote lote = procesarLote(fechaCorte, ultimoId, particion, particiones);
+            if (lote.getLeidas() == 0) {
+                break;
+            }
+            resultado.acumular(lote);
+            ultimoId = lote.getUltimoId();
+
+            logger.info("Partición {}/{} - lote {}: {} renovadas, {} fallidas, {} omitidas en {} ms " +
+                    "({} suscripciones/s)", particion.getParticion(), particiones, resultado.getLotes(),
+                    lote.getRenovadas(), lote.getFallidas(), lote.getOmitidas(), lote.getDuracionMs(),
+                    lote.getRendimiento());
+        }
+
+        ejecucionFacturacionService.completarParticion(particion.getId());
+        return resultado;
+    }
+
+    // Procesa un lote en su propia transacción junto con su marca de agua; si falla, reintenta una a una.
+    // Los ids del keyset se leen sin bloqueo y se vuelven a filtrar con las filas bloqueadas, como en los lotes de
+    // SuscripcionLoteService: las que ya no están por renovar se omiten y la marca de agua pasa de largo.
+    private ResultadoLote procesarLote(LocalDate fechaCorte, long ultimoId, ParticionEjecucion particion,
+                                       int particiones) {
+        long inicio = System.nanoTime();
+        try {
+            ResultadoLote lote = transactionTemplate.execute(status -> {
+                List<Long> ids = suscripcionRepository.findIdsParaRenovar(
+                        fechaCorte, ultimoId, particion.getParticion(), particiones, PageRequest.ofSize(tamanoLote));
+                if (ids.isEmpty()) {
+                    return new ResultadoLote(0, 0, 0, ultimoId);
+                }
+
+                List<Long> renovables = suscripcionRepository.findRenovablesParaActualizar(ids, fechaCorte);
+                List<Suscripcion> suscripciones = renovables.isEmpty()
+                        ? List.of()
+                        : suscripcionRepository.findLoteParaRenovar(renovables);
+
+                List<Factura> facturas = new ArrayList<>(suscripciones.size());
+                for (Suscripcion suscripcion : suscripciones) {
+                    facturas.add(renovarEnLote(suscripcion));
+                }
+
+                long ultimo = ids.get(ids.size() - 1);
+                ejecucionFacturacionService.registrarLote(particion.getId(), ultimo, suscripciones.size(), 0);
+
+                entityManager.flush();
+                // Tras el flush, para bloquear la fila de estadísticas solo hasta el commit del lote
+                estadisticaFacturacionService.registrarAltas(facturas);
+                entityManager.clear();
+                return new ResultadoLote(suscripciones.size(), 0, ids.size() - suscripciones.size(), ultimo);
+            });
+            lote.setDuracionNanos(System.nanoTime() - inicio);
+            return lote;
+        } catch (RuntimeException e) {
+            logger.error("Error en lote de renovación tras id {} (partición {}): {}. Reintentando individualmente",
+                    ultimoId, particion.getParticion(), e.getMessage());
+            ResultadoLote lote = procesarLoteIndividualmente(fechaCorte, ultimoId, particion, particiones);
+            lote.setDuracionNanos(System.nanoTime() - inicio);
+            return lote;
+        }
+    }
+
+    // Reintenta cada suscripción del lote fallido en una transacción independiente, avanzando la marca en cada una
+    private ResultadoLote procesarLoteIndividualmente(LocalDate fechaCorte, long ultimoId,
+                                                      ParticionEjecucion particion, int particiones) {
+        List<Long> ids = suscripcionRepository.findIdsParaRenovar(
+                fechaCorte, ultimoId, particion.getParticion(), particiones, PageRequest.ofSize(tamanoLote));
+
+        int renovadas = 0;
+        int fallidas = 0;
+        int omitidas = 0;
+        for (Long id : ids) {
+            try {
+                Boolean renovada = transactionTemplate.execute(status -> {
+                    boolean renovable = !suscripcionRepository.findRenovablesParaActualizar(List.of(id), fechaCorte)
+                            .isEmpty();
+                    if (renovable) {
+                        Suscripcion suscripcion = suscripcionRepository.findById(id).orElseThrow();
+                        estadisticaFacturacionService.registrarAlta(renovarEnLote(suscripcion));
+                    }
+                    ejecucionFacturacionService.registrarLote(particion.getId(), id, renovable ? 1 : 0, 0);
+                    return renovable;
+                });
+                if (Boolean.TRUE.equals(renovada)) {
+                    renovadas++;
+                } else {
+                    omitidas++;
+                }
+            } catch (RuntimeException e) {
+                logger.error("Error al renovar suscripción {}: {}", id, e.getMessage());
+                ejecucionFacturacionService.registrarLote(particion.getId(), id, 0, 1);
+                fallidas++;
+            }
+        }
+
+        long ultimo = ids.isEmpty() ? ultimoId : ids.get(ids.size() - 1);
+        return new ResultadoLote(renovadas, fallidas, omitidas, ultimo);
+    }
+
+    // Genera la factura y avanza la renovación; los INSERT/UPDATE se envían al hacer flush del lote
+    private Factura renovarEnLote(Suscripcion suscripcion) {
+        Factura factura = facturaService.construirFactura(suscripcion);
+        entityManager.persist(factura);
+        suscripcion.setProximaRenovacion(calcularSiguienteRenovacion(suscripcion));
+        return factura;
+    }
+
+    // Resultado de un lote (omitidas: leídas en el keyset que ya no estaban por renovar al bloquearlas)
+    public static class ResultadoLote {
+        private final int renovadas;
+        private final int fallidas;
+        private final int omitidas;
+        private final long ultimoId;
+        private long duracionNanos;
+
+        public ResultadoLote(int renovadas, int fallidas, int omitidas, long ultimoId) {
+            this.renovadas = renovadas;
+            this.fallidas = fallidas;
+            this.omitidas = omitidas;
+            this.ultimoId = ultimoId;
+        }
+
+        public int getRenovadas() { return renovadas; }
+        public int getFallidas() { return fallidas; }
+        public int getOmitidas() { return omitidas; }
+        public int getProcesadas() { return renovadas + fallidas; }
+        public int getLeidas() { return renovadas + fallidas + omitidas; }
+        public long getUltimoId() { return ultimoId; }
+        public long getDuracionMs() { return duracionNanos / 1_000_000; }
+
+        public long getRendimiento() {
+            return duracionNanos > 0 ? getProcesadas() * 1_000_000_000L / duracionNanos : 0;
+        }
+
+        void setDuracionNanos(long duracionNanos) { this.duracionNanos = duracionNanos; }
+    }
+
+    // Resultado agregado de una ejecución completa (suma de todas las particiones)
+    public static class ResultadoRenovacion {
+        private Long ejecucionId;
+        private int renovadas;
+        private int fallidas;
+        private int omitidas;
+        private int lotes;
+        private int particiones = 1;
+        private long duracionMs;
+
+        void acumular(ResultadoLote lote) {
+            renovadas += lote.getRenovadas();
+            fallidas += lote.getFallidas();
+            omitidas += lote.getOmitidas();
+            lotes++;
+        }
+
+        void combinar(ResultadoRenovacion otro) {
+            renovadas += otro.renovadas;
+            fallidas += otro.fallidas;
+            omitidas += otro.omitidas;
+            lotes += otro.lotes;
+        }
+
+        public Long getEjecucionId() { return ejecucionId; }
+        public int getRenovadas() { return renovadas; }
+        public int getFallidas() { return fallidas; }
+        public int getOmitidas() { return omitidas; }
+        public int getLotes() { return lotes; }
+        public int getParticiones() { return particiones; }
+        public long getDuracionMs() { return duracionMs; }
+
+        void setEjecucionId(Long ejecucionId) { this.ejecucionId = ejecucionId; }
+        void setParticiones(int particiones) { this.particiones = particiones; }
+        void setDuracionMs(long duracionMs) { this.duracionMs = duracionMs; }
+    }
+}
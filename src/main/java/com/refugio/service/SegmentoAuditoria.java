@@ -0,0 +1,309 @@
+package com.refugio.service;
+
+import org.hibernate.envers.RevisionType;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Segmento del archivo de auditoría: fichero inmutable con las revisiones que una pasada de archivo sacó de las
+// tablas _AUD. Un bloque comprimido (Deflater) por entidad con su historial archivado y, al final, un índice
+// ordenado por (entidad raíz, id). Se lee mapeado en memoria: cada búsqueda es binaria sobre el índice y solo
+// descomprime el bloque de esa entidad.
+//
+// Formato: MAGIA, VERSION | bloques | entidades (n, nombres) | índice (n, entradas de TAMANO_ENTRADA bytes) |
+//          primera y última revisión, posición de la tabla de entidades, MAGIA
+final class SegmentoAuditoria {
+
+    static final String EXTENSION = ".seg";
+
+    private static final int MAGIA = 0x52415544;
+    private static final int VERSION = 1;
+    private static final int TAMANO_PIE = 4 + 4 + 8 + 4;
+    // entidad (int), id (long), posición (long), bytes comprimidos (int), bytes originales (int)
+    private static final int TAMANO_ENTRADA = 4 + 8 + 8 + 4 + 4;
+
+    private final Path fichero;
+    private final MappedByteBuffer mapa;
+    private final int primeraRevision;
+    private final int ultimaRevision;
+    private final List<String> entidades;
+    private final int inicioIndice;
+    private final int entradas;
+
+    private SegmentoAuditoria(Path fichero, MappedByteBuffer mapa) {
+        this.fichero = fichero;
+        this.mapa = mapa;
+        int pie = mapa.limit() - TAMANO_PIE;
+        if (pie < 8 || mapa.getInt(0) != MAGIA || mapa.getInt(4) != VERSION || mapa.getInt(pie + 16) != MAGIA) {
+            throw new IllegalStateException("Segmento de auditoría no válido: " + fichero);
+        }
+        this.primeraRevision = mapa.getInt(pie);
+        this.ultimaRevision = mapa.getInt(pie + 4);
+
+        int posicion = (int) mapa.getLong(pie + 8);
+        int numeroEntidades = mapa.getInt(posicion);
+        posicion += 4;
+        List<String> nombres = new ArrayList<>(numeroEntidades);
+        for (int i = 0; i < numeroEntidades; i++) {
+            byte[] nombre = new byte[mapa.getShort(posicion)];
+            mapa.get(posicion + 2, nombre);
+            nombres.add(new String(nombre, StandardCharsets.UTF_8));
+            posicion += 2 + nombre.length;
+        }
+        this.entidades = List.copyOf(nombres);
+        this.entradas = mapa.getInt(posicion);
+        this.inicioIndice = posicion + 4;
+    }
+
+    // Mapea un segmento existente (el canal se puede cerrar: el mapa sigue siendo válido)
+    static SegmentoAuditoria abrir(Path fichero) throws IOException {
+        try (FileChannel canal = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            if (canal.size() > Integer.MAX_VALUE) {
+                throw new IllegalStateException("Segmento de auditoría demasiado grande: " + fichero);
+            }
+            return new SegmentoAuditoria(fichero, canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()));
+        }
+    }
+
+    // Historial archivado de una entidad en este segmento con revisión en [revisionDesde, revisionHasta), de la más
+    // antigua a la más reciente. Las revisiones anteriores al rango se saltan sin decodificar su estado.
+    List<RegistroArchivado> leer(String entidad, long id, int revisionDesde, int revisionHasta) {
+        int numeroEntidad = Collections.binarySearch(entidades, entidad);
+        if (numeroEntidad < 0) {
+            return List.of();
+        }
+        int desde = 0;
+        int hasta = entradas - 1;
+        while (desde <= hasta) {
+            int medio = (desde + hasta) >>> 1;
+            int entrada = inicioIndice + medio * TAMANO_ENTRADA;
+            int comparacion = mapa.getInt(entrada) != numeroEntidad
+                    ? Integer.compare(mapa.getInt(entrada), numeroEntidad)
+                    : Long.compare(mapa.getLong(entrada + 4), id);
+            if (comparacion < 0) {
+                desde = medio + 1;
+            } else if (comparacion > 0) {
+                hasta = medio - 1;
+            } else {
+                return decodificar(descomprimir(entrada), revisionDesde, revisionHasta);
+            }
+        }
+        return List.of();
+    }
+
+    Path getFichero() { return fichero; }
+    int getPrimeraRevision() { return primeraRevision; }
+    int getUltimaRevision() { return ultimaRevision; }
+    long getTamano() { return mapa.limit(); }
+    int getEntradas() { return entradas; }
+
+    private byte[] descomprimir(int entrada) {
+        int posicion = (int) mapa.getLong(entrada + 12);
+        int comprimidos = mapa.getInt(entrada + 20);
+        byte[] original = new byte[mapa.getInt(entrada + 24)];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(mapa.slice(posicion, comprimidos));
+            inflater.inflate(original);
+            return original;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Bloque dañado en el segmento " + fichero + ": " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Los registros de un bloque van en orden de revisión: se para en el primero posterior al rango
+    private List<RegistroArchivado> decodificar(byte[] bytes, int revisionDesde, int revisionHasta) {
+        try {
+            DataInputStream entrada = new DataInputStream(new ByteArrayInputStream(bytes));
+            int numero = entrada.readInt();
+            List<RegistroArchivado> registros = new ArrayList<>();
+            for (int i = 0; i < numero; i++) {
+                int revision = entrada.readInt();
+                if (revision >= revisionHasta) {
+                    break;
+                }
+                if (revision < revisionDesde) {
+                    saltarRegistro(entrada);
+                    continue;
+                }
+                long timestamp = entrada.readLong();
+                RevisionType tipo = RevisionType.fromRepresentation(entrada.readByte());
+                String entidad = entrada.readUTF();
+                int propiedades = entrada.readInt();
+                Map<String, String> estado = new HashMap<>(propiedades * 2);
+                for (int j = 0; j < propiedades; j++) {
+                    estado.put(entrada.readUTF(), entrada.readUTF());
+                }
+                registros.add(new RegistroArchivado(revision, timestamp, tipo, entidad, estado));
+            }
+            return registros;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Bloque ilegible en el segmento " + fichero, e);
+        }
+    }
+
+    // Avanza hasta el siguiente registro (la revisión ya se ha leído): marca de tiempo, tipo, entidad y estado
+    private static void saltarRegistro(DataInputStream entrada) throws IOException {
+        entrada.skipBytes(8 + 1);
+        entrada.skipBytes(entrada.readUnsignedShort());
+        int cadenas = entrada.readInt() * 2;
+        for (int i = 0; i < cadenas; i++) {
+            entrada.skipBytes(entrada.readUnsignedShort());
+        }
+    }
+
+    // Escritura de un segmento nuevo: los historiales llegan en orden de (entidad raíz, id) y se comprimen según
+    // llegan; solo el índice se guarda en memoria. Se escribe en un temporal que se sincroniza con disco y se
+    // renombra al cerrar, así que un segmento visible siempre está completo.
+    static final class Escritor implements Closeable {
+
+        private final Path destino;
+        private final Path temporal;
+        private final FileChannel canal;
+        private final DataOutputStream salida;
+        private final Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        private final ByteArrayOutputStream indice = new ByteArrayOutputStream();
+        private final DataOutputStream entradasIndice = new DataOutputStream(indice);
+        private final List<String> entidades = new ArrayList<>();
+        private ClaveHistorial ultimaClave;
+        private long posicion;
+        private int historiales;
+        private int primeraRevision = Integer.MAX_VALUE;
+        private int ultimaRevision;
+        private boolean terminado;
+        private boolean cerrado;
+
+        Escritor(Path destino) throws IOException {
+            this.destino = destino;
+            this.temporal = destino.resolveSibling(destino.getFileName() + ".tmp");
+            this.canal = FileChannel.open(temporal, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            this.salida = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(canal), 64 * 1024));
+            salida.writeInt(MAGIA);
+            salida.writeInt(VERSION);
+            posicion = 8;
+        }
+
+        void agregar(ClaveHistorial clave, List<RegistroArchivado> registros) throws IOException {
+            if (ultimaClave != null && clave.compareTo(ultimaClave) <= 0) {
+                throw new IllegalArgumentException("Historiales fuera de orden en el segmento: " + clave);
+            }
+            if (entidades.isEmpty() || !entidades.get(entidades.size() - 1).equals(clave.entidad())) {
+                entidades.add(clave.entidad());
+            }
+            byte[] original = codificar(registros);
+            byte[] comprimido = comprimir(original);
+            salida.write(comprimido);
+
+            entradasIndice.writeInt(entidades.size() - 1);
+            entradasIndice.writeLong(clave.id());
+            entradasIndice.writeLong(posicion);
+            entradasIndice.writeInt(comprimido.length);
+            entradasIndice.writeInt(original.length);
+            posicion += comprimido.length;
+            historiales++;
+            ultimaClave = clave;
+            for (RegistroArchivado registro : registros) {
+                primeraRevision = Math.min(primeraRevision, registro.revision());
+                ultimaRevision = Math.max(ultimaRevision, registro.revision());
+            }
+        }
+
+        int getHistoriales() { return historiales; }
+
+        // Escribe la tabla de entidades, el índice y el pie, y publica el segmento
+        SegmentoAuditoria terminar() throws IOException {
+            long inicioEntidades = posicion;
+            salida.writeInt(entidades.size());
+            for (String entidad : entidades) {
+                byte[] bytes = entidad.getBytes(StandardCharsets.UTF_8);
+                salida.writeShort(bytes.length);
+                salida.write(bytes);
+            }
+            salida.writeInt(historiales);
+            indice.writeTo(salida);
+            salida.writeInt(historiales > 0 ? primeraRevision : 0);
+            salida.writeInt(ultimaRevision);
+            salida.writeLong(inicioEntidades);
+            salida.writeInt(MAGIA);
+            salida.flush();
+            canal.force(true);
+            terminado = true;
+            close();
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE);
+            return abrir(destino);
+        }
+
+        // Sin terminar() el temporal se descarta
+        @Override
+        public void close() throws IOException {
+            if (cerrado) {
+                return;
+            }
+            cerrado = true;
+            deflater.end();
+            salida.close();
+            if (!terminado) {
+                Files.deleteIfExists(temporal);
+            }
+        }
+
+        private byte[] comprimir(byte[] original) {
+            deflater.reset();
+            deflater.setInput(original);
+            deflater.finish();
+            ByteArrayOutputStream comprimido = new ByteArrayOutputStream(original.length / 2 + 64);
+            byte[] buffer = new byte[8 * 1024];
+            while (!deflater.finished()) {
+                comprimido.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return comprimido.toByteArray();
+        }
+
+        private static byte[] codificar(List<RegistroArchivado> registros) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream salida = new DataOutputStream(bytes);
+            salida.writeInt(registros.size());
+            for (RegistroArchivado registro : registros) {
+                salida.writeInt(registro.revision());
+                salida.writeLong(registro.timestamp());
+                salida.writeByte(registro.tipo().getRepresentation());
+                salida.writeUTF(registro.entidad());
+                salida.writeInt(registro.estado().size());
+                for (Map.Entry<String, String> propiedad : registro.estado().entrySet()) {
+                    salida.writeUTF(propiedad.getKey());
+                    salida.writeUTF(propiedad.getValue());
+                }
+            }
+            salida.flush();
+            return bytes.toByteArray();
+        }
+    }
+
+    // Historial de una entidad: entidad raíz de la jerarquía (las subclases comparten historial) e id
+    record ClaveHistorial(String entidad, long id) implements Comparable<ClaveHistorial> {
+        @Override
+        public int compareTo(ClaveHistorial otra) {
+            int comparacion = entidad.compareTo(otra.entidad);
+            return comparacion != 0 ? comparacion : Long.compare(id, otra.id);
+        }
+    }
+
+    // Revisión archivada de una entidad (entidad concreta y estado serializado con EstadoAuditado)
+    record RegistroArchivado(int revision, long timestamp, RevisionType tipo, String entidad,
+                             Map<String, String> estado) {
+    }
+}
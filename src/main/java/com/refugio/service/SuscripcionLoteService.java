@@ -0,0 +1,173 @@
+package com.refugio.service;
+
+import com.refugio.JPA.Suscripcion;
+import com.refugio.config.AuditoriaEnBloque;
+import com.refugio.repository.FacturaRepository;
+import com.refugio.repository.SuscripcionRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Cambios de estado masivos de suscripciones con UPDATE por conjuntos y auditoría en bloque (INSERT ... SELECT en
+// modo síncrono; en diferido, una modificación por fila en la cola de la transacción)
+@Service
+public class SuscripcionLoteService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SuscripcionLoteService.class);
+
+    private final SuscripcionRepository suscripcionRepository;
+    private final FacturaRepository facturaRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final int tamanoLote;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    public SuscripcionLoteService(SuscripcionRepository suscripcionRepository,
+                                  FacturaRepository facturaRepository,
+                                  TransactionTemplate transactionTemplate,
+                                  @Value("${refugio.actualizacion-masiva.tamano-lote:1000}") int tamanoLote) {
+        this.suscripcionRepository = suscripcionRepository;
+        this.facturaRepository = facturaRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.tamanoLote = tamanoLote;
+    }
+
+    // Pasa a EXPIRADA las suscripciones ACTIVA sin renovación cuya fecha de fin ya ha llegado
+    public ResultadoActualizacion expirarSuscripciones(LocalDate hoy) {
+        long inicio = System.nanoTime();
+        int afectadas = 0;
+        int lotes = 0;
+        long ultimoId = 0L;
+
+        while (true) {
+            List<Long> ids = suscripcionRepository.findIdsExpiradas(hoy, ultimoId, PageRequest.ofSize(tamanoLote));
+            if (ids.isEmpty()) {
+                break;
+            }
+
+            Integer actualizadas = transactionTemplate.execute(status -> expirarLote(ids, hoy));
+
+            afectadas += actualizadas;
+            lotes++;
+            ultimoId = ids.get(ids.size() - 1);
+        }
+
+        ResultadoActualizacion resultado = new ResultadoActualizacion(
+                afectadas, lotes, (System.nanoTime() - inicio) / 1_000_000);
+        logger.info("Expiración masiva: {} suscripciones en {} lotes ({} ms)",
+                resultado.getAfectadas(), resultado.getLotes(), resultado.getDuracionMs());
+        return resultado;
+    }
+
+    // Un lote de expiración, dentro de su transacción. Los ids se leyeron antes de abrirla: se vuelven a filtrar
+    // con las filas bloqueadas, y las que ya no están por expirar (otra ejecución, una renovación posterior) no se
+    // actualizan ni se auditan
+    int expirarLote(List<Long> ids, LocalDate hoy) {
+        List<Long> expiradas = new ArrayList<>(ids.size());
+        // Las que ya terminaban hoy conservan la fecha de fin: su fila _AUD no la marca como modificada
+        Set<Long> mismaFechaFin = new HashSet<>();
+        for (Object[] fila : suscripcionRepository.findExpiradasParaActualizar(ids, hoy)) {
+            expiradas.add((Long) fila[0]);
+            if (hoy.equals(fila[1])) {
+                mismaFechaFin.add((Long) fila[0]);
+            }
+        }
+        if (expiradas.isEmpty()) {
+            return 0;
+        }
+
+        if (AuditoriaEnBloque.diferida(entityManager)) {
+            return AuditoriaEnBloque.encolar(entityManager, Suscripcion.class, expiradas, () ->
+                    suscripcionRepository.finalizarEnLote(expiradas, Suscripcion.EstadoSuscripcion.EXPIRADA, hoy));
+        }
+        int n = suscripcionRepository.finalizarEnLote(expiradas, Suscripcion.EstadoSuscripcion.EXPIRADA, hoy);
+        auditarLote(expiradas.stream().filter(id -> !mismaFechaFin.contains(id)).toList(), true);
+        auditarLote(List.copyOf(mismaFechaFin), false);
+        return n;
+    }
+
+    // Pasa a IMPAGO las suscripciones ACTIVA con facturas EMITIDA anteriores al límite
+    public ResultadoActualizacion marcarImpagos(LocalDate limiteVencimiento) {
+        long inicio = System.nanoTime();
+        int afectadas = 0;
+        int lotes = 0;
+        long ultimoId = 0L;
+
+        while (true) {
+            List<Long> ids = facturaRepository.findIdsSuscripcionesConFacturasVencidas(
+                    limiteVencimiento, ultimoId, PageRequest.ofSize(tamanoLote));
+            if (ids.isEmpty()) {
+                break;
+            }
+
+            Integer actualizadas = transactionTemplate.execute(status -> marcarImpagosLote(ids, limiteVencimiento));
+
+            afectadas += actualizadas;
+            lotes++;
+            ultimoId = ids.get(ids.size() - 1);
+        }
+
+        ResultadoActualizacion resultado = new ResultadoActualizacion(
+                afectadas, lotes, (System.nanoTime() - inicio) / 1_000_000);
+        logger.warn("Impago masivo: {} suscripciones con facturas anteriores a {} en {} lotes ({} ms)",
+                resultado.getAfectadas(), limiteVencimiento, resultado.getLotes(), resultado.getDuracionMs());
+        return resultado;
+    }
+
+    // Un lote de impagos, dentro de su transacción: como en expirarLote, se vuelve a filtrar con las filas
+    // bloqueadas y solo se actualizan y auditan las que siguen ACTIVA con facturas vencidas (las que ya estaban en
+    // IMPAGO o se han pagado desde la lectura de los ids no reciben una revisión que no es suya)
+    int marcarImpagosLote(List<Long> ids, LocalDate limiteVencimiento) {
+        List<Long> impagadas = suscripcionRepository.findImpagadasParaActualizar(ids, limiteVencimiento);
+        if (impagadas.isEmpty()) {
+            return 0;
+        }
+
+        if (AuditoriaEnBloque.diferida(entityManager)) {
+            return AuditoriaEnBloque.encolar(entityManager, Suscripcion.class, impagadas, () ->
+                    suscripcionRepository.cambiarEstadoEnLote(impagadas, Suscripcion.EstadoSuscripcion.IMPAGO));
+        }
+        int n = suscripcionRepository.cambiarEstadoEnLote(impagadas, Suscripcion.EstadoSuscripcion.IMPAGO);
+        auditarLote(impagadas, false);
+        return n;
+    }
+
+    // Filas _AUD del lote en la revisión de la transacción: cambia el estado y, al expirar, la fecha de fin si
+    // era otra
+    private void auditarLote(List<Long> ids, boolean fechaFinModificada) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        AuditoriaEnBloque.auditar(entityManager, Suscripcion.class, ids,
+                fechaFinModificada ? Set.of("estado", "fechaFin") : Set.of("estado"));
+    }
+
+    // Resultado de una actualización masiva
+    public static class ResultadoActualizacion {
+        private final int afectadas;
+        private final int lotes;
+        private final long duracionMs;
+
+        public ResultadoActualizacion(int afectadas, int lotes, long duracionMs) {
+            this.afectadas = afectadas;
+            this.lotes = lotes;
+            this.duracionMs = duracionMs;
+        }
+
+        public int getAfectadas() { return afectadas; }
+        public int getLotes() { return lotes; }
+        public long getDuracionMs() { return duracionMs; }
+    }
+}
@@ -4,17 +4,20 @@ import com.refugio.JPA.Factura;
 import com.refugio.JPA.Plan;
 import com.refugio.JPA.Suscripcion;
 import com.refugio.JPA.Usuario;
-import com.refugio.repository.FacturaRepository;
+import com.refugio.repository.SuscripcionListado;
 import com.refugio.repository.SuscripcionRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDate;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 
 // Servicio para gestionar suscripciones y renovación automática
 @Service
@@ -23,15 +26,18 @@ public class SuscripcionService {
     private static final Logger logger = LoggerFactory.getLogger(SuscripcionService.class);
 
     private final SuscripcionRepository suscripcionRepository;
-    private final FacturaRepository facturaRepository;
     private final FacturaService facturaService;
+    private final RenovacionService renovacionService;
+    private final SuscripcionLoteService suscripcionLoteService;
 
     public SuscripcionService(SuscripcionRepository suscripcionRepository,
-                              FacturaRepository facturaRepository,
-                              @Lazy FacturaService facturaService) {
+                              @Lazy FacturaService facturaService,
+                              @Lazy RenovacionService renovacionService,
+                              SuscripcionLoteService suscripcionLoteService) {
         this.suscripcionRepository = suscripcionRepository;
-        this.facturaRepository = facturaRepository;
         this.facturaService = facturaService;
+        this.renovacionService = renovacionService;
+        this.suscripcionLoteService = suscripcionLoteService;
     }
 
     // Crea nueva suscripción
@@ -116,29 +122,31 @@ public class SuscripcionService {
         return suscripcionRepository.save(suscripcion);
     }
 
-    // Renovación automática diaria a las 2:00
-    @Scheduled(cron = "0 0 2 * * *")
+    // Cambia el titular de la suscripción y lleva sus facturas al historial del nuevo usuario (único punto donde
+    // cambia el titular de una suscripción guardada)
     @Transactional
+    public Suscripcion transferirSuscripcion(Long suscripcionId, Usuario nuevoUsuario) {
+        Suscripcion suscripcion = suscripcionRepository.findById(suscripcionId)
+                .orElseThrow(() -> new RuntimeException("Suscripción no encontrada: " + suscripcionId));
+
+        suscripcion.setUsuario(nuevoUsuario);
+        suscripcion = suscripcionRepository.save(suscripcion);
+        facturaService.reasignarUsuario(suscripcionId, nuevoUsuario.getId());
+
+        logger.info("Suscripción {} transferida al usuario {}", suscripcionId, nuevoUsuario.getEmail());
+        return suscripcion;
+    }
+
+    // Renovación automática diaria a las 2:00 (por lotes y particiones, una transacción por lote)
+    @Scheduled(cron = "0 0 2 * * *")
     public void procesarRenovacionesAutomaticas() {
         logger.info("Iniciando proceso de renovación automática...");
 
-        LocalDate hoy = LocalDate.now();
-        List<Suscripcion> suscripcionesARenovar = suscripcionRepository.findSuscripcionesParaRenovar(hoy);
-
-        int renovadas = 0;
-        int fallidas = 0;
-
-        for (Suscripcion suscripcion : suscripcionesARenovar) {
-            try {
-                renovarSuscripcion(suscripcion);
-                renovadas++;
-            } catch (Exception e) {
-                logger.error("Error al renovar suscripción {}: {}", suscripcion.getId(), e.getMessage());
-                fallidas++;
-            }
-        }
+        RenovacionService.ResultadoRenovacion resultado = renovacionService.procesarRenovaciones(LocalDate.now());
 
-        logger.info("Renovación finalizada. Renovadas: {}, Fallidas: {}", renovadas, fallidas);
+        logger.info("Renovación finalizada. Renovadas: {}, Fallidas: {}, Omitidas: {}, Lotes: {}, Particiones: {}, " +
+                "Duración: {} ms", resultado.getRenovadas(), resultado.getFallidas(), resultado.getOmitidas(),
+                resultado.getLotes(), resultado.getParticiones(), resultado.getDuracionMs());
     }
 
     // Renueva una suscripción
@@ -157,53 +165,35 @@ public class SuscripcionService {
         }
 
         Factura nuevaFactura = facturaService.generarFactura(suscripcion);
-        suscripcion.setProximaRenovacion(LocalDate.now().plusMonths(1));
+        suscripcion.setProximaRenovacion(RenovacionService.calcularSiguienteRenovacion(suscripcion));
         suscripcionRepository.save(suscripcion);
 
         logger.info("Suscripción {} renovada. Nueva factura: {}", suscripcion.getId(), nuevaFactura.getId());
     }
 
-    // Marca suscripciones expiradas diariamente a las 3:00
+    // Marca suscripciones expiradas diariamente a las 3:00 (UPDATE por lotes con auditoría en bloque)
     @Scheduled(cron = "0 0 3 * * *")
-    @Transactional
     public void procesarSuscripcionesExpiradas() {
         logger.info("Procesando suscripciones expiradas...");
 
-        LocalDate hoy = LocalDate.now();
-        List<Suscripcion> expiradas = suscripcionRepository.findSuscripcionesExpiradas(hoy);
-
-        for (Suscripcion suscripcion : expiradas) {
-            suscripcion.setEstado(Suscripcion.EstadoSuscripcion.EXPIRADA);
-            suscripcion.setFechaFin(hoy);
-            suscripcionRepository.save(suscripcion);
-            logger.info("Suscripción {} marcada como expirada", suscripcion.getId());
-        }
+        SuscripcionLoteService.ResultadoActualizacion resultado =
+                suscripcionLoteService.expirarSuscripciones(LocalDate.now());
 
-        logger.info("Expiración finalizada. {} suscripciones expiradas", expiradas.size());
+        logger.info("Expiración finalizada. {} suscripciones expiradas en {} ms",
+                resultado.getAfectadas(), resultado.getDuracionMs());
     }
 
-    // Marca suscripciones con impago diariamente a las 4:00
+    // Marca suscripciones con impago diariamente a las 4:00 (facturas vencidas detectadas en la BD)
     @Scheduled(cron = "0 0 4 * * *")
-    @Transactional
     public void procesarSuscripcionesConImpago() {
         logger.info("Verificando suscripciones con facturas vencidas...");
 
-        List<Factura> facturasPendientes = facturaRepository
-                .findByEstadoOrderByFechaEmisionAsc(Factura.EstadoFactura.EMITIDA);
-
         LocalDate limiteVencimiento = LocalDate.now().minusDays(30);
+        SuscripcionLoteService.ResultadoActualizacion resultado =
+                suscripcionLoteService.marcarImpagos(limiteVencimiento);
 
-        for (Factura factura : facturasPendientes) {
-            if (factura.getFechaEmision().isBefore(limiteVencimiento)) {
-                Suscripcion suscripcion = factura.getSuscripcion();
-                if (suscripcion.getEstado() == Suscripcion.EstadoSuscripcion.ACTIVA) {
-                    suscripcion.setEstado(Suscripcion.EstadoSuscripcion.IMPAGO);
-                    suscripcionRepository.save(suscripcion);
-                    logger.warn("Suscripción {} marcada como impago por factura {} vencida",
-                            suscripcion.getId(), factura.getId());
-                }
-            }
-        }
+        logger.info("Verificación de impagos finalizada. {} suscripciones marcadas en {} ms",
+                resultado.getAfectadas(), resultado.getDuracionMs());
     }
 
     // Obtiene suscripciones de un usuario
@@ -222,11 +212,74 @@ public class SuscripcionService {
         return suscripcionRepository.findSuscripcionesProximasAVencer(hoy, hoy.plusDays(dias));
     }
 
+    // Filas del listado de próximas a vencer (usuario y plan en la misma consulta)
+    @Transactional(readOnly = true)
+    public List<SuscripcionListado> listarProximasAVencer(int dias) {
+        LocalDate hoy = LocalDate.now();
+        return suscripcionRepository.findListadoProximasAVencer(hoy, hoy.plusDays(dias));
+    }
+
+    // Filas del listado filtradas por estado en la base de datos
+    @Transactional(readOnly = true)
+    public List<SuscripcionListado> listarPorEstado(Suscripcion.EstadoSuscripcion estado) {
+        return suscripcionRepository.findListadoPorEstado(estado);
+    }
+
+    // Cuenta las próximas a vencer sin cargarlas
+    public long contarSuscripcionesProximasAVencer(int dias) {
+        LocalDate hoy = LocalDate.now();
+        return suscripcionRepository.countProximasAVencer(hoy, hoy.plusDays(dias));
+    }
+
+    // Número de suscripciones por estado (todos los estados, a 0 si no hay ninguna)
+    public Map<Suscripcion.EstadoSuscripcion, Long> contarPorEstado() {
+        Map<Suscripcion.EstadoSuscripcion, Long> conteo = new EnumMap<>(Suscripcion.EstadoSuscripcion.class);
+        for (Suscripcion.EstadoSuscripcion estado : Suscripcion.EstadoSuscripcion.values()) {
+            conteo.put(estado, 0L);
+        }
+        for (Object[] fila : suscripcionRepository.contarPorEstado()) {
+            conteo.put((Suscripcion.EstadoSuscripcion) fila[0], (Long) fila[1]);
+        }
+        return conteo;
+    }
+
     // Obtiene todas las suscripciones
     public List<Suscripcion> obtenerTodasLasSuscripciones() {
         return suscripcionRepository.findAll();
     }
 
+    // Página del listado (más recientes primero); despues/antes son el id del último/primer elemento mostrado
+    @Transactional(readOnly = true)
+    public PaginaCursor<SuscripcionListado> obtenerPaginaSuscripciones(String despues, String antes, int tamano) {
+        int limite = PaginaCursor.normalizarTamano(tamano);
+        PageRequest pagina = PageRequest.ofSize(limite + 1);
+        Long idDespues = parsearCursor(despues);
+        Long idAntes = parsearCursor(antes);
+
+        List<SuscripcionListado> filas;
+        if (idAntes != null) {
+            filas = suscripcionRepository.findPaginaAntesDe(idAntes, pagina);
+        } else if (idDespues != null) {
+            filas = suscripcionRepository.findPaginaDespuesDe(idDespues, pagina);
+        } else {
+            filas = suscripcionRepository.findPrimeraPagina(pagina);
+        }
+        return PaginaCursor.desdeFilas(filas, limite, idAntes != null,
+                idAntes != null || idDespues != null, s -> String.valueOf(s.id()));
+    }
+
+    // Un cursor vacío o mal formado se trata como ausente (primera página)
+    private static Long parsearCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) {
+            return null;
+        }
+        try {
+            return Long.valueOf(cursor);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     // Obtiene suscripción por ID
     public Suscripcion obtenerSuscripcion(Long id) {
         return suscripcionRepository.findById(id)
@@ -0,0 +1,209 @@
+package com.refugio.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Versión inmutable de las tasas de impuesto por país, cada una con su fecha de entrada en vigor.
+// Se construye completa al cargar el fichero y nunca se modifica: ImpuestoService la sustituye entera al recargar
+public final class TablaImpuestos {
+
+    // Código especial del fichero para la tasa que se aplica a países sin tasa propia
+    public static final String PAIS_POR_DEFECTO = "*";
+
+    static final int NUM_CODIGOS = 26 * 26;
+    static final int SIN_PUNTOS_BASICOS = -1;
+
+    private static final Tramo[] SIN_TRAMOS = new Tramo[0];
+
+    private final long version;
+    private final String origen;
+    private final LocalDateTime cargadaEn;
+    private final int numeroTasas;
+
+    // Tramos por índice de país (AA..ZZ), ordenados por fecha de vigencia ascendente
+    private final Tramo[][] tramosPorPais;
+    private final Tramo[] tramosPorDefecto;
+
+    private TablaImpuestos(long version, String origen, Tramo[][] tramosPorPais, Tramo[] tramosPorDefecto, int numeroTasas) {
+        this.version = version;
+        this.origen = origen;
+        this.cargadaEn = LocalDateTime.now();
+        this.tramosPorPais = tramosPorPais;
+        this.tramosPorDefecto = tramosPorDefecto;
+        this.numeroTasas = numeroTasas;
+    }
+
+    // Lee un fichero "pais;tasa;vigenteDesde" (una línea por tasa, # para comentarios)
+    public static TablaImpuestos leer(Reader fuente, long version, String origen) throws IOException {
+        Map<Integer, List<Tramo>> porPais = new HashMap<>();
+        List<Tramo> porDefecto = new ArrayList<>();
+        int numeroTasas = 0;
+
+        BufferedReader lector = new BufferedReader(fuente);
+        String linea;
+        int numeroLinea = 0;
+        while ((linea = lector.readLine()) != null) {
+            numeroLinea++;
+            linea = linea.strip();
+            if (linea.isEmpty() || linea.startsWith("#") || linea.toLowerCase().startsWith("pais;")) {
+                continue;
+            }
+
+            String[] campos = linea.split(";");
+            if (campos.length != 3) {
+                throw new IllegalArgumentException("Línea " + numeroLinea + " de " + origen
+                        + ": se esperaba pais;tasa;vigenteDesde");
+            }
+
+            String pais = campos[0].strip();
+            Tramo tramo = new Tramo(leerFecha(campos[2].strip(), numeroLinea, origen),
+                    leerTasa(campos[1].strip(), numeroLinea, origen));
+
+            if (PAIS_POR_DEFECTO.equals(pais)) {
+                porDefecto.add(tramo);
+            } else {
+                int indice = indicePais(pais);
+                if (indice < 0) {
+                    throw new IllegalArgumentException("Línea " + numeroLinea + " de " + origen
+                            + ": código de país no válido: " + pais);
+                }
+                porPais.computeIfAbsent(indice, i -> new ArrayList<>()).add(tramo);
+            }
+            numeroTasas++;
+        }
+
+        if (porDefecto.isEmpty()) {
+            throw new IllegalArgumentException(origen + " no define la tasa por defecto (" + PAIS_POR_DEFECTO + ")");
+        }
+
+        Tramo[][] tramosPorPais = new Tramo[NUM_CODIGOS][];
+        Arrays.fill(tramosPorPais, SIN_TRAMOS);
+        porPais.forEach((indice, tramos) -> tramosPorPais[indice] = ordenar(tramos, origen));
+
+        return new TablaImpuestos(version, origen, tramosPorPais, ordenar(porDefecto, origen), numeroTasas);
+    }
+
+    // Tramo vigente en la fecha (día epoch) para el índice de país; los países sin tasa usan la por defecto.
+    // Antes del primer tramo conocido se aplica ese primer tramo
+    Tramo tramoVigente(int indice, long dia) {
+        Tramo[] tramos = indice >= 0 && tramosPorPais[indice].length > 0 ? tramosPorPais[indice] : tramosPorDefecto;
+        Tramo tramo = buscar(tramos, dia);
+        return tramo != null ? tramo : tramos[0];
+    }
+
+    boolean tieneTasa(int indice) {
+        return indice >= 0 && tramosPorPais[indice].length > 0;
+    }
+
+    // Tasas de cada país configurado vigentes en la fecha
+    public Map<String, BigDecimal> tasasVigentes(LocalDate fecha) {
+        Map<String, BigDecimal> tasas = new HashMap<>();
+        long dia = fecha.toEpochDay();
+        for (int indice = 0; indice < NUM_CODIGOS; indice++) {
+            if (tieneTasa(indice)) {
+                tasas.put(codigoPais(indice), tramoVigente(indice, dia).tasa);
+            }
+        }
+        return tasas;
+    }
+
+    // Los tramos son pocos por país: basta con recorrerlos desde el más reciente
+    private static Tramo buscar(Tramo[] tramos, long dia) {
+        for (int i = tramos.length - 1; i >= 0; i--) {
+            if (tramos[i].desde <= dia) {
+                return tramos[i];
+            }
+        }
+        return null;
+    }
+
+    private static Tramo[] ordenar(List<Tramo> tramos, String origen) {
+        Tramo[] ordenados = tramos.toArray(new Tramo[0]);
+        Arrays.sort(ordenados, Comparator.comparingLong(t -> t.desde));
+        for (int i = 1; i < ordenados.length; i++) {
+            if (ordenados[i].desde == ordenados[i - 1].desde) {
+                throw new IllegalArgumentException(origen + " define dos tasas para el mismo país y fecha: "
+                        + LocalDate.ofEpochDay(ordenados[i].desde));
+            }
+        }
+        return ordenados;
+    }
+
+    private static long leerFecha(String texto, int numeroLinea, String origen) {
+        try {
+            return LocalDate.parse(texto).toEpochDay();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Línea " + numeroLinea + " de " + origen + ": fecha no válida: " + texto);
+        }
+    }
+
+    private static BigDecimal leerTasa(String texto, int numeroLinea, String origen) {
+        try {
+            BigDecimal tasa = new BigDecimal(texto);
+            if (tasa.signum() < 0) {
+                throw new IllegalArgumentException("Línea " + numeroLinea + " de " + origen + ": tasa negativa: " + texto);
+            }
+            return tasa;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Línea " + numeroLinea + " de " + origen + ": tasa no válida: " + texto);
+        }
+    }
+
+    // Índice de un código de dos letras mayúsculas (AA = 0 .. ZZ = 675), o -1
+    static int indicePais(String codigo) {
+        if (codigo.length() != 2) {
+            return -1;
+        }
+        int primera = codigo.charAt(0) - 'A';
+        int segunda = codigo.charAt(1) - 'A';
+        if (primera < 0 || primera >= 26 || segunda < 0 || segunda >= 26) {
+            return -1;
+        }
+        return primera * 26 + segunda;
+    }
+
+    private static String codigoPais(int indice) {
+        return new String(new char[]{(char) ('A' + indice / 26), (char) ('A' + indice % 26)});
+    }
+
+    public long getVersion() { return version; }
+    public String getOrigen() { return origen; }
+    public LocalDateTime getCargadaEn() { return cargadaEn; }
+    public int getNumeroTasas() { return numeroTasas; }
+
+    // Tasa vigente desde una fecha; los puntos básicos (21.00% = 2100) alimentan el cálculo en céntimos
+    static final class Tramo {
+        final long desde;
+        final BigDecimal tasa;
+        final int puntosBasicos;
+
+        Tramo(long desde, BigDecimal tasa) {
+            this.desde = desde;
+            this.tasa = tasa;
+            this.puntosBasicos = aPuntosBasicos(tasa);
+        }
+
+        // Solo tasas con hasta 2 decimales caben en puntos básicos; el resto va por BigDecimal
+        private static int aPuntosBasicos(BigDecimal tasa) {
+            if (tasa.scale() > 2 && tasa.stripTrailingZeros().scale() > 2) {
+                return SIN_PUNTOS_BASICOS;
+            }
+            try {
+                return tasa.movePointRight(2).intValueExact();
+            } catch (ArithmeticException e) {
+                return SIN_PUNTOS_BASICOS;
+            }
+        }
+    }
+}
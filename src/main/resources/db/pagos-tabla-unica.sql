@@ -0,0 +1,59 @@
+-- Convierte la jerarquía de pagos del esquema JOINED (pagos + una tabla por tipo) al de una sola tabla que
+-- espera META-INF/pagos-tabla-unica.xml: columna discriminadora tipo_pago y las columnas de cada tipo en pagos.
+-- Lo mismo para la auditoría: pagos_AUD recibe las columnas (y los indicadores _mod) de las tablas _AUD de cada
+-- tipo, revisión a revisión, y el historial de Envers se lee igual después.
+-- Se ejecuta una vez, con la aplicación parada y antes de arrancarla con el nuevo mapeo.
+-- Si quedara un pago (o una versión) sin fila en ninguna tabla de tipo, el SET NOT NULL falla antes de borrar
+-- nada: las tablas de tipo solo se eliminan cuando todas las filas tienen su tipo_pago.
+
+ALTER TABLE pagos ADD COLUMN tipo_pago VARCHAR(20);
+ALTER TABLE pagos ADD COLUMN ultimos4 VARCHAR(255);
+ALTER TABLE pagos ADD COLUMN marca VARCHAR(255);
+ALTER TABLE pagos ADD COLUMN paypal_email VARCHAR(255);
+ALTER TABLE pagos ADD COLUMN transaccion_id VARCHAR(255);
+ALTER TABLE pagos ADD COLUMN iban VARCHAR(255);
+ALTER TABLE pagos ADD COLUMN referencia VARCHAR(255);
+
+MERGE INTO pagos p USING pagos_tarjeta t ON (p.id = t.id)
+    WHEN MATCHED THEN UPDATE SET tipo_pago = 'TARJETA', ultimos4 = t.ultimos4, marca = t.marca;
+MERGE INTO pagos p USING pagos_paypal t ON (p.id = t.id)
+    WHEN MATCHED THEN UPDATE SET tipo_pago = 'PAYPAL', paypal_email = t.paypal_email,
+        transaccion_id = t.transaccion_id;
+MERGE INTO pagos p USING pagos_transferencia t ON (p.id = t.id)
+    WHEN MATCHED THEN UPDATE SET tipo_pago = 'TRANSFERENCIA', iban = t.iban, referencia = t.referencia;
+
+ALTER TABLE pagos ALTER COLUMN tipo_pago SET NOT NULL;
+
+ALTER TABLE pagos_AUD ADD COLUMN tipo_pago VARCHAR(20);
+ALTER TABLE pagos_AUD ADD COLUMN ultimos4 VARCHAR(255);
+ALTER TABLE pagos_AUD ADD COLUMN ultimos4_mod BOOLEAN;
+ALTER TABLE pagos_AUD ADD COLUMN marca VARCHAR(255);
+ALTER TABLE pagos_AUD ADD COLUMN marca_mod BOOLEAN;
+ALTER TABLE pagos_AUD ADD COLUMN paypal_email VARCHAR(255);
+ALTER TABLE pagos_AUD ADD COLUMN paypal_email_mod BOOLEAN;
+ALTER TABLE pagos_AUD ADD COLUMN transaccion_id VARCHAR(255);
+ALTER TABLE pagos_AUD ADD COLUMN transaccion_id_mod BOOLEAN;
+ALTER TABLE pagos_AUD ADD COLUMN iban VARCHAR(255);
+ALTER TABLE pagos_AUD ADD COLUMN iban_mod BOOLEAN;
+ALTER TABLE pagos_AUD ADD COLUMN referencia VARCHAR(255);
+ALTER TABLE pagos_AUD ADD COLUMN referencia_mod BOOLEAN;
+
+MERGE INTO pagos_AUD p USING pagos_tarjeta_AUD t ON (p.id = t.id AND p.rev = t.rev)
+    WHEN MATCHED THEN UPDATE SET tipo_pago = 'TARJETA', ultimos4 = t.ultimos4, ultimos4_mod = t.ultimos4_mod,
+        marca = t.marca, marca_mod = t.marca_mod;
+MERGE INTO pagos_AUD p USING pagos_paypal_AUD t ON (p.id = t.id AND p.rev = t.rev)
+    WHEN MATCHED THEN UPDATE SET tipo_pago = 'PAYPAL', paypal_email = t.paypal_email,
+        paypal_email_mod = t.paypal_email_mod, transaccion_id = t.transaccion_id,
+        transaccion_id_mod = t.transaccion_id_mod;
+MERGE INTO pagos_AUD p USING pagos_transferencia_AUD t ON (p.id = t.id AND p.rev = t.rev)
+    WHEN MATCHED THEN UPDATE SET tipo_pago = 'TRANSFERENCIA', iban = t.iban, iban_mod = t.iban_mod,
+        referencia = t.referencia, referencia_mod = t.referencia_mod;
+
+ALTER TABLE pagos_AUD ALTER COLUMN tipo_pago SET NOT NULL;
+
+DROP TABLE pagos_tarjeta_AUD;
+DROP TABLE pagos_paypal_AUD;
+DROP TABLE pagos_transferencia_AUD;
+DROP TABLE pagos_tarjeta;
+DROP TABLE pagos_paypal;
+DROP TABLE pagos_transferencia;
@@ -0,0 +1,116 @@
+package com.refugio.benchmark;
+
+import com.refugio.JPA.Factura;
+import com.refugio.JPA.Suscripcion;
+import com.refugio.service.FacturaService;
+import com.refugio.service.SuscripcionService;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Benchmark del dashboard: contar cargando todas las filas frente a COUNT ... GROUP BY.
+// Solo se ejecuta con: mvn test -Pbenchmark -Dtest=DashboardBenchmarkTest -DargLine=-Xmx3g
+// (-Dbenchmark.facturas=N cambia el volumen; por defecto 1.000.000)
+@SpringBootTest
+@Tag("benchmark")
+@TestPropertySource(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.com.refugio=INFO",
+        "logging.level.org.springframework.web=INFO"
+})
+class DashboardBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(DashboardBenchmarkTest.class);
+
+    private static final int REPETICIONES = 5;
+
+    // Facturas sintéticas con ids fuera del rango de la secuencia; 2 de cada 3 emitidas
+    private static final String SQL_FACTURAS =
+            "INSERT INTO facturas (id, suscripcion_id, usuario_id, fecha_emision, importe, importe_impuesto, " +
+            "importe_total, pais_impuesto, tasa_impuesto, estado) " +
+            "SELECT 100000000 + X, :suscripcionId, (SELECT usuario_id FROM suscripciones WHERE id = :suscripcionId), " +
+            "DATEADD('DAY', -MOD(X, 365), CURRENT_DATE), " +
+            "9.99, 2.10, 12.09, 'ES', 21.00, CASE WHEN MOD(X, 3) = 0 THEN 'PAGADA' ELSE 'EMITIDA' END " +
+            "FROM SYSTEM_RANGE(1, :total)";
+
+    @Autowired
+    private SuscripcionService suscripcionService;
+
+    @Autowired
+    private FacturaService facturaService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    @DisplayName("Latencia del dashboard con 1M de facturas: cargar todo frente a consultas agregadas")
+    void compararDashboard() {
+        int total = Integer.getInteger("benchmark.facturas", 1_000_000);
+        Long suscripcionId = suscripcionService.obtenerTodasLasSuscripciones().get(0).getId();
+        transactionTemplate.executeWithoutResult(status -> entityManager.createNativeQuery(SQL_FACTURAS)
+                .setParameter("suscripcionId", suscripcionId)
+                .setParameter("total", total)
+                .executeUpdate());
+
+        long pendientesAntes = dashboardCargandoFilas();
+        long pendientesAhora = dashboardAgregado();
+        assertEquals(pendientesAntes, pendientesAhora);
+
+        long antes = medir(this::dashboardCargandoFilas);
+        long ahora = medir(this::dashboardAgregado);
+
+        logger.info("Dashboard con {} facturas (mediana de {} ejecuciones)", total, REPETICIONES);
+        logger.info("  Cargando todas las filas: {} ms", antes);
+        logger.info("  COUNT ... GROUP BY:       {} ms", ahora);
+    }
+
+    // Lo que hacía HomeController: cargar suscripciones y facturas y contar en memoria
+    private long dashboardCargandoFilas() {
+        List<Suscripcion> todas = suscripcionService.obtenerTodasLasSuscripciones();
+        long activas = todas.stream()
+                .filter(s -> s.getEstado() == Suscripcion.EstadoSuscripcion.ACTIVA).count();
+        int proximas = suscripcionService.obtenerSuscripcionesProximasAVencer(7).size();
+        List<Factura> facturas = facturaService.obtenerTodasLasFacturas();
+        long pendientes = facturas.stream()
+                .filter(f -> f.getEstado() == Factura.EstadoFactura.EMITIDA).count();
+        assertTrue(activas + proximas + facturas.size() >= 0);
+        return pendientes;
+    }
+
+    private long dashboardAgregado() {
+        Map<Suscripcion.EstadoSuscripcion, Long> suscripciones = suscripcionService.contarPorEstado();
+        long proximas = suscripcionService.contarSuscripcionesProximasAVencer(7);
+        Map<Factura.EstadoFactura, Long> facturas = facturaService.contarPorEstado();
+        assertTrue(suscripciones.size() + proximas >= 0);
+        return facturas.get(Factura.EstadoFactura.EMITIDA);
+    }
+
+    // Mediana en milisegundos
+    private long medir(LongSupplier dashboard) {
+        long[] tiempos = new long[REPETICIONES];
+        for (int i = 0; i < REPETICIONES; i++) {
+            long inicio = System.nanoTime();
+            dashboard.getAsLong();
+            tiempos[i] = (System.nanoTime() - inicio) / 1_000_000;
+        }
+        Arrays.sort(tiempos);
+        return tiempos[REPETICIONES / 2];
+    }
+}
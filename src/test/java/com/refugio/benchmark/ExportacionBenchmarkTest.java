@@ -0,0 +1,133 @@
+package com.refugio.benchmark;
+
+import com.refugio.repository.FiltroFacturas;
+import com.refugio.service.ExportacionFacturasService;
+import com.refugio.service.ExportacionFacturasService.FormatoExportacion;
+import com.refugio.service.SuscripcionService;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Memoria de la exportación en streaming: se muestrea el heap ocupado (tras GC) cada 32 MB escritos
+// y se compara con el de antes de empezar. Debe quedarse plano aunque crezca el número de facturas.
+// Solo se ejecuta con: mvn test -Pbenchmark -Dtest=ExportacionBenchmarkTest -DargLine=-Xmx3g
+// (-Dbenchmark.facturas=N cambia el volumen; por defecto 2.000.000. Con 10M hace falta más heap para H2)
+@SpringBootTest
+@Tag("benchmark")
+@TestPropertySource(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.com.refugio=INFO",
+        "logging.level.org.springframework.web=INFO"
+})
+class ExportacionBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportacionBenchmarkTest.class);
+
+    private static final long MUESTREO_BYTES = 32L * 1024 * 1024;
+    private static final long MAX_CRECIMIENTO_HEAP = 64L * 1024 * 1024;
+
+    private static final String SQL_FACTURAS =
+            "INSERT INTO facturas (id, suscripcion_id, usuario_id, fecha_emision, importe, importe_impuesto, " +
+            "importe_total, pais_impuesto, tasa_impuesto, estado) " +
+            "SELECT 100000000 + X, :suscripcionId, (SELECT usuario_id FROM suscripciones WHERE id = :suscripcionId), " +
+            "DATEADD('DAY', -MOD(X, 365), CURRENT_DATE), " +
+            "9.99, 2.10, 12.09, 'ES', 21.00, 'EMITIDA' " +
+            "FROM SYSTEM_RANGE(:desde, :hasta)";
+
+    @Autowired
+    private SuscripcionService suscripcionService;
+
+    @Autowired
+    private ExportacionFacturasService exportacionFacturasService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private final MemoryMXBean memoria = ManagementFactory.getMemoryMXBean();
+
+    @Test
+    @DisplayName("El heap no crece con el número de facturas exportadas")
+    void memoriaPlana() throws Exception {
+        int total = Integer.getInteger("benchmark.facturas", 2_000_000);
+        Long suscripcionId = suscripcionService.obtenerTodasLasSuscripciones().get(0).getId();
+        FiltroFacturas sinFiltro = new FiltroFacturas(null, null, null, null, null);
+
+        logger.info("Exportación sin filtro (crecimiento máximo del heap tras GC respecto al inicio)");
+        logger.info(String.format("  %12s %-8s %12s %12s %14s", "facturas", "formato", "tiempo", "MB escritos", "heap máx."));
+
+        int cargadas = 0;
+        for (int objetivo : new int[]{total / 4, total}) {
+            insertar(suscripcionId, cargadas + 1, objetivo);
+            cargadas = objetivo;
+
+            for (FormatoExportacion formato : FormatoExportacion.values()) {
+                long base = heapTrasGc();
+                SalidaMuestreada salida = new SalidaMuestreada();
+                long inicio = System.nanoTime();
+                long filas = exportacionFacturasService.exportar(sinFiltro, formato, false, salida);
+                long tiempo = System.nanoTime() - inicio;
+                long crecimiento = Math.max(0, salida.maximoHeap - base);
+
+                logger.info(String.format("  %,12d %-8s %9.2f s %,12d %,11d MB", filas, formato, tiempo / 1e9,
+                        salida.bytes / (1024 * 1024), crecimiento / (1024 * 1024)));
+                assertTrue(filas >= objetivo);
+                assertTrue(crecimiento < MAX_CRECIMIENTO_HEAP,
+                        "El heap creció " + crecimiento / (1024 * 1024) + " MB exportando " + filas + " facturas");
+            }
+        }
+    }
+
+    private void insertar(Long suscripcionId, int desde, int hasta) {
+        transactionTemplate.executeWithoutResult(status -> entityManager.createNativeQuery(SQL_FACTURAS)
+                .setParameter("suscripcionId", suscripcionId)
+                .setParameter("desde", desde)
+                .setParameter("hasta", hasta)
+                .executeUpdate());
+    }
+
+    private long heapTrasGc() {
+        System.gc();
+        return memoria.getHeapMemoryUsage().getUsed();
+    }
+
+    // Descarta lo escrito y cada MUESTREO_BYTES anota el heap ocupado tras un GC
+    private class SalidaMuestreada extends OutputStream {
+        long bytes;
+        long siguienteMuestra = MUESTREO_BYTES;
+        long maximoHeap;
+
+        @Override
+        public void write(int b) {
+            contar(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            contar(len);
+        }
+
+        private void contar(int len) {
+            bytes += len;
+            if (bytes >= siguienteMuestra) {
+                siguienteMuestra += MUESTREO_BYTES;
+                maximoHeap = Math.max(maximoHeap, heapTrasGc());
+            }
+        }
+    }
+}
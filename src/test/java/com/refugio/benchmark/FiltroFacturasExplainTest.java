@@ -0,0 +1,155 @@
+package com.refugio.benchmark;
+
+import com.refugio.JPA.Factura;
+import com.refugio.repository.FacturaListado;
+import com.refugio.repository.FiltroFacturas;
+import com.refugio.service.FacturaService;
+import com.refugio.service.PaginaCursor;
+import com.refugio.service.SuscripcionService;
+import jakarta.persistence.EntityManager;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Plan de ejecución (EXPLAIN de H2) del filtro dinámico de facturas para cada combinación de criterios.
+// Se captura el SQL que genera Hibernate y se comprueba que la tabla de facturas se lee por un índice.
+// Solo se ejecuta con: mvn test -Pbenchmark -Dtest=FiltroFacturasExplainTest -DargLine=-Xmx3g
+// (-Dbenchmark.facturas=N cambia el volumen; por defecto 1.000.000)
+@SpringBootTest
+@Tag("benchmark")
+@TestPropertySource(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.com.refugio=INFO",
+        "logging.level.org.springframework.web=INFO",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector="
+                + "com.refugio.benchmark.FiltroFacturasExplainTest$UltimaSentencia"
+})
+class FiltroFacturasExplainTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(FiltroFacturasExplainTest.class);
+
+    private static final int TAMANO = 50;
+
+    // Facturas sintéticas: 365 días, tres estados e importes entre 10 y 1009,99
+    private static final String SQL_FACTURAS =
+            "INSERT INTO facturas (id, suscripcion_id, usuario_id, fecha_emision, importe, importe_impuesto, " +
+            "importe_total, pais_impuesto, tasa_impuesto, estado) " +
+            "SELECT 100000000 + X, :suscripcionId, (SELECT usuario_id FROM suscripciones WHERE id = :suscripcionId), " +
+            "DATEADD('DAY', -MOD(X, 365), CURRENT_DATE), " +
+            "MOD(X * 7919, 100000) / 100.0 + 10, 0, MOD(X * 7919, 100000) / 100.0 + 10, 'ES', 0, " +
+            "CASE MOD(X, 10) WHEN 0 THEN 'ANULADA' WHEN 1 THEN 'EMITIDA' WHEN 2 THEN 'EMITIDA' ELSE 'PAGADA' END " +
+            "FROM SYSTEM_RANGE(1, :total)";
+
+    // Índice con el que H2 lee la tabla de facturas (comentario /* PUBLIC.INDICE: ... */ tras FROM facturas)
+    private static final Pattern INDICE_FACTURAS =
+            Pattern.compile("\"PUBLIC\"\\.\"FACTURAS\" \"\\w+\"\\s*/\\* PUBLIC\\.([\\w.]+)");
+
+    @Autowired
+    private SuscripcionService suscripcionService;
+
+    @Autowired
+    private FacturaService facturaService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    @DisplayName("Cada combinación de criterios del filtro lee las facturas por índice")
+    void explicarFiltros() {
+        int total = Integer.getInteger("benchmark.facturas", 1_000_000);
+        Long suscripcionId = suscripcionService.obtenerTodasLasSuscripciones().get(0).getId();
+        transactionTemplate.executeWithoutResult(status -> entityManager.createNativeQuery(SQL_FACTURAS)
+                .setParameter("suscripcionId", suscripcionId)
+                .setParameter("total", total)
+                .executeUpdate());
+        jdbcTemplate.execute("ANALYZE");
+
+        LocalDate hoy = LocalDate.now();
+        BigDecimal minimo = new BigDecimal("990.00");
+        BigDecimal maximo = new BigDecimal("995.00");
+        Map<String, FiltroFacturas> combinaciones = new LinkedHashMap<>();
+        combinaciones.put("sin criterios", new FiltroFacturas(null, null, null, null, null));
+        combinaciones.put("estado", new FiltroFacturas(null, null, null, null, Factura.EstadoFactura.EMITIDA));
+        combinaciones.put("fechas", new FiltroFacturas(hoy.minusDays(30), hoy.minusDays(20), null, null, null));
+        combinaciones.put("importe", new FiltroFacturas(null, null, minimo, maximo, null));
+        combinaciones.put("estado + fechas",
+                new FiltroFacturas(hoy.minusDays(30), hoy.minusDays(20), null, null, Factura.EstadoFactura.EMITIDA));
+        combinaciones.put("estado + importe",
+                new FiltroFacturas(null, null, minimo, maximo, Factura.EstadoFactura.ANULADA));
+        combinaciones.put("fechas + importe",
+                new FiltroFacturas(hoy.minusDays(30), hoy.minusDays(20), minimo, maximo, null));
+        combinaciones.put("todos",
+                new FiltroFacturas(hoy.minusDays(300), hoy, minimo, maximo, Factura.EstadoFactura.PAGADA));
+
+        logger.info(String.format("Filtro de facturas con %,d facturas (página de %d)", total, TAMANO));
+        logger.info(String.format("  %-18s %-28s %10s %10s", "criterios", "índice", "1ª página", "2ª página"));
+
+        combinaciones.forEach((nombre, filtro) -> {
+            long inicio = System.nanoTime();
+            PaginaCursor<FacturaListado> primera = facturaService.filtrarFacturas(filtro, null, null, TAMANO);
+            long tiempoPrimera = System.nanoTime() - inicio;
+            String sqlPrimera = UltimaSentencia.sql;
+
+            inicio = System.nanoTime();
+            facturaService.filtrarFacturas(filtro, primera.getSiguiente(), null, TAMANO);
+            long tiempoSegunda = System.nanoTime() - inicio;
+            String sqlSegunda = UltimaSentencia.sql;
+
+            String indicePrimera = indiceFacturas(sqlPrimera);
+            String indiceSegunda = indiceFacturas(sqlSegunda);
+            logger.info(String.format("  %-18s %-28s %7.2f ms %7.2f ms", nombre, indicePrimera,
+                    tiempoPrimera / 1e6, tiempoSegunda / 1e6));
+
+            assertFalse(primera.getElementos().isEmpty(), nombre);
+            assertTrue(indicePrimera.startsWith("IDX_FACT_"), nombre + ": " + indicePrimera);
+            assertTrue(indiceSegunda.startsWith("IDX_FACT_"), nombre + " (cursor): " + indiceSegunda);
+        });
+    }
+
+    // EXPLAIN de la sentencia capturada (H2 admite EXPLAIN con parámetros sin asignar)
+    private String indiceFacturas(String sql) {
+        String plan = jdbcTemplate.query(conexion -> conexion.prepareStatement("EXPLAIN " + sql),
+                (ResultSetExtractor<String>) rs -> rs.next() ? rs.getString(1) : "");
+        Matcher matcher = INDICE_FACTURAS.matcher(plan);
+        assertTrue(matcher.find(), plan);
+        return matcher.group(1);
+    }
+
+    // Guarda la última sentencia SELECT preparada por Hibernate
+    public static class UltimaSentencia implements StatementInspector {
+
+        static volatile String sql;
+
+        @Override
+        public String inspect(String sentencia) {
+            if (sentencia.startsWith("select")) {
+                sql = sentencia;
+            }
+            return sentencia;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.refugio.benchmark;
+
+import com.refugio.repository.FacturaListado;
+import com.refugio.repository.FacturaRepository;
+import com.refugio.service.FacturaService;
+import com.refugio.service.PaginaCursor;
+import com.refugio.service.SuscripcionService;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Historial de facturación de un usuario: filtro por el titular a través de suscripciones (ningún índice de
+// facturas da las filas de un usuario ya ordenadas) frente a la columna desnormalizada usuario_id y su índice
+// (usuario_id, fechaEmision DESC, id DESC).
+// Solo se ejecuta con: mvn test -Pbenchmark -Dtest=HistorialUsuarioBenchmarkTest -DargLine=-Xmx3g
+// (-Dbenchmark.facturas=N cambia el volumen; por defecto 1.000.000 repartidas entre 10.000 usuarios con
+// tres suscripciones cada uno)
+@SpringBootTest
+@Tag("benchmark")
+@TestPropertySource(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.com.refugio=INFO",
+        "logging.level.org.springframework.web=INFO"
+})
+class HistorialUsuarioBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistorialUsuarioBenchmarkTest.class);
+
+    private static final int USUARIOS = 10_000;
+    private static final int SUSCRIPCIONES = 3 * USUARIOS;
+    private static final int REPETICIONES = 21;
+    private static final int TAMANO = 50;
+    private static final long BASE_ID = 100_000_000L;
+
+    // Usuarios y suscripciones sintéticos con ids fuera del rango de las secuencias
+    private static final String SQL_USUARIOS =
+            "INSERT INTO usuarios (id, email, password_hash) " +
+            "SELECT " + BASE_ID + " + X, CONCAT('historial-', X, '@test.com'), 'hash' " +
+            "FROM SYSTEM_RANGE(1, :usuarios)";
+
+    private static final String SQL_SUSCRIPCIONES =
+            "INSERT INTO suscripciones (id, usuario_id, plan_id, estado, fecha_inicio, proxima_renovacion, " +
+            "renovacion_automatica) " +
+            "SELECT " + BASE_ID + " + X, " + BASE_ID + " + MOD(X, :usuarios) + 1, :planId, 'ACTIVA', " +
+            "CURRENT_DATE, CURRENT_DATE, TRUE " +
+            "FROM SYSTEM_RANGE(1, :suscripciones)";
+
+    // Cada factura va a la suscripción MOD(X, suscripciones) + 1, con usuario_id copiado de su titular
+    private static final String SQL_FACTURAS =
+            "INSERT INTO facturas (id, suscripcion_id, usuario_id, fecha_emision, importe, importe_impuesto, " +
+            "importe_total, pais_impuesto, tasa_impuesto, estado) " +
+            "SELECT " + BASE_ID + " + X, " + BASE_ID + " + MOD(X, :suscripciones) + 1, " +
+            BASE_ID + " + MOD(MOD(X, :suscripciones) + 1, :usuarios) + 1, DATEADD('DAY', -MOD(X, 365), CURRENT_DATE), " +
+            "9.99, 2.10, 12.09, 'ES', 21.00, 'EMITIDA' " +
+            "FROM SYSTEM_RANGE(1, :total)";
+
+    // Misma página filtrando por el titular de la suscripción, como hacía FacturaRepository.findByUsuarioId
+    private static final String JPQL_UNION =
+            "SELECT " + FacturaRepository.LISTADO + "WHERE s.usuario.id = :usuarioId " +
+            "ORDER BY f.fechaEmision DESC, f.id DESC";
+
+    private static final Pattern INDICE_FACTURAS =
+            Pattern.compile("\"PUBLIC\"\\.\"FACTURAS\" \"\\w+\"\\s*/\\* PUBLIC\\.([\\w.]+)");
+
+    @Autowired
+    private SuscripcionService suscripcionService;
+
+    @Autowired
+    private FacturaService facturaService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    @DisplayName("Primera página del historial de un usuario: unión con suscripciones frente a usuario_id indexado")
+    void compararHistorial() {
+        int total = Integer.getInteger("benchmark.facturas", 1_000_000);
+        Long planId = suscripcionService.obtenerTodasLasSuscripciones().get(0).getPlan().getId();
+        transactionTemplate.executeWithoutResult(status -> {
+            entityManager.createNativeQuery(SQL_USUARIOS).setParameter("usuarios", USUARIOS).executeUpdate();
+            entityManager.createNativeQuery(SQL_SUSCRIPCIONES)
+                    .setParameter("usuarios", USUARIOS)
+                    .setParameter("suscripciones", SUSCRIPCIONES)
+                    .setParameter("planId", planId)
+                    .executeUpdate();
+            entityManager.createNativeQuery(SQL_FACTURAS)
+                    .setParameter("usuarios", USUARIOS)
+                    .setParameter("suscripciones", SUSCRIPCIONES)
+                    .setParameter("total", total)
+                    .executeUpdate();
+        });
+        jdbcTemplate.execute("ANALYZE");
+
+        Long usuarioId = BASE_ID + USUARIOS / 2;
+
+        // Las dos consultas devuelven la misma página
+        List<Long> esperados = porUnion(usuarioId).stream().map(FacturaListado::id).toList();
+        PaginaCursor<FacturaListado> pagina = facturaService.obtenerHistorialUsuario(usuarioId, null, null, TAMANO);
+        assertEquals(esperados, pagina.getElementos().stream().map(FacturaListado::id).toList());
+
+        long union = mediana(() -> porUnion(usuarioId));
+        long desnormalizada = mediana(() -> facturaService.obtenerHistorialUsuario(usuarioId, null, null, TAMANO));
+        String indiceUnion = indiceFacturas("SELECT f.id FROM facturas f JOIN suscripciones s ON s.id = f.suscripcion_id " +
+                "WHERE s.usuario_id = ? ORDER BY f.fecha_emision DESC, f.id DESC FETCH FIRST 50 ROWS ONLY");
+        String indiceDesnormalizada = indiceFacturas("SELECT f.id FROM facturas f WHERE f.usuario_id = ? " +
+                "ORDER BY f.fecha_emision DESC, f.id DESC FETCH FIRST 50 ROWS ONLY");
+
+        logger.info(String.format("Historial de un usuario (%,d facturas, %,d usuarios, página de %d, mediana de %d)",
+                total, USUARIOS, TAMANO, REPETICIONES));
+        logger.info(String.format("  %-28s %-28s %10s", "consulta", "índice de facturas", "tiempo"));
+        logger.info(String.format("  %-28s %-28s %7.2f ms", "unión con suscripciones", indiceUnion, union / 1e6));
+        logger.info(String.format("  %-28s %-28s %7.2f ms", "usuario_id desnormalizado", indiceDesnormalizada,
+                desnormalizada / 1e6));
+
+        assertEquals("IDX_FACT_USUARIO_FECHA", indiceDesnormalizada);
+    }
+
+    private List<FacturaListado> porUnion(Long usuarioId) {
+        return transactionTemplate.execute(status -> entityManager.createQuery(JPQL_UNION, FacturaListado.class)
+                .setParameter("usuarioId", usuarioId)
+                .setMaxResults(TAMANO)
+                .getResultList());
+    }
+
+    // EXPLAIN de la sentencia (H2 admite EXPLAIN con parámetros sin asignar)
+    private String indiceFacturas(String sql) {
+        String plan = jdbcTemplate.query(conexion -> conexion.prepareStatement("EXPLAIN " + sql),
+                (ResultSetExtractor<String>) rs -> rs.next() ? rs.getString(1) : "");
+        Matcher matcher = INDICE_FACTURAS.matcher(plan);
+        return matcher.find() ? matcher.group(1) : "(recorrido completo)";
+    }
+
+    // Mediana en nanosegundos de REPETICIONES ejecuciones
+    private long mediana(Runnable consulta) {
+        long[] tiempos = new long[REPETICIONES];
+        for (int i = 0; i < REPETICIONES; i++) {
+            long inicio = System.nanoTime();
+            consulta.run();
+            tiempos[i] = System.nanoTime() - inicio;
+        }
+        Arrays.sort(tiempos);
+        return tiempos[tiempos.length / 2];
+    }
+}
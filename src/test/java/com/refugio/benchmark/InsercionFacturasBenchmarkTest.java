@@ -0,0 +1,131 @@
+package com.refugio.benchmark;
+
+import com.refugio.JPA.*;
+import com.refugio.repository.PlanRepository;
+import com.refugio.repository.SuscripcionRepository;
+import com.refugio.repository.UsuarioRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Benchmark de inserción masiva de facturas: una ida y vuelta por fila frente a lotes JDBC.
+// Solo se ejecuta con: mvn test -Pbenchmark -Dtest=InsercionFacturasBenchmarkTest
+@DataJpaTest
+@Tag("benchmark")
+@TestPropertySource(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.com.refugio=INFO",
+        "logging.level.org.hibernate.SQL=WARN"
+})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class InsercionFacturasBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(InsercionFacturasBenchmarkTest.class);
+
+    private static final int TOTAL_FACTURAS = 100_000;
+    private static final int FACTURAS_POR_TRANSACCION = 1_000;
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Autowired
+    private SuscripcionRepository suscripcionRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private Suscripcion suscripcion;
+
+    @BeforeEach
+    void setUp() {
+        Usuario usuario = new Usuario();
+        usuario.setEmail("benchmark-" + System.nanoTime() + "@test.com");
+        usuario.setPasswordHash("hash");
+        usuario = usuarioRepository.save(usuario);
+
+        Plan plan = new Plan();
+        plan.setTipo(Plan.TipoPlan.BASIC);
+        plan.setNombre("Plan Benchmark");
+        plan.setPrecioMensual(new BigDecimal("9.99"));
+        plan = planRepository.save(plan);
+
+        Suscripcion nueva = new Suscripcion();
+        nueva.setUsuario(usuario);
+        nueva.setPlan(plan);
+        nueva.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+        nueva.setFechaInicio(LocalDate.now());
+        suscripcion = suscripcionRepository.save(nueva);
+    }
+
+    @Test
+    @DisplayName("Inserciones por segundo de 100k facturas sin lotes y con lotes JDBC")
+    void compararInsercionFacturas() {
+        // Calentamiento para que el JIT no penalice a la primera pasada
+        insertarFacturas(10_000, 1);
+        insertarFacturas(10_000, 50);
+
+        long porFila = insertarFacturas(TOTAL_FACTURAS, 1);
+        long porLotes = insertarFacturas(TOTAL_FACTURAS, 50);
+
+        logger.info("Inserción de {} facturas ({} por transacción)", TOTAL_FACTURAS, FACTURAS_POR_TRANSACCION);
+        logger.info("  Una ida y vuelta por fila: {} facturas/s", porFila);
+        logger.info("  Lotes JDBC de 50:          {} facturas/s", porLotes);
+        logger.info("  Mejora: x{}", String.format("%.2f", (double) porLotes / porFila));
+
+        assertTrue(porLotes > 0 && porFila > 0);
+    }
+
+    // Inserta las facturas con el tamaño de lote JDBC indicado y devuelve las inserciones por segundo
+    private long insertarFacturas(int total, int tamanoLoteJdbc) {
+        long inicio = System.nanoTime();
+        for (int insertadas = 0; insertadas < total; insertadas += FACTURAS_POR_TRANSACCION) {
+            int enEsta = Math.min(FACTURAS_POR_TRANSACCION, total - insertadas);
+            transactionTemplate.executeWithoutResult(status -> {
+                entityManager.unwrap(Session.class).setJdbcBatchSize(tamanoLoteJdbc);
+                Suscripcion referencia = entityManager.getReference(Suscripcion.class, suscripcion.getId());
+                for (int i = 0; i < enEsta; i++) {
+                    entityManager.persist(crearFactura(referencia));
+                }
+                entityManager.flush();
+                entityManager.clear();
+            });
+        }
+        long duracionNanos = System.nanoTime() - inicio;
+        return total * 1_000_000_000L / duracionNanos;
+    }
+
+    private Factura crearFactura(Suscripcion referencia) {
+        Factura factura = new Factura();
+        factura.setSuscripcion(referencia);
+        factura.setFechaEmision(LocalDate.now());
+        factura.setImporte(new BigDecimal("9.99"));
+        factura.setImporteImpuesto(new BigDecimal("2.10"));
+        factura.setImporteTotal(new BigDecimal("12.09"));
+        factura.setTasaImpuesto(new BigDecimal("0.21"));
+        factura.setPaisImpuesto("ES");
+        factura.setEstado(Factura.EstadoFactura.EMITIDA);
+        return factura;
+    }
+}
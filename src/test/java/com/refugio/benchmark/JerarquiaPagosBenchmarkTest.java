@@ -0,0 +1,275 @@
+package com.refugio.benchmark;
+
+import com.refugio.JPA.*;
+import com.refugio.repository.PlanRepository;
+import com.refugio.repository.SuscripcionRepository;
+import com.refugio.repository.UsuarioRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Benchmark de la jerarquía de pagos: JOINED (una tabla por tipo) frente a tabla única con discriminador.
+// Cada mapeo en su contexto y su BD, que se cierra al terminar para que el segundo no mida con el heap ocupado
+// por los datos del primero; mide inserciones con auditoría y lecturas polimórficas.
+// Solo se ejecuta con: mvn test -Pbenchmark -Dtest=JerarquiaPagosBenchmarkTest -DargLine=-Xmx4g
+// (-Dbenchmark.pagos=N cambia el volumen; por defecto 1.000.000 pagos por mapeo)
+@Tag("benchmark")
+class JerarquiaPagosBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(JerarquiaPagosBenchmarkTest.class);
+
+    private static final int REPETICIONES = 5;
+    private static final int PAGOS_POR_TRANSACCION = 1_000;
+    private static final int PAGOS_POR_PAGINA = 10_000;
+    private static final int CALENTAMIENTO = 20_000;
+
+    private static final String PROPIEDADES_COMUNES = "spring.jpa.show-sql=false";
+
+    // Facturas sintéticas (una por pago) con ids fuera del rango de la secuencia
+    private static final String SQL_FACTURAS =
+            "INSERT INTO facturas (id, suscripcion_id, usuario_id, fecha_emision, importe, importe_impuesto, " +
+            "importe_total, pais_impuesto, tasa_impuesto, estado) " +
+            "SELECT 100000000 + X, :suscripcionId, :usuarioId, CURRENT_DATE, 9.99, 2.10, 12.09, 'ES', 21.00, " +
+            "'PAGADA' FROM SYSTEM_RANGE(1, :total)";
+
+    private static final Map<String, Resultado> resultados = new LinkedHashMap<>();
+
+    @Nested
+    @DataJpaTest(properties = PROPIEDADES_COMUNES)
+    @DirtiesContext
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    class Joined extends Medicion {
+
+        Joined() {
+            super("JOINED");
+        }
+    }
+
+    @Nested
+    @DataJpaTest(properties = {
+            PROPIEDADES_COMUNES,
+            "spring.jpa.mapping-resources=META-INF/pagos-tabla-unica.xml"
+    })
+    @DirtiesContext
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    class TablaUnica extends Medicion {
+
+        TablaUnica() {
+            super("Tabla única");
+        }
+    }
+
+    @AfterAll
+    static void compararMapeos() {
+        Resultado joined = resultados.get("JOINED");
+        Resultado tablaUnica = resultados.get("Tabla única");
+        if (joined == null || tablaUnica == null) {
+            return;
+        }
+        logger.info(String.format("Jerarquía de pagos con %,d pagos por mapeo (lecturas: mediana de %d ejecuciones)",
+                joined.total, REPETICIONES));
+        logger.info(String.format("  %-34s %14s %14s %8s", "", "JOINED", "Tabla única", "Mejora"));
+        imprimir("Inserción con auditoría (pagos/s)", joined.insercion, tablaUnica.insercion, true);
+        imprimir("Recorrido polimórfico (pagos/s)", joined.recorrido, tablaUnica.recorrido, true);
+        imprimir("Importe por tipo de pago (ms)", joined.agregadoMs, tablaUnica.agregadoMs, false);
+        imprimir("Pagos con tarjeta por fecha (ms)", joined.filtroMs, tablaUnica.filtroMs, false);
+    }
+
+    private static void imprimir(String medida, long joined, long tablaUnica, boolean mayorEsMejor) {
+        double mejora = mayorEsMejor ? (double) tablaUnica / joined : (double) joined / Math.max(1, tablaUnica);
+        logger.info(String.format("  %-34s %,14d %,14d %7.2fx", medida, joined, tablaUnica, mejora));
+    }
+
+    private record Resultado(int total, long insercion, long recorrido, long agregadoMs, long filtroMs) {
+    }
+
+    abstract static class Medicion {
+
+        private final String mapeo;
+
+        @Autowired
+        private UsuarioRepository usuarioRepository;
+
+        @Autowired
+        private PlanRepository planRepository;
+
+        @Autowired
+        private SuscripcionRepository suscripcionRepository;
+
+        @Autowired
+        private TransactionTemplate transactionTemplate;
+
+        @Autowired
+        private EntityManager entityManager;
+
+        Medicion(String mapeo) {
+            this.mapeo = mapeo;
+        }
+
+        @Test
+        @DisplayName("Inserciones y lecturas polimórficas de 1M de pagos")
+        void medirMapeo() {
+            int total = Integer.getInteger("benchmark.pagos", 1_000_000);
+            prepararFacturas(CALENTAMIENTO + total);
+
+            // Calentamiento para que el JIT no penalice a la primera pasada
+            insertarPagos(0, CALENTAMIENTO);
+            long insercion = insertarPagos(CALENTAMIENTO, total);
+
+            long filas = recorrerPagos();
+            assertEquals(CALENTAMIENTO + total, filas);
+            long inicio = System.nanoTime();
+            recorrerPagos();
+            long recorrido = filas * 1_000_000_000L / (System.nanoTime() - inicio);
+
+            assertEquals(CALENTAMIENTO + total, importePorTipo());
+            long agregadoMs = medir(this::importePorTipo);
+            assertTrue(tarjetasPorFecha() > 0);
+            long filtroMs = medir(this::tarjetasPorFecha);
+
+            resultados.put(mapeo, new Resultado(total, insercion, recorrido, agregadoMs, filtroMs));
+        }
+
+        private void prepararFacturas(int total) {
+            Usuario usuario = new Usuario();
+            usuario.setEmail("benchmark-" + System.nanoTime() + "@test.com");
+            usuario.setPasswordHash("hash");
+            Usuario guardado = usuarioRepository.save(usuario);
+
+            Plan plan = new Plan();
+            plan.setTipo(Plan.TipoPlan.BASIC);
+            plan.setNombre("Plan Benchmark");
+            plan.setPrecioMensual(new BigDecimal("9.99"));
+            plan = planRepository.save(plan);
+
+            Suscripcion suscripcion = new Suscripcion();
+            suscripcion.setUsuario(guardado);
+            suscripcion.setPlan(plan);
+            suscripcion.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+            suscripcion.setFechaInicio(LocalDate.now());
+            Long suscripcionId = suscripcionRepository.save(suscripcion).getId();
+
+            transactionTemplate.executeWithoutResult(status -> entityManager.createNativeQuery(SQL_FACTURAS)
+                    .setParameter("suscripcionId", suscripcionId)
+                    .setParameter("usuarioId", guardado.getId())
+                    .setParameter("total", total)
+                    .executeUpdate());
+        }
+
+        // Inserta pagos de los tres tipos (con sus filas _AUD) y devuelve las inserciones por segundo
+        private long insertarPagos(int desde, int total) {
+            long inicio = System.nanoTime();
+            for (int insertados = 0; insertados < total; insertados += PAGOS_POR_TRANSACCION) {
+                int primero = desde + insertados;
+                int enEsta = Math.min(PAGOS_POR_TRANSACCION, total - insertados);
+                transactionTemplate.executeWithoutResult(status -> {
+                    for (int i = primero; i < primero + enEsta; i++) {
+                        Pago pago = crearPago(i);
+                        pago.setFactura(entityManager.getReference(Factura.class, 100_000_001L + i));
+                        entityManager.persist(pago);
+                    }
+                    entityManager.flush();
+                    entityManager.clear();
+                });
+            }
+            return total * 1_000_000_000L / (System.nanoTime() - inicio);
+        }
+
+        private static Pago crearPago(int i) {
+            Pago pago;
+            switch (i % 3) {
+                case 0 -> {
+                    PagoTarjeta tarjeta = new PagoTarjeta();
+                    tarjeta.setUltimos4("4242");
+                    tarjeta.setMarca("VISA");
+                    pago = tarjeta;
+                }
+                case 1 -> {
+                    PagoPaypal paypal = new PagoPaypal();
+                    paypal.setPaypalEmail("cliente" + i + "@test.com");
+                    paypal.setTransaccionId("TX-" + i);
+                    pago = paypal;
+                }
+                default -> {
+                    PagoTransferencia transferencia = new PagoTransferencia();
+                    transferencia.setIban("ES9121000418450200051332");
+                    transferencia.setReferencia("FAC-" + i);
+                    pago = transferencia;
+                }
+            }
+            pago.setImporte(new BigDecimal("12.09"));
+            pago.setFechaPago(LocalDateTime.now().minusDays(i % 365));
+            return pago;
+        }
+
+        // Todos los pagos como entidades de su subclase, por páginas de id
+        private long recorrerPagos() {
+            long leidos = 0;
+            long ultimoId = 0;
+            while (true) {
+                long desdeId = ultimoId;
+                List<Pago> pagina = transactionTemplate.execute(status -> entityManager
+                        .createQuery("SELECT p FROM Pago p WHERE p.id > :desde ORDER BY p.id", Pago.class)
+                        .setParameter("desde", desdeId)
+                        .setMaxResults(PAGOS_POR_PAGINA)
+                        .getResultList());
+                if (pagina.isEmpty()) {
+                    return leidos;
+                }
+                leidos += pagina.size();
+                ultimoId = pagina.get(pagina.size() - 1).getId();
+            }
+        }
+
+        // TYPE(p) obliga a JOINED a unir las tres tablas de tipo; en tabla única es la columna discriminadora
+        private long importePorTipo() {
+            List<Object[]> filas = transactionTemplate.execute(status -> entityManager
+                    .createQuery("SELECT TYPE(p), COUNT(p), SUM(p.importe) FROM Pago p GROUP BY TYPE(p)",
+                            Object[].class)
+                    .getResultList());
+            return filas.stream().mapToLong(f -> ((Number) f[1]).longValue()).sum();
+        }
+
+        private long tarjetasPorFecha() {
+            return transactionTemplate.execute(status -> entityManager
+                    .createQuery("SELECT COUNT(p) FROM Pago p WHERE TYPE(p) = PagoTarjeta AND p.fechaPago >= :desde",
+                            Long.class)
+                    .setParameter("desde", LocalDateTime.now().minusDays(30))
+                    .getSingleResult());
+        }
+
+        // Mediana en milisegundos
+        private long medir(LongSupplier consulta) {
+            long[] tiempos = new long[REPETICIONES];
+            for (int i = 0; i < REPETICIONES; i++) {
+                long inicio = System.nanoTime();
+                consulta.getAsLong();
+                tiempos[i] = (System.nanoTime() - inicio) / 1_000_000;
+            }
+            Arrays.sort(tiempos);
+            return tiempos[REPETICIONES / 2];
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.refugio.benchmark;
+
+import com.refugio.repository.FacturaListado;
+import com.refugio.service.FacturaService;
+import com.refugio.service.PaginaCursor;
+import com.refugio.service.SuscripcionService;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Benchmark del listado de facturas: OFFSET frente a keyset (fechaEmision, id) a distintas profundidades.
+// Se miden solo las consultas de la página (id y fecha) recorriendo páginas consecutivas: repetir la misma
+// consulta devolvería el resultado cacheado por H2, y la proyección del listado cuesta igual en ambos casos.
+// Solo se ejecuta con: mvn test -Pbenchmark -Dtest=PaginacionBenchmarkTest -DargLine=-Xmx3g
+// (-Dbenchmark.facturas=N cambia el volumen; por defecto 1.000.000)
+@SpringBootTest
+@Tag("benchmark")
+@TestPropertySource(properties = {
+        "spring.jpa.show-sql=false",
+        "logging.level.com.refugio=INFO",
+        "logging.level.org.springframework.web=INFO"
+})
+class PaginacionBenchmarkTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(PaginacionBenchmarkTest.class);
+
+    private static final int PAGINAS = 21;
+    private static final int TAMANO = 50;
+
+    // Facturas sintéticas con ids fuera del rango de la secuencia, repartidas en 365 días
+    private static final String SQL_FACTURAS =
+            "INSERT INTO facturas (id, suscripcion_id, usuario_id, fecha_emision, importe, importe_impuesto, " +
+            "importe_total, pais_impuesto, tasa_impuesto, estado) " +
+            "SELECT 100000000 + X, :suscripcionId, (SELECT usuario_id FROM suscripciones WHERE id = :suscripcionId), " +
+            "DATEADD('DAY', -MOD(X, 365), CURRENT_DATE), " +
+            "9.99, 2.10, 12.09, 'ES', 21.00, 'EMITIDA' " +
+            "FROM SYSTEM_RANGE(1, :total)";
+
+    private static final String JPQL_OFFSET =
+            "SELECT f.fechaEmision, f.id FROM Factura f ORDER BY f.fechaEmision DESC, f.id DESC";
+
+    // Misma condición que FacturaRepository.findPaginaDespuesDe
+    private static final String JPQL_KEYSET =
+            "SELECT f.fechaEmision, f.id FROM Factura f " +
+            "WHERE f.fechaEmision <= :fecha AND (f.fechaEmision < :fecha OR f.id < :id) " +
+            "ORDER BY f.fechaEmision DESC, f.id DESC";
+
+    @Autowired
+    private SuscripcionService suscripcionService;
+
+    @Autowired
+    private FacturaService facturaService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    @DisplayName("Latencia de una página de 50 facturas a distintas profundidades: OFFSET frente a keyset")
+    void compararPaginacion() {
+        int total = Integer.getInteger("benchmark.facturas", 1_000_000);
+        Long suscripcionId = suscripcionService.obtenerTodasLasSuscripciones().get(0).getId();
+        transactionTemplate.executeWithoutResult(status -> entityManager.createNativeQuery(SQL_FACTURAS)
+                .setParameter("suscripcionId", suscripcionId)
+                .setParameter("total", total)
+                .executeUpdate());
+
+        logger.info(String.format("Página de %d facturas con %,d facturas (mediana de %d páginas consecutivas)",
+                TAMANO, total, PAGINAS));
+        logger.info(String.format("  %12s %12s %12s", "profundidad", "OFFSET", "keyset"));
+
+        int ultimaProfundidad = total - (PAGINAS + 1) * TAMANO;
+        for (int profundidad : new int[]{TAMANO, total / 10, total / 2, ultimaProfundidad}) {
+            Object[] previa = porOffset(profundidad - 1, 1).get(0);
+
+            // El servicio devuelve la misma página que OFFSET
+            List<Long> esperados = porOffset(profundidad, TAMANO).stream().map(f -> (Long) f[1]).toList();
+            PaginaCursor<FacturaListado> pagina = facturaService.obtenerPaginaFacturas(previa[0] + "_" + previa[1], null, TAMANO);
+            assertEquals(esperados, pagina.getElementos().stream().map(FacturaListado::id).toList());
+
+            long offset = medirOffset(profundidad);
+            long keyset = medirKeyset(previa);
+            logger.info(String.format("  %,12d %,9.2f ms %,9.2f ms", profundidad, offset / 1e6, keyset / 1e6));
+        }
+    }
+
+    private List<Object[]> porOffset(int desde, int filas) {
+        return transactionTemplate.execute(status -> entityManager.createQuery(JPQL_OFFSET, Object[].class)
+                .setFirstResult(desde)
+                .setMaxResults(filas)
+                .getResultList());
+    }
+
+    private List<Object[]> porKeyset(Object[] previa) {
+        return transactionTemplate.execute(status -> entityManager.createQuery(JPQL_KEYSET, Object[].class)
+                .setParameter("fecha", previa[0])
+                .setParameter("id", previa[1])
+                .setMaxResults(TAMANO)
+                .getResultList());
+    }
+
+    // Mediana en nanosegundos de PAGINAS páginas consecutivas a partir de la profundidad indicada
+    private long medirOffset(int profundidad) {
+        long[] tiempos = new long[PAGINAS];
+        for (int i = 0; i < PAGINAS; i++) {
+            long inicio = System.nanoTime();
+            porOffset(profundidad + i * TAMANO, TAMANO);
+            tiempos[i] = System.nanoTime() - inicio;
+        }
+        return mediana(tiempos);
+    }
+
+    private long medirKeyset(Object[] previa) {
+        long[] tiempos = new long[PAGINAS];
+        Object[] cursor = previa;
+        for (int i = 0; i < PAGINAS; i++) {
+            long inicio = System.nanoTime();
+            List<Object[]> filas = porKeyset(cursor);
+            tiempos[i] = System.nanoTime() - inicio;
+            cursor = filas.get(filas.size() - 1);
+        }
+        return mediana(tiempos);
+    }
+
+    private long mediana(long[] tiempos) {
+        Arrays.sort(tiempos);
+        return tiempos[tiempos.length / 2];
+    }
+}
@@ -0,0 +1,273 @@
+package com.refugio.service;
+
+import com.refugio.JPA.Plan;
+import com.refugio.JPA.Suscripcion;
+import com.refugio.JPA.Usuario;
+import com.refugio.repository.PlanRepository;
+import com.refugio.repository.SuscripcionRepository;
+import com.refugio.repository.UsuarioRepository;
+import com.refugio.service.ArchivoAuditoriaService.EstadoArchivo;
+import com.refugio.service.ArchivoAuditoriaService.ResultadoArchivo;
+import com.refugio.service.AuditoriaService.RegistroAuditoria;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Test del archivo de auditoría: las versiones superadas salen de _AUD a segmentos y el historial no cambia (H2)
+@DataJpaTest(properties = {
+        "refugio.auditoria.archivo.tamano-ventana=2",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import({AuditoriaService.class, ArchivoAuditoriaService.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ArchivoAuditoriaServiceTest {
+
+    private static final int CAMBIOS = 6;
+
+    @TempDir
+    static Path directorio;
+
+    @DynamicPropertySource
+    static void propiedades(DynamicPropertyRegistry registro) {
+        registro.add("refugio.auditoria.archivo.directorio", () -> directorio.toString());
+    }
+
+    @Autowired
+    private ArchivoAuditoriaService archivoAuditoriaService;
+
+    @Autowired
+    private AuditoriaService auditoriaService;
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    @Autowired
+    private SuscripcionRepository suscripcionRepository;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics estadisticas;
+    private Usuario usuario;
+
+    @BeforeEach
+    void setUp() {
+        estadisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        String prefijo = "archivo-" + System.nanoTime();
+        usuario = new Usuario();
+        usuario.setEmail(prefijo + "-0@test.com");
+        usuario.setPasswordHash("hash");
+        usuario = usuarioRepository.save(usuario);
+        for (int i = 1; i <= CAMBIOS; i++) {
+            usuario.setEmail(prefijo + "-" + i + "@test.com");
+            usuario = usuarioRepository.save(usuario);
+        }
+    }
+
+    @Test
+    @DisplayName("Tras archivar, el historial es el mismo y la última versión sigue en _AUD")
+    void historialIgualTrasArchivar() {
+        Long id = usuario.getId();
+        List<String> antes = describir(auditoriaService.obtenerHistorial(Usuario.class, id, null, null, 50)
+                .getElementos());
+        List<String> cambiosAntes = describirCambios(id);
+        long revisionesAntes = contar("SELECT COUNT(*) FROM REVINFO");
+
+        ResultadoArchivo resultado = archivoAuditoriaService.archivarAnterioresA(Instant.now().plusSeconds(60));
+
+        assertAll(
+            () -> assertTrue(resultado.getVersionesArchivadas() >= CAMBIOS),
+            () -> assertEquals(resultado.getVersionesArchivadas(), resultado.getFilasBorradas()),
+            () -> assertTrue(Files.exists(directorio.resolve(resultado.getSegmento()))),
+            () -> assertEquals(1, contar("SELECT COUNT(*) FROM usuarios_AUD WHERE id = " + id)),
+            () -> assertTrue(contar("SELECT COUNT(*) FROM REVINFO") < revisionesAntes)
+        );
+
+        // Todo el historial en una página: las versiones archivadas no consultan la base de datos
+        PaginaCursor<RegistroAuditoria<Usuario>> pagina = contarConsultas(1,
+                () -> auditoriaService.obtenerHistorial(Usuario.class, id, null, null, 50));
+        assertEquals(antes, describir(pagina.getElementos()));
+        assertFalse(pagina.isHaySiguiente());
+        // Sin indicadores _MOD en el archivo, las diferencias salen de comparar las versiones
+        assertEquals(cambiosAntes, describirCambios(id));
+
+        // Por páginas, hacia delante y hacia atrás: una página que el archivo llena no consulta la base de datos
+        List<RegistroAuditoria<Usuario>> recorrido = new ArrayList<>();
+        PaginaCursor<RegistroAuditoria<Usuario>> actual =
+                contarConsultas(0, () -> auditoriaService.obtenerHistorial(Usuario.class, id, null, null, 3));
+        recorrido.addAll(actual.getElementos());
+        PaginaCursor<RegistroAuditoria<Usuario>> segunda = contarConsultas(1,
+                () -> auditoriaService.obtenerHistorial(Usuario.class, id, actual.getSiguiente(), null, 3));
+        recorrido.addAll(segunda.getElementos());
+        PaginaCursor<RegistroAuditoria<Usuario>> tercera = contarConsultas(1,
+                () -> auditoriaService.obtenerHistorial(Usuario.class, id, segunda.getSiguiente(), null, 3));
+        recorrido.addAll(tercera.getElementos());
+        assertEquals(antes, describir(recorrido));
+        assertFalse(tercera.isHaySiguiente());
+
+        PaginaCursor<RegistroAuditoria<Usuario>> vuelta =
+                auditoriaService.obtenerHistorial(Usuario.class, id, null, tercera.getAnterior(), 3);
+        assertEquals(describir(segunda.getElementos()), describir(vuelta.getElementos()));
+        assertTrue(vuelta.isHayAnterior());
+    }
+
+    @Test
+    @DisplayName("Las versiones archivadas se recuperan por revisión con sus relaciones")
+    void versionArchivadaConRelaciones() {
+        Plan plan = DatosPrueba.plan(planRepository, Plan.TipoPlan.BASIC);
+        Suscripcion suscripcion = new Suscripcion();
+        suscripcion.setUsuario(usuario);
+        suscripcion.setPlan(plan);
+        suscripcion.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+        suscripcion.setFechaInicio(LocalDate.now());
+        suscripcion = suscripcionRepository.save(suscripcion);
+        suscripcion.setEstado(Suscripcion.EstadoSuscripcion.CANCELADA);
+        suscripcion = suscripcionRepository.save(suscripcion);
+
+        Long id = suscripcion.getId();
+        List<RegistroAuditoria<Suscripcion>> historial =
+                auditoriaService.obtenerHistorial(Suscripcion.class, id, null, null, 50).getElementos();
+        archivoAuditoriaService.archivarAnterioresA(Instant.now().plusSeconds(60));
+
+        Long revisionAlta = historial.get(0).getNumeroRevision();
+        Suscripcion archivada = auditoriaService.obtenerVersionAnterior(Suscripcion.class, id, revisionAlta);
+        assertAll(
+            () -> assertEquals(Suscripcion.EstadoSuscripcion.ACTIVA, archivada.getEstado()),
+            () -> assertEquals(LocalDate.now(), archivada.getFechaInicio()),
+            () -> assertEquals(plan.getId(), archivada.getPlan().getId()),
+            () -> assertEquals(usuario.getId(), archivada.getUsuario().getId()),
+            () -> assertNull(auditoriaService.obtenerVersionAnterior(Suscripcion.class, id, revisionAlta - 1))
+        );
+        Long revisionBaja = historial.get(1).getNumeroRevision();
+        assertEquals(Suscripcion.EstadoSuscripcion.CANCELADA,
+                auditoriaService.obtenerVersionAnterior(Suscripcion.class, id, revisionBaja).getEstado());
+        assertEquals(Suscripcion.EstadoSuscripcion.CANCELADA,
+                auditoriaService.obtenerVersionAnterior(Suscripcion.class, id, revisionBaja + 100).getEstado());
+    }
+
+    @Test
+    @DisplayName("Cada pasada añade un segmento y el historial los combina")
+    void variasPasadas() {
+        Long id = usuario.getId();
+        archivoAuditoriaService.archivarAnterioresA(Instant.now().plusSeconds(60));
+        int segmentos = archivoAuditoriaService.obtenerEstado().getSegmentos();
+
+        usuario.setEmail("archivo-final-" + System.nanoTime() + "@test.com");
+        usuario = usuarioRepository.save(usuario);
+        usuarioRepository.delete(usuario);
+        List<String> antes = describir(auditoriaService.obtenerHistorial(Usuario.class, id, null, null, 50)
+                .getElementos());
+        assertEquals(CAMBIOS + 3, antes.size());
+
+        archivoAuditoriaService.archivarAnterioresA(Instant.now().plusSeconds(60));
+        EstadoArchivo estado = archivoAuditoriaService.obtenerEstado();
+        assertEquals(segmentos + 1, estado.getSegmentos());
+        assertTrue(estado.getBytes() > 0);
+        assertEquals(antes, describir(auditoriaService.obtenerHistorial(Usuario.class, id, null, null, 50)
+                .getElementos()));
+        assertEquals("ELIMINACIÓN", antes.get(antes.size() - 1).split(" ")[1]);
+        assertNull(auditoriaService.obtenerVersionAnterior(Usuario.class, id, 1_000_000L));
+
+        // Lecturas acotadas del archivo: el rango y el tamaño se aplican entre segmentos y en los dos sentidos
+        List<Long> revisiones = antes.stream().map(r -> Long.valueOf(r.split(" ")[0])).toList();
+        assertEquals(revisiones.subList(2, 4), archivoAuditoriaService
+                .obtenerHistorial(Usuario.class, id, revisiones.get(2), null, 2, false).stream()
+                .map(ArchivoAuditoriaService.RevisionArchivada::getNumeroRevision).toList());
+        assertEquals(List.of(revisiones.get(CAMBIOS), revisiones.get(CAMBIOS - 1)), archivoAuditoriaService
+                .obtenerHistorial(Usuario.class, id, null, revisiones.get(CAMBIOS + 1), 2, true).stream()
+                .map(ArchivoAuditoriaService.RevisionArchivada::getNumeroRevision).toList());
+    }
+
+    @Test
+    @DisplayName("Una revisión posterior al horizonte no se archiva aunque la sigan revisiones anteriores a él")
+    void corteConFechasDesordenadas() {
+        Long id = usuario.getId();
+        List<Long> revisiones = auditoriaService.obtenerHistorial(Usuario.class, id, null, null, 50).getElementos()
+                .stream().map(RegistroAuditoria::getNumeroRevision).toList();
+        Instant horizonte = Instant.now().minusSeconds(3600);
+        // Como con el escritor diferido: la revisión del medio tiene un número menor que las siguientes pero es
+        // posterior al horizonte
+        Long reciente = revisiones.get(3);
+        fecharRevisiones("", horizonte.minusSeconds(60));
+        fecharRevisiones(" WHERE r.id = " + reciente, Instant.now());
+
+        ResultadoArchivo resultado = archivoAuditoriaService.archivarAnterioresA(horizonte);
+
+        assertTrue(resultado.getRevisionCorte() < reciente);
+        assertEquals(revisiones.size() - 2,
+                contar("SELECT COUNT(*) FROM usuarios_AUD WHERE id = " + id + " AND REV >= " + revisiones.get(2)));
+        assertEquals(1, contar("SELECT COUNT(*) FROM usuarios_AUD WHERE REV = " + reciente));
+    }
+
+    // Revisión, tipo y email de cada versión
+    private static List<String> describir(List<RegistroAuditoria<Usuario>> historial) {
+        return historial.stream()
+                .map(r -> r.getNumeroRevision() + " " + r.getTipoAccion() + " " + r.getEntidad().getEmail()
+                        + " " + r.getFecha().getTime())
+                .toList();
+    }
+
+    // Campos modificados en cada revisión del usuario
+    private List<String> describirCambios(Long id) {
+        return auditoriaService.obtenerDiferencias(Usuario.class, id, null, null, 50).getElementos().stream()
+                .flatMap(d -> d.getCambios().stream().map(c -> d.getNumeroRevision() + " " + c.getPropiedad()
+                        + ": " + c.getValorAnterior() + " -> " + c.getValorNuevo()))
+                .toList();
+    }
+
+    private long contar(String sql) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            return ((Number) entityManager.createNativeQuery(sql).getSingleResult()).longValue();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    private void fecharRevisiones(String condicion, Instant fecha) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            entityManager.getTransaction().begin();
+            entityManager.createQuery("UPDATE RevisionAuditoria r SET r.timestamp = :fecha" + condicion)
+                    .setParameter("fecha", fecha.toEpochMilli())
+                    .executeUpdate();
+            entityManager.getTransaction().commit();
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    // Ejecuta la lectura y comprueba el número de consultas JDBC preparadas
+    private <T> T contarConsultas(long esperadas, Supplier<T> lectura) {
+        estadisticas.clear();
+        T resultado = lectura.get();
+        assertEquals(esperadas, estadisticas.getPrepareStatementCount());
+        return resultado;
+    }
+}
@@ -0,0 +1,287 @@
+package com.refugio.service;
+
+import com.refugio.JPA.Factura;
+import com.refugio.JPA.Pago;
+import com.refugio.JPA.Plan;
+import com.refugio.JPA.Suscripcion;
+import com.refugio.JPA.Usuario;
+import com.refugio.config.AuditoriaDiferidaConfig;
+import com.refugio.repository.PlanRepository;
+import com.refugio.repository.SuscripcionRepository;
+import com.refugio.repository.UsuarioRepository;
+import com.refugio.service.AuditoriaDiferidaService.EstadoEscritura;
+import com.refugio.service.AuditoriaService.RegistroAuditoria;
+import com.refugio.service.AuditoriaService.RevisionCambios;
+import com.refugio.service.PagoService.EstadoPago;
+import com.refugio.service.PagoService.MetodoPago;
+import com.refugio.service.PagoService.ResultadoLotePagos;
+import com.refugio.service.PagoService.SolicitudPago;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.envers.AuditReader;
+import org.hibernate.envers.AuditReaderFactory;
+import org.hibernate.envers.query.AuditEntity;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Test de la auditoría diferida: cola de una fila por transacción y escritura posterior de las revisiones (H2)
+@DataJpaTest(properties = {
+        "refugio.auditoria.modo=diferida",
+        "refugio.auditoria.tamano-lote=2",
+        "refugio.auditoria.escritura-ms=3600000",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import({AuditoriaDiferidaConfig.class, AuditoriaDiferidaService.class, AuditoriaService.class,
+        ArchivoAuditoriaService.class, SuscripcionLoteService.class, PagoService.class,
+        EstadisticaFacturacionService.class, FacturaService.class, ImpuestoService.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class AuditoriaDiferidaServiceTest {
+
+    @Autowired
+    private AuditoriaDiferidaService auditoriaDiferidaService;
+
+    @Autowired
+    private AuditoriaService auditoriaService;
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    @Autowired
+    private SuscripcionRepository suscripcionRepository;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Autowired
+    private SuscripcionLoteService suscripcionLoteService;
+
+    @Autowired
+    private PagoService pagoService;
+
+    @Autowired
+    private FacturaService facturaService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics estadisticas;
+
+    @BeforeEach
+    void setUp() {
+        estadisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        auditoriaDiferidaService.escribirPendientes();
+    }
+
+    @Test
+    @DisplayName("Los cambios quedan en cola y el historial aparece igual que con Envers al escribirla")
+    void historialTrasEscribirCola() {
+        String prefijo = "diferida-" + System.nanoTime();
+        Usuario usuario = nuevoUsuario(prefijo + "-0@test.com");
+        usuario.setEmail(prefijo + "-1@test.com");
+        usuario = usuarioRepository.save(usuario);
+        usuario.setEmail(prefijo + "-2@test.com");
+        usuario = usuarioRepository.save(usuario);
+        usuarioRepository.delete(usuario);
+        Long id = usuario.getId();
+
+        // Nada escrito todavía: 4 transacciones en cola
+        assertTrue(auditoriaService.obtenerHistorial(Usuario.class, id, null, null, 50).getElementos().isEmpty());
+        EstadoEscritura antes = auditoriaDiferidaService.obtenerEstado();
+        assertAll(
+            () -> assertTrue(antes.isDiferida()),
+            () -> assertEquals(4, antes.getTransaccionesPendientes()),
+            () -> assertEquals(4, antes.getCambiosPendientes()),
+            () -> assertTrue(antes.getRetrasoMs() >= 0)
+        );
+
+        // Dos lotes de 2 filas: una revisión por transacción original
+        assertEquals(4, auditoriaDiferidaService.escribirPendientes());
+
+        List<RegistroAuditoria<Usuario>> historial =
+                auditoriaService.obtenerHistorial(Usuario.class, id, null, null, 50).getElementos();
+        assertEquals(List.of("CREACIÓN", "MODIFICACIÓN", "MODIFICACIÓN", "ELIMINACIÓN"),
+                historial.stream().map(RegistroAuditoria::getTipoAccion).toList());
+        assertEquals(List.of(prefijo + "-0@test.com", prefijo + "-1@test.com", prefijo + "-2@test.com"),
+                historial.subList(0, 3).stream().map(r -> r.getEntidad().getEmail()).toList());
+        for (int i = 1; i < historial.size(); i++) {
+            assertFalse(historial.get(i).getFecha().before(historial.get(i - 1).getFecha()));
+        }
+
+        // Las revisiones llevan sus entidades en REVCHANGES: el feed las muestra
+        RevisionCambios ultima = auditoriaService.obtenerCambiosRecientes(null, null, 1).getElementos().get(0);
+        assertEquals("Usuario", ultima.getCambios().get(0).getTipoEntidad());
+        assertEquals(id, ultima.getCambios().get(0).getEntityId());
+
+        EstadoEscritura despues = auditoriaDiferidaService.obtenerEstado();
+        assertEquals(0, despues.getTransaccionesPendientes());
+        assertEquals(0, despues.getRetrasoMs());
+        assertNotNull(despues.getUltimaEscritura());
+    }
+
+    @Test
+    @DisplayName("Alta y modificación en la misma transacción dan una sola creación con el estado final y sus relaciones")
+    void cambiosCombinadosEnUnaTransaccion() {
+        Plan plan = DatosPrueba.plan(planRepository, Plan.TipoPlan.PREMIUM);
+        auditoriaDiferidaService.escribirPendientes();
+        Usuario usuario = nuevoUsuario("combinado-" + System.nanoTime() + "@test.com");
+
+        Long suscripcionId = transactionTemplate.execute(status -> {
+            Suscripcion suscripcion = new Suscripcion();
+            suscripcion.setUsuario(usuario);
+            suscripcion.setPlan(plan);
+            suscripcion.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+            suscripcion.setFechaInicio(LocalDate.now());
+            suscripcion = suscripcionRepository.saveAndFlush(suscripcion);
+            suscripcion.setEstado(Suscripcion.EstadoSuscripcion.CANCELADA);
+            suscripcion.setFechaFin(LocalDate.now());
+            return suscripcion.getId();
+        });
+        assertEquals(2, auditoriaDiferidaService.obtenerEstado().getTransaccionesPendientes());
+        assertEquals(3, auditoriaDiferidaService.obtenerEstado().getCambiosPendientes());
+
+        assertEquals(2, auditoriaDiferidaService.escribirPendientes());
+        List<RegistroAuditoria<Suscripcion>> historial =
+                auditoriaService.obtenerHistorial(Suscripcion.class, suscripcionId, null, null, 50).getElementos();
+        assertEquals(1, historial.size());
+        Suscripcion auditada = historial.get(0).getEntidad();
+        assertAll(
+            () -> assertEquals("CREACIÓN", historial.get(0).getTipoAccion()),
+            () -> assertEquals(Suscripcion.EstadoSuscripcion.CANCELADA, auditada.getEstado()),
+            () -> assertEquals(LocalDate.now(), auditada.getFechaFin()),
+            () -> assertEquals(plan.getId(), auditada.getPlan().getId()),
+            () -> assertEquals(usuario.getId(), auditada.getUsuario().getId())
+        );
+    }
+
+    @Test
+    @DisplayName("La transacción de negocio solo añade la fila de la cola y un rollback no encola nada")
+    void escrituraLigeraEnLaTransaccion() {
+        Usuario usuario = nuevoUsuario("ligera-" + System.nanoTime() + "@test.com");
+        auditoriaDiferidaService.escribirPendientes();
+
+        estadisticas.clear();
+        usuario.setEmail("ligera-" + System.nanoTime() + "@test.com");
+        usuarioRepository.save(usuario);
+        // Sin REVINFO, REVCHANGES ni usuarios_AUD: la única inserción es la de auditoria_pendiente
+        assertEquals(1, estadisticas.getEntityInsertCount());
+        assertEquals(1, estadisticas.getEntityUpdateCount());
+        assertEquals(1, auditoriaDiferidaService.obtenerEstado().getTransaccionesPendientes());
+
+        transactionTemplate.executeWithoutResult(status -> {
+            Usuario cambiado = usuarioRepository.findById(usuario.getId()).orElseThrow();
+            cambiado.setEmail("descartado-" + System.nanoTime() + "@test.com");
+            usuarioRepository.flush();
+            status.setRollbackOnly();
+        });
+        assertEquals(1, auditoriaDiferidaService.obtenerEstado().getTransaccionesPendientes());
+    }
+
+    @Test
+    @DisplayName("La expiración en bloque va a la cola y su revisión queda detrás de los cambios encolados antes")
+    void cambioEnBloqueEnOrdenDeCola() {
+        Plan plan = DatosPrueba.plan(planRepository, Plan.TipoPlan.BASIC);
+        Usuario usuario = nuevoUsuario("bloque-" + System.nanoTime() + "@test.com");
+        LocalDate hoy = LocalDate.now();
+        Suscripcion suscripcion = new Suscripcion();
+        suscripcion.setUsuario(usuario);
+        suscripcion.setPlan(plan);
+        suscripcion.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+        suscripcion.setFechaInicio(hoy.minusMonths(1));
+        suscripcion.setFechaFin(hoy.plusDays(1));
+        suscripcion.setRenovacionAutomatica(false);
+        suscripcion = suscripcionRepository.save(suscripcion);
+        // Cambio por entidad (listener) y, después, expiración en bloque de la misma suscripción
+        suscripcion.setFechaFin(hoy);
+        Long id = suscripcionRepository.save(suscripcion).getId();
+        suscripcionLoteService.expirarSuscripciones(hoy);
+
+        // Nada escrito en la transacción de la expiración: está en la cola detrás de los otros cambios
+        assertTrue(auditoriaService.obtenerHistorial(Suscripcion.class, id, null, null, 50).getElementos().isEmpty());
+        auditoriaDiferidaService.escribirPendientes();
+
+        List<RegistroAuditoria<Suscripcion>> historial =
+                auditoriaService.obtenerHistorial(Suscripcion.class, id, null, null, 50).getElementos();
+        assertEquals(List.of(Suscripcion.EstadoSuscripcion.ACTIVA, Suscripcion.EstadoSuscripcion.ACTIVA,
+                        Suscripcion.EstadoSuscripcion.EXPIRADA),
+                historial.stream().map(r -> r.getEntidad().getEstado()).toList());
+        assertTrue(historial.get(1).getNumeroRevision() < historial.get(2).getNumeroRevision());
+        transactionTemplate.executeWithoutResult(status -> {
+            Object[] expiracion = (Object[]) AuditReaderFactory.get(entityManager).createQuery()
+                    .forRevisionsOfEntityWithChanges(Suscripcion.class, false)
+                    .add(AuditEntity.id().eq(id))
+                    .add(AuditEntity.revisionNumber().eq(historial.get(2).getNumeroRevision().intValue()))
+                    .getSingleResult();
+            // La fecha de fin ya era hoy: el único campo modificado por la expiración es el estado
+            assertEquals(Set.of("estado"), expiracion[3]);
+            assertEquals(plan.getId(), ((Suscripcion) expiracion[0]).getPlan().getId());
+        });
+    }
+
+    @Test
+    @DisplayName("Un lote de pagos deja el pago y el cambio de la factura en la revisión de su transacción en cola")
+    void pagosEnBloqueEnCola() {
+        Plan plan = DatosPrueba.plan(planRepository, Plan.TipoPlan.BASIC);
+        Suscripcion suscripcion = new Suscripcion();
+        suscripcion.setUsuario(nuevoUsuario("pagos-" + System.nanoTime() + "@test.com"));
+        suscripcion.setPlan(plan);
+        suscripcion.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+        suscripcion.setFechaInicio(LocalDate.now());
+        Factura factura = facturaService.generarFactura(suscripcionRepository.save(suscripcion));
+
+        ResultadoLotePagos resultado = pagoService.registrarPagos(List.of(new SolicitudPago(factura.getId(), null,
+                MetodoPago.TARJETA, factura.getImporteTotal(), null, "4242", "VISA", null, null, null)));
+        assertEquals(EstadoPago.REGISTRADO, resultado.getResultados().get(0).getEstado());
+        Long pagoId = resultado.getResultados().get(0).getPagoId();
+
+        // Sin revisión en la transacción del lote: ni el pago ni la factura pagada tienen historial todavía
+        assertTrue(auditoriaService.obtenerHistorial(Pago.class, pagoId, null, null, 50).getElementos().isEmpty());
+        auditoriaDiferidaService.escribirPendientes();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            AuditReader auditReader = AuditReaderFactory.get(entityManager);
+            List<Number> revisionesFactura = auditReader.getRevisions(Factura.class, factura.getId());
+            List<Number> revisionesPago = auditReader.getRevisions(Pago.class, pagoId);
+            assertEquals(2, revisionesFactura.size());
+            assertTrue(revisionesFactura.get(0).longValue() < revisionesFactura.get(1).longValue());
+            assertEquals(List.of(revisionesFactura.get(1).longValue()),
+                    revisionesPago.stream().map(Number::longValue).toList());
+            assertEquals(Factura.EstadoFactura.PAGADA,
+                    auditReader.find(Factura.class, factura.getId(), revisionesFactura.get(1)).getEstado());
+
+            Object[] pagada = (Object[]) auditReader.createQuery()
+                    .forRevisionsOfEntityWithChanges(Factura.class, false)
+                    .add(AuditEntity.id().eq(factura.getId()))
+                    .add(AuditEntity.revisionNumber().eq(revisionesFactura.get(1).intValue()))
+                    .getSingleResult();
+            assertEquals(Set.of("estado"), pagada[3]);
+        });
+    }
+
+    private Usuario nuevoUsuario(String email) {
+        Usuario usuario = new Usuario();
+        usuario.setEmail(email);
+        usuario.setPasswordHash("hash");
+        return usuarioRepository.save(usuario);
+    }
+}
@@ -0,0 +1,346 @@
+package com.refugio.service;
+
+import com.refugio.JPA.Factura;
+import com.refugio.JPA.Plan;
+import com.refugio.JPA.Suscripcion;
+import com.refugio.JPA.Usuario;
+import com.refugio.repository.FacturaRepository;
+import com.refugio.repository.PlanRepository;
+import com.refugio.repository.SuscripcionRepository;
+import com.refugio.repository.UsuarioRepository;
+import com.refugio.service.AuditoriaService.CambioPropiedad;
+import com.refugio.service.AuditoriaService.DiferenciaRevision;
+import com.refugio.service.AuditoriaService.EstadisticasRevisiones;
+import com.refugio.service.AuditoriaService.RegistroAuditoria;
+import com.refugio.service.AuditoriaService.ResumenCambio;
+import com.refugio.service.AuditoriaService.RevisionCambios;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Test del historial y del feed de auditoría: consultas por página independientes del número de revisiones (H2)
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Import({AuditoriaService.class, ArchivoAuditoriaService.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class AuditoriaServiceTest {
+
+    private static final int CAMBIOS = 6;
+
+    @Autowired
+    private AuditoriaService auditoriaService;
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    @Autowired
+    private SuscripcionRepository suscripcionRepository;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Autowired
+    private FacturaRepository facturaRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics estadisticas;
+    private Usuario usuario;
+
+    @BeforeEach
+    void setUp() {
+        estadisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        // Alta y CAMBIOS modificaciones, cada una en su transacción (una revisión por guardado)
+        String prefijo = "auditoria-" + System.nanoTime();
+        usuario = new Usuario();
+        usuario.setEmail(prefijo + "-0@test.com");
+        usuario.setPasswordHash("hash");
+        usuario = usuarioRepository.save(usuario);
+        for (int i = 1; i <= CAMBIOS; i++) {
+            usuario.setEmail(prefijo + "-" + i + "@test.com");
+            usuario = usuarioRepository.save(usuario);
+        }
+    }
+
+    @Test
+    @DisplayName("El historial completo llega en una sola consulta con entidad, fecha y tipo de cambio")
+    void historialEnUnaConsulta() {
+        PaginaCursor<RegistroAuditoria<Usuario>> pagina = contarConsultas(1,
+                () -> auditoriaService.obtenerHistorial(Usuario.class, usuario.getId(), null, null, 50));
+
+        List<RegistroAuditoria<Usuario>> historial = pagina.getElementos();
+        assertEquals(CAMBIOS + 1, historial.size());
+        assertEquals("CREACIÓN", historial.get(0).getTipoAccion());
+        assertTrue(historial.subList(1, historial.size()).stream()
+                .allMatch(r -> r.getTipoAccion().equals("MODIFICACIÓN")));
+        assertTrue(historial.stream().allMatch(r -> r.getFecha() != null));
+        assertEquals(usuario.getEmail(), historial.get(CAMBIOS).getEntidad().getEmail());
+        assertFalse(pagina.isHaySiguiente());
+    }
+
+    @Test
+    @DisplayName("Las páginas del historial siguen el orden de revisión y cuestan una consulta cada una")
+    void historialPaginado() {
+        Long id = usuario.getId();
+        PaginaCursor<RegistroAuditoria<Usuario>> primera =
+                contarConsultas(1, () -> auditoriaService.obtenerHistorial(Usuario.class, id, null, null, 3));
+        PaginaCursor<RegistroAuditoria<Usuario>> segunda = contarConsultas(1,
+                () -> auditoriaService.obtenerHistorial(Usuario.class, id, primera.getSiguiente(), null, 3));
+        PaginaCursor<RegistroAuditoria<Usuario>> tercera = contarConsultas(1,
+                () -> auditoriaService.obtenerHistorial(Usuario.class, id, segunda.getSiguiente(), null, 3));
+        PaginaCursor<RegistroAuditoria<Usuario>> vuelta = contarConsultas(1,
+                () -> auditoriaService.obtenerHistorial(Usuario.class, id, null, segunda.getAnterior(), 3));
+
+        assertAll(
+            () -> assertEquals(3, primera.getElementos().size()),
+            () -> assertEquals(3, segunda.getElementos().size()),
+            () -> assertEquals(1, tercera.getElementos().size()),
+            () -> assertFalse(tercera.isHaySiguiente()),
+            () -> assertTrue(primera.getElementos().get(2).getNumeroRevision()
+                    < segunda.getElementos().get(0).getNumeroRevision()),
+            () -> assertEquals(numeros(primera), numeros(vuelta)),
+            () -> assertFalse(vuelta.isHayAnterior())
+        );
+    }
+
+    @Test
+    @DisplayName("El feed de cambios recorre las revisiones en orden y resuelve cada tipo de entidad en un lote")
+    void feedCambiosRecientes() {
+        Plan basico = planBasico();
+        basico.setNombre("Plan Básico " + System.nanoTime());
+        Plan plan = planRepository.save(basico);
+        usuario.setEmail("feed-" + System.nanoTime() + "@test.com");
+        usuario = usuarioRepository.save(usuario);
+        Suscripcion suscripcion = suscripcionRepository.save(nuevaSuscripcion(plan));
+        Factura factura = new Factura();
+        factura.setSuscripcion(suscripcion);
+        factura.setFechaEmision(LocalDate.now());
+        factura.setImporte(new BigDecimal("9.99"));
+        factura.setEstado(Factura.EstadoFactura.EMITIDA);
+        Long facturaId = facturaRepository.save(factura).getId();
+
+        // Revisiones, entidades modificadas y una consulta por cada uno de los 4 tipos de la página
+        PaginaCursor<RevisionCambios> primera =
+                contarConsultas(6, () -> auditoriaService.obtenerCambiosRecientes(null, null, 4));
+        List<RevisionCambios> revisiones = primera.getElementos();
+        assertEquals(4, revisiones.size());
+        assertEquals(List.of("Factura", "Suscripción", "Usuario", "Plan"), revisiones.stream()
+                .map(r -> r.getCambios().get(0).getTipoEntidad()).toList());
+        ResumenCambio cambioFactura = revisiones.get(0).getCambios().get(0);
+        assertAll(
+            () -> assertEquals("CREACIÓN", cambioFactura.getTipoAccion()),
+            () -> assertEquals(usuario.getId(), revisiones.get(2).getCambios().get(0).getEntityId()),
+            () -> assertEquals(plan.getId(), revisiones.get(3).getCambios().get(0).getEntityId()),
+            () -> assertTrue(revisiones.get(0).getNumeroRevision() > revisiones.get(3).getNumeroRevision())
+        );
+        assertEquals(facturaId, cambioFactura.getEntityId());
+
+        // Las páginas siguientes continúan por revisiones más antiguas y permiten volver
+        PaginaCursor<RevisionCambios> segunda =
+                auditoriaService.obtenerCambiosRecientes(primera.getSiguiente(), null, 4);
+        assertTrue(segunda.isHayAnterior());
+        assertTrue(segunda.getElementos().get(0).getNumeroRevision() < revisiones.get(3).getNumeroRevision());
+        assertTrue(segunda.getElementos().stream().allMatch(r -> !r.getCambios().isEmpty()));
+        PaginaCursor<RevisionCambios> vuelta =
+                auditoriaService.obtenerCambiosRecientes(null, segunda.getAnterior(), 4);
+        assertEquals(revisiones.stream().map(RevisionCambios::getNumeroRevision).toList(),
+                vuelta.getElementos().stream().map(RevisionCambios::getNumeroRevision).toList());
+    }
+
+    @Test
+    @DisplayName("El historial de una suscripción no carga sus asociaciones revisión a revisión")
+    void historialSuscripcionSinConsultasPorRevision() {
+        Suscripcion suscripcion = suscripcionRepository.save(nuevaSuscripcion(planBasico()));
+        for (Suscripcion.EstadoSuscripcion estado : List.of(Suscripcion.EstadoSuscripcion.IMPAGO,
+                Suscripcion.EstadoSuscripcion.ACTIVA, Suscripcion.EstadoSuscripcion.CANCELADA)) {
+            suscripcion.setEstado(estado);
+            suscripcion = suscripcionRepository.save(suscripcion);
+        }
+
+        Long id = suscripcion.getId();
+        PaginaCursor<RegistroAuditoria<Suscripcion>> pagina =
+                contarConsultas(1, () -> auditoriaService.obtenerHistorial(Suscripcion.class, id, null, null, 50));
+
+        assertEquals(4, pagina.getElementos().size());
+        assertEquals(Suscripcion.EstadoSuscripcion.CANCELADA, pagina.getElementos().get(3).getEntidad().getEstado());
+    }
+
+    @Test
+    @DisplayName("Las diferencias solo listan los campos modificados, con su valor anterior, en una consulta por página")
+    void diferenciasPorRevision() {
+        Long id = usuario.getId();
+        List<RegistroAuditoria<Usuario>> historial =
+                auditoriaService.obtenerHistorial(Usuario.class, id, null, null, 50).getElementos();
+        PaginaCursor<DiferenciaRevision> pagina = contarConsultas(1,
+                () -> auditoriaService.obtenerDiferencias(Usuario.class, id, null, null, 50));
+
+        List<DiferenciaRevision> diferencias = pagina.getElementos();
+        assertEquals(CAMBIOS + 1, diferencias.size());
+        assertEquals("CREACIÓN", diferencias.get(0).getTipoAccion());
+        assertEquals(Set.of("email", "passwordHash"), diferencias.get(0).getCambios().stream()
+                .map(CambioPropiedad::getPropiedad).collect(Collectors.toSet()));
+        assertTrue(diferencias.get(0).getCambios().stream().allMatch(c -> c.getValorAnterior() == null));
+        for (int i = 1; i <= CAMBIOS; i++) {
+            List<CambioPropiedad> cambios = diferencias.get(i).getCambios();
+            assertEquals(1, cambios.size());
+            assertEquals("email", cambios.get(0).getPropiedad());
+            assertEquals(historial.get(i - 1).getEntidad().getEmail(), cambios.get(0).getValorAnterior());
+            assertEquals(historial.get(i).getEntidad().getEmail(), cambios.get(0).getValorNuevo());
+        }
+
+        // Por páginas: la primera revisión de cada página se compara con la última de la anterior
+        List<String> recorrido = new ArrayList<>();
+        PaginaCursor<DiferenciaRevision> actual = null;
+        do {
+            String cursor = actual == null ? null : actual.getSiguiente();
+            actual = contarConsultas(1, () -> auditoriaService.obtenerDiferencias(Usuario.class, id, cursor, null, 2));
+            recorrido.addAll(describir(actual.getElementos()));
+        } while (actual.isHaySiguiente());
+        assertEquals(describir(diferencias), recorrido);
+
+        String anterior = actual.getAnterior();
+        PaginaCursor<DiferenciaRevision> vuelta = contarConsultas(1,
+                () -> auditoriaService.obtenerDiferencias(Usuario.class, id, null, anterior, 2));
+        assertEquals(describir(diferencias.subList(CAMBIOS - 2, CAMBIOS)), describir(vuelta.getElementos()));
+    }
+
+    @Test
+    @DisplayName("Las diferencias de una suscripción con muchas revisiones cuestan una consulta por página")
+    void diferenciasSuscripcionPaginadas() {
+        Plan plan = planBasico();
+        Suscripcion suscripcion = suscripcionRepository.save(nuevaSuscripcion(plan));
+        int revisiones = 40;
+        for (int i = 1; i < revisiones; i++) {
+            suscripcion.setEstado(i % 2 == 0 ? Suscripcion.EstadoSuscripcion.ACTIVA
+                    : Suscripcion.EstadoSuscripcion.IMPAGO);
+            suscripcion = suscripcionRepository.save(suscripcion);
+        }
+
+        Long id = suscripcion.getId();
+        List<DiferenciaRevision> todas = new ArrayList<>();
+        PaginaCursor<DiferenciaRevision> actual = null;
+        do {
+            String cursor = actual == null ? null : actual.getSiguiente();
+            actual = contarConsultas(1,
+                    () -> auditoriaService.obtenerDiferencias(Suscripcion.class, id, cursor, null, 10));
+            todas.addAll(actual.getElementos());
+        } while (actual.isHaySiguiente());
+
+        assertEquals(revisiones, todas.size());
+        assertTrue(todas.get(0).getCambios().stream().anyMatch(c -> c.getPropiedad().equals("plan")
+                && ("Plan #" + plan.getId()).equals(c.getValorNuevo())));
+        assertTrue(todas.subList(1, revisiones).stream().allMatch(d -> d.getCambios().size() == 1
+                && d.getCambios().get(0).getPropiedad().equals("estado")
+                && !d.getCambios().get(0).getValorAnterior().equals(d.getCambios().get(0).getValorNuevo())));
+    }
+
+    @Test
+    @DisplayName("Una versión por revisión se consulta una vez y se sirve de la caché con sus relaciones y sin colecciones")
+    void versionesPorRevisionEnCache() {
+        Plan plan = planBasico();
+        Suscripcion suscripcion = suscripcionRepository.save(nuevaSuscripcion(plan));
+        suscripcion.setEstado(Suscripcion.EstadoSuscripcion.IMPAGO);
+        suscripcion = suscripcionRepository.save(suscripcion);
+
+        Long id = suscripcion.getId();
+        List<RegistroAuditoria<Suscripcion>> historial =
+                auditoriaService.obtenerHistorial(Suscripcion.class, id, null, null, 50).getElementos();
+        Long alta = historial.get(0).getNumeroRevision();
+        Long impago = historial.get(1).getNumeroRevision();
+        EstadisticasRevisiones antes = auditoriaService.obtenerEstadisticasRevisiones();
+
+        Suscripcion primera = auditoriaService.obtenerVersionAnterior(Suscripcion.class, id, alta);
+        Suscripcion repetida = contarConsultas(0,
+                () -> auditoriaService.obtenerVersionAnterior(Suscripcion.class, id, alta));
+        RegistroAuditoria<Suscripcion> revision = contarConsultas(0,
+                () -> auditoriaService.obtenerRevision(Suscripcion.class, id, alta));
+        assertAll(
+            // Cada llamada recibe su copia: cambiar una no cambia la guardada
+            () -> assertNotSame(primera, repetida),
+            () -> assertEquals(Suscripcion.EstadoSuscripcion.ACTIVA, repetida.getEstado()),
+            // Las relaciones se cargaron al guardarla: se leen sin sesión
+            () -> assertEquals(plan.getNombre(), repetida.getPlan().getNombre()),
+            () -> assertEquals(usuario.getEmail(), repetida.getUsuario().getEmail()),
+            () -> assertTrue(repetida.getFacturas().isEmpty()),
+            () -> assertTrue(repetida.getUsuario().getSuscripciones().isEmpty()),
+            () -> assertEquals(historial.get(0).getFecha(), revision.getFecha()),
+            () -> assertEquals("CREACIÓN", revision.getTipoAccion())
+        );
+        primera.setEstado(Suscripcion.EstadoSuscripcion.CANCELADA);
+        repetida.getPlan().setNombre("Modificado");
+        Suscripcion otra = auditoriaService.obtenerVersionAnterior(Suscripcion.class, id, alta);
+        assertEquals(Suscripcion.EstadoSuscripcion.ACTIVA, otra.getEstado());
+        assertEquals(plan.getNombre(), otra.getPlan().getNombre());
+
+        // Antes del alta tampoco cambia: hay una versión posterior
+        auditoriaService.obtenerVersionAnterior(Suscripcion.class, id, alta - 1);
+        assertNull(contarConsultas(0, () -> auditoriaService.obtenerVersionAnterior(Suscripcion.class, id, alta - 1)));
+
+        // Después de la última versión la entidad aún puede cambiar: se consulta cada vez
+        Long futura = impago + 1000;
+        assertEquals(Suscripcion.EstadoSuscripcion.IMPAGO, contarConsultas(2,
+                () -> auditoriaService.obtenerVersionAnterior(Suscripcion.class, id, futura)).getEstado());
+        suscripcion.setEstado(Suscripcion.EstadoSuscripcion.CANCELADA);
+        suscripcionRepository.save(suscripcion);
+        assertEquals(Suscripcion.EstadoSuscripcion.CANCELADA,
+                auditoriaService.obtenerVersionAnterior(Suscripcion.class, id, futura).getEstado());
+        assertEquals(Suscripcion.EstadoSuscripcion.IMPAGO, auditoriaService
+                .obtenerVersionAnterior(Suscripcion.class, id, impago).getEstado());
+
+        EstadisticasRevisiones despues = auditoriaService.obtenerEstadisticasRevisiones();
+        assertEquals(4, despues.getAciertos() - antes.getAciertos());
+        assertTrue(despues.getEntradas() >= 3);
+        assertTrue(despues.getTasaAciertos() > 0);
+    }
+
+    private static List<String> describir(List<DiferenciaRevision> diferencias) {
+        return diferencias.stream()
+                .flatMap(d -> d.getCambios().stream().map(c -> d.getNumeroRevision() + " " + c.getPropiedad()
+                        + ": " + c.getValorAnterior() + " -> " + c.getValorNuevo()))
+                .toList();
+    }
+
+    private Plan planBasico() {
+        return DatosPrueba.plan(planRepository, Plan.TipoPlan.BASIC);
+    }
+
+    private Suscripcion nuevaSuscripcion(Plan plan) {
+        Suscripcion suscripcion = new Suscripcion();
+        suscripcion.setUsuario(usuario);
+        suscripcion.setPlan(plan);
+        suscripcion.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+        suscripcion.setFechaInicio(LocalDate.now());
+        return suscripcion;
+    }
+
+    // Ejecuta la lectura y comprueba el número de consultas JDBC preparadas
+    private <T> T contarConsultas(long esperadas, Supplier<T> lectura) {
+        estadisticas.clear();
+        T resultado = lectura.get();
+        assertEquals(esperadas, estadisticas.getPrepareStatementCount());
+        return resultado;
+    }
+
+    private static List<Long> numeros(PaginaCursor<RegistroAuditoria<Usuario>> pagina) {
+        return pagina.getElementos().stream().map(RegistroAuditoria::getNumeroRevision).toList();
+    }
+}
@@ -0,0 +1,48 @@
+package com.refugio.service;
+
+import com.refugio.JPA.Plan;
+import com.refugio.repository.PlanRepository;
+import org.hibernate.stat.Statistics;
+
+import java.math.BigDecimal;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Utilidades comunes de los tests de servicio: planes de referencia y recuento de sentencias JDBC
+final class DatosPrueba {
+
+    private DatosPrueba() {
+    }
+
+    // Plan del tipo: el que ya haya en la BD del contexto o uno nuevo con el nombre y precio de DataInitializer
+    static Plan plan(PlanRepository planRepository, Plan.TipoPlan tipo) {
+        return planRepository.findByTipo(tipo).orElseGet(() -> {
+            Plan nuevo = new Plan();
+            nuevo.setTipo(tipo);
+            switch (tipo) {
+                case BASIC -> {
+                    nuevo.setNombre("Plan Básico");
+                    nuevo.setPrecioMensual(new BigDecimal("9.99"));
+                }
+                case PREMIUM -> {
+                    nuevo.setNombre("Plan Premium");
+                    nuevo.setPrecioMensual(new BigDecimal("19.99"));
+                }
+                case ENTERPRISE -> {
+                    nuevo.setNombre("Plan Enterprise");
+                    nuevo.setPrecioMensual(new BigDecimal("49.99"));
+                }
+            }
+            return planRepository.save(nuevo);
+        });
+    }
+
+    // Ejecuta la acción y comprueba el número de sentencias JDBC preparadas (requiere generate_statistics)
+    static <T> T contarSentencias(Statistics estadisticas, long esperadas, Supplier<T> accion) {
+        estadisticas.clear();
+        T resultado = accion.get();
+        assertEquals(esperadas, estadisticas.getPrepareStatementCount());
+        return resultado;
+    }
+}
@@ -0,0 +1,84 @@
+package com.refugio.service;
+
+import com.refugio.JPA.EjecucionFacturacion;
+import com.refugio.JPA.ParticionEjecucion;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Test para EjecucionFacturacionService - contadores por partición y suma al leer la ejecución (H2)
+@DataJpaTest
+@Import(EjecucionFacturacionService.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EjecucionFacturacionServiceTest {
+
+    @Autowired
+    private EjecucionFacturacionService ejecucionFacturacionService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Test
+    @DisplayName("Los lotes suman en su partición y la ejecución muestra el total de todas")
+    void contadoresPorParticion() {
+        EjecucionFacturacion ejecucion = ejecucionFacturacionService.iniciarOReanudar(LocalDate.of(2030, 1, 1), 2);
+        List<ParticionEjecucion> particiones = ejecucionFacturacionService.obtenerParticiones(ejecucion.getId());
+
+        ejecucionFacturacionService.registrarLote(particiones.get(0).getId(), 10L, 5, 0);
+        ejecucionFacturacionService.registrarLote(particiones.get(0).getId(), 20L, 3, 1);
+        ejecucionFacturacionService.registrarLote(particiones.get(1).getId(), 15L, 4, 0);
+
+        EjecucionFacturacion leida = ejecucionFacturacionService.obtenerEjecucion(ejecucion.getId());
+        ParticionEjecucion primera = ejecucionFacturacionService.obtenerParticiones(ejecucion.getId()).get(0);
+        assertAll(
+            () -> assertEquals(12L, leida.getRenovadas()),
+            () -> assertEquals(1L, leida.getFallidas()),
+            () -> assertEquals(3, leida.getLotes()),
+            () -> assertEquals(20L, primera.getUltimoIdProcesado()),
+            () -> assertEquals(8L, primera.getRenovadas()),
+            () -> assertEquals(2, primera.getLotes())
+        );
+    }
+
+    @Test
+    @DisplayName("Un lote sin confirmar de una partición no bloquea el registro de otra")
+    void particionesSinBloqueoComun() throws Exception {
+        EjecucionFacturacion ejecucion = ejecucionFacturacionService.iniciarOReanudar(LocalDate.of(2030, 2, 1), 2);
+        List<ParticionEjecucion> particiones = ejecucionFacturacionService.obtenerParticiones(ejecucion.getId());
+        CountDownLatch registrado = new CountDownLatch(1);
+        CountDownLatch terminar = new CountDownLatch(1);
+
+        // Worker de la partición 0: registra su lote y mantiene la transacción abierta
+        CompletableFuture<Void> worker = CompletableFuture.runAsync(() ->
+                transactionTemplate.executeWithoutResult(status -> {
+                    ejecucionFacturacionService.registrarLote(particiones.get(0).getId(), 10L, 5, 0);
+                    registrado.countDown();
+                    try {
+                        assertTrue(terminar.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+        assertTrue(registrado.await(10, TimeUnit.SECONDS));
+
+        // Con un contador común en la ejecución esperaría al commit del otro worker (y vencería el bloqueo)
+        ejecucionFacturacionService.registrarLote(particiones.get(1).getId(), 15L, 4, 0);
+        terminar.countDown();
+        worker.get(10, TimeUnit.SECONDS);
+
+        assertEquals(9L, ejecucionFacturacionService.obtenerEjecucion(ejecucion.getId()).getRenovadas());
+    }
+}
@@ -0,0 +1,85 @@
+package com.refugio.service;
+
+import com.refugio.JPA.Plan;
+import com.refugio.JPA.RevisionAuditoria;
+import com.refugio.config.EnversInterno;
+import com.refugio.config.EnversInterno.UnidadAuditoria;
+import com.refugio.config.EstadoAuditado;
+import com.refugio.repository.PlanRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.Version;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.envers.AuditReaderFactory;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.persister.entity.EntityPersister;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Test del adaptador de las clases internas de Envers: fija la versión de Hibernate con la que se ha comprobado y
+// el comportamiento del que dependen la auditoría diferida y la auditoría en bloque (H2)
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EnversInternoTest {
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Test
+    @DisplayName("Hibernate está en la versión comprobada con el adaptador")
+    void versionComprobada() {
+        assertTrue(Version.getVersionString().startsWith(EnversInterno.VERSION_COMPROBADA + "."),
+                "Hibernate " + Version.getVersionString() + ": revisar EnversInterno antes de cambiar de versión");
+    }
+
+    @Test
+    @DisplayName("Las unidades de trabajo se combinan como en Envers y escriben su fila _AUD en la revisión")
+    void unidadesDeTrabajo() {
+        Plan plan = DatosPrueba.plan(planRepository, Plan.TipoPlan.BASIC);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+            EntityPersister persister = EstadoAuditado.persister(session, Plan.class.getName());
+            Object[] estado = persister.getValues(entityManager.find(Plan.class, plan.getId()));
+            Object[] renombrado = estado.clone();
+            renombrado[List.of(persister.getPropertyNames()).indexOf("nombre")] = "Plan Básico (renombrado)";
+
+            assertTrue(EnversInterno.auditada(session, Plan.class.getName()));
+            assertNull(EnversInterno.unidad(session, RevisionType.MOD, persister, plan.getId(), estado, estado));
+
+            UnidadAuditoria alta = EnversInterno.unidad(session, RevisionType.ADD, persister, plan.getId(),
+                    estado, null);
+            UnidadAuditoria cambio = EnversInterno.unidad(session, RevisionType.MOD, persister, plan.getId(),
+                    renombrado, estado);
+            UnidadAuditoria baja = EnversInterno.unidad(session, RevisionType.DEL, persister, plan.getId(),
+                    estado, null);
+            assertEquals(RevisionType.ADD, cambio.despuesDe(alta).getTipo());
+            assertNull(baja.despuesDe(alta));
+            assertEquals(Plan.class.getName(), cambio.getEntidad());
+
+            RevisionAuditoria revision = new RevisionAuditoria();
+            revision.setTimestamp(System.currentTimeMillis());
+            entityManager.persist(revision);
+            cambio.escribir(session, revision);
+            entityManager.flush();
+
+            Plan auditado = AuditReaderFactory.get(entityManager).find(Plan.class, plan.getId(), revision.getId());
+            assertEquals("Plan Básico (renombrado)", auditado.getNombre());
+            status.setRollbackOnly();
+        });
+    }
+}
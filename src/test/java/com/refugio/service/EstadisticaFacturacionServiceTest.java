@@ -0,0 +1,200 @@
+package com.refugio.service;
+
+import com.refugio.JPA.*;
+import com.refugio.repository.FacturaRepository;
+import com.refugio.repository.PlanRepository;
+import com.refugio.repository.SuscripcionRepository;
+import com.refugio.repository.UsuarioRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+
+// Test para EstadisticaFacturacionService - agregado incremental por ranuras y reconciliación (H2)
+@DataJpaTest(properties = "refugio.estadisticas.ranuras=4")
+@Import({EstadisticaFacturacionService.class, FacturaService.class, ImpuestoService.class, PagoService.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class EstadisticaFacturacionServiceTest {
+
+    @Autowired
+    private EstadisticaFacturacionService estadisticaFacturacionService;
+
+    @Autowired
+    private FacturaService facturaService;
+
+    @Autowired
+    private PagoService pagoService;
+
+    @SpyBean
+    private ImpuestoService impuestoService;
+
+    @Autowired
+    private FacturaRepository facturaRepository;
+
+    @Autowired
+    private SuscripcionRepository suscripcionRepository;
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Suscripcion suscripcion;
+
+    @BeforeEach
+    void setUp() {
+        Usuario usuario = new Usuario();
+        usuario.setEmail("estadisticas-" + System.nanoTime() + "@test.com");
+        usuario.setPasswordHash("hash");
+        Perfil perfil = new Perfil();
+        perfil.setPais("ES");
+        perfil.setUsuario(usuario);
+        usuario.setPerfil(perfil);
+        usuario = usuarioRepository.save(usuario);
+
+        Plan plan = DatosPrueba.plan(planRepository, Plan.TipoPlan.BASIC);
+
+        suscripcion = new Suscripcion();
+        suscripcion.setUsuario(usuario);
+        suscripcion.setPlan(plan);
+        suscripcion.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+        suscripcion.setFechaInicio(LocalDate.now());
+        suscripcion = suscripcionRepository.save(suscripcion);
+
+        estadisticaFacturacionService.reconciliar();
+    }
+
+    @Test
+    @DisplayName("Los deltas de alta, pago, anulación y recálculo coinciden con el recuento completo")
+    void deltasSinDeriva() {
+        EstadisticaFacturacionService.ResumenFacturacion antes = estadisticaFacturacionService.obtenerResumen();
+
+        Factura pagada = facturaService.generarFactura(suscripcion);
+        Factura anulada = facturaService.generarFactura(suscripcion);
+        Factura recalculada = facturaService.generarFactura(suscripcion);
+        pagoService.pagarFactura(pagada.getId());
+        facturaService.anularFactura(anulada.getId());
+        facturaService.recalcularImpuesto(recalculada.getId(), "DE");
+
+        EstadisticaFacturacionService.ResumenFacturacion despues = estadisticaFacturacionService.obtenerResumen();
+        BigDecimal facturado = pagada.getImporteTotal().add(anulada.getImporteTotal())
+                .add(facturaService.obtenerFactura(recalculada.getId()).getImporteTotal());
+
+        assertAll(
+            () -> assertEquals(antes.getTotalFacturas() + 3, despues.getTotalFacturas()),
+            () -> assertEquals(antes.getFacturasPagadas() + 1, despues.getFacturasPagadas()),
+            () -> assertEquals(antes.getFacturasPendientes() + 1, despues.getFacturasPendientes()),
+            () -> assertEquals(antes.getFacturasAnuladas() + 1, despues.getFacturasAnuladas()),
+            () -> assertEquals(0, antes.getTotalFacturado().add(facturado).compareTo(despues.getTotalFacturado()))
+        );
+        assertEquals(0, estadisticaFacturacionService.reconciliar());
+    }
+
+    @Test
+    @DisplayName("Un pago que llega durante el recálculo de impuesto espera y no se pierde")
+    void pagoDuranteRecalculo() throws Exception {
+        Factura factura = facturaService.generarFactura(suscripcion);
+
+        // El pago llega con la factura ya leída y antes del UPDATE; debe esperar al commit del recálculo
+        AtomicReference<CompletableFuture<PagoService.ResultadoPago>> pago = new AtomicReference<>();
+        AtomicBoolean pagoBloqueado = new AtomicBoolean();
+        doAnswer(invocacion -> {
+            pago.set(CompletableFuture.supplyAsync(() -> pagoService.pagarFactura(factura.getId())));
+            Thread.sleep(300);
+            pagoBloqueado.set(!pago.get().isDone());
+            return invocacion.callRealMethod();
+        }).when(impuestoService).calcularDetalleImpuesto(any(), eq("DE"), any());
+
+        facturaService.recalcularImpuesto(factura.getId(), "DE");
+        PagoService.ResultadoPago resultadoPago = pago.get().get(10, TimeUnit.SECONDS);
+
+        assertTrue(pagoBloqueado.get(), "El pago no esperó al recálculo");
+        assertEquals(PagoService.EstadoPago.REGISTRADO, resultadoPago.getEstado());
+        Factura resultado = facturaService.obtenerFactura(factura.getId());
+        assertEquals(Factura.EstadoFactura.PAGADA, resultado.getEstado());
+        assertEquals("DE", resultado.getPaisImpuesto());
+        assertEquals(0, estadisticaFacturacionService.reconciliar());
+    }
+
+    @Test
+    @DisplayName("La reconciliación corrige las facturas escritas sin pasar por FacturaService")
+    void reconciliarCorrigeDeriva() {
+        EstadisticaFacturacionService.ResumenFacturacion antes = estadisticaFacturacionService.obtenerResumen();
+
+        Factura factura = new Factura();
+        factura.setSuscripcion(suscripcion);
+        factura.setFechaEmision(LocalDate.now());
+        factura.setImporte(new BigDecimal("50.00"));
+        factura.setImporteImpuesto(new BigDecimal("10.50"));
+        factura.setImporteTotal(new BigDecimal("60.50"));
+        factura.setEstado(Factura.EstadoFactura.PAGADA);
+        facturaRepository.save(factura);
+
+        assertEquals(antes.getTotalFacturas(), estadisticaFacturacionService.obtenerResumen().getTotalFacturas());
+
+        assertEquals(1, estadisticaFacturacionService.reconciliar());
+
+        EstadisticaFacturacionService.ResumenFacturacion despues = estadisticaFacturacionService.obtenerResumen();
+        assertAll(
+            () -> assertEquals(antes.getFacturasPagadas() + 1, despues.getFacturasPagadas()),
+            () -> assertEquals(0, antes.getTotalImpuestos().add(new BigDecimal("10.50"))
+                    .compareTo(despues.getTotalImpuestos())),
+            () -> assertNotNull(despues.getReconciliadaEn())
+        );
+    }
+
+    @Test
+    @DisplayName("Dos transacciones sin confirmar dan de alta facturas a la vez sin esperar por la fila del estado")
+    void altasConcurrentesEnRanurasDistintas() throws Exception {
+        EstadisticaFacturacionService.ResumenFacturacion antes = estadisticaFacturacionService.obtenerResumen();
+        CountDownLatch registrada = new CountDownLatch(1);
+        CountDownLatch terminar = new CountDownLatch(1);
+
+        // Otro hilo da de alta una factura y mantiene la transacción abierta (y su fila de estadísticas bloqueada)
+        CompletableFuture<Void> worker = CompletableFuture.runAsync(() ->
+                transactionTemplate.executeWithoutResult(status -> {
+                    facturaService.generarFactura(suscripcion);
+                    registrada.countDown();
+                    try {
+                        assertTrue(terminar.await(10, TimeUnit.SECONDS));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }));
+        assertTrue(registrada.await(10, TimeUnit.SECONDS));
+
+        // Con una sola fila por estado esperaría al commit del otro hilo (y vencería el bloqueo)
+        facturaService.generarFactura(suscripcion);
+        terminar.countDown();
+        worker.get(10, TimeUnit.SECONDS);
+
+        EstadisticaFacturacionService.ResumenFacturacion despues = estadisticaFacturacionService.obtenerResumen();
+        assertEquals(antes.getFacturasPendientes() + 2, despues.getFacturasPendientes());
+        assertEquals(0, estadisticaFacturacionService.reconciliar());
+        assertEquals(despues.getFacturasPendientes(),
+                estadisticaFacturacionService.obtenerResumen().getFacturasPendientes());
+    }
+}
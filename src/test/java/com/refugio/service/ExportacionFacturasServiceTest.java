@@ -0,0 +1,129 @@
+package com.refugio.service;
+
+import com.refugio.JPA.*;
+import com.refugio.repository.FacturaRepository;
+import com.refugio.repository.FiltroFacturas;
+import com.refugio.repository.PlanRepository;
+import com.refugio.repository.SuscripcionRepository;
+import com.refugio.repository.UsuarioRepository;
+import com.refugio.service.ExportacionFacturasService.FormatoExportacion;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Test para ExportacionFacturasService - exportación en streaming con los criterios del filtro (H2)
+@DataJpaTest
+@Import(ExportacionFacturasService.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ExportacionFacturasServiceTest {
+
+    @Autowired
+    private ExportacionFacturasService exportacionFacturasService;
+
+    @Autowired
+    private FacturaRepository facturaRepository;
+
+    @Autowired
+    private SuscripcionRepository suscripcionRepository;
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    private LocalDate dia;
+
+    @BeforeEach
+    void setUp() {
+        // Cada test usa su propio día para filtrar solo sus facturas
+        dia = LocalDate.of(2000, 1, 1).plusDays(System.nanoTime() % 3650);
+
+        Usuario usuario = new Usuario();
+        usuario.setEmail("exportacion-" + System.nanoTime() + "@test.com");
+        usuario.setPasswordHash("hash");
+        usuario = usuarioRepository.save(usuario);
+
+        Plan plan = DatosPrueba.plan(planRepository, Plan.TipoPlan.PREMIUM);
+        // Nombre con comas y comillas para comprobar el escapado
+        plan.setNombre("Plan \"Premium\", anual");
+        plan = planRepository.save(plan);
+
+        Suscripcion suscripcion = new Suscripcion();
+        suscripcion.setUsuario(usuario);
+        suscripcion.setPlan(plan);
+        suscripcion.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+        suscripcion.setFechaInicio(dia);
+        suscripcion = suscripcionRepository.save(suscripcion);
+
+        for (Factura.EstadoFactura estado : List.of(Factura.EstadoFactura.EMITIDA,
+                Factura.EstadoFactura.PAGADA, Factura.EstadoFactura.PAGADA)) {
+            Factura factura = new Factura();
+            factura.setSuscripcion(suscripcion);
+            factura.setFechaEmision(dia);
+            factura.setImporte(new BigDecimal("19.99"));
+            factura.setImporteImpuesto(new BigDecimal("4.20"));
+            factura.setImporteTotal(new BigDecimal("24.19"));
+            factura.setPaisImpuesto("ES");
+            factura.setTasaImpuesto(new BigDecimal("21.00"));
+            factura.setEstado(estado);
+            facturaRepository.save(factura);
+        }
+    }
+
+    @Test
+    @DisplayName("CSV con cabecera, solo las facturas del filtro y campos con comas entrecomillados")
+    void exportarCsv() throws Exception {
+        FiltroFacturas filtro = new FiltroFacturas(dia, dia, null, null, Factura.EstadoFactura.PAGADA);
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+
+        long filas = exportacionFacturasService.exportar(filtro, FormatoExportacion.CSV, false, salida);
+
+        List<String> lineas = salida.toString(StandardCharsets.UTF_8).lines().toList();
+        assertAll(
+            () -> assertEquals(2, filas),
+            () -> assertEquals(3, lineas.size()),
+            () -> assertTrue(lineas.get(0).startsWith("id,fechaEmision,")),
+            () -> assertTrue(lineas.get(1).endsWith(",24.19,ES,21.00,PAGADA")),
+            () -> assertTrue(lineas.get(1).contains(",\"Plan \"\"Premium\"\", anual\","))
+        );
+    }
+
+    @Test
+    @DisplayName("NDJSON comprimido con gzip: un objeto JSON por línea")
+    void exportarNdjsonGzip() throws Exception {
+        FiltroFacturas filtro = new FiltroFacturas(dia, dia, null, null, null);
+        ByteArrayOutputStream salida = new ByteArrayOutputStream();
+
+        long filas = exportacionFacturasService.exportar(filtro, FormatoExportacion.NDJSON, true, salida);
+
+        String texto;
+        try (GZIPInputStream entrada = new GZIPInputStream(new ByteArrayInputStream(salida.toByteArray()))) {
+            texto = new String(entrada.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        List<String> lineas = texto.lines().toList();
+        assertAll(
+            () -> assertEquals(3, filas),
+            () -> assertEquals(3, lineas.size()),
+            () -> assertTrue(lineas.stream().allMatch(l -> l.startsWith("{\"id\":") && l.endsWith("}"))),
+            () -> assertTrue(lineas.get(0).contains("\"fechaEmision\":\"" + dia + "\"")),
+            () -> assertTrue(lineas.get(0).contains("\"plan\":\"Plan \\\"Premium\\\", anual\"")),
+            () -> assertTrue(lineas.get(0).contains("\"importeTotal\":24.19"))
+        );
+    }
+}
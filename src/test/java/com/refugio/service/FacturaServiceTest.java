@@ -1,7 +1,9 @@
 package com.refugio.service;
 
 import com.refugio.JPA.*;
+import com.refugio.repository.FacturaListado;
 import com.refugio.repository.FacturaRepository;
+import com.refugio.repository.FiltroFacturas;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
@@ -10,15 +12,19 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 // Test para FacturaService - generación y gestión de facturas
@@ -31,6 +37,9 @@ class FacturaServiceTest {
     @Spy
     private ImpuestoService impuestoService = new ImpuestoService();
 
+    @Mock
+    private EstadisticaFacturacionService estadisticaFacturacionService;
+
     @InjectMocks
     private FacturaService facturaService;
 
@@ -99,6 +108,19 @@ class FacturaServiceTest {
             () -> assertEquals("ES", resultado.getPaisImpuesto()),
             () -> assertEquals(Factura.EstadoFactura.EMITIDA, resultado.getEstado())
         );
+        verify(estadisticaFacturacionService).registrarAlta(resultado);
+    }
+
+    @Test
+    @DisplayName("El país del perfil se guarda normalizado en la factura")
+    void generarFacturaPaisSinNormalizar() {
+        usuario.getPerfil().setPais(" de ");
+        when(facturaRepository.save(any(Factura.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        Factura resultado = facturaService.generarFactura(suscripcion);
+
+        assertEquals("DE", resultado.getPaisImpuesto());
+        assertEquals(new BigDecimal("19.00"), resultado.getImporteImpuesto());
     }
 
     @Test
@@ -142,37 +164,17 @@ class FacturaServiceTest {
     }
 
     // Tests de cambio de estado
-    @Test
-    @DisplayName("Marcar factura como pagada")
-    void marcarComoPagada() {
-        when(facturaRepository.findById(1L)).thenReturn(Optional.of(factura));
-        when(facturaRepository.save(any(Factura.class)))
-            .thenAnswer(inv -> inv.getArgument(0));
-
-        Factura resultado = facturaService.marcarComoPagada(1L);
-
-        assertEquals(Factura.EstadoFactura.PAGADA, resultado.getEstado());
-    }
-
     @Test
     @DisplayName("Anular factura")
     void anularFactura() {
-        when(facturaRepository.findById(1L)).thenReturn(Optional.of(factura));
+        when(facturaRepository.findParaActualizar(1L)).thenReturn(Optional.of(factura));
         when(facturaRepository.save(any(Factura.class)))
             .thenAnswer(inv -> inv.getArgument(0));
 
         Factura resultado = facturaService.anularFactura(1L);
 
         assertEquals(Factura.EstadoFactura.ANULADA, resultado.getEstado());
-    }
-
-    @Test
-    @DisplayName("Marcar como pagada factura inexistente lanza excepción")
-    void marcarComoPagadaInexistente() {
-        when(facturaRepository.findById(999L)).thenReturn(Optional.empty());
-
-        assertThrows(RuntimeException.class,
-            () -> facturaService.marcarComoPagada(999L));
+        verify(estadisticaFacturacionService).registrarCambioEstado(resultado, Factura.EstadoFactura.EMITIDA);
     }
 
     // Tests de consultas
@@ -243,7 +245,7 @@ class FacturaServiceTest {
     @Test
     @DisplayName("Recalcular impuesto cambiando país")
     void recalcularImpuesto() {
-        when(facturaRepository.findById(1L)).thenReturn(Optional.of(factura));
+        when(facturaRepository.findParaActualizar(1L)).thenReturn(Optional.of(factura));
         when(facturaRepository.save(any(Factura.class)))
             .thenAnswer(inv -> inv.getArgument(0));
 
@@ -256,16 +258,19 @@ class FacturaServiceTest {
             () -> assertEquals(new BigDecimal("19.00"), resultado.getImporteImpuesto()),
             () -> assertEquals(new BigDecimal("119.00"), resultado.getImporteTotal())
         );
+        verify(estadisticaFacturacionService).registrarDiferencia(Factura.EstadoFactura.EMITIDA,
+                new BigDecimal("-2.00"), new BigDecimal("-2.00"));
     }
 
     @Test
     @DisplayName("Recalcular impuesto a USA (0%)")
     void recalcularImpuestoUSA() {
-        when(facturaRepository.findById(1L)).thenReturn(Optional.of(factura));
+        // El código llega en minúsculas; se guarda normalizado para que el recálculo masivo lo encuentre
+        when(facturaRepository.findParaActualizar(1L)).thenReturn(Optional.of(factura));
         when(facturaRepository.save(any(Factura.class)))
             .thenAnswer(inv -> inv.getArgument(0));
 
-        Factura resultado = facturaService.recalcularImpuesto(1L, "US");
+        Factura resultado = facturaService.recalcularImpuesto(1L, "us ");
 
         assertAll(
             () -> assertEquals("US", resultado.getPaisImpuesto()),
@@ -273,5 +278,120 @@ class FacturaServiceTest {
             () -> assertEquals(new BigDecimal("100.00"), resultado.getImporteTotal())
         );
     }
-}
 
+    @Test
+    @DisplayName("Recalcular impuesto usa la tasa vigente en la fecha de la factura")
+    void recalcularImpuestoConTasaHistorica() {
+        factura.setFechaEmision(LocalDate.of(2011, 3, 15));
+        when(facturaRepository.findParaActualizar(1L)).thenReturn(Optional.of(factura));
+        when(facturaRepository.save(any(Factura.class)))
+            .thenAnswer(inv -> inv.getArgument(0));
+
+        // En España el 18% estuvo vigente entre julio de 2010 y agosto de 2012
+        Factura resultado = facturaService.recalcularImpuesto(1L, "ES");
+
+        assertAll(
+            () -> assertEquals(new BigDecimal("18.00"), resultado.getTasaImpuesto()),
+            () -> assertEquals(new BigDecimal("18.00"), resultado.getImporteImpuesto()),
+            () -> assertEquals(new BigDecimal("118.00"), resultado.getImporteTotal())
+        );
+    }
+
+    @Test
+    @DisplayName("Contar por estado rellena con 0 los estados sin facturas")
+    void contarPorEstado() {
+        when(facturaRepository.contarPorEstado()).thenReturn(List.<Object[]>of(
+            new Object[]{Factura.EstadoFactura.EMITIDA, 7L}));
+
+        Map<Factura.EstadoFactura, Long> conteo = facturaService.contarPorEstado();
+
+        assertEquals(7L, conteo.get(Factura.EstadoFactura.EMITIDA));
+        assertEquals(0L, conteo.get(Factura.EstadoFactura.PAGADA));
+        assertEquals(Factura.EstadoFactura.values().length, conteo.size());
+    }
+
+    private FacturaListado facturaEn(long id, LocalDate fecha) {
+        return new FacturaListado(id, fecha, 1L, "Premium", new BigDecimal("9.99"), new BigDecimal("2.10"),
+                new BigDecimal("12.09"), "ES", new BigDecimal("21.00"), Factura.EstadoFactura.EMITIDA);
+    }
+
+    // Tests de paginación por keyset
+    @Test
+    @DisplayName("Primera página: pide una fila de más para saber si hay siguiente")
+    void primeraPaginaFacturas() {
+        LocalDate dia = LocalDate.of(2026, 1, 10);
+        when(facturaRepository.findPrimeraPagina(any(Pageable.class)))
+            .thenReturn(List.of(facturaEn(9L, dia), facturaEn(8L, dia), facturaEn(3L, dia.minusDays(1))));
+
+        PaginaCursor<FacturaListado> pagina = facturaService.obtenerPaginaFacturas(null, null, 2);
+
+        assertAll(
+            () -> assertEquals(List.of(9L, 8L), pagina.getElementos().stream().map(FacturaListado::id).toList()),
+            () -> assertFalse(pagina.isHayAnterior()),
+            () -> assertEquals("2026-01-10_8", pagina.getSiguiente())
+        );
+        verify(facturaRepository).findPrimeraPagina(PageRequest.ofSize(3));
+    }
+
+    @Test
+    @DisplayName("Página siguiente busca a partir de la clave (fecha, id) del cursor")
+    void paginaSiguienteFacturas() {
+        LocalDate dia = LocalDate.of(2026, 1, 10);
+        when(facturaRepository.findPaginaDespuesDe(eq(dia), eq(8L), any(Pageable.class)))
+            .thenReturn(List.of(facturaEn(3L, dia.minusDays(1))));
+
+        PaginaCursor<FacturaListado> pagina = facturaService.obtenerPaginaFacturas("2026-01-10_8", null, 2);
+
+        assertAll(
+            () -> assertEquals(1, pagina.getElementos().size()),
+            () -> assertEquals("2026-01-09_3", pagina.getAnterior()),
+            () -> assertFalse(pagina.isHaySiguiente())
+        );
+    }
+
+    @Test
+    @DisplayName("Página anterior recorre en sentido inverso y devuelve el orden del listado")
+    void paginaAnteriorFacturas() {
+        LocalDate dia = LocalDate.of(2026, 1, 9);
+        when(facturaRepository.findPaginaAntesDe(eq(dia), eq(3L), any(Pageable.class)))
+            .thenReturn(List.of(facturaEn(8L, dia.plusDays(1)), facturaEn(9L, dia.plusDays(1))));
+
+        PaginaCursor<FacturaListado> pagina = facturaService.obtenerPaginaFacturas(null, "2026-01-09_3", 2);
+
+        assertAll(
+            () -> assertEquals(List.of(9L, 8L), pagina.getElementos().stream().map(FacturaListado::id).toList()),
+            () -> assertFalse(pagina.isHayAnterior()),
+            () -> assertEquals("2026-01-10_8", pagina.getSiguiente())
+        );
+    }
+
+    @Test
+    @DisplayName("Un cursor mal formado devuelve la primera página")
+    void cursorMalFormado() {
+        when(facturaRepository.findPendientesPrimeraPagina(any(Pageable.class))).thenReturn(List.of());
+
+        PaginaCursor<FacturaListado> pagina = facturaService.obtenerPaginaPendientes("no-es-un-cursor", null, 0);
+
+        assertTrue(pagina.getElementos().isEmpty());
+        assertEquals(PaginaCursor.TAMANO_POR_DEFECTO, pagina.getTamano());
+        verify(facturaRepository, never()).findPendientesDespuesDe(any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Filtro paginado: pasa el cursor y pide una fila de más")
+    void filtrarFacturasPaginado() {
+        FiltroFacturas filtro = new FiltroFacturas(null, null, new BigDecimal("10.00"), null,
+                Factura.EstadoFactura.EMITIDA);
+        LocalDate dia = LocalDate.of(2026, 1, 10);
+        when(facturaRepository.filtrarPagina(filtro, dia, 8L, false, 3))
+            .thenReturn(List.of(facturaEn(7L, dia), facturaEn(5L, dia), facturaEn(3L, dia.minusDays(1))));
+
+        PaginaCursor<FacturaListado> pagina = facturaService.filtrarFacturas(filtro, "2026-01-10_8", null, 2);
+
+        assertAll(
+            () -> assertEquals(List.of(7L, 5L), pagina.getElementos().stream().map(FacturaListado::id).toList()),
+            () -> assertEquals("2026-01-10_7", pagina.getAnterior()),
+            () -> assertEquals("2026-01-10_5", pagina.getSiguiente())
+        );
+    }
+}
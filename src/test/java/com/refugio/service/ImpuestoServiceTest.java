@@ -3,8 +3,18 @@ package com.refugio.service;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.core.io.FileSystemResource;
 
 import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -141,5 +151,165 @@ class ImpuestoServiceTest {
         BigDecimal impuesto = impuestoService.calcularImpuesto(new BigDecimal("33.33"), "ES");
         assertEquals(new BigDecimal("7.00"), impuesto);
     }
-}
 
+    // Tests de equivalencia de la ruta rápida (céntimos + puntos básicos) con la fórmula original en BigDecimal
+    private static final List<String> PAISES_RAROS = Arrays.asList(
+            null, "", "   ", "es", " ES ", "Es", "xx", "ESP", "E", "e s", "ın", "\tde\n", "ß", "1A");
+
+    private static BigDecimal tasaReferencia(Map<String, BigDecimal> tasas, String codigoPais) {
+        if (codigoPais == null || codigoPais.isBlank()) {
+            return new BigDecimal("21.00");
+        }
+        return tasas.getOrDefault(codigoPais.toUpperCase().trim(), new BigDecimal("21.00"));
+    }
+
+    private static BigDecimal impuestoReferencia(Map<String, BigDecimal> tasas, BigDecimal montoBase, String codigoPais) {
+        return montoBase.multiply(tasaReferencia(tasas, codigoPais))
+                .divide(new BigDecimal("100"), 2, RoundingMode.HALF_UP);
+    }
+
+    private void comprobarEquivalencia(Map<String, BigDecimal> tasas, BigDecimal montoBase, String codigoPais) {
+        BigDecimal impuesto = impuestoReferencia(tasas, montoBase, codigoPais);
+        BigDecimal total = montoBase.add(impuesto);
+        String caso = montoBase + " / " + codigoPais;
+
+        // equals de BigDecimal compara también la escala
+        assertEquals(impuesto, impuestoService.calcularImpuesto(montoBase, codigoPais), caso);
+        assertEquals(total, impuestoService.calcularTotalConImpuesto(montoBase, codigoPais), caso);
+
+        ImpuestoService.DetalleImpuesto detalle = impuestoService.calcularDetalleImpuesto(montoBase, codigoPais);
+        assertEquals(codigoPais, detalle.getCodigoPais(), caso);
+        assertEquals(tasaReferencia(tasas, codigoPais), detalle.getTasaPorcentaje(), caso);
+        assertEquals(montoBase, detalle.getMontoBase(), caso);
+        assertEquals(impuesto, detalle.getMontoImpuesto(), caso);
+        assertEquals(total, detalle.getMontoTotal(), caso);
+    }
+
+    @Test
+    @DisplayName("Equivalencia exhaustiva: todos los importes de 0.00 a 1000.00 en todos los países")
+    void equivalenciaExhaustivaCentimos() {
+        Map<String, BigDecimal> tasas = impuestoService.obtenerTodasLasTasas();
+        List<String> paises = new ArrayList<>(tasas.keySet());
+        paises.add("XX");
+
+        for (long centimos = 0; centimos <= 100_000; centimos++) {
+            BigDecimal montoBase = BigDecimal.valueOf(centimos, 2);
+            for (String pais : paises) {
+                BigDecimal esperado = impuestoReferencia(tasas, montoBase, pais);
+                assertEquals(esperado, impuestoService.calcularImpuesto(montoBase, pais));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Equivalencia en detalle y total con códigos de país sin normalizar")
+    void equivalenciaCodigosSinNormalizar() {
+        Map<String, BigDecimal> tasas = impuestoService.obtenerTodasLasTasas();
+        List<String> paises = new ArrayList<>(tasas.keySet());
+        paises.addAll(PAISES_RAROS);
+
+        for (long centimos = -2_000; centimos <= 20_000; centimos += 7) {
+            BigDecimal montoBase = BigDecimal.valueOf(centimos, 2);
+            for (String pais : paises) {
+                comprobarEquivalencia(tasas, montoBase, pais);
+            }
+        }
+        for (String pais : paises) {
+            assertEquals(tasas.containsKey(pais == null ? null : pais.toUpperCase().trim()),
+                    impuestoService.tieneTasaConfigurada(pais), String.valueOf(pais));
+        }
+    }
+
+    @Test
+    @DisplayName("Equivalencia con escalas distintas de 2 e importes que no caben en céntimos long")
+    void equivalenciaEscalasYDesbordamiento() {
+        Map<String, BigDecimal> tasas = impuestoService.obtenerTodasLasTasas();
+        List<BigDecimal> importes = List.of(
+                new BigDecimal("10"), new BigDecimal("9.9"), new BigDecimal("9.995"), new BigDecimal("0.005"),
+                new BigDecimal("-0.005"), new BigDecimal("12.3456"), new BigDecimal("1E+3"), new BigDecimal("0E-7"),
+                new BigDecimal("9999999999999999.99"), new BigDecimal("-9999999999999999.99"),
+                new BigDecimal("92233720368547758.07"), new BigDecimal("123456789012345678901234567890.12"));
+
+        for (BigDecimal montoBase : importes) {
+            for (String pais : List.of("ES", "CH", "US", "es ", "XX")) {
+                comprobarEquivalencia(tasas, montoBase, pais);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("El detalle se memoriza por importe y país")
+    void detalleMemorizado() {
+        ImpuestoService.DetalleImpuesto primero = impuestoService.calcularDetalleImpuesto(new BigDecimal("9.99"), "ES");
+        ImpuestoService.DetalleImpuesto segundo = impuestoService.calcularDetalleImpuesto(new BigDecimal("9.99"), "ES");
+        ImpuestoService.DetalleImpuesto otraEscala = impuestoService.calcularDetalleImpuesto(new BigDecimal("9.990"), "ES");
+
+        assertSame(primero, segundo);
+        assertNotSame(primero, otraEscala);
+        assertEquals(new BigDecimal("12.09"), primero.getMontoTotal());
+    }
+
+    @Test
+    @DisplayName("Importe nulo sigue lanzando excepción")
+    void importeNulo() {
+        assertThrows(NullPointerException.class, () -> impuestoService.calcularDetalleImpuesto(null, "ES"));
+        assertThrows(NullPointerException.class, () -> impuestoService.calcularImpuesto(null, "ES"));
+    }
+
+    // Tests de tasas con fecha de vigencia y recarga
+    @Test
+    @DisplayName("La tasa depende de la fecha: España 16%, 18% y 21%")
+    void tasaSegunFecha() {
+        assertEquals(new BigDecimal("16.00"), impuestoService.obtenerTasaImpuesto("ES", LocalDate.of(2009, 12, 31)));
+        assertEquals(new BigDecimal("18.00"), impuestoService.obtenerTasaImpuesto("ES", LocalDate.of(2010, 7, 1)));
+        assertEquals(new BigDecimal("18.00"), impuestoService.obtenerTasaImpuesto("ES", LocalDate.of(2012, 8, 31)));
+        assertEquals(new BigDecimal("21.00"), impuestoService.obtenerTasaImpuesto("ES", LocalDate.of(2012, 9, 1)));
+        assertEquals(new BigDecimal("21.00"), impuestoService.obtenerTasaImpuesto("XX", LocalDate.of(2011, 1, 1)));
+    }
+
+    @Test
+    @DisplayName("Detalle con fecha calcula con la tasa vigente entonces")
+    void detalleSegunFecha() {
+        ImpuestoService.DetalleImpuesto detalle = impuestoService.calcularDetalleImpuesto(
+                new BigDecimal("100.00"), "ES", LocalDate.of(2011, 1, 1));
+
+        assertEquals(new BigDecimal("18.00"), detalle.getTasaPorcentaje());
+        assertEquals(new BigDecimal("118.00"), detalle.getMontoTotal());
+    }
+
+    @Test
+    @DisplayName("Recargar publica una versión nueva solo si el fichero cambia y es válido")
+    void recargarTasas(@TempDir Path directorio) throws Exception {
+        Path fichero = directorio.resolve("impuestos.csv");
+        Files.writeString(fichero, "pais;tasa;vigenteDesde\n*;21.00;2000-01-01\nES;21.00;2012-09-01\n");
+        ImpuestoService servicio = new ImpuestoService(new FileSystemResource(fichero));
+        TablaImpuestos primera = servicio.obtenerTablaImpuestos();
+
+        assertFalse(servicio.recargarTasas());
+
+        Files.writeString(fichero, "*;21.00;2000-01-01\nES;21.00;2012-09-01\nES;22.50;2030-01-01\n");
+        assertTrue(servicio.recargarTasas());
+        assertEquals(2, servicio.obtenerTablaImpuestos().getVersion());
+        assertEquals(new BigDecimal("22.50"), servicio.obtenerTasaImpuesto("ES", LocalDate.of(2030, 6, 1)));
+        assertEquals(new BigDecimal("22.50"), servicio.calcularDetalleImpuesto(
+                new BigDecimal("10.00"), "ES", LocalDate.of(2030, 6, 1)).getTasaPorcentaje());
+
+        // Fichero roto: se mantiene la versión anterior
+        Files.writeString(fichero, "ES;veintiuno;2012-09-01\n");
+        assertFalse(servicio.recargarTasas());
+        assertEquals(2, servicio.obtenerTablaImpuestos().getVersion());
+
+        // Las versiones son inmutables: quien tuviera la anterior sigue viendo sus tasas
+        assertEquals(1, primera.getVersion());
+        assertFalse(primera.tasasVigentes(LocalDate.of(2030, 6, 1)).containsValue(new BigDecimal("22.50")));
+    }
+
+    @Test
+    @DisplayName("Un fichero sin tasa por defecto no se acepta")
+    void ficheroSinTasaPorDefecto(@TempDir Path directorio) throws Exception {
+        Path fichero = directorio.resolve("impuestos.csv");
+        Files.writeString(fichero, "ES;21.00;2012-09-01\n");
+
+        assertThrows(IllegalStateException.class, () -> new ImpuestoService(new FileSystemResource(fichero)));
+    }
+}
@@ -0,0 +1,219 @@
+package com.refugio.service;
+
+import com.refugio.JPA.*;
+import com.refugio.repository.FacturaListado;
+import com.refugio.repository.FacturaRepository;
+import com.refugio.repository.FiltroFacturas;
+import com.refugio.repository.PlanRepository;
+import com.refugio.repository.SuscripcionListado;
+import com.refugio.repository.SuscripcionRepository;
+import com.refugio.repository.UsuarioRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.refugio.service.DatosPrueba.contarSentencias;
+import static org.junit.jupiter.api.Assertions.*;
+
+// Test de los listados de facturas y suscripciones: una sola sentencia por página sea cual sea su tamaño (H2)
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Import({FacturaService.class, ImpuestoService.class, EstadisticaFacturacionService.class,
+        SuscripcionService.class, SuscripcionLoteService.class})
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class ListadoConsultasTest {
+
+    @Autowired
+    private FacturaService facturaService;
+
+    @Autowired
+    private SuscripcionService suscripcionService;
+
+    @Autowired
+    private FacturaRepository facturaRepository;
+
+    @Autowired
+    private SuscripcionRepository suscripcionRepository;
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    private Statistics estadisticas;
+    private final List<Usuario> usuarios = new ArrayList<>();
+    private final List<Suscripcion> suscripciones = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        estadisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        // 12 suscripciones de usuarios distintos repartidas entre los tres planes, con dos facturas cada una
+        Plan.TipoPlan[] tipos = Plan.TipoPlan.values();
+        for (int i = 0; i < 12; i++) {
+            Usuario usuario = new Usuario();
+            usuario.setEmail("listado-" + i + "-" + System.nanoTime() + "@test.com");
+            usuario.setPasswordHash("hash");
+            usuario = usuarioRepository.save(usuario);
+            usuarios.add(usuario);
+
+            Suscripcion suscripcion = new Suscripcion();
+            suscripcion.setUsuario(usuario);
+            suscripcion.setPlan(DatosPrueba.plan(planRepository, tipos[i % tipos.length]));
+            suscripcion.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+            suscripcion.setFechaInicio(LocalDate.now());
+            suscripcion.setProximaRenovacion(LocalDate.now().plusDays(i % 5));
+            suscripcion = suscripcionRepository.save(suscripcion);
+            suscripciones.add(suscripcion);
+
+            for (int j = 0; j < 2; j++) {
+                Factura factura = new Factura();
+                factura.setSuscripcion(suscripcion);
+                factura.setFechaEmision(LocalDate.now().minusDays(j));
+                factura.setImporte(new BigDecimal("9.99"));
+                factura.setImporteImpuesto(new BigDecimal("2.10"));
+                factura.setImporteTotal(new BigDecimal(j == 0 ? "12.09" : "120.90"));
+                factura.setEstado(j == 0 ? Factura.EstadoFactura.EMITIDA : Factura.EstadoFactura.PAGADA);
+                facturaRepository.save(factura);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Una página de facturas es una sola sentencia con 5 o con 20 filas")
+    void paginaFacturasSentenciaUnica() {
+        PaginaCursor<FacturaListado> pequena = contarSentencias(estadisticas, 1,
+                () -> facturaService.obtenerPaginaFacturas(null, null, 5));
+        PaginaCursor<FacturaListado> grande = contarSentencias(estadisticas, 1,
+                () -> facturaService.obtenerPaginaFacturas(null, null, 20));
+        PaginaCursor<FacturaListado> siguiente = contarSentencias(estadisticas, 1,
+                () -> facturaService.obtenerPaginaFacturas(grande.getSiguiente(), null, 20));
+        contarSentencias(estadisticas, 1, () -> facturaService.obtenerPaginaPendientes(null, null, 20));
+
+        assertEquals(5, pequena.getElementos().size());
+        assertEquals(20, grande.getElementos().size());
+        assertFalse(siguiente.getElementos().isEmpty());
+        // Las filas traen ya la suscripción y el plan que muestra la vista
+        assertTrue(grande.getElementos().stream().map(FacturaListado::planNombre).distinct().count() > 1);
+        assertTrue(grande.getElementos().stream().allMatch(f -> f.suscripcionId() != null));
+    }
+
+    @Test
+    @DisplayName("El filtro solo aplica los criterios informados y pagina en una sentencia por página")
+    void filtroDinamicoPaginado() {
+        LocalDate hoy = LocalDate.now();
+        FiltroFacturas pagadasAyer = new FiltroFacturas(hoy.minusDays(1), hoy.minusDays(1),
+                new BigDecimal("100.00"), null, Factura.EstadoFactura.PAGADA);
+
+        PaginaCursor<FacturaListado> primera =
+                contarSentencias(estadisticas, 1, () -> facturaService.filtrarFacturas(pagadasAyer, null, null, 5));
+        PaginaCursor<FacturaListado> segunda = contarSentencias(estadisticas, 1,
+                () -> facturaService.filtrarFacturas(pagadasAyer, primera.getSiguiente(), null, 5));
+        PaginaCursor<FacturaListado> vuelta = contarSentencias(estadisticas, 1,
+                () -> facturaService.filtrarFacturas(pagadasAyer, null, segunda.getAnterior(), 5));
+
+        assertAll(
+            () -> assertEquals(5, primera.getElementos().size()),
+            () -> assertTrue(primera.getElementos().stream().allMatch(f -> f.estado() == Factura.EstadoFactura.PAGADA
+                    && f.fechaEmision().equals(hoy.minusDays(1))
+                    && f.importeTotal().compareTo(new BigDecimal("100.00")) >= 0)),
+            () -> assertTrue(segunda.isHayAnterior()),
+            () -> assertEquals(primera.getElementos(), vuelta.getElementos())
+        );
+
+        // Sin criterios: todas las facturas, de la más reciente a la más antigua
+        PaginaCursor<FacturaListado> todas = facturaService.filtrarFacturas(
+                new FiltroFacturas(null, null, null, null, null), null, null, 200);
+        assertEquals(facturaRepository.count(), todas.getElementos().size());
+        assertEquals(hoy, todas.getElementos().get(0).fechaEmision());
+    }
+
+    @Test
+    @DisplayName("El historial de un usuario pagina en una sentencia por página y sigue al titular de la suscripción")
+    void historialUsuario() {
+        Usuario titular = usuarios.get(0);
+        Usuario nuevoTitular = usuarios.get(1);
+
+        PaginaCursor<FacturaListado> primera = contarSentencias(estadisticas, 1,
+                () -> facturaService.obtenerHistorialUsuario(titular.getId(), null, null, 1));
+        PaginaCursor<FacturaListado> segunda = contarSentencias(estadisticas, 1,
+                () -> facturaService.obtenerHistorialUsuario(titular.getId(), primera.getSiguiente(), null, 1));
+        assertAll(
+            () -> assertEquals(LocalDate.now(), primera.getElementos().get(0).fechaEmision()),
+            () -> assertEquals(LocalDate.now().minusDays(1), segunda.getElementos().get(0).fechaEmision()),
+            () -> assertTrue(primera.isHaySiguiente()),
+            () -> assertFalse(segunda.isHaySiguiente())
+        );
+
+        // Al cambiar el titular, las facturas pasan al historial del nuevo usuario
+        suscripcionService.transferirSuscripcion(suscripciones.get(0).getId(), nuevoTitular);
+
+        assertTrue(facturaService.obtenerHistorialUsuario(titular.getId(), null, null, 10).getElementos().isEmpty());
+        assertEquals(4, facturaService.obtenerHistorialUsuario(nuevoTitular.getId(), null, null, 10).getElementos().size());
+        assertTrue(facturaRepository.findByUsuarioId(nuevoTitular.getId()).stream()
+                .allMatch(f -> nuevoTitular.getId().equals(f.getUsuarioId())));
+    }
+
+    @Test
+    @DisplayName("Una factura cargada antes de transferir la suscripción no devuelve el titular anterior")
+    void transferirConFacturasCargadas() {
+        Suscripcion suscripcion = suscripciones.get(1);
+        Usuario titular = usuarios.get(1);
+        Usuario nuevoTitular = usuarios.get(2);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            Factura cargada = facturaRepository.findByUsuarioId(titular.getId()).get(0);
+            Factura otra = facturaRepository.findByUsuarioId(usuarios.get(0).getId()).get(0);
+            Suscripcion transferida = suscripcionService.transferirSuscripcion(suscripcion.getId(), nuevoTitular);
+            // Solo se refrescan las facturas de la suscripción: el resto del contexto sigue gestionado
+            assertTrue(entityManager.contains(transferida));
+            assertTrue(entityManager.contains(otra));
+            assertEquals(nuevoTitular.getId(), cargada.getUsuarioId());
+            facturaService.anularFactura(cargada.getId());
+        });
+
+        assertTrue(facturaRepository.findByUsuarioId(titular.getId()).isEmpty());
+        assertEquals(4, facturaRepository.findByUsuarioId(nuevoTitular.getId()).size());
+    }
+
+    @Test
+    @DisplayName("Listados de suscripciones (página, próximas a vencer y por estado) en una sola sentencia")
+    void listadosSuscripcionesSentenciaUnica() {
+        PaginaCursor<SuscripcionListado> pequena =
+                contarSentencias(estadisticas, 1, () -> suscripcionService.obtenerPaginaSuscripciones(null, null, 3));
+        PaginaCursor<SuscripcionListado> grande =
+                contarSentencias(estadisticas, 1, () -> suscripcionService.obtenerPaginaSuscripciones(null, null, 12));
+        contarSentencias(estadisticas, 1, () -> suscripcionService.listarProximasAVencer(7));
+        contarSentencias(estadisticas, 1,
+                () -> suscripcionService.listarPorEstado(Suscripcion.EstadoSuscripcion.ACTIVA));
+
+        assertEquals(3, pequena.getElementos().size());
+        assertEquals(12, grande.getElementos().size());
+        assertEquals(12, grande.getElementos().stream().map(SuscripcionListado::usuarioEmail).distinct().count());
+        assertEquals(3, grande.getElementos().stream().map(SuscripcionListado::planNombre).distinct().count());
+    }
+}
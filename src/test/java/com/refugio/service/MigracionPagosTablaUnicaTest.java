@@ -0,0 +1,251 @@
+package com.refugio.service;
+
+import com.refugio.JPA.*;
+import com.refugio.repository.PagoRepository;
+import com.refugio.repository.PlanRepository;
+import com.refugio.repository.SuscripcionRepository;
+import com.refugio.repository.UsuarioRepository;
+import com.refugio.service.PagoService.EstadoPago;
+import com.refugio.service.PagoService.MetodoPago;
+import com.refugio.service.PagoService.ResultadoLotePagos;
+import com.refugio.service.PagoService.SolicitudPago;
+import jakarta.persistence.EntityManager;
+import org.hibernate.envers.AuditReader;
+import org.hibernate.envers.AuditReaderFactory;
+import org.hibernate.envers.DefaultRevisionEntity;
+import org.hibernate.envers.RevisionType;
+import org.hibernate.envers.query.AuditEntity;
+import org.junit.jupiter.api.*;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// Test de la migración JOINED -> tabla única de los pagos: el primer contexto (mapeo JOINED) registra pagos y
+// ejecuta db/pagos-tabla-unica.sql; el segundo, con META-INF/pagos-tabla-unica.xml y ddl-auto=validate sobre la
+// misma BD, comprueba que el esquema encaja y que pagos e historial se leen igual (H2)
+@TestClassOrder(ClassOrderer.OrderAnnotation.class)
+class MigracionPagosTablaUnicaTest {
+
+    private static final String URL_BD = "jdbc:h2:mem:migracion-pagos;DB_CLOSE_DELAY=-1";
+
+    // Lo que se leía con el esquema JOINED, para compararlo tras la migración
+    private static final List<String> pagosAntes = new ArrayList<>();
+    private static final List<String> historialAntes = new ArrayList<>();
+    private static final List<String> cambiosMarcaAntes = new ArrayList<>();
+    private static Suscripcion suscripcion;
+
+    @Nested
+    @Order(1)
+    @DataJpaTest(properties = "spring.datasource.url=" + URL_BD)
+    @AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+    @Import({PagoService.class, EstadisticaFacturacionService.class, FacturaService.class, ImpuestoService.class})
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    class EsquemaJoined extends Comun {
+
+        @Autowired
+        private DataSource dataSource;
+
+        @Autowired
+        private UsuarioRepository usuarioRepository;
+
+        @Autowired
+        private PlanRepository planRepository;
+
+        @Autowired
+        private SuscripcionRepository suscripcionRepository;
+
+        @Test
+        @DisplayName("Con el esquema JOINED se registran, modifican y borran pagos y el script los migra")
+        void registrarYMigrar() {
+            Usuario usuario = new Usuario();
+            usuario.setEmail("migracion-" + System.nanoTime() + "@test.com");
+            usuario.setPasswordHash("hash");
+            usuario = usuarioRepository.save(usuario);
+            Plan plan = new Plan();
+            plan.setTipo(Plan.TipoPlan.BASIC);
+            plan.setNombre("Plan Básico");
+            plan.setPrecioMensual(new BigDecimal("9.99"));
+            plan = planRepository.save(plan);
+            Suscripcion nueva = new Suscripcion();
+            nueva.setUsuario(usuario);
+            nueva.setPlan(plan);
+            nueva.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+            nueva.setFechaInicio(LocalDate.now());
+            suscripcion = suscripcionRepository.save(nueva);
+
+            ResultadoLotePagos resultado = registrarUnoDeCadaTipo();
+            assertEquals(3, resultado.getRegistrados());
+            Long tarjetaId = resultado.getResultados().get(0).getPagoId();
+            Long paypalFacturaId = resultado.getResultados().get(1).getFacturaId();
+
+            transactionTemplate.executeWithoutResult(status ->
+                    entityManager.find(PagoTarjeta.class, tarjetaId).setMarca("MASTERCARD"));
+            // orphanRemoval de Factura.pago: revisión de borrado del pago PayPal
+            transactionTemplate.executeWithoutResult(status ->
+                    entityManager.find(Factura.class, paypalFacturaId).setPago(null));
+            registrarUnoDeCadaTipo();
+
+            pagosAntes.addAll(describirPagos());
+            historialAntes.addAll(describirHistorial());
+            cambiosMarcaAntes.addAll(describirCambiosMarca());
+            assertEquals(5, pagosAntes.size());
+            assertTrue(historialAntes.stream().anyMatch(h -> h.contains(RevisionType.DEL.name())));
+            assertEquals(1, cambiosMarcaAntes.size());
+
+            new ResourceDatabasePopulator(new ClassPathResource("db/pagos-tabla-unica.sql")).execute(dataSource);
+
+            assertEquals(0, contar("SELECT COUNT(*) FROM INFORMATION_SCHEMA.TABLES "
+                    + "WHERE LOWER(TABLE_NAME) LIKE 'pagos\\_%' ESCAPE '\\' AND LOWER(TABLE_NAME) <> 'pagos_aud' "
+                    + "AND LOWER(TABLE_NAME) <> 'pagos_seq'"));
+            assertEquals(5, contar("SELECT COUNT(*) FROM pagos WHERE tipo_pago IS NOT NULL"));
+            assertEquals(2, contar("SELECT COUNT(*) FROM pagos WHERE tipo_pago = 'TARJETA' AND marca IS NOT NULL"));
+        }
+    }
+
+    @Nested
+    @Order(2)
+    @DataJpaTest(properties = {
+            "spring.datasource.url=" + URL_BD,
+            "spring.jpa.hibernate.ddl-auto=validate",
+            "spring.jpa.mapping-resources=META-INF/pagos-tabla-unica.xml"
+    })
+    @AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+    @Import({PagoService.class, EstadisticaFacturacionService.class, FacturaService.class, ImpuestoService.class})
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    class TablaUnica extends Comun {
+
+        @Test
+        @DisplayName("Con el mapeo de tabla única los pagos migrados y su historial se leen igual")
+        void leerTrasMigrar() {
+            assumeTrue(!pagosAntes.isEmpty(), "Requiere la migración del contexto JOINED");
+
+            assertEquals(pagosAntes, describirPagos());
+            assertEquals(historialAntes, describirHistorial());
+            assertEquals(cambiosMarcaAntes, describirCambiosMarca());
+
+            // Los pagos nuevos escriben el discriminador y siguen la secuencia
+            ResultadoLotePagos resultado = registrarUnoDeCadaTipo();
+            assertEquals(3, resultado.getRegistrados());
+            assertEquals(List.of("PAYPAL", "TARJETA", "TRANSFERENCIA"), resultado.getResultados().stream()
+                    .map(r -> (String) entityManager.createNativeQuery("SELECT tipo_pago FROM pagos WHERE id = :id")
+                            .setParameter("id", r.getPagoId())
+                            .getSingleResult())
+                    .sorted()
+                    .toList());
+            assertEquals(8, pagoRepository.count());
+            Long tarjetas = transactionTemplate.execute(status -> entityManager
+                    .createQuery("SELECT COUNT(p) FROM Pago p WHERE TYPE(p) = PagoTarjeta", Long.class)
+                    .getSingleResult());
+            assertEquals(3L, tarjetas);
+        }
+    }
+
+    abstract static class Comun {
+
+        @Autowired
+        protected PagoService pagoService;
+
+        @Autowired
+        protected FacturaService facturaService;
+
+        @Autowired
+        protected PagoRepository pagoRepository;
+
+        @Autowired
+        protected TransactionTemplate transactionTemplate;
+
+        @Autowired
+        protected EntityManager entityManager;
+
+        protected ResultadoLotePagos registrarUnoDeCadaTipo() {
+            Factura tarjeta = facturaService.generarFactura(suscripcion);
+            Factura paypal = facturaService.generarFactura(suscripcion);
+            Factura transferencia = facturaService.generarFactura(suscripcion);
+            ResultadoLotePagos resultado = pagoService.registrarPagos(List.of(
+                    new SolicitudPago(tarjeta.getId(), null, MetodoPago.TARJETA, tarjeta.getImporteTotal(), null,
+                            "4242", "VISA", null, null, null),
+                    new SolicitudPago(paypal.getId(), null, MetodoPago.PAYPAL, paypal.getImporteTotal(), null,
+                            null, null, "cliente@test.com", "TX-" + paypal.getId(), null),
+                    new SolicitudPago(transferencia.getId(), "ref-" + transferencia.getId(),
+                            MetodoPago.TRANSFERENCIA, transferencia.getImporteTotal(), null, null, null, null, null,
+                            "ES9121000418450200051332")));
+            assertTrue(resultado.getResultados().stream().allMatch(r -> r.getEstado() == EstadoPago.REGISTRADO));
+            return resultado;
+        }
+
+        // Id, tipo y datos de cada pago en una lectura polimórfica
+        protected List<String> describirPagos() {
+            return transactionTemplate.execute(status -> entityManager
+                    .createQuery("SELECT p FROM Pago p ORDER BY p.id", Pago.class)
+                    .getResultList().stream()
+                    .map(Comun::describir)
+                    .toList());
+        }
+
+        // Revisión, tipo de cambio y datos de cada versión de los pagos
+        protected List<String> describirHistorial() {
+            return transactionTemplate.execute(status -> {
+                AuditReader auditReader = AuditReaderFactory.get(entityManager);
+                List<?> versiones = auditReader.createQuery()
+                        .forRevisionsOfEntity(Pago.class, false, true)
+                        .addOrder(AuditEntity.revisionNumber().asc())
+                        .addOrder(AuditEntity.id().asc())
+                        .getResultList();
+                return versiones.stream()
+                        .map(v -> (Object[]) v)
+                        .map(v -> ((DefaultRevisionEntity) v[1]).getId() + " " + v[2] + " "
+                                + (v[2] == RevisionType.DEL ? "" : describir((Pago) v[0])))
+                        .toList();
+            });
+        }
+
+        // Revisiones en las que el indicador _MOD marca la marca de tarjeta como cambiada
+        protected List<String> describirCambiosMarca() {
+            return transactionTemplate.execute(status -> {
+                List<?> versiones = AuditReaderFactory.get(entityManager).createQuery()
+                        .forRevisionsOfEntity(PagoTarjeta.class, true, false)
+                        .add(AuditEntity.property("marca").hasChanged())
+                        .add(AuditEntity.property("importe").hasNotChanged())
+                        .getResultList();
+                return versiones.stream()
+                        .map(v -> (PagoTarjeta) v)
+                        .sorted(Comparator.comparing(PagoTarjeta::getId))
+                        .map(Comun::describir)
+                        .toList();
+            });
+        }
+
+        protected long contar(String sql) {
+            return transactionTemplate.execute(status ->
+                    ((Number) entityManager.createNativeQuery(sql).getSingleResult()).longValue());
+        }
+
+        private static String describir(Pago pago) {
+            String datos = "";
+            if (pago instanceof PagoTarjeta tarjeta) {
+                datos = tarjeta.getUltimos4() + " " + tarjeta.getMarca();
+            } else if (pago instanceof PagoPaypal paypal) {
+                datos = paypal.getPaypalEmail() + " " + paypal.getTransaccionId();
+            } else if (pago instanceof PagoTransferencia transferencia) {
+                datos = transferencia.getIban() + " " + transferencia.getReferencia();
+            }
+            return pago.getId() + " " + pago.getClass().getSimpleName() + " " + pago.getImporte() + " " + datos;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.refugio.service;
+
+import com.refugio.JPA.*;
+import com.refugio.repository.FacturaRepository;
+import com.refugio.repository.PagoRepository;
+import com.refugio.repository.PlanRepository;
+import com.refugio.repository.SuscripcionRepository;
+import com.refugio.repository.UsuarioRepository;
+import com.refugio.service.PagoService.EstadoPago;
+import com.refugio.service.PagoService.MetodoPago;
+import com.refugio.service.PagoService.ResultadoLotePagos;
+import com.refugio.service.PagoService.SolicitudPago;
+import jakarta.persistence.EntityManager;
+import org.hibernate.envers.AuditReaderFactory;
+import org.hibernate.envers.query.AuditEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Test para PagoService - pagos por lotes casados con sus facturas, UPDATE por conjunto y auditoría (H2)
+@DataJpaTest
+@Import({PagoService.class, EstadisticaFacturacionService.class, FacturaService.class, ImpuestoService.class})
+@TestPropertySource(properties = "refugio.pagos.tamano-lote=3")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PagoServiceTest {
+
+    @Autowired
+    private PagoService pagoService;
+
+    @Autowired
+    private FacturaService facturaService;
+
+    @Autowired
+    private EstadisticaFacturacionService estadisticaFacturacionService;
+
+    @Autowired
+    private FacturaRepository facturaRepository;
+
+    @Autowired
+    private PagoRepository pagoRepository;
+
+    @Autowired
+    private SuscripcionRepository suscripcionRepository;
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private Suscripcion suscripcion;
+
+    @BeforeEach
+    void setUp() {
+        Usuario usuario = new Usuario();
+        usuario.setEmail("pagos-" + System.nanoTime() + "@test.com");
+        usuario.setPasswordHash("hash");
+        usuario = usuarioRepository.save(usuario);
+
+        Plan plan = DatosPrueba.plan(planRepository, Plan.TipoPlan.BASIC);
+
+        suscripcion = new Suscripcion();
+        suscripcion.setUsuario(usuario);
+        suscripcion.setPlan(plan);
+        suscripcion.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+        suscripcion.setFechaInicio(LocalDate.now());
+        suscripcion = suscripcionRepository.save(suscripcion);
+
+        estadisticaFacturacionService.reconciliar();
+    }
+
+    @Test
+    @DisplayName("Cada pago del lote recibe su resultado y solo los válidos pagan su factura")
+    void resultadoPorPago() {
+        List<Factura> facturas = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            facturas.add(facturaService.generarFactura(suscripcion));
+        }
+        facturaService.anularFactura(facturas.get(4).getId());
+        pagoService.pagarFactura(facturas.get(5).getId());
+        EstadisticaFacturacionService.ResumenFacturacion antes = estadisticaFacturacionService.obtenerResumen();
+
+        List<SolicitudPago> solicitudes = List.of(
+                tarjeta(facturas.get(0).getId(), null, total(facturas.get(0))),
+                paypal(PagoService.referencia(facturas.get(1).getId()), total(facturas.get(1))),
+                transferencia("fac-" + facturas.get(2).getId(), total(facturas.get(2))),
+                tarjeta(facturas.get(0).getId(), null, total(facturas.get(0))),
+                tarjeta(facturas.get(3).getId(), null, total(facturas.get(3)).add(BigDecimal.ONE)),
+                tarjeta(facturas.get(4).getId(), null, total(facturas.get(4))),
+                tarjeta(facturas.get(5).getId(), null, total(facturas.get(5))),
+                tarjeta(Long.MAX_VALUE, null, BigDecimal.TEN),
+                tarjeta(facturas.get(3).getId(), PagoService.referencia(facturas.get(2).getId()), BigDecimal.TEN),
+                new SolicitudPago(null, "sin-referencia", MetodoPago.TARJETA, BigDecimal.TEN,
+                        null, null, null, null, null, null),
+                // Un número suelto en el concepto no identifica la factura: solo vale la referencia FAC-
+                transferencia(String.valueOf(facturas.get(3).getId()), total(facturas.get(3)))
+        );
+
+        ResultadoLotePagos resultado = pagoService.registrarPagos(solicitudes);
+
+        assertEquals(List.of(EstadoPago.REGISTRADO, EstadoPago.REGISTRADO, EstadoPago.REGISTRADO,
+                        EstadoPago.DUPLICADO, EstadoPago.IMPORTE_NO_COINCIDE, EstadoPago.FACTURA_ANULADA,
+                        EstadoPago.FACTURA_YA_PAGADA, EstadoPago.FACTURA_NO_ENCONTRADA,
+                        EstadoPago.DATOS_NO_VALIDOS, EstadoPago.DATOS_NO_VALIDOS, EstadoPago.DATOS_NO_VALIDOS),
+                resultado.getResultados().stream().map(PagoService.ResultadoPago::getEstado).toList());
+        assertEquals(3, resultado.getRegistrados());
+        assertEquals(3, resultado.getLotes());
+        for (int i = 0; i < resultado.getResultados().size(); i++) {
+            assertEquals(i, resultado.getResultados().get(i).getPosicion());
+        }
+
+        for (int i = 0; i < 3; i++) {
+            Long facturaId = facturas.get(i).getId();
+            Pago pago = pagoRepository.findById(resultado.getResultados().get(i).getPagoId()).orElseThrow();
+            assertEquals(facturaId, resultado.getResultados().get(i).getFacturaId());
+            assertEquals(Factura.EstadoFactura.PAGADA, facturaRepository.findById(facturaId).orElseThrow().getEstado());
+            assertEquals(0, total(facturas.get(i)).compareTo(pago.getImporte()));
+            assertNotNull(pago.getFechaPago());
+        }
+        assertInstanceOf(PagoTarjeta.class, pagoRepository.findByFacturaId(facturas.get(0).getId()).orElseThrow());
+        assertInstanceOf(PagoPaypal.class, pagoRepository.findByFacturaId(facturas.get(1).getId()).orElseThrow());
+        PagoTransferencia transferencia = (PagoTransferencia) pagoRepository
+                .findByFacturaId(facturas.get(2).getId()).orElseThrow();
+        assertEquals("fac-" + facturas.get(2).getId(), transferencia.getReferencia());
+        assertEquals(Factura.EstadoFactura.EMITIDA,
+                facturaRepository.findById(facturas.get(3).getId()).orElseThrow().getEstado());
+        assertTrue(pagoRepository.findByFacturaId(facturas.get(3).getId()).isEmpty());
+
+        // Estadísticas por deltas en bloque, sin deriva respecto al recuento completo
+        EstadisticaFacturacionService.ResumenFacturacion despues = estadisticaFacturacionService.obtenerResumen();
+        assertEquals(antes.getFacturasPagadas() + 3, despues.getFacturasPagadas());
+        assertEquals(antes.getFacturasPendientes() - 3, despues.getFacturasPendientes());
+        assertEquals(0, estadisticaFacturacionService.reconciliar());
+    }
+
+    @Test
+    @DisplayName("El UPDATE por conjunto deja en _AUD el cambio de estado de cada factura en la revisión del pago")
+    void auditoriaDelLote() {
+        Factura factura = facturaService.generarFactura(suscripcion);
+        ResultadoLotePagos resultado = pagoService.registrarPagos(
+                List.of(tarjeta(factura.getId(), null, total(factura))));
+        Long pagoId = resultado.getResultados().get(0).getPagoId();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            var auditReader = AuditReaderFactory.get(entityManager);
+            List<?> cambiosEstado = auditReader.createQuery()
+                    .forRevisionsOfEntity(Factura.class, false, true)
+                    .add(AuditEntity.id().eq(factura.getId()))
+                    .add(AuditEntity.property("estado").hasChanged())
+                    .add(AuditEntity.property("importeTotal").hasNotChanged())
+                    .getResultList();
+            // Solo la revisión del pago: el alta también marca importeTotal como modificado
+            assertEquals(1, cambiosEstado.size());
+
+            Number revisionFactura = (Number) auditReader.createQuery()
+                    .forRevisionsOfEntity(Factura.class, false, true)
+                    .addProjection(AuditEntity.revisionNumber().max())
+                    .add(AuditEntity.id().eq(factura.getId()))
+                    .getSingleResult();
+            Number revisionPago = (Number) auditReader.createQuery()
+                    .forRevisionsOfEntity(Pago.class, false, true)
+                    .addProjection(AuditEntity.revisionNumber().max())
+                    .add(AuditEntity.id().eq(pagoId))
+                    .getSingleResult();
+            assertEquals(revisionPago.longValue(), revisionFactura.longValue());
+            assertEquals(Factura.EstadoFactura.PAGADA,
+                    auditReader.find(Factura.class, factura.getId(), revisionFactura).getEstado());
+        });
+    }
+
+    @Test
+    @DisplayName("El pago de una factura desde facturación deja su Pago por el importe total")
+    void pagarFactura() {
+        Factura factura = facturaService.generarFactura(suscripcion);
+
+        PagoService.ResultadoPago resultado = pagoService.pagarFactura(factura.getId());
+
+        assertEquals(EstadoPago.REGISTRADO, resultado.getEstado());
+        PagoTransferencia pago = (PagoTransferencia) pagoRepository.findById(resultado.getPagoId()).orElseThrow();
+        assertEquals(0, total(factura).compareTo(pago.getImporte()));
+        assertEquals(PagoService.referencia(factura.getId()), pago.getReferencia());
+        assertEquals(Factura.EstadoFactura.PAGADA,
+                facturaRepository.findById(factura.getId()).orElseThrow().getEstado());
+        assertEquals(EstadoPago.FACTURA_YA_PAGADA, pagoService.pagarFactura(factura.getId()).getEstado());
+        assertEquals(EstadoPago.FACTURA_NO_ENCONTRADA, pagoService.pagarFactura(Long.MAX_VALUE).getEstado());
+        assertEquals(0, estadisticaFacturacionService.reconciliar());
+    }
+
+    @Test
+    @DisplayName("Una factura ya pagada en una llamada anterior no admite un segundo pago")
+    void segundaLlamada() {
+        Factura factura = facturaService.generarFactura(suscripcion);
+        SolicitudPago solicitud = tarjeta(factura.getId(), null, total(factura));
+
+        assertEquals(EstadoPago.REGISTRADO,
+                pagoService.registrarPagos(List.of(solicitud)).getResultados().get(0).getEstado());
+        assertEquals(EstadoPago.FACTURA_YA_PAGADA,
+                pagoService.registrarPagos(List.of(solicitud)).getResultados().get(0).getEstado());
+        assertEquals(1, pagoRepository.findAll().stream()
+                .filter(p -> p.getFactura().getId().equals(factura.getId())).count());
+    }
+
+    private static BigDecimal total(Factura factura) {
+        return factura.getImporteTotal();
+    }
+
+    private static SolicitudPago tarjeta(Long facturaId, String referencia, BigDecimal importe) {
+        return new SolicitudPago(facturaId, referencia, MetodoPago.TARJETA, importe, null, "4242", "VISA",
+                null, null, null);
+    }
+
+    private static SolicitudPago paypal(String referencia, BigDecimal importe) {
+        return new SolicitudPago(null, referencia, MetodoPago.PAYPAL, importe, null, null, null,
+                "cliente@test.com", "TX-1", null);
+    }
+
+    private static SolicitudPago transferencia(String referencia, BigDecimal importe) {
+        return new SolicitudPago(null, referencia, MetodoPago.TRANSFERENCIA, importe, null, null, null,
+                null, null, "ES9121000418450200051332");
+    }
+}
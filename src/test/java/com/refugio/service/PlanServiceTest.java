@@ -0,0 +1,126 @@
+package com.refugio.service;
+
+import com.refugio.JPA.Plan;
+import com.refugio.repository.PlanRepository;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.jpa.HibernateHints;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.util.function.Supplier;
+
+import static com.refugio.service.DatosPrueba.contarSentencias;
+import static org.junit.jupiter.api.Assertions.*;
+
+// Test de la caché de segundo nivel de planes: aciertos, actualización e invalidación (H2)
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+@Import(PlanService.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PlanServiceTest {
+
+    @Autowired
+    private PlanService planService;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics estadisticas;
+    private Plan plan;
+
+    @BeforeEach
+    void setUp() {
+        estadisticas = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        plan = DatosPrueba.plan(planRepository, Plan.TipoPlan.PREMIUM);
+        planService.invalidarCache();
+    }
+
+    @Test
+    @DisplayName("Las lecturas repetidas de un plan se sirven desde la caché sin ir a la base de datos")
+    void lecturasDesdeCache() {
+        contarSentencias(estadisticas, 1, () -> planService.obtenerPlanPorTipo(Plan.TipoPlan.PREMIUM));
+        contarSentencias(estadisticas, 0, () -> planService.obtenerPlanPorTipo(Plan.TipoPlan.PREMIUM));
+        contarSentencias(estadisticas, 1, () -> planService.obtenerPlanes());
+        contarSentencias(estadisticas, 0, () -> planService.obtenerPlanes());
+
+        planService.invalidarCache();
+        contarSentencias(estadisticas, 1, () -> planService.obtenerPlan(plan.getId()));
+        Plan cacheado = contarSentencias(estadisticas, 0, () -> planService.obtenerPlan(plan.getId()));
+        assertEquals(plan.getNombre(), cacheado.getNombre());
+
+        PlanService.EstadisticasCache cache = planService.obtenerEstadisticasCache();
+        assertTrue(cache.isHabilitadas());
+        assertEquals(1, cache.getAciertos());
+        assertEquals(100.0, cache.getTasaAciertos());
+    }
+
+    @Test
+    @DisplayName("Actualizar un plan refresca la caché y las consultas cacheadas")
+    void actualizarRefrescaCache() {
+        planService.obtenerPlan(plan.getId());
+        planService.obtenerPlanPorTipo(Plan.TipoPlan.PREMIUM);
+
+        planService.actualizarPlan(plan.getId(), "Premium renovado", new BigDecimal("24.99"));
+
+        Plan porId = contarSentencias(estadisticas, 0, () -> planService.obtenerPlan(plan.getId()));
+        Plan porTipo = planService.obtenerPlanPorTipo(Plan.TipoPlan.PREMIUM);
+        assertAll(
+            () -> assertEquals("Premium renovado", porId.getNombre()),
+            () -> assertEquals(0, new BigDecimal("24.99").compareTo(porId.getPrecioMensual())),
+            () -> assertEquals(0, new BigDecimal("24.99").compareTo(porTipo.getPrecioMensual()))
+        );
+    }
+
+    @Test
+    @DisplayName("Invalidar la caché obliga a volver a leer el plan")
+    void invalidarCache() {
+        planService.obtenerPlan(plan.getId());
+        contarSentencias(estadisticas, 0, () -> planService.obtenerPlan(plan.getId()));
+
+        planService.invalidarCache();
+
+        contarSentencias(estadisticas, 1, () -> planService.obtenerPlan(plan.getId()));
+    }
+
+    @Test
+    @DisplayName("Invalidar la caché de planes no vacía las demás consultas cacheadas")
+    void invalidarSoloConsultasDePlanes() {
+        Supplier<Long> usuarios = () -> {
+            EntityManager entityManager = entityManagerFactory.createEntityManager();
+            try {
+                return entityManager.createQuery("SELECT COUNT(u) FROM Usuario u", Long.class)
+                        .setHint(HibernateHints.HINT_CACHEABLE, true)
+                        .getSingleResult();
+            } finally {
+                entityManager.close();
+            }
+        };
+        usuarios.get();
+        planService.obtenerPlanes();
+        contarSentencias(estadisticas, 0, usuarios);
+
+        planService.invalidarCache();
+
+        contarSentencias(estadisticas, 0, usuarios);
+        contarSentencias(estadisticas, 1, () -> planService.obtenerPlanes());
+    }
+
+    @Test
+    @DisplayName("Rechaza precios negativos")
+    void precioNegativo() {
+        assertThrows(IllegalArgumentException.class,
+                () -> planService.actualizarPlan(plan.getId(), null, new BigDecimal("-1")));
+    }
+}
@@ -0,0 +1,241 @@
+package com.refugio.service;
+
+import com.refugio.JPA.*;
+import com.refugio.repository.FacturaRepository;
+import com.refugio.repository.PlanRepository;
+import com.refugio.repository.SuscripcionRepository;
+import com.refugio.repository.UsuarioRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+
+// Test para RecalculoImpuestoService - recálculo masivo por lotes (H2)
+@DataJpaTest
+@Import({RecalculoImpuestoService.class, ImpuestoService.class, EstadisticaFacturacionService.class,
+        PagoService.class})
+@TestPropertySource(properties = "refugio.recalculo-impuestos.tamano-lote=2")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class RecalculoImpuestoServiceTest {
+
+    @Autowired
+    private RecalculoImpuestoService recalculoImpuestoService;
+
+    @Autowired
+    private PagoService pagoService;
+
+    @SpyBean
+    private ImpuestoService impuestoService;
+
+    @Autowired
+    private EstadisticaFacturacionService estadisticaFacturacionService;
+
+    @Autowired
+    private FacturaRepository facturaRepository;
+
+    @Autowired
+    private SuscripcionRepository suscripcionRepository;
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    private Suscripcion suscripcion;
+
+    @BeforeEach
+    void setUp() {
+        Usuario usuario = new Usuario();
+        usuario.setEmail("recalculo-" + System.nanoTime() + "@test.com");
+        usuario.setPasswordHash("hash");
+        usuario = usuarioRepository.save(usuario);
+
+        Plan plan = DatosPrueba.plan(planRepository, Plan.TipoPlan.BASIC);
+
+        suscripcion = new Suscripcion();
+        suscripcion.setUsuario(usuario);
+        suscripcion.setPlan(plan);
+        suscripcion.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+        suscripcion.setFechaInicio(LocalDate.now());
+        suscripcion = suscripcionRepository.save(suscripcion);
+    }
+
+    // Factura de 100.00 con un 10% de impuesto (mal calculado a propósito)
+    private Factura crearFactura(String pais, LocalDate fechaEmision, Factura.EstadoFactura estado) {
+        Factura factura = new Factura();
+        factura.setSuscripcion(suscripcion);
+        factura.setFechaEmision(fechaEmision);
+        factura.setImporte(new BigDecimal("100.00"));
+        factura.setImporteImpuesto(new BigDecimal("10.00"));
+        factura.setImporteTotal(new BigDecimal("110.00"));
+        factura.setTasaImpuesto(new BigDecimal("10.00"));
+        factura.setPaisImpuesto(pais);
+        factura.setEstado(estado);
+        return facturaRepository.save(factura);
+    }
+
+    private RecalculoImpuestoService.ProgresoRecalculo esperar(RecalculoImpuestoService.ProgresoRecalculo progreso)
+            throws InterruptedException {
+        long limite = System.currentTimeMillis() + 10_000;
+        while (!progreso.isTerminado() && System.currentTimeMillis() < limite) {
+            Thread.sleep(20);
+        }
+        assertTrue(progreso.isTerminado(), "El recálculo no terminó a tiempo");
+        return progreso;
+    }
+
+    @Test
+    @DisplayName("Recalcula por lotes las facturas emitidas del país con la tasa de su fecha")
+    void recalcularPorPais() throws InterruptedException {
+        Factura actual = crearFactura("ES", LocalDate.now(), Factura.EstadoFactura.EMITIDA);
+        Factura de2011 = crearFactura("ES", LocalDate.of(2011, 5, 1), Factura.EstadoFactura.EMITIDA);
+        Factura otraActual = crearFactura("ES", LocalDate.now().minusDays(3), Factura.EstadoFactura.EMITIDA);
+        Factura pagada = crearFactura("ES", LocalDate.now(), Factura.EstadoFactura.PAGADA);
+        Factura alemana = crearFactura("DE", LocalDate.now(), Factura.EstadoFactura.EMITIDA);
+
+        RecalculoImpuestoService.ProgresoRecalculo progreso =
+                esperar(recalculoImpuestoService.iniciarRecalculo("es", null, null));
+
+        assertEquals(RecalculoImpuestoService.EstadoRecalculo.COMPLETADO, progreso.getEstado());
+        assertTrue(progreso.getProcesadas() >= 3);
+        assertEquals(progreso.getProcesadas(), progreso.getTotal());
+        assertTrue(progreso.getLotes() >= 2);
+
+        Factura recalculada = facturaRepository.findById(actual.getId()).orElseThrow();
+        assertEquals(0, new BigDecimal("21.00").compareTo(recalculada.getImporteImpuesto()));
+        assertEquals(0, new BigDecimal("121.00").compareTo(recalculada.getImporteTotal()));
+        assertEquals(0, new BigDecimal("21.00").compareTo(recalculada.getTasaImpuesto()));
+
+        assertEquals(0, new BigDecimal("18.00").compareTo(
+                facturaRepository.findById(de2011.getId()).orElseThrow().getImporteImpuesto()));
+        assertEquals(0, new BigDecimal("21.00").compareTo(
+                facturaRepository.findById(otraActual.getId()).orElseThrow().getImporteImpuesto()));
+        assertEquals(0, new BigDecimal("10.00").compareTo(
+                facturaRepository.findById(pagada.getId()).orElseThrow().getImporteImpuesto()));
+        assertEquals(0, new BigDecimal("10.00").compareTo(
+                facturaRepository.findById(alemana.getId()).orElseThrow().getImporteImpuesto()));
+    }
+
+    @Test
+    @DisplayName("El rango de fechas limita las facturas recalculadas")
+    void recalcularPorRango() throws InterruptedException {
+        Factura dentro = crearFactura("PT", LocalDate.of(2020, 3, 10), Factura.EstadoFactura.EMITIDA);
+        Factura fuera = crearFactura("PT", LocalDate.of(2020, 5, 10), Factura.EstadoFactura.EMITIDA);
+
+        RecalculoImpuestoService.ProgresoRecalculo progreso = esperar(recalculoImpuestoService.iniciarRecalculo(
+                "PT", LocalDate.of(2020, 3, 1), LocalDate.of(2020, 3, 31)));
+
+        assertEquals(1, progreso.getTotal());
+        assertEquals(1, progreso.getModificadas());
+        assertEquals(0, new BigDecimal("13.00").compareTo(progreso.getDiferenciaImpuesto()));
+        assertEquals(0, new BigDecimal("23.00").compareTo(
+                facturaRepository.findById(dentro.getId()).orElseThrow().getImporteImpuesto()));
+        assertEquals(0, new BigDecimal("10.00").compareTo(
+                facturaRepository.findById(fuera.getId()).orElseThrow().getImporteImpuesto()));
+    }
+
+    @Test
+    @DisplayName("Una factura pagada durante el lote sigue pagada y con el impuesto recalculado")
+    void pagoDuranteElLote() throws Exception {
+        LocalDate fecha = LocalDate.of(2019, 7, 15);
+        Factura factura = crearFactura("ES", fecha, Factura.EstadoFactura.EMITIDA);
+        estadisticaFacturacionService.reconciliar();
+
+        // El pago llega con el lote ya leído y antes del flush; debe esperar al commit del recálculo
+        AtomicReference<CompletableFuture<PagoService.ResultadoPago>> pago = new AtomicReference<>();
+        AtomicBoolean pagoBloqueado = new AtomicBoolean();
+        doAnswer(invocacion -> {
+            if (pago.get() == null) {
+                pago.set(CompletableFuture.supplyAsync(() -> pagoService.pagarFactura(factura.getId())));
+                Thread.sleep(300);
+                pagoBloqueado.set(!pago.get().isDone());
+            }
+            return invocacion.callRealMethod();
+        }).when(impuestoService).calcularDetalleImpuesto(any(), eq("ES"), eq(fecha));
+
+        RecalculoImpuestoService.ProgresoRecalculo progreso =
+                new RecalculoImpuestoService.ProgresoRecalculo(98L, "ES", fecha, fecha, 1);
+        recalculoImpuestoService.ejecutar(progreso);
+        PagoService.ResultadoPago resultadoPago = pago.get().get(10, TimeUnit.SECONDS);
+
+        assertEquals(RecalculoImpuestoService.EstadoRecalculo.COMPLETADO, progreso.getEstado());
+        assertTrue(pagoBloqueado.get(), "El pago no esperó al lote del recálculo");
+        assertEquals(PagoService.EstadoPago.REGISTRADO, resultadoPago.getEstado());
+        Factura resultado = facturaRepository.findById(factura.getId()).orElseThrow();
+        assertEquals(Factura.EstadoFactura.PAGADA, resultado.getEstado());
+        assertEquals(0, new BigDecimal("21.00").compareTo(resultado.getImporteImpuesto()));
+        assertEquals(0, new BigDecimal("121.00").compareTo(resultado.getImporteTotal()));
+        assertEquals(0, estadisticaFacturacionService.reconciliar());
+    }
+
+    @Test
+    @DisplayName("Un lote que falla no cuenta en el progreso")
+    void loteFallidoNoCuenta() {
+        LocalDate fecha = LocalDate.of(2019, 3, 1);
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            ids.add(crearFactura("IT", fecha.plusDays(i), Factura.EstadoFactura.EMITIDA).getId());
+        }
+        // El segundo lote recalcula su primera factura y falla en la segunda; se deshace entero
+        doThrow(new IllegalStateException("tabla de tasas no disponible"))
+                .when(impuestoService).calcularDetalleImpuesto(any(), eq("IT"), eq(fecha.plusDays(3)));
+
+        RecalculoImpuestoService.ProgresoRecalculo progreso =
+                new RecalculoImpuestoService.ProgresoRecalculo(97L, "IT", fecha, fecha.plusDays(3), 4);
+        recalculoImpuestoService.ejecutar(progreso);
+
+        assertEquals(RecalculoImpuestoService.EstadoRecalculo.FALLIDO, progreso.getEstado());
+        assertEquals(1, progreso.getLotes());
+        assertEquals(2, progreso.getProcesadas());
+        assertEquals(2, progreso.getModificadas());
+        assertEquals(2, facturaRepository.findAllById(ids).stream()
+                .filter(f -> f.getImporteImpuesto().compareTo(new BigDecimal("10.00")) != 0).count());
+    }
+
+    @Test
+    @DisplayName("Un recálculo cancelado no modifica más facturas")
+    void cancelarRecalculo() {
+        Factura factura = crearFactura("IT", LocalDate.now(), Factura.EstadoFactura.EMITIDA);
+        RecalculoImpuestoService.ProgresoRecalculo progreso =
+                new RecalculoImpuestoService.ProgresoRecalculo(99L, "IT", null, null, 1);
+
+        progreso.solicitarCancelacion();
+        recalculoImpuestoService.ejecutar(progreso);
+
+        assertEquals(RecalculoImpuestoService.EstadoRecalculo.CANCELADO, progreso.getEstado());
+        assertEquals(0, progreso.getProcesadas());
+        assertEquals(0, new BigDecimal("10.00").compareTo(
+                facturaRepository.findById(factura.getId()).orElseThrow().getImporteImpuesto()));
+    }
+
+    @Test
+    @DisplayName("El país es obligatorio y el rango debe ser coherente")
+    void validarParametros() {
+        assertThrows(IllegalArgumentException.class,
+                () -> recalculoImpuestoService.iniciarRecalculo(" ", null, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> recalculoImpuestoService.iniciarRecalculo("ES", LocalDate.of(2024, 2, 1), LocalDate.of(2024, 1, 1)));
+    }
+}
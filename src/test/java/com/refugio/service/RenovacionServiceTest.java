@@ -0,0 +1,245 @@
+package com.refugio.service;
+
+import com.refugio.JPA.*;
+import com.refugio.repository.SuscripcionRepository;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+// Test para RenovacionService - pipeline de renovación por lotes
+@ExtendWith(MockitoExtension.class)
+class RenovacionServiceTest {
+
+    @Mock
+    private SuscripcionRepository suscripcionRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private EjecucionFacturacionService ejecucionFacturacionService;
+
+    @Mock
+    private EstadisticaFacturacionService estadisticaFacturacionService;
+
+    private RenovacionService renovacionService;
+
+    private final LocalDate hoy = LocalDate.now();
+
+    @BeforeEach
+    void setUp() {
+        FacturaService facturaService = new FacturaService(null, new ImpuestoService(), estadisticaFacturacionService);
+        renovacionService = new RenovacionService(suscripcionRepository, facturaService,
+                new TransactionTemplate(transactionManager), ejecucionFacturacionService,
+                estadisticaFacturacionService, 2, 1);
+        ReflectionTestUtils.setField(renovacionService, "entityManager", entityManager);
+    }
+
+    // Simula el diario: una ejecución con las particiones indicadas y sus marcas de agua
+    private void prepararEjecucion(int particiones, long... marcas) {
+        EjecucionFacturacion ejecucion = new EjecucionFacturacion();
+        ejecucion.setId(7L);
+        ejecucion.setParticiones(particiones);
+        when(ejecucionFacturacionService.iniciarOReanudar(eq(hoy), anyInt())).thenReturn(ejecucion);
+
+        List<ParticionEjecucion> pendientes = new ArrayList<>();
+        for (int i = 0; i < marcas.length; i++) {
+            ParticionEjecucion particion = new ParticionEjecucion();
+            particion.setId(100L + i);
+            particion.setParticion(i);
+            particion.setUltimoIdProcesado(marcas[i]);
+            pendientes.add(particion);
+        }
+        when(ejecucionFacturacionService.obtenerParticionesPendientes(7L)).thenReturn(pendientes);
+    }
+
+    // Simula un lote del keyset cuyas suscripciones siguen todas por renovar al bloquearlas
+    private void prepararLote(long ultimoId, int particion, int particiones, Suscripcion... suscripciones) {
+        List<Long> ids = Arrays.stream(suscripciones).map(Suscripcion::getId).toList();
+        when(suscripcionRepository.findIdsParaRenovar(eq(hoy), eq(ultimoId), eq(particion), eq(particiones),
+                any(Pageable.class))).thenReturn(ids);
+        if (!ids.isEmpty()) {
+            when(suscripcionRepository.findRenovablesParaActualizar(ids, hoy)).thenReturn(ids);
+            when(suscripcionRepository.findLoteParaRenovar(ids)).thenReturn(List.of(suscripciones));
+        }
+    }
+
+    private Suscripcion crearSuscripcion(long id) {
+        Usuario usuario = new Usuario();
+        Perfil perfil = new Perfil();
+        perfil.setPais("ES");
+        usuario.setPerfil(perfil);
+
+        Plan plan = new Plan();
+        plan.setPrecioMensual(new BigDecimal("10.00"));
+
+        Suscripcion suscripcion = new Suscripcion();
+        suscripcion.setId(id);
+        suscripcion.setUsuario(usuario);
+        suscripcion.setPlan(plan);
+        suscripcion.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+        suscripcion.setProximaRenovacion(hoy);
+        return suscripcion;
+    }
+
+    @Test
+    @DisplayName("Recorre los lotes por keyset hasta agotar las suscripciones")
+    void procesarPorLotes() {
+        prepararEjecucion(1, 0L);
+        Suscripcion s1 = crearSuscripcion(1L);
+        Suscripcion s2 = crearSuscripcion(2L);
+        Suscripcion s3 = crearSuscripcion(3L);
+
+        prepararLote(0L, 0, 1, s1, s2);
+        prepararLote(2L, 0, 1, s3);
+        prepararLote(3L, 0, 1);
+
+        RenovacionService.ResultadoRenovacion resultado = renovacionService.procesarRenovaciones(hoy);
+
+        assertAll(
+            () -> assertEquals(3, resultado.getRenovadas()),
+            () -> assertEquals(0, resultado.getFallidas()),
+            () -> assertEquals(2, resultado.getLotes()),
+            () -> assertEquals(hoy.plusMonths(1), s1.getProximaRenovacion())
+        );
+        verify(entityManager, times(3)).persist(any(Factura.class));
+        verify(entityManager, times(2)).clear();
+        verify(transactionManager, times(3)).commit(any());
+        verify(ejecucionFacturacionService).registrarLote(100L, 2L, 2, 0);
+        verify(ejecucionFacturacionService).registrarLote(100L, 3L, 1, 0);
+        verify(estadisticaFacturacionService, times(2)).registrarAltas(anyCollection());
+        verify(ejecucionFacturacionService).completarParticion(100L);
+        verify(ejecucionFacturacionService).finalizar(7L, EjecucionFacturacion.EstadoEjecucion.COMPLETADA);
+    }
+
+    @Test
+    @DisplayName("Una ejecución reanudada continúa desde la marca de agua de cada partición")
+    void reanudarDesdeMarcaDeAgua() {
+        prepararEjecucion(1, 2L);
+        Suscripcion s3 = crearSuscripcion(3L);
+
+        prepararLote(2L, 0, 1, s3);
+        prepararLote(3L, 0, 1);
+
+        RenovacionService.ResultadoRenovacion resultado = renovacionService.procesarRenovaciones(hoy);
+
+        assertEquals(1, resultado.getRenovadas());
+        assertEquals(7L, resultado.getEjecucionId());
+        verify(suscripcionRepository, never())
+            .findIdsParaRenovar(eq(hoy), eq(0L), anyInt(), anyInt(), any(Pageable.class));
+    }
+
+    @Test
+    @DisplayName("Si la ejecución falla queda registrada como FALLIDA para reanudarla")
+    void marcarEjecucionFallida() {
+        prepararEjecucion(1, 0L);
+        when(suscripcionRepository.findIdsParaRenovar(eq(hoy), eq(0L), eq(0), eq(1), any(Pageable.class)))
+            .thenThrow(new RuntimeException("conexión perdida"));
+
+        assertThrows(RuntimeException.class, () -> renovacionService.procesarRenovaciones(hoy));
+
+        verify(ejecucionFacturacionService).finalizar(7L, EjecucionFacturacion.EstadoEjecucion.FALLIDA);
+        verify(ejecucionFacturacionService, never()).completarParticion(anyLong());
+    }
+
+    @Test
+    @DisplayName("Un lote fallido se reintenta suscripción a suscripción")
+    void reintentarLoteFallido() {
+        prepararEjecucion(1, 0L);
+        Suscripcion s1 = crearSuscripcion(1L);
+        Suscripcion s2 = crearSuscripcion(2L);
+        s2.getPlan().setPrecioMensual(null);
+
+        prepararLote(0L, 0, 1, s1, s2);
+        prepararLote(2L, 0, 1);
+        when(suscripcionRepository.findRenovablesParaActualizar(List.of(1L), hoy)).thenReturn(List.of(1L));
+        when(suscripcionRepository.findRenovablesParaActualizar(List.of(2L), hoy)).thenReturn(List.of(2L));
+        when(suscripcionRepository.findById(1L)).thenReturn(Optional.of(crearSuscripcion(1L)));
+        when(suscripcionRepository.findById(2L)).thenReturn(Optional.of(s2));
+
+        RenovacionService.ResultadoRenovacion resultado = renovacionService.procesarRenovaciones(hoy);
+
+        assertEquals(1, resultado.getRenovadas());
+        assertEquals(1, resultado.getFallidas());
+        verify(ejecucionFacturacionService).registrarLote(100L, 1L, 1, 0);
+        verify(ejecucionFacturacionService).registrarLote(100L, 2L, 0, 1);
+        verify(estadisticaFacturacionService, times(1)).registrarAlta(any(Factura.class));
+    }
+
+    @Test
+    @DisplayName("Las suscripciones que ya no están por renovar al bloquear el lote se omiten sin factura")
+    void omitirSuscripcionesQueYaNoEstanPorRenovar() {
+        prepararEjecucion(1, 0L);
+        Suscripcion s1 = crearSuscripcion(1L);
+        Suscripcion s3 = crearSuscripcion(3L);
+
+        // La 2 se canceló entre la lectura de los ids y el bloqueo del lote
+        when(suscripcionRepository.findIdsParaRenovar(eq(hoy), eq(0L), eq(0), eq(1), any(Pageable.class)))
+            .thenReturn(List.of(1L, 2L, 3L));
+        when(suscripcionRepository.findRenovablesParaActualizar(List.of(1L, 2L, 3L), hoy))
+            .thenReturn(List.of(1L, 3L));
+        when(suscripcionRepository.findLoteParaRenovar(List.of(1L, 3L))).thenReturn(List.of(s1, s3));
+        prepararLote(3L, 0, 1);
+
+        RenovacionService.ResultadoRenovacion resultado = renovacionService.procesarRenovaciones(hoy);
+
+        assertAll(
+            () -> assertEquals(2, resultado.getRenovadas()),
+            () -> assertEquals(1, resultado.getOmitidas()),
+            () -> assertEquals(1, resultado.getLotes())
+        );
+        verify(entityManager, times(2)).persist(any(Factura.class));
+        verify(ejecucionFacturacionService).registrarLote(100L, 3L, 2, 0);
+    }
+
+    @Test
+    @DisplayName("Modo paralelo reparte en particiones disjuntas y agrega el resultado")
+    void procesarEnParalelo() {
+        prepararEjecucion(2, 0L, 0L);
+        prepararLote(0L, 0, 2, crearSuscripcion(2L), crearSuscripcion(4L));
+        prepararLote(4L, 0, 2);
+        prepararLote(0L, 1, 2, crearSuscripcion(1L));
+        prepararLote(1L, 1, 2);
+
+        RenovacionService.ResultadoRenovacion resultado = renovacionService.procesarRenovaciones(hoy, 2);
+
+        assertAll(
+            () -> assertEquals(3, resultado.getRenovadas()),
+            () -> assertEquals(0, resultado.getFallidas()),
+            () -> assertEquals(2, resultado.getLotes()),
+            () -> assertEquals(2, resultado.getParticiones())
+        );
+    }
+
+    @Test
+    @DisplayName("La siguiente renovación se calcula desde la fecha prevista")
+    void siguienteRenovacionDesdeFechaPrevista() {
+        Suscripcion suscripcion = crearSuscripcion(1L);
+        suscripcion.setProximaRenovacion(hoy.minusDays(3));
+
+        assertEquals(hoy.minusDays(3).plusMonths(1),
+            RenovacionService.calcularSiguienteRenovacion(suscripcion));
+    }
+}
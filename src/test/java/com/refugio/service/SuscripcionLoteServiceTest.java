@@ -0,0 +1,267 @@
+package com.refugio.service;
+
+import com.refugio.JPA.*;
+import com.refugio.config.AuditoriaEnBloque;
+import com.refugio.repository.FacturaRepository;
+import com.refugio.repository.PlanRepository;
+import com.refugio.repository.SuscripcionRepository;
+import com.refugio.repository.UsuarioRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.envers.AuditReader;
+import org.hibernate.envers.AuditReaderFactory;
+import org.hibernate.envers.query.AuditEntity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Test para SuscripcionLoteService - UPDATE masivo con auditoría en bloque (H2)
+@DataJpaTest
+@Import(SuscripcionLoteService.class)
+@TestPropertySource(properties = "refugio.actualizacion-masiva.tamano-lote=2")
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class SuscripcionLoteServiceTest {
+
+    @Autowired
+    private SuscripcionLoteService suscripcionLoteService;
+
+    @Autowired
+    private SuscripcionRepository suscripcionRepository;
+
+    @Autowired
+    private FacturaRepository facturaRepository;
+
+    @Autowired
+    private UsuarioRepository usuarioRepository;
+
+    @Autowired
+    private PlanRepository planRepository;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    private final LocalDate hoy = LocalDate.now();
+
+    private Usuario usuario;
+    private Plan plan;
+
+    @BeforeEach
+    void setUp() {
+        usuario = new Usuario();
+        usuario.setEmail("lote-" + System.nanoTime() + "@test.com");
+        usuario.setPasswordHash("hash");
+        usuario = usuarioRepository.save(usuario);
+
+        plan = DatosPrueba.plan(planRepository, Plan.TipoPlan.BASIC);
+    }
+
+    private Suscripcion crearSuscripcion(boolean renovacionAutomatica, LocalDate fechaFin) {
+        Suscripcion suscripcion = new Suscripcion();
+        suscripcion.setUsuario(usuario);
+        suscripcion.setPlan(plan);
+        suscripcion.setEstado(Suscripcion.EstadoSuscripcion.ACTIVA);
+        suscripcion.setFechaInicio(hoy.minusMonths(1));
+        suscripcion.setFechaFin(fechaFin);
+        suscripcion.setRenovacionAutomatica(renovacionAutomatica);
+        return suscripcionRepository.save(suscripcion);
+    }
+
+    @Test
+    @DisplayName("Expira por lotes y escribe una revisión de auditoría por lote")
+    void expirarSuscripcionesConAuditoria() {
+        Suscripcion s1 = crearSuscripcion(false, hoy.minusDays(1));
+        Suscripcion s2 = crearSuscripcion(false, hoy);
+        Suscripcion s3 = crearSuscripcion(false, hoy.minusDays(5));
+        Suscripcion vigente = crearSuscripcion(false, hoy.plusDays(3));
+        Suscripcion renovable = crearSuscripcion(true, hoy.minusDays(1));
+
+        SuscripcionLoteService.ResultadoActualizacion resultado = suscripcionLoteService.expirarSuscripciones(hoy);
+
+        assertTrue(resultado.getAfectadas() >= 3);
+        assertTrue(resultado.getLotes() >= 2);
+
+        for (Suscripcion s : List.of(s1, s2, s3)) {
+            Suscripcion actual = suscripcionRepository.findById(s.getId()).orElseThrow();
+            assertEquals(Suscripcion.EstadoSuscripcion.EXPIRADA, actual.getEstado());
+            assertEquals(hoy, actual.getFechaFin());
+        }
+        assertEquals(Suscripcion.EstadoSuscripcion.ACTIVA,
+                suscripcionRepository.findById(vigente.getId()).orElseThrow().getEstado());
+        assertEquals(Suscripcion.EstadoSuscripcion.ACTIVA,
+                suscripcionRepository.findById(renovable.getId()).orElseThrow().getEstado());
+
+        transactionTemplate.executeWithoutResult(status -> {
+            AuditReader auditReader = AuditReaderFactory.get(entityManager);
+            List<Number> revisiones = auditReader.getRevisions(Suscripcion.class, s1.getId());
+            assertEquals(2, revisiones.size());
+
+            Suscripcion auditada = auditReader.find(Suscripcion.class, s1.getId(), revisiones.get(1));
+            assertEquals(Suscripcion.EstadoSuscripcion.EXPIRADA, auditada.getEstado());
+            assertEquals(hoy, auditada.getFechaFin());
+            assertEquals(plan.getId(), auditada.getPlan().getId());
+            assertEquals(s1.getFechaInicio(), auditada.getFechaInicio());
+            // La revisión del lote queda registrada como cambio de suscripciones (REVCHANGES)
+            assertTrue(entityManager.find(RevisionAuditoria.class, revisiones.get(1).intValue())
+                    .getModifiedEntityNames().contains(Suscripcion.class.getName()));
+            // El INSERT en bloque marca como modificados el estado y la fecha de fin, no el plan
+            List<?> cambiosFechaFin = auditReader.createQuery()
+                    .forRevisionsOfEntity(Suscripcion.class, true, false)
+                    .add(AuditEntity.id().eq(s1.getId()))
+                    .add(AuditEntity.property("estado").hasChanged())
+                    .add(AuditEntity.property("fechaFin").hasChanged())
+                    .add(AuditEntity.property("plan").hasNotChanged())
+                    .getResultList();
+            assertEquals(1, cambiosFechaFin.size());
+        });
+    }
+
+    @Test
+    @DisplayName("Al expirar una suscripción que ya terminaba hoy solo se marca como modificado el estado")
+    void expirarSinCambioDeFechaFin() {
+        Suscripcion terminaHoy = crearSuscripcion(false, hoy);
+        Suscripcion terminaAntes = crearSuscripcion(false, hoy.minusDays(2));
+
+        suscripcionLoteService.expirarSuscripciones(hoy);
+
+        transactionTemplate.executeWithoutResult(status -> {
+            AuditReader auditReader = AuditReaderFactory.get(entityManager);
+            for (Suscripcion s : List.of(terminaHoy, terminaAntes)) {
+                Object[] expiracion = (Object[]) auditReader.createQuery()
+                        .forRevisionsOfEntityWithChanges(Suscripcion.class, false)
+                        .add(AuditEntity.id().eq(s.getId()))
+                        .add(AuditEntity.property("estado").eq(Suscripcion.EstadoSuscripcion.EXPIRADA))
+                        .getSingleResult();
+                @SuppressWarnings("unchecked")
+                Set<String> modificadas = (Set<String>) expiracion[3];
+                assertEquals(s == terminaHoy ? Set.of("estado") : Set.of("estado", "fechaFin"), modificadas);
+            }
+        });
+    }
+
+    @Test
+    @DisplayName("La auditoría en bloque rechaza marcar como modificada una propiedad sin indicador _MOD")
+    void auditarPropiedadSinIndicador() {
+        Suscripcion suscripcion = crearSuscripcion(false, hoy);
+
+        assertThrows(IllegalArgumentException.class, () -> transactionTemplate.executeWithoutResult(status ->
+                AuditoriaEnBloque.auditar(entityManager, Suscripcion.class, List.of(suscripcion.getId()),
+                        Set.of("estado", "inexistente"))));
+    }
+
+    @Test
+    @DisplayName("Un lote con ids que ya no están por expirar solo actualiza y audita los que siguen activos")
+    void expirarLoteConIdsSuperados() {
+        Suscripcion activa = crearSuscripcion(false, hoy.minusDays(1));
+        Suscripcion yaExpirada = crearSuscripcion(false, hoy.minusDays(3));
+        Suscripcion renovada = crearSuscripcion(false, hoy.minusDays(2));
+        // Cambios posteriores a la lectura de los ids del lote
+        yaExpirada.setEstado(Suscripcion.EstadoSuscripcion.EXPIRADA);
+        suscripcionRepository.save(yaExpirada);
+        renovada.setFechaFin(hoy.plusMonths(1));
+        suscripcionRepository.save(renovada);
+
+        Integer actualizadas = transactionTemplate.execute(status -> suscripcionLoteService.expirarLote(
+                List.of(activa.getId(), yaExpirada.getId(), renovada.getId()), hoy));
+
+        assertEquals(1, actualizadas);
+        assertEquals(Suscripcion.EstadoSuscripcion.ACTIVA,
+                suscripcionRepository.findById(renovada.getId()).orElseThrow().getEstado());
+        transactionTemplate.executeWithoutResult(status -> {
+            AuditReader auditReader = AuditReaderFactory.get(entityManager);
+            // Alta y expiración del lote
+            assertEquals(2, auditReader.getRevisions(Suscripcion.class, activa.getId()).size());
+            // Alta y cambio propio: el lote no les añade una revisión que no hizo
+            assertEquals(2, auditReader.getRevisions(Suscripcion.class, yaExpirada.getId()).size());
+            assertEquals(2, auditReader.getRevisions(Suscripcion.class, renovada.getId()).size());
+        });
+    }
+
+    private void crearFactura(Suscripcion suscripcion, LocalDate fechaEmision, Factura.EstadoFactura estado) {
+        Factura factura = new Factura();
+        factura.setSuscripcion(suscripcion);
+        factura.setFechaEmision(fechaEmision);
+        factura.setImporte(new BigDecimal("9.99"));
+        factura.setImporteImpuesto(new BigDecimal("2.10"));
+        factura.setImporteTotal(new BigDecimal("12.09"));
+        factura.setEstado(estado);
+        facturaRepository.save(factura);
+    }
+
+    @Test
+    @DisplayName("Marca impago solo las suscripciones activas con facturas emitidas vencidas")
+    void marcarImpagos() {
+        LocalDate limite = hoy.minusDays(30);
+
+        Suscripcion morosa = crearSuscripcion(true, null);
+        crearFactura(morosa, limite.minusDays(10), Factura.EstadoFactura.EMITIDA);
+        crearFactura(morosa, limite.minusDays(40), Factura.EstadoFactura.EMITIDA);
+
+        Suscripcion pagada = crearSuscripcion(true, null);
+        crearFactura(pagada, limite.minusDays(10), Factura.EstadoFactura.PAGADA);
+
+        Suscripcion reciente = crearSuscripcion(true, null);
+        crearFactura(reciente, limite.plusDays(1), Factura.EstadoFactura.EMITIDA);
+
+        SuscripcionLoteService.ResultadoActualizacion resultado = suscripcionLoteService.marcarImpagos(limite);
+
+        assertTrue(resultado.getAfectadas() >= 1);
+        assertEquals(Suscripcion.EstadoSuscripcion.IMPAGO,
+                suscripcionRepository.findById(morosa.getId()).orElseThrow().getEstado());
+        assertEquals(Suscripcion.EstadoSuscripcion.ACTIVA,
+                suscripcionRepository.findById(pagada.getId()).orElseThrow().getEstado());
+        assertEquals(Suscripcion.EstadoSuscripcion.ACTIVA,
+                suscripcionRepository.findById(reciente.getId()).orElseThrow().getEstado());
+    }
+
+    @Test
+    @DisplayName("Un lote de impagos con ids ya en IMPAGO o ya pagados solo actualiza y audita los morosos")
+    void marcarImpagosLoteConIdsSuperados() {
+        LocalDate limite = hoy.minusDays(30);
+        Suscripcion morosa = crearSuscripcion(true, null);
+        crearFactura(morosa, limite.minusDays(10), Factura.EstadoFactura.EMITIDA);
+        Suscripcion yaImpagada = crearSuscripcion(true, null);
+        crearFactura(yaImpagada, limite.minusDays(10), Factura.EstadoFactura.EMITIDA);
+        Suscripcion pagadaDespues = crearSuscripcion(true, null);
+        crearFactura(pagadaDespues, limite.minusDays(10), Factura.EstadoFactura.PAGADA);
+        // Cambio posterior a la lectura de los ids del lote
+        yaImpagada.setEstado(Suscripcion.EstadoSuscripcion.IMPAGO);
+        suscripcionRepository.save(yaImpagada);
+        List<Suscripcion> lote = List.of(morosa, yaImpagada, pagadaDespues);
+        List<Integer> antes = revisiones(lote);
+
+        Integer actualizadas = transactionTemplate.execute(status -> suscripcionLoteService.marcarImpagosLote(
+                List.of(morosa.getId(), yaImpagada.getId(), pagadaDespues.getId()), limite));
+
+        assertEquals(1, actualizadas);
+        assertEquals(Suscripcion.EstadoSuscripcion.ACTIVA,
+                suscripcionRepository.findById(pagadaDespues.getId()).orElseThrow().getEstado());
+        // Solo la morosa tiene una revisión más: las otras dos no reciben una de IMPAGO que el lote no hizo
+        List<Integer> despues = revisiones(lote);
+        assertEquals(List.of(antes.get(0) + 1, antes.get(1), antes.get(2)), despues);
+    }
+
+    private List<Integer> revisiones(List<Suscripcion> suscripciones) {
+        return transactionTemplate.execute(status -> {
+            AuditReader auditReader = AuditReaderFactory.get(entityManager);
+            return suscripciones.stream()
+                    .map(s -> auditReader.getRevisions(Suscripcion.class, s.getId()).size())
+                    .toList();
+        });
+    }
+}
@@ -1,7 +1,7 @@
 package com.refugio.service;
 
 import com.refugio.JPA.*;
-import com.refugio.repository.FacturaRepository;
+import com.refugio.repository.SuscripcionListado;
 import com.refugio.repository.SuscripcionRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
@@ -10,15 +10,18 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Pageable;
 
 import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 // Test para SuscripcionService - ciclo de vida de suscripciones
@@ -28,9 +31,6 @@ class SuscripcionServiceTest {
     @Mock
     private SuscripcionRepository suscripcionRepository;
 
-    @Mock
-    private FacturaRepository facturaRepository;
-
     @Mock
     private FacturaService facturaService;
 
@@ -195,6 +195,24 @@ class SuscripcionServiceTest {
         assertEquals(Plan.TipoPlan.PREMIUM, resultado.getPlan().getTipo());
     }
 
+    // Tests de cambio de titular
+    @Test
+    @DisplayName("Transferir suscripción reasigna sus facturas al nuevo titular")
+    void transferirSuscripcion() {
+        Usuario nuevoTitular = new Usuario();
+        nuevoTitular.setId(2L);
+        nuevoTitular.setEmail("nuevo@test.com");
+
+        when(suscripcionRepository.findById(1L)).thenReturn(Optional.of(suscripcion));
+        when(suscripcionRepository.save(any(Suscripcion.class)))
+            .thenAnswer(inv -> inv.getArgument(0));
+
+        Suscripcion resultado = suscripcionService.transferirSuscripcion(1L, nuevoTitular);
+
+        assertEquals(2L, resultado.getUsuario().getId());
+        verify(facturaService).reasignarUsuario(1L, 2L);
+    }
+
     // Tests de renovación
     @Test
     @DisplayName("Renovar suscripción con renovación automática")
@@ -274,5 +292,42 @@ class SuscripcionServiceTest {
         assertThrows(RuntimeException.class,
             () -> suscripcionService.obtenerSuscripcion(999L));
     }
-}
 
+    @Test
+    @DisplayName("Contar por estado rellena con 0 los estados sin suscripciones")
+    void contarPorEstado() {
+        when(suscripcionRepository.contarPorEstado()).thenReturn(List.<Object[]>of(
+            new Object[]{Suscripcion.EstadoSuscripcion.ACTIVA, 5L},
+            new Object[]{Suscripcion.EstadoSuscripcion.IMPAGO, 2L}));
+
+        Map<Suscripcion.EstadoSuscripcion, Long> conteo = suscripcionService.contarPorEstado();
+
+        assertEquals(Suscripcion.EstadoSuscripcion.values().length, conteo.size());
+        assertEquals(5L, conteo.get(Suscripcion.EstadoSuscripcion.ACTIVA));
+        assertEquals(2L, conteo.get(Suscripcion.EstadoSuscripcion.IMPAGO));
+        assertEquals(0L, conteo.get(Suscripcion.EstadoSuscripcion.CANCELADA));
+    }
+
+    @Test
+    @DisplayName("Paginación de suscripciones por id con cursores anterior y siguiente")
+    void paginaSuscripciones() {
+        SuscripcionListado s7 = filaListado(7L);
+        SuscripcionListado s6 = filaListado(6L);
+        SuscripcionListado s5 = filaListado(5L);
+        when(suscripcionRepository.findPaginaDespuesDe(eq(8L), any(Pageable.class)))
+            .thenReturn(List.of(s7, s6, s5));
+
+        PaginaCursor<SuscripcionListado> pagina = suscripcionService.obtenerPaginaSuscripciones("8", null, 2);
+
+        assertAll(
+            () -> assertEquals(List.of(s7, s6), pagina.getElementos()),
+            () -> assertEquals("7", pagina.getAnterior()),
+            () -> assertEquals("6", pagina.getSiguiente())
+        );
+    }
+
+    private SuscripcionListado filaListado(long id) {
+        return new SuscripcionListado(id, "test@test.com", "Premium", new BigDecimal("9.99"),
+                Suscripcion.EstadoSuscripcion.ACTIVA, LocalDate.now(), LocalDate.now().plusMonths(1), true);
+    }
+}